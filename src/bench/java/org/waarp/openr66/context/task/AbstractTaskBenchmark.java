@@ -0,0 +1,87 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.database.data.DbTaskRunnerBenchmark;
+
+/**
+ * Benchmark of AbstractTask.getReplacedValue, called for each task argument of each transfer,
+ * with a typical argument using most of the substitution keywords.<br>
+ * <br>
+ * Runs without database (the runner lives in the No Db cache).
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AbstractTaskBenchmark {
+    private static final String ARGUMENT = "#INPATH#/#DATE#_#HOUR#_#ORIGINALFILENAME# "
+            + "#TRUEFULLPATH# #FILESIZE# #RULE# #TRANSFERID# #REQUESTERHOST# #REQUESTEDHOST# "
+            + "#REMOTEHOST# #LOCALHOST# #BLOCKSIZE# #RANKTRANSFER# #OUTPATH# #WORKPATH# #ARCHPATH#";
+
+    private static final Object[] ARGUMENT_FORMAT = new Object[] { "Some file information" };
+
+    /**
+     * Task without action giving access to getReplacedValue
+     */
+    private static class ReplaceTask extends AbstractTask {
+        ReplaceTask(R66Session session) {
+            super(TaskType.LOG, 0, ARGUMENT, "", session);
+        }
+
+        @Override
+        public void run() {
+        }
+
+        String replace() {
+            return getReplacedValue(argRule, ARGUMENT_FORMAT);
+        }
+    }
+
+    private ReplaceTask task;
+
+    @Setup
+    public void setup() throws WaarpDatabaseException {
+        R66Session session = new R66Session();
+        session.setNoSessionRunner(DbTaskRunnerBenchmark.createRunner(), null);
+        task = new ReplaceTask(session);
+    }
+
+    @Benchmark
+    public String getReplacedValue() {
+        return task.replace();
+    }
+}
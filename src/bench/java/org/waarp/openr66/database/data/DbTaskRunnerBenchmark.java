@@ -0,0 +1,104 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolBusinessException;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Benchmark of the export of one DbTaskRunner as Json (getJson) and as XML (asXML), as done by
+ * the Monitoring, the REST interface and the log export.<br>
+ * <br>
+ * Runs without database (the runner lives in the No Db cache).
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DbTaskRunnerBenchmark {
+    private DbTaskRunner runner;
+
+    /**
+     * Create a sending DbTaskRunner from hosta to hostb without database, with the in, out, work
+     * and arch directories under a temporary base directory
+     * 
+     * @return the DbTaskRunner
+     * @throws WaarpDatabaseException
+     */
+    public static DbTaskRunner createRunner() throws WaarpDatabaseException {
+        File base = new File(System.getProperty("java.io.tmpdir"), "r66benchmark");
+        for (String sub : new String[] { "in", "out", "work", "arch" }) {
+            new File(base, sub).mkdirs();
+        }
+        Configuration.configuration.setBaseDirectory(base.getAbsolutePath().replace('\\', '/'));
+        Configuration.configuration.setInPath("/in");
+        Configuration.configuration.setOutPath("/out");
+        Configuration.configuration.setWorkingPath("/work");
+        Configuration.configuration.setArchivePath("/arch");
+        Configuration.configuration.setHOST_ID("hosta");
+        new DbHostAuth(null, "hosta", "127.0.0.1", 6666, false, null, false, false).insert();
+        new DbHostAuth(null, "hostb", "127.0.0.1", 6676, false, null, false, false).insert();
+        DbRule rule = new DbRule(null, "rule_benchmark", null,
+                RequestPacket.TRANSFERMODE.SENDMODE.ordinal(), null, null, null, null,
+                null, null, null, null, null, null);
+        rule.insert();
+        RequestPacket request = new RequestPacket(rule.getIdRule(),
+                RequestPacket.TRANSFERMODE.SENDMODE.ordinal(), "file_to_transfer.dat", 65536, 0,
+                DbConstant.ILLEGALVALUE, "Some file information", 1048576,
+                PartnerConfiguration.BAR_SEPARATOR_FIELD);
+        return new DbTaskRunner(null, rule, true, request, "hostb", null);
+    }
+
+    @Setup
+    public void setup() throws WaarpDatabaseException {
+        runner = createRunner();
+    }
+
+    @Benchmark
+    public ObjectNode getJson() {
+        return runner.getJson();
+    }
+
+    @Benchmark
+    public String asXML() throws OpenR66ProtocolBusinessException {
+        return runner.asXML();
+    }
+}
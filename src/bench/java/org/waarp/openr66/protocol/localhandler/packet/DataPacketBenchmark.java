@@ -0,0 +1,87 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+
+/**
+ * Benchmark of the check of the block digest of one 64 KB DataPacket (DataPacket.isKeyValid) for
+ * each DigestAlgo.<br>
+ * <br>
+ * Throughput is given in packets/s (multiply by 64 KB for bytes/s).
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DataPacketBenchmark {
+    private static final int BLOCKSIZE = 0x10000;
+
+    /**
+     * All DigestAlgo values
+     */
+    @Param
+    private DigestAlgo algo;
+
+    private DataPacket packet;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = new byte[BLOCKSIZE];
+        for (int i = 0; i < BLOCKSIZE; i++) {
+            bytes[i] = (byte) i;
+        }
+        ByteBuf data = Unpooled.directBuffer(BLOCKSIZE);
+        data.writeBytes(bytes);
+        ByteBuf key = Unpooled.wrappedBuffer(FilesystemBasedDigest.getHash(data, algo));
+        packet = new DataPacket(1, data, key);
+    }
+
+    @TearDown
+    public void tearDown() {
+        packet.clear();
+    }
+
+    @Benchmark
+    public boolean isKeyValid() {
+        return packet.isKeyValid(algo);
+    }
+}
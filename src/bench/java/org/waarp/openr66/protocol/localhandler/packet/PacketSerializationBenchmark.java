@@ -0,0 +1,117 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.packet.json.TransferRequestJsonPacket;
+
+/**
+ * Benchmark of the serialization (to the local packet buffer) and of the deserialization of a
+ * RequestPacket and of a JsonCommandPacket holding a TransferRequestJsonPacket.<br>
+ * <br>
+ * Throughput is given in packets/s.
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PacketSerializationBenchmark {
+    private static final String FILENAME = "/data/out/benchmark/file_to_transfer.dat";
+
+    private TransferRequestJsonPacket json;
+
+    private ByteBuf requestBuffer;
+
+    private ByteBuf jsonBuffer;
+
+    private RequestPacket newRequestPacket() {
+        return new RequestPacket("rule_benchmark", RequestPacket.TRANSFERMODE.SENDMODE.ordinal(),
+                FILENAME, 65536, 0, DbConstant.ILLEGALVALUE, "Some file information", 1048576,
+                PartnerConfiguration.BAR_SEPARATOR_FIELD);
+    }
+
+    @Setup
+    public void setup() throws OpenR66ProtocolPacketException {
+        json = new TransferRequestJsonPacket();
+        json.setRequested("hostb");
+        json.setRulename("rule_benchmark");
+        json.setMode(RequestPacket.TRANSFERMODE.SENDMODE.ordinal());
+        json.setFilename(FILENAME);
+        json.setBlocksize(65536);
+        json.setFileInformation("Some file information");
+        json.setOriginalSize(1048576);
+        json.setRequestUserPacket();
+        requestBuffer = newRequestPacket().getLocalPacket(null);
+        jsonBuffer = new JsonCommandPacket(json, LocalPacketFactory.REQUESTUSERPACKET).getLocalPacket(null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestBuffer.release();
+        jsonBuffer.release();
+    }
+
+    @Benchmark
+    public int requestEncode() throws OpenR66ProtocolPacketException {
+        ByteBuf buf = newRequestPacket().getLocalPacket(null);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public AbstractLocalPacket requestDecode() throws OpenR66ProtocolPacketException {
+        return LocalPacketCodec.decodeNetworkPacket(requestBuffer.duplicate());
+    }
+
+    @Benchmark
+    public int jsonCommandEncode() throws OpenR66ProtocolPacketException {
+        ByteBuf buf = new JsonCommandPacket(json, LocalPacketFactory.REQUESTUSERPACKET).getLocalPacket(null);
+        int size = buf.readableBytes();
+        buf.release();
+        return size;
+    }
+
+    @Benchmark
+    public Object jsonCommandDecode() throws OpenR66ProtocolPacketException {
+        JsonCommandPacket packet = (JsonCommandPacket) LocalPacketCodec.decodeNetworkPacket(jsonBuffer
+                .duplicate());
+        return packet.getJsonRequest();
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketCodec;
+
+/**
+ * Benchmark of the decoding of DataPackets: NetworkPacketDecoder (network frame to NetworkPacket)
+ * and LocalPacketCodec.decodeNetworkPacket (NetworkPacket buffer to DataPacket).<br>
+ * <br>
+ * Throughput is given in packets/s.
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NetworkPacketDecoderBenchmark {
+    @Param({ "8192", "65536" })
+    private int blocksize;
+
+    private ByteBuf frame;
+
+    private ByteBuf localFrame;
+
+    private EmbeddedChannel channel;
+
+    @Setup
+    public void setup() throws OpenR66ProtocolPacketException {
+        byte[] bytes = new byte[blocksize];
+        for (int i = 0; i < blocksize; i++) {
+            bytes[i] = (byte) i;
+        }
+        DataPacket packet = new DataPacket(1, Unpooled.wrappedBuffer(bytes), null);
+        NetworkPacket networkPacket = new NetworkPacket(1, 2, packet, null);
+        ByteBuf encoded = networkPacket.getNetworkPacket();
+        frame = encoded.copy();
+        encoded.release();
+        // Local part of the frame: after length, localId, remoteId and code
+        localFrame = frame.slice(13, frame.readableBytes() - 13);
+        channel = new EmbeddedChannel(new NetworkPacketDecoder());
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+        frame.release();
+    }
+
+    @Benchmark
+    public int networkDecode() {
+        channel.writeInbound(frame.retainedDuplicate());
+        NetworkPacket packet = (NetworkPacket) channel.readInbound();
+        int size = packet.getBuffer().readableBytes();
+        packet.clear();
+        return size;
+    }
+
+    @Benchmark
+    public int localDecode() throws OpenR66ProtocolPacketException {
+        AbstractLocalPacket packet = LocalPacketCodec.decodeNetworkPacket(localFrame.duplicate());
+        int rank = ((DataPacket) packet).getPacketRank();
+        packet.clear();
+        return rank;
+    }
+}
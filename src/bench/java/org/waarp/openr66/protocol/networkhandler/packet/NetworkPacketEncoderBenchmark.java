@@ -0,0 +1,118 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+
+/**
+ * Benchmark of the encoding of 64 KB DataPackets: copy into a new buffer (previous
+ * ByteToMessageCodec behavior) versus forwarding the composite buffer (NetworkPacketEncoder).<br>
+ * <br>
+ * Throughput is given in packets/s (multiply by 64 KB for bytes/s). Use the "-prof gc" option (or
+ * run the main) to get the allocation rate per operation.
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class NetworkPacketEncoderBenchmark {
+    private static final int BLOCKSIZE = 0x10000;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+    private ByteBuf data;
+
+    private int rank = 0;
+
+    @Setup
+    public void setup() {
+        byte[] bytes = new byte[BLOCKSIZE];
+        for (int i = 0; i < BLOCKSIZE; i++) {
+            bytes[i] = (byte) i;
+        }
+        data = Unpooled.directBuffer(BLOCKSIZE);
+        data.writeBytes(bytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        data.release();
+    }
+
+    private NetworkPacket newNetworkPacket() throws OpenR66ProtocolPacketException {
+        // The packet takes ownership of the data, as when sending a block
+        DataPacket packet = new DataPacket(rank++, data.retainedDuplicate(), null);
+        return new NetworkPacket(1, 2, packet, null);
+    }
+
+    @Benchmark
+    public int copyEncode() throws OpenR66ProtocolPacketException {
+        NetworkPacket packet = newNetworkPacket();
+        ByteBuf finalBuf = packet.getNetworkPacket();
+        ByteBuf out = alloc.ioBuffer(finalBuf.readableBytes());
+        out.writeBytes(finalBuf);
+        finalBuf.release();
+        int size = out.readableBytes();
+        out.release();
+        return size;
+    }
+
+    @Benchmark
+    public int compositeEncode() throws OpenR66ProtocolPacketException {
+        NetworkPacket packet = newNetworkPacket();
+        ByteBuf out = packet.getNetworkPacket(alloc);
+        int size = out.readableBytes();
+        out.release();
+        return size;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(NetworkPacketEncoderBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(opt).run();
+    }
+}
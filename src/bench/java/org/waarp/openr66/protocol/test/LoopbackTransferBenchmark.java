@@ -0,0 +1,236 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.common.crypto.Des;
+import org.waarp.common.logging.WaarpLogLevel;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.client.DirectTransfer;
+import org.waarp.openr66.configuration.FileBasedConfiguration;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.model.DbModelH2;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.server.R66Server;
+import org.waarp.openr66.server.ServerInitDatabase;
+
+/**
+ * End to end benchmark: the server sends a file to itself through the network (loopback) with a
+ * DirectTransfer, using an embedded H2 database.<br>
+ * <br>
+ * By default, the server runs in a temporary directory with a generated configuration and an in
+ * memory H2 database, initialized as ServerInitDatabase does (the server itself as partner and the
+ * "loopback" sending rule). Another server may be used with -Dopenr66.bench.config=server
+ * configuration file (dbdriver h2), its database being already initialized with the server itself
+ * as partner and the sending rule given by -Dopenr66.bench.rule (default "loopback").<br>
+ * <br>
+ * Throughput is given in transfers/s.
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoopbackTransferBenchmark {
+    public static final String CONFIG_PROPERTY = "openr66.bench.config";
+
+    public static final String RULE_PROPERTY = "openr66.bench.rule";
+
+    @Param({ "1024", "1048576" })
+    private int filesize;
+
+    private String rule;
+
+    private String filename;
+
+    private File file;
+
+    /**
+     * Temporary home of the server (null if an external configuration is used)
+     */
+    private File home;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(WaarpLogLevel.WARN));
+        String config = System.getProperty(CONFIG_PROPERTY);
+        if (config == null || config.isEmpty()) {
+            config = bootstrap();
+        }
+        if (!R66Server.initialize(config)) {
+            throw new IllegalStateException("Cannot start the server with " + config);
+        }
+        if (!DbConstant.admin.isActive()
+                || !(DbConstant.admin.getSession().getAdmin().getDbModel() instanceof DbModelH2)) {
+            throw new IllegalStateException("An embedded H2 database is expected");
+        }
+        rule = System.getProperty(RULE_PROPERTY, "loopback");
+        // file to send in the out directory
+        filename = "loopback_" + filesize;
+        file = new File(Configuration.configuration.getBaseDirectory() +
+                Configuration.configuration.getOutPath(), filename);
+        byte[] block = new byte[Math.min(filesize, 65536)];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int written = 0; written < filesize; written += block.length) {
+                out.write(block, 0, Math.min(block.length, filesize - written));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Create a temporary server home with its configuration, and initialize its in memory database
+     * 
+     * @return the server configuration file
+     * @throws Exception
+     */
+    private String bootstrap() throws Exception {
+        home = File.createTempFile("r66bench", "");
+        if (!home.delete() || !home.mkdir()) {
+            throw new IOException("Cannot create the server home " + home);
+        }
+        File conf = new File(home, "conf");
+        String[] dirs = { "conf", "in", "out", "arch", "work", "httpadmin" };
+        for (String dir : dirs) {
+            if (!new File(home, dir).mkdir()) {
+                throw new IOException("Cannot create the directory " + dir + " in " + home);
+            }
+        }
+        Des des = new Des();
+        des.generateKey();
+        File key = new File(conf, "bench.des");
+        des.saveSecretKey(key);
+        String password = des.cryptToHex("loopback");
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        File authent = new File(conf, "authent.xml");
+        write(authent, "<authent><entry><hostid>bench</hostid><address>127.0.0.1</address><port>"
+                + port + "</port><isssl>False</isssl><key>" + password
+                + "</key><admin>True</admin></entry></authent>");
+        write(new File(conf, "loopback.rule.xml"),
+                "<rule><idrule>loopback</idrule><hostids/><mode>1</mode></rule>");
+        File config = new File(conf, "server.xml");
+        write(config, "<config><identity><hostid>bench</hostid><cryptokey>"
+                + key.getAbsolutePath() + "</cryptokey><authentfile>"
+                + authent.getAbsolutePath() + "</authentfile></identity>"
+                + "<server><serveradmin>admin</serveradmin><serverpasswd>" + password
+                + "</serverpasswd><usenossl>True</usenossl><usessl>False</usessl><httpadmin>"
+                + new File(home, "httpadmin").getAbsolutePath() + "</httpadmin></server>"
+                + "<network><serverport>" + port + "</serverport><serverhttpport>0"
+                + "</serverhttpport><serverhttpsport>0</serverhttpsport></network>"
+                + "<directory><serverhome>" + home.getAbsolutePath() + "</serverhome>"
+                + "<in>in</in><out>out</out><arch>arch</arch><work>work</work><conf>conf</conf>"
+                + "</directory><db><dbdriver>h2</dbdriver><dbserver>jdbc:h2:mem:r66bench"
+                + port + ";DB_CLOSE_DELAY=-1;MODE=Oracle</dbserver><dbuser>waarp</dbuser>"
+                + "<dbpasswd>waarp</dbpasswd></db></config>");
+        // as ServerInitDatabase -initdb -dir conf -auth authent.xml
+        if (!FileBasedConfiguration.setConfigurationInitDatabase(Configuration.configuration,
+                config.getAbsolutePath())) {
+            throw new IllegalStateException("Cannot load the generated configuration " + config);
+        }
+        ServerInitDatabase.initdb();
+        ServerInitDatabase.upgradedb();
+        ServerInitDatabase.loadRules(conf);
+        ServerInitDatabase.loadHostAuth(authent.getAbsolutePath());
+        // the in memory database is kept until the end of the JVM
+        DbConstant.admin.close();
+        return config.getAbsolutePath();
+    }
+
+    private static void write(File file, String xml) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write(xml);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        Configuration.configuration.serverStop();
+        if (DbConstant.admin != null) {
+            DbConstant.admin.close();
+        }
+        if (home != null) {
+            delete(home);
+        }
+    }
+
+    @Benchmark
+    public boolean transfer() {
+        R66Future future = new R66Future(true);
+        DirectTransfer transfer = new DirectTransfer(future, Configuration.configuration.getHOST_ID(),
+                filename, rule, "loopback benchmark", false, Configuration.configuration.getBLOCKSIZE(),
+                DbConstant.ILLEGALVALUE,
+                Configuration.configuration.getInternalRunner().getNetworkTransaction());
+        transfer.run();
+        future.awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            throw new IllegalStateException("Transfer in error", future.getCause());
+        }
+        return true;
+    }
+}
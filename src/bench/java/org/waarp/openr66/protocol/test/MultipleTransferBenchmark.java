@@ -0,0 +1,150 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.waarp.common.logging.WaarpLogLevel;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.openr66.client.MultipleDirectTransfer;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.utils.R66Future;
+import org.waarp.openr66.server.R66Server;
+
+/**
+ * End to end benchmark: the server sends many small files to several partners through the network
+ * (loopback) with a MultipleDirectTransfer, sequentially or in parallel.<br>
+ * <br>
+ * Needs -Dopenr66.bench.config=server configuration file, the database being initialized with
+ * ServerInitDatabase (host authentications including all the partners, and the sending rule given
+ * by -Dopenr66.bench.rule, default "loopback").<br>
+ * The partners are given by -Dopenr66.bench.hosts=host1,host2,... (default the server itself),
+ * each of them being another R66 server started beforehand on this host with its own port.<br>
+ * <br>
+ * Time is given in ms for all the files sent to all the partners.
+ * 
+ * @author Frederic Bregier
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultipleTransferBenchmark {
+    public static final String HOSTS_PROPERTY = "openr66.bench.hosts";
+
+    private static final int FILESIZE = 1024;
+
+    @Param({ "1", "4", "16" })
+    private int parallel;
+
+    @Param({ "100" })
+    private int nbfiles;
+
+    private String rule;
+
+    private String hosts;
+
+    private String filenames;
+
+    private File[] files;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        String config = System.getProperty(LoopbackTransferBenchmark.CONFIG_PROPERTY);
+        if (config == null || config.isEmpty()) {
+            throw new IllegalStateException("Missing -D" + LoopbackTransferBenchmark.CONFIG_PROPERTY
+                    + "=server configuration file");
+        }
+        WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(WaarpLogLevel.WARN));
+        if (!R66Server.initialize(config)) {
+            throw new IllegalStateException("Cannot start the server with " + config);
+        }
+        rule = System.getProperty(LoopbackTransferBenchmark.RULE_PROPERTY, "loopback");
+        hosts = System.getProperty(HOSTS_PROPERTY, Configuration.configuration.getHOST_ID());
+        // small files to send in the out directory
+        byte[] block = new byte[FILESIZE];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) i;
+        }
+        files = new File[nbfiles];
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < nbfiles; i++) {
+            String filename = "multiple_" + i;
+            files[i] = new File(Configuration.configuration.getBaseDirectory() +
+                    Configuration.configuration.getOutPath(), filename);
+            FileOutputStream out = new FileOutputStream(files[i]);
+            try {
+                out.write(block);
+            } finally {
+                out.close();
+            }
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(filename);
+        }
+        filenames = builder.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+        Configuration.configuration.serverStop();
+        if (DbConstant.admin != null) {
+            DbConstant.admin.close();
+        }
+    }
+
+    @Benchmark
+    public int transfer() {
+        R66Future future = new R66Future(true);
+        MultipleDirectTransfer transfer = new MultipleDirectTransfer(future, hosts, filenames, rule,
+                "multiple benchmark", false, Configuration.configuration.getBLOCKSIZE(),
+                DbConstant.ILLEGALVALUE,
+                Configuration.configuration.getInternalRunner().getNetworkTransaction());
+        transfer.setParallel(parallel, 0);
+        transfer.run();
+        future.awaitUninterruptibly();
+        if (!future.isSuccess()) {
+            throw new IllegalStateException("Transfer in error", future.getCause());
+        }
+        return transfer.getDoneMultiple();
+    }
+}
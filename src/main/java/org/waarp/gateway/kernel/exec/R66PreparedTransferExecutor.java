@@ -30,6 +30,7 @@ import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.future.WaarpFuture;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbRule;
 import org.waarp.openr66.database.data.DbTaskRunner;
@@ -226,6 +227,7 @@ public class R66PreparedTransferExecutor extends AbstractExecutor {
                 throw new Reply421Exception("Cannot get new task\n    " + message);
             }
         }
+        InternalRunner.submitted(taskRunner);
         logger.debug("R66PreparedTransfer prepared: {}", request);
         future.setSuccess();
     }
@@ -24,6 +24,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.waarp.common.command.exception.CommandAbstractException;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLogger;
@@ -84,6 +85,8 @@ public abstract class AbstractTransfer implements Runnable {
 
     protected boolean normalInfoAsWarn = true;
 
+    protected DbSession dbSession = null;
+
     /**
      * @param clasz
      *            Class of Client Transfer
@@ -117,15 +120,48 @@ public abstract class AbstractTransfer implements Runnable {
         this.startTime = timestart;
     }
 
+    /**
+     * 
+     * @param dbSession
+     *            the database session to use instead of the shared one of the client (such as one
+     *            per thread when several transfers run at once)
+     */
+    public void setDbSession(DbSession dbSession) {
+        this.dbSession = dbSession;
+    }
+
+    /**
+     * 
+     * @return the database session to use
+     */
+    protected DbSession getDbSession() {
+        if (dbSession != null) {
+            return dbSession;
+        }
+        return DbConstant.admin.getSession();
+    }
+
     /**
      * Initiate the Request and return a potential DbTaskRunner
      * 
      * @return null if an error occurs or a DbTaskRunner
      */
     protected DbTaskRunner initRequest() {
+        return initRequest(true);
+    }
+
+    /**
+     * Initiate the Request and return a potential DbTaskRunner
+     * 
+     * @param create
+     *            if False, a new DbTaskRunner is not inserted in the database (see
+     *            DbTaskRunner.insertAll)
+     * @return null if an error occurs or a DbTaskRunner
+     */
+    protected DbTaskRunner initRequest(boolean create) {
         DbRule rule;
         try {
-            rule = new DbRule(DbConstant.admin.getSession(), rulename);
+            rule = new DbRule(getDbSession(), rulename);
         } catch (WaarpDatabaseException e) {
             logger.error("Cannot get Rule: " + rulename, e);
             future.setResult(new R66Result(new OpenR66DatabaseGlobalException(e), null, true,
@@ -140,7 +176,7 @@ public abstract class AbstractTransfer implements Runnable {
         DbTaskRunner taskRunner = null;
         if (id != DbConstant.ILLEGALVALUE) {
             try {
-                taskRunner = new DbTaskRunner(DbConstant.admin.getSession(), id,
+                taskRunner = new DbTaskRunner(getDbSession(), id,
                         remoteHost);
             } catch (WaarpDatabaseException e) {
                 logger.error("Cannot get task", e);
@@ -187,8 +223,8 @@ public abstract class AbstractTransfer implements Runnable {
             boolean isRetrieve = !RequestPacket.isRecvMode(request.getMode());
             try {
                 taskRunner =
-                        new DbTaskRunner(DbConstant.admin.getSession(), rule, isRetrieve, request,
-                                remoteHost, startTime);
+                        new DbTaskRunner(getDbSession(), rule, isRetrieve, request,
+                                remoteHost, startTime, create);
             } catch (WaarpDatabaseException e) {
                 logger.error("Cannot get task", e);
                 future.setResult(new R66Result(new OpenR66DatabaseGlobalException(e), null, true,
@@ -212,6 +248,8 @@ public abstract class AbstractTransfer implements Runnable {
     static protected long idt = DbConstant.ILLEGALVALUE;
     static protected Timestamp ttimestart = null;
     static protected boolean snormalInfoAsWarn = true;
+    static protected int sparallel = 1;
+    static protected int sparallelhost = 0;
 
     /**
      * Parse the parameter and set current values
@@ -272,6 +310,12 @@ public abstract class AbstractTransfer implements Runnable {
                         logger.error(Messages.getString("AbstractTransfer.1") + block); //$NON-NLS-1$
                         return false;
                     }
+                } else if (args[i].equalsIgnoreCase("-parallel")) {
+                    i++;
+                    sparallel = Integer.parseInt(args[i]);
+                } else if (args[i].equalsIgnoreCase("-parallelhost")) {
+                    i++;
+                    sparallelhost = Integer.parseInt(args[i]);
                 } else if (args[i].equalsIgnoreCase("-nolog")) {
                     nolog = true;
                 } else if (args[i].equalsIgnoreCase("-id")) {
@@ -308,7 +352,7 @@ public abstract class AbstractTransfer implements Runnable {
             return true;
         } else if (idt != DbConstant.ILLEGALVALUE && rhost != null) {
             try {
-                DbTaskRunner runner = new DbTaskRunner(DbConstant.admin.getSession(), idt,
+                DbTaskRunner runner = new DbTaskRunner(getDbSession(), idt,
                         rhost);
                 rule = runner.getRuleId();
                 localFilename = runner.getOriginalFilename();
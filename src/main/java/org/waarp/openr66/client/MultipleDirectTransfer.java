@@ -19,12 +19,22 @@ package org.waarp.openr66.client;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.waarp.common.command.exception.CommandAbstractException;
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.openr66.client.utils.OutputFormat;
 import org.waarp.openr66.client.utils.OutputFormat.FIELDS;
 import org.waarp.openr66.context.ErrorCode;
@@ -54,6 +64,9 @@ import org.waarp.openr66.protocol.utils.R66Future;
  * -to host2 -file file2<br>
  * -to host3 -file file1<br>
  * -to host3 -file file2<br>
+ * <br>
+ * With -parallel n (and optionally -parallelhost m), up to n of those transfers are run at once,
+ * and at most m of them with the same host.<br>
  * 
  * @author Frederic Bregier
  * 
@@ -62,6 +75,16 @@ public class MultipleDirectTransfer extends DirectTransfer {
     private int errorMultiple = 0;
     private int doneMultiple = 0;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
+    private volatile boolean inError = false;
+    private volatile R66Result resultError = null;
+    /**
+     * Number of transfers run at once
+     */
+    private int parallel = 1;
+    /**
+     * Maximum number of transfers run at once with the same partner (0 for no limit)
+     */
+    private int parallelHost = 0;
 
     public MultipleDirectTransfer(R66Future future, String remoteHost,
             String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
@@ -136,12 +159,96 @@ public class MultipleDirectTransfer extends DirectTransfer {
         return files;
     }
 
+    /**
+     * Set the parallel mode: the transfers are then run by a pool of threads instead of one after
+     * the other. Each partner has its own queue of files, consumed by at most parallelHost of those
+     * threads, all sharing the same network connection to this partner.
+     * 
+     * @param parallel
+     *            number of transfers run at once (1 meaning one after the other)
+     * @param parallelHost
+     *            maximum number of transfers run at once with the same partner (0 meaning no
+     *            other limit than parallel)
+     */
+    public void setParallel(int parallel, int parallelHost) {
+        this.parallel = parallel < 1 ? 1 : parallel;
+        this.parallelHost = parallelHost < 0 ? 0 : parallelHost;
+    }
+
+    /**
+     * Resolve the files to transfer with each partner. In receive mode, the remote listings are
+     * asked to all partners at once if parallel is more than 1.
+     * 
+     * @param dbrule
+     * @param localfilenames
+     * @param rhosts
+     * @param networkTransaction
+     * @param parallel
+     * @return the files to transfer by partner, in the order of the partners
+     */
+    public static Map<String, List<String>> getFilesByHost(final DbRule dbrule,
+            final String[] localfilenames, String[] rhosts,
+            final NetworkTransaction networkTransaction, int parallel) {
+        final Map<String, List<String>> filesByHost = new LinkedHashMap<String, List<String>>();
+        List<String> localFiles = null;
+        if (dbrule.isSendMode()) {
+            localFiles = getLocalFiles(dbrule, localfilenames);
+        }
+        List<String> hosts = new ArrayList<String>();
+        for (String host : rhosts) {
+            host = host.trim();
+            if (host != null && !host.isEmpty()) {
+                hosts.add(host);
+                filesByHost.put(host, localFiles);
+            }
+        }
+        if (dbrule.isRecvMode()) {
+            if (parallel <= 1 || hosts.size() <= 1) {
+                for (String host : hosts) {
+                    filesByHost.put(host,
+                            getRemoteFiles(dbrule, localfilenames, host, networkTransaction));
+                }
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(
+                        Math.min(parallel, hosts.size()), new WaarpThreadFactory("MultipleList"));
+                for (final String host : hosts) {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            List<String> files = getRemoteFiles(dbrule, localfilenames, host,
+                                    networkTransaction);
+                            synchronized (filesByHost) {
+                                filesByHost.put(host, files);
+                            }
+                        }
+                    });
+                }
+                awaitTermination(executor);
+            }
+        }
+        return filesByHost;
+    }
+
+    /**
+     * Wait for all the tasks of this executor, then stop it
+     * 
+     * @param executor
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for all the tasks
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public void run() {
         String[] localfilenames = filename.split(",");
         String[] rhosts = remoteHost.split(",");
-        boolean inError = false;
-        R66Result resultError = null;
         // first check if filenames contains wildcards
         DbRule dbrule = null;
         try {
@@ -151,114 +258,19 @@ public class MultipleDirectTransfer extends DirectTransfer {
             this.future.setFailure(e1);
             return;
         }
-        List<String> files = null;
-        if (dbrule.isSendMode()) {
-            files = getLocalFiles(dbrule, localfilenames);
-        }
-        for (String host : rhosts) {
-            host = host.trim();
-            if (host != null && !host.isEmpty()) {
-                if (dbrule.isRecvMode()) {
-                    files = getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
-                }
-                for (String filename : files) {
+        Map<String, List<String>> filesByHost = getFilesByHost(dbrule, localfilenames, rhosts,
+                networkTransaction, parallel);
+        if (parallel <= 1) {
+            for (Entry<String, List<String>> entry : filesByHost.entrySet()) {
+                for (String filename : entry.getValue()) {
                     filename = filename.trim();
                     if (filename != null && !filename.isEmpty()) {
-                        logger.info("Launch transfer to " + host + " with file " + filename);
-                        long time1 = System.currentTimeMillis();
-                        R66Future future = new R66Future(true);
-                        DirectTransfer transaction = new DirectTransfer(future,
-                                host, filename, rule, fileInfo, ismd5, block, idt,
-                                networkTransaction);
-                        transaction.normalInfoAsWarn = normalInfoAsWarn;
-                        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
-                        transaction.run();
-                        future.awaitUninterruptibly();
-                        long time2 = System.currentTimeMillis();
-                        logger.debug("finish transfer: " + future.isSuccess());
-                        long delay = time2 - time1;
-                        R66Result result = future.getResult();
-                        OutputFormat outputFormat = new OutputFormat("Unique "
-                                + MultipleDirectTransfer.class.getSimpleName(), null);
-                        if (future.isSuccess()) {
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 0);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
-                                    : "no file"));
-                            outputFormat.setValue("delay", delay);
-                            getResults().add(outputFormat);
-                            setDoneMultiple(getDoneMultiple() + 1);
-                            if (transaction.normalInfoAsWarn) {
-                                logger.warn(outputFormat.loggerOut());
-                            } else {
-                                logger.info(outputFormat.loggerOut());
-                            }
-                            if (nolog || result.getRunner().shallIgnoreSave()) {
-                                // In case of success, delete the runner
-                                try {
-                                    result.getRunner().delete();
-                                } catch (WaarpDatabaseException e) {
-                                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
-                                            e);
-                                }
-                            }
-                        } else {
-                            if (result == null || result.getRunner() == null) {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat.setValue(FIELDS.statusTxt.name(),
-                                        Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
-                                outputFormat.setValue(FIELDS.remote.name(), host);
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                                outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                                outputFormat.sysout();
-                                networkTransaction.closeAll();
-                                System.exit(ErrorCode.Unknown.ordinal());
-                            }
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                outputFormat.setValue(FIELDS.status.name(), 1);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
-                            } else {
-                                outputFormat.setValue(FIELDS.status.name(), 2);
-                                outputFormat
-                                        .setValue(
-                                                FIELDS.statusTxt.name(),
-                                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
-                            }
-                            outputFormat.setValue(FIELDS.remote.name(), host);
-                            outputFormat.setValueString(result.getRunner().getJson());
-                            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
-                                logger.warn(outputFormat.loggerOut(), future.getCause());
-                            } else {
-                                logger.error(outputFormat.loggerOut(), future.getCause());
-                            }
-                            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
-                            getResults().add(outputFormat);
-                            setErrorMultiple(getErrorMultiple() + 1);
-                            inError = true;
-                            if (result != null) {
-                                inError = true;
-                                resultError = result;
-                            }
-                        }
+                        transfer(entry.getKey(), filename, null);
                     }
                 }
             }
+        } else {
+            runParallel(filesByHost);
         }
         if (inError) {
             if (resultError != null) {
@@ -270,6 +282,201 @@ public class MultipleDirectTransfer extends DirectTransfer {
         }
     }
 
+    /**
+     * Run the transfers with at most parallel at once, and at most parallelHost at once with the
+     * same partner
+     * 
+     * @param filesByHost
+     */
+    private void runParallel(Map<String, List<String>> filesByHost) {
+        // one queue of files per partner, consumed by its lanes
+        List<List<Runnable>> lanesByHost = new ArrayList<List<Runnable>>();
+        int maxLanes = 0;
+        for (Entry<String, List<String>> entry : filesByHost.entrySet()) {
+            final String host = entry.getKey();
+            final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<String>();
+            for (String filename : entry.getValue()) {
+                filename = filename.trim();
+                if (filename != null && !filename.isEmpty()) {
+                    queue.add(filename);
+                }
+            }
+            int nbLanes = Math.min(queue.size(), parallel);
+            if (parallelHost > 0 && nbLanes > parallelHost) {
+                nbLanes = parallelHost;
+            }
+            List<Runnable> lanes = new ArrayList<Runnable>(nbLanes);
+            for (int i = 0; i < nbLanes; i++) {
+                lanes.add(new Runnable() {
+                    public void run() {
+                        // each lane has its own database session, not the shared one of the client
+                        DbSession session = null;
+                        if (DbConstant.admin != null && DbConstant.admin.isActive()) {
+                            try {
+                                session = new DbSession(DbConstant.admin, false);
+                            } catch (WaarpDatabaseNoConnectionException e) {
+                                logger.error("Cannot open a database connection for " + host, e);
+                                String filename;
+                                while ((filename = queue.poll()) != null) {
+                                    transferFailed(host, filename, e);
+                                }
+                                return;
+                            }
+                        }
+                        try {
+                            String filename;
+                            while ((filename = queue.poll()) != null) {
+                                transfer(host, filename, session);
+                            }
+                        } finally {
+                            if (session != null) {
+                                session.forceDisconnect();
+                            }
+                        }
+                    }
+                });
+            }
+            lanesByHost.add(lanes);
+            if (nbLanes > maxLanes) {
+                maxLanes = nbLanes;
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallel,
+                new WaarpThreadFactory("MultipleTransfer"));
+        // first lanes of all partners first, such that all partners start as soon as possible
+        for (int rank = 0; rank < maxLanes; rank++) {
+            for (List<Runnable> lanes : lanesByHost) {
+                if (rank < lanes.size()) {
+                    executor.execute(lanes.get(rank));
+                }
+            }
+        }
+        awaitTermination(executor);
+    }
+
+    /**
+     * Add the result of a transfer that could not be run or whose result is unknown
+     * 
+     * @param host
+     * @param filename
+     * @param cause
+     */
+    private void transferFailed(String host, String filename, Throwable cause) {
+        OutputFormat outputFormat = new OutputFormat("Unique "
+                + MultipleDirectTransfer.class.getSimpleName(), null);
+        outputFormat.setValue(FIELDS.status.name(), 2);
+        outputFormat.setValue(FIELDS.statusTxt.name(),
+                Messages.getString("Transfer.FailedNoId")); //$NON-NLS-1$
+        outputFormat.setValue(FIELDS.remote.name(), host);
+        outputFormat.setValue("filefinal", filename);
+        logger.error(outputFormat.loggerOut(), cause);
+        outputFormat.setValue(FIELDS.error.name(), cause != null ? cause.getMessage() : "Unknown");
+        synchronized (this) {
+            getResults().add(outputFormat);
+            setErrorMultiple(getErrorMultiple() + 1);
+            inError = true;
+        }
+    }
+
+    /**
+     * Run one transfer and add its result
+     * 
+     * @param host
+     * @param filename
+     * @param session
+     *            the database session to use (null for the shared one)
+     */
+    private void transfer(String host, String filename, DbSession session) {
+        logger.info("Launch transfer to " + host + " with file " + filename);
+        long time1 = System.currentTimeMillis();
+        R66Future future = new R66Future(true);
+        DirectTransfer transaction = new DirectTransfer(future,
+                host, filename, rule, fileInfo, ismd5, block, idt,
+                networkTransaction);
+        transaction.normalInfoAsWarn = normalInfoAsWarn;
+        transaction.setDbSession(session);
+        logger.debug("rhost: " + host + ":" + transaction.remoteHost);
+        transaction.run();
+        future.awaitUninterruptibly();
+        long time2 = System.currentTimeMillis();
+        logger.debug("finish transfer: " + future.isSuccess());
+        long delay = time2 - time1;
+        R66Result result = future.getResult();
+        OutputFormat outputFormat = new OutputFormat("Unique "
+                + MultipleDirectTransfer.class.getSimpleName(), null);
+        if (future.isSuccess()) {
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                outputFormat.setValue(FIELDS.status.name(), 1);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 0);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Success")); //$NON-NLS-1$
+            }
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(result.getRunner().getJson());
+            outputFormat.setValue("filefinal", (result.getFile() != null ? result.getFile().toString()
+                    : "no file"));
+            outputFormat.setValue("delay", delay);
+            synchronized (this) {
+                getResults().add(outputFormat);
+                setDoneMultiple(getDoneMultiple() + 1);
+            }
+            if (transaction.normalInfoAsWarn) {
+                logger.warn(outputFormat.loggerOut());
+            } else {
+                logger.info(outputFormat.loggerOut());
+            }
+            if (nolog || result.getRunner().shallIgnoreSave()) {
+                // In case of success, delete the runner
+                try {
+                    result.getRunner().delete();
+                } catch (WaarpDatabaseException e) {
+                    logger.warn("Cannot apply nolog to     " + result.getRunner().toShortString(),
+                            e);
+                }
+            }
+        } else {
+            if (result == null || result.getRunner() == null) {
+                // reported as failed, the other transfers going on (might run in parallel)
+                transferFailed(host, filename, future.getCause());
+                return;
+            }
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                outputFormat.setValue(FIELDS.status.name(), 1);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Warned")); //$NON-NLS-1$
+            } else {
+                outputFormat.setValue(FIELDS.status.name(), 2);
+                outputFormat
+                        .setValue(
+                                FIELDS.statusTxt.name(),
+                                Messages.getString("Transfer.Status") + Messages.getString("RequestInformation.Failure")); //$NON-NLS-1$
+            }
+            outputFormat.setValue(FIELDS.remote.name(), host);
+            outputFormat.setValueString(result.getRunner().getJson());
+            if (result.getRunner().getErrorInfo() == ErrorCode.Warning) {
+                logger.warn(outputFormat.loggerOut(), future.getCause());
+            } else {
+                logger.error(outputFormat.loggerOut(), future.getCause());
+            }
+            outputFormat.setValue(FIELDS.error.name(), future.getCause().getMessage());
+            synchronized (this) {
+                getResults().add(outputFormat);
+                setErrorMultiple(getErrorMultiple() + 1);
+                inError = true;
+                resultError = result;
+            }
+        }
+    }
+
     public static void main(String[] args) {
         WaarpLoggerFactory.setDefaultFactory(new WaarpSlf4JLoggerFactory(null));
         if (logger == null) {
@@ -297,6 +504,7 @@ public class MultipleDirectTransfer extends DirectTransfer {
                             rule, fileInfo, ismd5, block, idt,
                             networkTransaction);
             multipleDirectTransfer.normalInfoAsWarn = snormalInfoAsWarn;
+            multipleDirectTransfer.setParallel(sparallel, sparallelhost);
             multipleDirectTransfer.run();
             future.awaitUninterruptibly();
             long time2 = System.currentTimeMillis();
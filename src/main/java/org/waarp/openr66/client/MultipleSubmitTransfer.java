@@ -20,6 +20,7 @@ package org.waarp.openr66.client;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLoggerFactory;
@@ -62,6 +63,10 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
     protected boolean submit = false;
     protected NetworkTransaction networkTransaction = null;
     private List<OutputFormat> results = new ArrayList<OutputFormat>();
+    /**
+     * Number of partners asked at once for their remote listing (-client mode)
+     */
+    private int parallel = 1;
 
     public MultipleSubmitTransfer(R66Future future, String remoteHost,
             String filename, String rulename, String fileinfo, boolean isMD5, int blocksize,
@@ -71,6 +76,15 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
         this.networkTransaction = networkTransaction;
     }
 
+    /**
+     * 
+     * @param parallel
+     *            number of partners asked at once for their remote listing (-client mode)
+     */
+    public void setParallel(int parallel) {
+        this.parallel = parallel < 1 ? 1 : parallel;
+    }
+
     @Override
     public void run() {
         String[] localfilenames = filename.split(",");
@@ -100,11 +114,17 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                 files.add(string);
             }
         }
+        Map<String, List<String>> filesByHost = null;
+        if (!submit && dbrule.isRecvMode()) {
+            // remote listings may be asked to all partners at once, submissions remain sequential
+            filesByHost = MultipleDirectTransfer.getFilesByHost(dbrule, localfilenames, rhosts,
+                    networkTransaction, parallel);
+        }
         for (String host : rhosts) {
             host = host.trim();
             if (host != null && !host.isEmpty()) {
-                if (!submit && dbrule.isRecvMode()) {
-                    files = MultipleDirectTransfer.getRemoteFiles(dbrule, localfilenames, host, networkTransaction);
+                if (filesByHost != null) {
+                    files = filesByHost.get(host);
                 }
                 for (String filename : files) {
                     filename = filename.trim();
@@ -211,6 +231,7 @@ public class MultipleSubmitTransfer extends SubmitTransfer {
                     rhost, localFilename, rule, fileInfo, ismd5, block, idt,
                     ttimestart, networkTransaction);
             transaction.normalInfoAsWarn = snormalInfoAsWarn;
+            transaction.setParallel(sparallel);
             transaction.run();
             future.awaitUninterruptibly();
             OutputFormat outputFormat = new OutputFormat("Unique " + MultipleSubmitTransfer.class.getSimpleName(), args);
@@ -97,6 +97,10 @@ import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 public class SpooledDirectoryTransfer implements Runnable {
     public static final String NEEDFULL = "needfull";
     public static final String PARTIALOK = "Validated";
+    /**
+     * Delay in ms to group concurrent submissions in one batch
+     */
+    private static final long SUBMIT_BATCH_DELAY = 100;
 
     /**
      * Internal Logger
@@ -154,6 +158,13 @@ public class SpooledDirectoryTransfer implements Runnable {
 
     protected FileMonitor monitor = null;
 
+    /**
+     * Number of submissions inserted at once (submit mode only, 0 or 1 for one by one)
+     */
+    protected int submitBatch = 0;
+
+    protected SubmitTransferBatch submitTransferBatch = null;
+
     private long sent = 0;
     private long error = 0;
 
@@ -325,7 +336,18 @@ public class SpooledDirectoryTransfer implements Runnable {
             return;
         }
         commandValidFile.setMonitor(monitor);
-        if (parallel) {
+        boolean inParallel = parallel;
+        int limitParallel = limitParallelTasks;
+        if (submit && submitBatch > 1) {
+            // concurrent submissions are grouped by the batch
+            submitTransferBatch = new SubmitTransferBatch(SUBMIT_BATCH_DELAY, submitBatch);
+            submitTransferBatch.start();
+            inParallel = true;
+            if (limitParallel <= 0) {
+                limitParallel = submitBatch;
+            }
+        }
+        if (inParallel) {
             FileMonitorCommandFactory factory = new FileMonitorCommandFactory() {
 
                 @Override
@@ -335,7 +357,7 @@ public class SpooledDirectoryTransfer implements Runnable {
                     return runner;
                 }
             };
-            monitor.setCommandValidFileFactory(factory, limitParallelTasks);
+            monitor.setCommandValidFileFactory(factory, limitParallel);
         }
         final FileMonitor monitorArg = monitor;
         if (waarpHosts != null && !waarpHosts.isEmpty()) {
@@ -403,11 +425,15 @@ public class SpooledDirectoryTransfer implements Runnable {
                 + statusFile + " stopFile:" + stopFile +
                 " rulename:" + rulename + " fileinfo:" + fileinfo + " hosts:" + remoteHosts + " regex:" + regexFilter
                 + " minimalSize:" + minimalSize + " waarp:" + waarpHosts +
-                " elapse:" + elapseTime + " waarpElapse:" + elapseWaarpTime + " parallel:" + parallel
-                + " limitParallel:" + limitParallelTasks +
-                " submit:" + submit + " recursive:" + recurs);
+                " elapse:" + elapseTime + " waarpElapse:" + elapseWaarpTime + " parallel:" + inParallel
+                + " limitParallel:" + limitParallel +
+                " submit:" + submit + " batch:" + submitBatch + " recursive:" + recurs);
         monitor.start();
         monitor.waitForStopFile();
+        if (submitTransferBatch != null) {
+            submitTransferBatch.stop();
+            submitTransferBatch = null;
+        }
         this.future.setSuccess();
         if (Configuration.configuration.getShutdownConfiguration().serviceFuture != null) {
             Configuration.configuration.getShutdownConfiguration().serviceFuture.setSuccess();
@@ -424,6 +450,15 @@ public class SpooledDirectoryTransfer implements Runnable {
         }
     }
 
+    /**
+     * @param submitBatch
+     *            number of submissions inserted at once in submit mode (0 or 1 for one by one).
+     *            Shall be called before run.
+     */
+    public void setSubmitBatch(int submitBatch) {
+        this.submitBatch = submitBatch;
+    }
+
     public class SpooledRunner extends FileMonitorCommandRunnableFuture {
         public SpooledRunner(FileItem fileItem) {
             super(fileItem);
@@ -452,7 +487,7 @@ public class SpooledDirectoryTransfer implements Runnable {
                                     specialId, null);
                             transaction.normalInfoAsWarn = normalInfoAsWarn;
                             logger.info(text + host);
-                            transaction.run();
+                            transaction.run(submitTransferBatch);
                         } else {
                             if (specialId != DbConstant.ILLEGALVALUE) {
                                 boolean direct = false;
@@ -662,6 +697,7 @@ public class SpooledDirectoryTransfer implements Runnable {
         protected List<String> waarphosts = new ArrayList<String>();
         protected boolean isparallel = true;
         protected int limitParallel = 0;
+        protected int batch = 0;
         protected long minimalSize = 0;
         protected boolean logWarn = true;
     }
@@ -682,6 +718,7 @@ public class SpooledDirectoryTransfer implements Runnable {
     private static final String XML_submit = "submit";
     private static final String XML_parallel = "parallel";
     private static final String XML_limitParallel = "limitParallel";
+    private static final String XML_batch = "batch";
     private static final String XML_info = "info";
     private static final String XML_md5 = "md5";
     private static final String XML_block = "block";
@@ -703,6 +740,7 @@ public class SpooledDirectoryTransfer implements Runnable {
             new XmlDecl(XmlType.BOOLEAN, XML_submit),
             new XmlDecl(XmlType.BOOLEAN, XML_parallel),
             new XmlDecl(XmlType.INTEGER, XML_limitParallel),
+            new XmlDecl(XmlType.INTEGER, XML_batch),
             new XmlDecl(XmlType.STRING, XML_info),
             new XmlDecl(XmlType.BOOLEAN, XML_md5),
             new XmlDecl(XmlType.INTEGER, XML_block),
@@ -829,6 +867,10 @@ public class SpooledDirectoryTransfer implements Runnable {
                 if (value != null && (!value.isEmpty())) {
                     arg.limitParallel = value.getInteger();
                 }
+                value = subHash.get(XML_batch);
+                if (value != null && (!value.isEmpty())) {
+                    arg.batch = value.getInteger();
+                }
                 value = subHash.get(XML_info);
                 if (value != null && (!value.isEmpty())) {
                     arg.fileInfo = value.getString();
@@ -985,6 +1027,9 @@ public class SpooledDirectoryTransfer implements Runnable {
                     } else if (args[i].equalsIgnoreCase("-limitParallel")) {
                         i++;
                         arg.limitParallel = Integer.parseInt(args[i]);
+                    } else if (args[i].equalsIgnoreCase("-batch")) {
+                        i++;
+                        arg.batch = Integer.parseInt(args[i]);
                     } else if (args[i].equalsIgnoreCase("-parallel")) {
                         arg.isparallel = true;
                     } else if (args[i].equalsIgnoreCase("-sequential")) {
@@ -1066,6 +1111,7 @@ public class SpooledDirectoryTransfer implements Runnable {
                                 arg.elapsedWaarp, arg.isparallel, arg.limitParallel, arg.waarphosts, arg.minimalSize,
                                 arg.logWarn,
                                 networkTransactionStatic);
+                spooled.setSubmitBatch(arg.batch);
                 executorService.submit(spooled);
                 list.add(spooled);
             }
@@ -25,6 +25,7 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.logging.WaarpSlf4JLoggerFactory;
 import org.waarp.openr66.client.utils.OutputFormat;
 import org.waarp.openr66.client.utils.OutputFormat.FIELDS;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.database.DbConstant;
@@ -111,11 +112,47 @@ public class SubmitTransfer extends AbstractTransfer {
                 return;
             }
         }
+        InternalRunner.submitted(taskRunner);
         R66Result result = new R66Result(null, false, ErrorCode.InitOk, taskRunner);
         future.setResult(result);
         future.setSuccess();
     }
 
+    /**
+     * Submit the transfer through this batch: the future is validated once the batch is written.
+     * A resubmission or a self request is submitted directly.
+     * 
+     * @param batch
+     */
+    public void run(SubmitTransferBatch batch) {
+        if (logger == null) {
+            logger = WaarpLoggerFactory.getLogger(SubmitTransfer.class);
+        }
+        if (batch == null || id != DbConstant.ILLEGALVALUE || !DbConstant.admin.isActive()) {
+            run();
+            return;
+        }
+        DbTaskRunner taskRunner = this.initRequest(false);
+        if (taskRunner == null) {
+            logger.debug("Cannot prepare task");
+            if (future.isFailed() && future.getResult() != null) {
+                return;
+            }
+            R66Result result = new R66Result(new OpenR66DatabaseGlobalException(), null, true,
+                    ErrorCode.Internal, taskRunner);
+            future.setResult(result);
+            future.setFailure(result.getException());
+            return;
+        }
+        if (taskRunner.isSelfRequest()) {
+            // special status update, so not batched (this runner is not inserted)
+            run();
+            return;
+        }
+        taskRunner.changeUpdatedInfo(AbstractDbData.UpdatedInfo.TOSUBMIT);
+        batch.submit(taskRunner, future);
+    }
+
     /**
      * 
      * @param args
@@ -0,0 +1,274 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.commander.InternalRunner;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.R66Result;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.protocol.exception.OpenR66DatabaseGlobalException;
+import org.waarp.openr66.protocol.utils.R66Future;
+
+/**
+ * Batched submission of transfers.<br>
+ * <br>
+ * Submitted transfers are inserted by a background thread using one JDBC batch INSERT every
+ * batchDelay ms or as soon as batchSize transfers are pending, instead of one insert and one
+ * update by transfer. The future of each transfer is validated once its batch is written.
+ * 
+ * @author Frederic Bregier
+ */
+public class SubmitTransferBatch implements Runnable {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(SubmitTransferBatch.class);
+
+    /**
+     * Pending submission
+     */
+    private static class Submission {
+        private final DbTaskRunner runner;
+        private final R66Future future;
+
+        private Submission(DbTaskRunner runner, R66Future future) {
+            this.runner = runner;
+            this.future = future;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Submission> pending = new ConcurrentLinkedQueue<Submission>();
+
+    private final AtomicInteger nbPending = new AtomicInteger();
+
+    private final long batchDelay;
+
+    private final int batchSize;
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+    private DbSession dbSession;
+
+    /**
+     * 
+     * @param batchDelay
+     *            maximum delay in ms before a submission is written
+     * @param batchSize
+     *            number of pending submissions that triggers a write before the delay
+     */
+    public SubmitTransferBatch(long batchDelay, int batchSize) {
+        this.batchDelay = batchDelay;
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+    }
+
+    /**
+     * Start the background writer
+     */
+    public void start() {
+        thread = new Thread(this, "SubmitTransferBatch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background writer, writing all pending submissions first. Submissions not written
+     * once the writer is over (added concurrently or writer too slow) are failed.
+     */
+    public void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join(batchDelay + 1000);
+            } catch (InterruptedException e) {
+            }
+            thread = null;
+        }
+        Submission submission = pending.poll();
+        while (submission != null) {
+            nbPending.decrementAndGet();
+            stopped(submission.runner, submission.future);
+            submission = pending.poll();
+        }
+    }
+
+    private static void stopped(DbTaskRunner runner, R66Future future) {
+        R66Result result = new R66Result(
+                new OpenR66DatabaseGlobalException("Submission batch stopped"), null, true,
+                ErrorCode.Internal, runner);
+        future.setResult(result);
+        future.setFailure(result.getException());
+    }
+
+    /**
+     * Add this new runner, already set as TOSUBMIT but not yet inserted, to the next batch
+     * 
+     * @param runner
+     * @param future
+     *            validated once the runner is inserted
+     */
+    public void submit(DbTaskRunner runner, R66Future future) {
+        if (!running) {
+            stopped(runner, future);
+            return;
+        }
+        Submission submission = new Submission(runner, future);
+        pending.add(submission);
+        nbPending.incrementAndGet();
+        if (!running && pending.remove(submission)) {
+            // stopped meanwhile and not taken by the writer
+            nbPending.decrementAndGet();
+            stopped(runner, future);
+            return;
+        }
+        if (nbPending.get() >= batchSize) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                synchronized (this) {
+                    if (running && nbPending.get() < batchSize) {
+                        try {
+                            wait(batchDelay);
+                        } catch (InterruptedException e) {
+                            running = false;
+                        }
+                    }
+                }
+                flush();
+            }
+            flush();
+        } finally {
+            if (dbSession != null && !dbSession.equals(DbConstant.admin.getSession())) {
+                dbSession.forceDisconnect();
+            }
+            dbSession = null;
+        }
+    }
+
+    /**
+     * Write all pending submissions, batchSize by batchSize
+     */
+    private void flush() {
+        List<Submission> submissions = new ArrayList<Submission>(batchSize);
+        List<DbTaskRunner> runners = new ArrayList<DbTaskRunner>(batchSize);
+        Submission submission = pending.poll();
+        while (submission != null) {
+            nbPending.decrementAndGet();
+            submissions.add(submission);
+            runners.add(submission.runner);
+            if (submissions.size() >= batchSize) {
+                write(submissions, runners);
+                submissions.clear();
+                runners.clear();
+            }
+            submission = pending.poll();
+        }
+        if (!submissions.isEmpty()) {
+            write(submissions, runners);
+        }
+    }
+
+    private void write(List<Submission> submissions, List<DbTaskRunner> runners) {
+        try {
+            if (dbSession == null) {
+                if (DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
+                    dbSession = DbConstant.admin.getSession();
+                } else {
+                    dbSession = new DbSession(DbConstant.admin, false);
+                }
+            }
+            DbTaskRunner.insertAll(dbSession, runners);
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot submit {} transfers at once, submit one by one: {}",
+                    runners.size(), e.getMessage());
+            if (dbSession != null) {
+                dbSession.checkConnectionNoException();
+            }
+            // as for a failed JDBC batch: each runner on its own, such that one bad runner does
+            // not fail the others
+            for (Submission submission : submissions) {
+                write(submission);
+            }
+            return;
+        }
+        for (Submission done : submissions) {
+            submitted(done);
+        }
+    }
+
+    /**
+     * Write one submission alone (runners already inserted being ignored)
+     * 
+     * @param submission
+     */
+    private void write(Submission submission) {
+        try {
+            if (dbSession == null) {
+                throw new WaarpDatabaseNoConnectionException("No database connection");
+            }
+            DbTaskRunner.insertAll(dbSession, Collections.singletonList(submission.runner));
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot submit transfer: {}", e.getMessage());
+            R66Result result = new R66Result(
+                    new OpenR66DatabaseGlobalException("Cannot prepare Task"), null, true,
+                    ErrorCode.Internal, submission.runner);
+            submission.future.setResult(result);
+            submission.future.setFailure(result.getException());
+            return;
+        }
+        submitted(submission);
+    }
+
+    private static void submitted(Submission submission) {
+        InternalRunner.submitted(submission.runner);
+        R66Result result = new R66Result(null, false, ErrorCode.InitOk, submission.runner);
+        submission.future.setResult(result);
+        submission.future.setSuccess();
+    }
+
+    /**
+     * @return the number of submissions not yet written
+     */
+    public int getQueueSize() {
+        return nbPending.get();
+    }
+}
@@ -44,6 +44,7 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.BlocksizeAdvisor;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
 import org.waarp.openr66.protocol.utils.TransferUtils;
@@ -547,10 +548,16 @@ public class ClientRunner extends Thread {
                     "Requester is not Sender so new rank is " +
                             taskRunner.getRank() + " {}", taskRunner);
         }
+        if (taskRunner.getRank() == 0) {
+            // no block transferred yet, so the blocksize can still be adapted to the partner
+            taskRunner.setBlocksize(BlocksizeAdvisor.getBlocksize(localChannelReference.getPartner(),
+                    taskRunner.getBlocksize()));
+        }
         RequestPacket request = taskRunner.getRequest();
         logger.debug("Will send request {} {}", request, localChannelReference);
         localChannelReference.setClientRunner(this);
         localChannelReference.sessionNewState(R66FiniteDualStates.REQUESTR);
+        localChannelReference.setRequestSent();
         try {
             ChannelUtils.writeAbstractLocalPacket(localChannelReference,
                     request, true);
@@ -340,6 +340,8 @@ public class Commander implements CommanderInterface {
                 while (preparedStatementHost.getNext()) {
                     // Maybe multiple
                     DbHostAuth hostAuth = DbHostAuth.getFromStatement(preparedStatementHost);
+                    // Updated from another node or tool: drop the cached authentication
+                    DbHostAuth.invalidateCache(hostAuth.getHostid());
                     if (multipleMonitor != null) {
                         if (!mm) {
                             // not already set from a previous hostAuth
@@ -477,23 +479,7 @@ public class Commander implements CommanderInterface {
                         throw e;
                     }
                     logger.debug("get a task: {}", taskRunner);
-                    // Launch if possible this task
-                    String key = taskRunner.getRequested() + " " + taskRunner.getRequester() +
-                            " " + taskRunner.getSpecialId();
-                    if (Configuration.configuration.getLocalTransaction().
-                            getFromRequest(key) != null) {
-                        // already running
-                        continue;
-                    }
-                    if (taskRunner.isSelfRequested()) {
-                        // cannot schedule a request where the host is the requested host
-                        taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
-                        taskRunner.update();
-                        continue;
-                    }
-                    taskRunner.changeUpdatedInfo(UpdatedInfo.RUNNING);
-                    taskRunner.forceSaveStatus();
-                    internalRunner.submitTaskRunner(taskRunner);
+                    internalRunner.startTaskRunner(taskRunner);
                     taskRunner = null;
                 }
             } catch (WaarpDatabaseNoConnectionException e) {
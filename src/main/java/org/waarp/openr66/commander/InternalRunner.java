@@ -17,6 +17,7 @@
  */
 package org.waarp.openr66.commander;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
@@ -24,8 +25,11 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.waarp.common.database.DbSession;
 import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
 import org.waarp.common.logging.WaarpLogger;
@@ -33,11 +37,19 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.openr66.database.DbConstant;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.model.DbModelPostgresql;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 
 /**
- * This class launch and control the Commander and enable TaskRunner job submissions
+ * This class launch and control the Commander and enable TaskRunner job submissions<br>
+ * <br>
+ * Transfers submitted within this process are started as soon as possible through a submission
+ * queue, while the Commander keeps checking the database every commanderSweepDelay ms (or
+ * delayCommander if not set) for other updates and submissions. In multiple monitors mode, a
+ * submission wakes up the Commander instead, and with PostgreSQL the other monitors could be woken
+ * up through LISTEN/NOTIFY.
  * 
  * @author Frederic Bregier
  * 
@@ -49,12 +61,21 @@ public class InternalRunner {
     private static final WaarpLogger logger = WaarpLoggerFactory
             .getLogger(InternalRunner.class);
 
+    /**
+     * Delay in ms between 2 checks of the submission notifications
+     */
+    private static final long LISTEN_DELAY = 100;
+
     private final ScheduledExecutorService scheduledExecutorService;
     private ScheduledFuture<?> scheduledFuture;
     private CommanderInterface commander = null;
     private volatile boolean isRunning = true;
     private final ThreadPoolExecutor threadPoolExecutor;
     private final NetworkTransaction networkTransaction;
+    private final ConcurrentLinkedQueue<DbTaskRunner> submitQueue = new ConcurrentLinkedQueue<DbTaskRunner>();
+    private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean(false);
+    private SubmissionListener submissionListener = null;
 
     /**
      * Create the structure to enable submission by database
@@ -74,9 +95,24 @@ public class InternalRunner {
         threadPoolExecutor = new ThreadPoolExecutor(Configuration.configuration.getRUNNER_THREAD(), Configuration.configuration.getRUNNER_THREAD(),
                 1000, TimeUnit.MILLISECONDS, workQueue);
         scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(commander,
-                Configuration.configuration.getDelayCommander(),
-                Configuration.configuration.getDelayCommander(), TimeUnit.MILLISECONDS);
+                getSweepDelay(), getSweepDelay(), TimeUnit.MILLISECONDS);
         networkTransaction = new NetworkTransaction();
+        if (Configuration.configuration.isSubmitNotify() && DbConstant.admin.isActive() &&
+                DbConstant.admin.getDbModel() instanceof DbModelPostgresql) {
+            submissionListener = new SubmissionListener();
+            submissionListener.start();
+        }
+    }
+
+    /**
+     * 
+     * @return the delay between 2 checks of the database by the Commander
+     */
+    private static long getSweepDelay() {
+        if (Configuration.configuration.getCommanderSweepDelay() > 0) {
+            return Configuration.configuration.getCommanderSweepDelay();
+        }
+        return Configuration.configuration.getDelayCommander();
     }
 
     public NetworkTransaction getNetworkTransaction() {
@@ -110,11 +146,189 @@ public class InternalRunner {
         }
     }
 
+    /**
+     * Inform that the given TaskRunner was just saved as TOSUBMIT, such that it could be started
+     * without waiting for the next check of the database by the Commander
+     * 
+     * @param taskRunner
+     */
+    public static void submitted(DbTaskRunner taskRunner) {
+        InternalRunner internalRunner = Configuration.configuration.getInternalRunner();
+        if (internalRunner != null && DbConstant.admin.isActive()) {
+            internalRunner.offerTaskRunner(taskRunner);
+        } else {
+            // Not in a server: wake up the servers if possible
+            notifySubmission();
+        }
+    }
+
+    /**
+     * Notify the other servers (PostgreSQL only) that a new transfer was submitted
+     */
+    private static void notifySubmission() {
+        if (Configuration.configuration.isSubmitNotify() && DbConstant.admin != null &&
+                DbConstant.admin.isActive() &&
+                DbConstant.admin.getDbModel() instanceof DbModelPostgresql) {
+            try {
+                ((DbModelPostgresql) DbConstant.admin.getDbModel())
+                        .notifySubmission(DbConstant.admin.getSession());
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Cannot notify submission: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Add the given TaskRunner to the submission queue, at its start time
+     * 
+     * @param taskRunner
+     */
+    private void offerTaskRunner(final DbTaskRunner taskRunner) {
+        if (!isRunning || Configuration.configuration.isShutdown()) {
+            return;
+        }
+        if (Configuration.configuration.getMultipleMonitors() > 1) {
+            // Only the Commander holding the lock could start a transfer
+            notifySubmission();
+            wakeUpCommander();
+            return;
+        }
+        long delay = taskRunner.getStart().getTime() - System.currentTimeMillis();
+        if (delay > 0) {
+            scheduledExecutorService.schedule(new Runnable() {
+                public void run() {
+                    submitQueue.offer(taskRunner);
+                    dispatchQueue();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        submitQueue.offer(taskRunner);
+        if (dispatchPending.compareAndSet(false, true)) {
+            scheduledExecutorService.execute(new Runnable() {
+                public void run() {
+                    dispatchPending.set(false);
+                    dispatchQueue();
+                }
+            });
+        }
+    }
+
+    /**
+     * Run the Commander as soon as possible (at most one pending run)
+     */
+    public void wakeUpCommander() {
+        if (isRunning && wakeUpPending.compareAndSet(false, true)) {
+            scheduledExecutorService.execute(new Runnable() {
+                public void run() {
+                    wakeUpPending.set(false);
+                    commander.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Start all TaskRunners from the submission queue (run in the same thread than the Commander)
+     */
+    private void dispatchQueue() {
+        DbTaskRunner submitted;
+        while ((submitted = submitQueue.poll()) != null) {
+            if (!isRunning || R66ShutdownHook.isShutdownStarting()) {
+                submitQueue.clear();
+                return;
+            }
+            try {
+                // Reload since the Commander might have already started it
+                DbTaskRunner taskRunner = new DbTaskRunner(DbConstant.admin.getSession(),
+                        submitted.getSpecialId(), submitted.getRequester(),
+                        submitted.getRequested(), submitted.getOwnerRequest());
+                if (taskRunner.getUpdatedInfo() != UpdatedInfo.TOSUBMIT) {
+                    continue;
+                }
+                startTaskRunner(taskRunner);
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Cannot start submitted transfer: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Start the given TOSUBMIT TaskRunner if not already running
+     * 
+     * @param taskRunner
+     * @throws WaarpDatabaseException
+     */
+    void startTaskRunner(DbTaskRunner taskRunner) throws WaarpDatabaseException {
+        // Launch if possible this task
+        String key = taskRunner.getRequested() + " " + taskRunner.getRequester() +
+                " " + taskRunner.getSpecialId();
+        if (Configuration.configuration.getLocalTransaction().
+                getFromRequest(key) != null) {
+            // already running
+            return;
+        }
+        if (taskRunner.isSelfRequested()) {
+            // cannot schedule a request where the host is the requested host
+            taskRunner.changeUpdatedInfo(UpdatedInfo.INTERRUPTED);
+            taskRunner.update();
+            return;
+        }
+        taskRunner.changeUpdatedInfo(UpdatedInfo.RUNNING);
+        taskRunner.forceSaveStatus();
+        submitTaskRunner(taskRunner);
+    }
+
+    /**
+     * Listen to the submission notifications from other processes or monitors (PostgreSQL) and
+     * wake up the Commander
+     */
+    private class SubmissionListener extends Thread {
+        private volatile boolean listening = true;
+
+        private SubmissionListener() {
+            super("SubmissionListener");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            DbModelPostgresql model = (DbModelPostgresql) DbConstant.admin.getDbModel();
+            DbSession session = null;
+            try {
+                session = new DbSession(DbConstant.admin, false);
+                model.listenSubmission(session);
+                while (listening) {
+                    if (model.hasSubmissionNotification(session)) {
+                        wakeUpCommander();
+                    }
+                    Thread.sleep(LISTEN_DELAY);
+                }
+            } catch (WaarpDatabaseException e) {
+                logger.warn("Submission listener stopped: {}", e.getMessage());
+            } catch (InterruptedException e) {
+            } finally {
+                if (session != null) {
+                    session.forceDisconnect();
+                }
+            }
+        }
+
+        private void stopListener() {
+            listening = false;
+            interrupt();
+        }
+    }
+
     /**
      * First step while shutting down the service
      */
     public void prepareStopInternalRunner() {
         isRunning = false;
+        if (submissionListener != null) {
+            submissionListener.stopListener();
+            submissionListener = null;
+        }
         scheduledFuture.cancel(false);
         scheduledExecutorService.shutdown();
         threadPoolExecutor.shutdown();
@@ -126,6 +340,10 @@ public class InternalRunner {
      */
     public void stopInternalRunner() {
         isRunning = false;
+        if (submissionListener != null) {
+            submissionListener.stopListener();
+            submissionListener = null;
+        }
         logger.info("Stopping Commander and Runner Tasks");
         scheduledFuture.cancel(false);
         scheduledExecutorService.shutdownNow();
@@ -149,7 +367,6 @@ public class InternalRunner {
             commander = new CommanderNoDb(this);
         }
         scheduledFuture = scheduledExecutorService.scheduleWithFixedDelay(commander,
-                Configuration.configuration.getDelayCommander(),
-                Configuration.configuration.getDelayCommander(), TimeUnit.MILLISECONDS);
+                getSweepDelay(), getSweepDelay(), TimeUnit.MILLISECONDS);
     }
 }
@@ -450,6 +450,126 @@ public class FileBasedConfiguration {
      * Global digest by transfer enable
      */
     private static final String XML_GLOBALDIGEST = "globaldigest";
+    /**
+     * Zero copy send (FileRegion) when possible (no SSL, no MD5 per block, no global digest)
+     */
+    private static final String XML_ZEROCOPY = "zerocopy";
+    /**
+     * Number of DataPackets that could be sent without waiting for the previous ones (1 to wait for each one)
+     */
+    private static final String XML_SENDWINDOW = "sendwindow";
+    /**
+     * Maximum number of bytes of DataPackets sent and not yet written to the network
+     */
+    private static final String XML_SENDWINDOWBYTES = "sendwindowbytes";
+    /**
+     * Delay in ms between two writes of the rank of running transfers in the database (0 to write it synchronously)
+     */
+    private static final String XML_RUNNERWRITEDELAY = "runnerwritedelay";
+    /**
+     * Number of pending rank updates of running transfers that triggers an immediate write in the database
+     */
+    private static final String XML_RUNNERWRITEBATCH = "runnerwritebatch";
+    /**
+     * Delay in ms between two checks of the database by the Commander, transfers submitted within the server being started immediately (0 to use the Commander delay)
+     */
+    private static final String XML_COMMANDERSWEEPDELAY = "commandersweepdelay";
+    /**
+     * Notify the servers of new submitted transfers through the database (PostgreSQL LISTEN/NOTIFY) to wake up their Commander
+     */
+    private static final String XML_SUBMITNOTIFY = "submitnotify";
+    /**
+     * Number of partner authentications kept in cache
+     */
+    private static final String XML_HOSTAUTH_CACHE_SIZE = "hostauthcachesize";
+    /**
+     * Time to live in ms of cached partner authentications (0 to disable)
+     */
+    private static final String XML_HOSTAUTH_CACHE_TTL = "hostauthcachettl";
+    /**
+     * Dispatch decoded packets directly to the local handler (no LocalChannel hop)
+     */
+    private static final String XML_DIRECT_DISPATCH = "directdispatch";
+    /**
+     * Number of threads hashing data blocks out of the handler threads (0 means inline)
+     */
+    private static final String XML_DIGEST_THREADS = "digestthreads";
+    /**
+     * Maximum number of data blocks waiting to be hashed for one transfer
+     */
+    private static final String XML_DIGEST_WINDOW = "digestwindow";
+    /**
+     * On restart, rebuild the global digest from the already transferred part of the file
+     */
+    private static final String XML_RESUME_GLOBAL_DIGEST = "resumeglobaldigest";
+    /**
+     * Number of threads shared by the ExecJava tasks (0 means the number of runner threads)
+     */
+    private static final String XML_JAVATASK_THREADS = "javataskthreads";
+    /**
+     * Maximum number of ExecJava tasks running at once for one class (0 means no limit)
+     */
+    private static final String XML_JAVATASK_CLASS_LIMIT = "javataskclasslimit";
+    /**
+     * Maximum number of external processes running at once for Exec tasks (0 means no limit)
+     */
+    private static final String XML_EXEC_MAX_PROCESSES = "execmaxprocesses";
+    /**
+     * Number of Transfer ids reserved in one database access (1 meaning no block)
+     */
+    private static final String XML_SEQUENCEBLOCK = "sequenceblock";
+    /**
+     * Number of network connections a new transfer may be spread over for one partner
+     */
+    private static final String XML_NETWORKSTRIPES = "netstripes";
+    /**
+     * Minimal number of network connections kept open to one partner once used
+     */
+    private static final String XML_NETWORKMINIDLE = "netminidle";
+    /**
+     * Maximum number of transfers on one network connection (0 for no limit)
+     */
+    private static final String XML_NETWORKMAXLOCAL = "netmaxlocalchannels";
+    /**
+     * Monitoring: delay in ms between two reconciliations of the in memory counters with the database (0 for counting in the database at each request)
+     */
+    private static final String XML_MONITOR_RECONCILE = "reconciledelay";
+    /**
+     * Maximum number of pooled database connections for databases not supporting concurrent access on one connection (0 for one connection per transfer)
+     */
+    private static final String XML_DBPOOL_MAX = "dbpoolmax";
+    /**
+     * Maximum time in ms to wait for a free pooled database connection
+     */
+    private static final String XML_DBPOOL_WAIT = "dbpoolwait";
+    /**
+     * Size in bytes of the buffer coalescing the received blocks before writing them (0 for one write per block)
+     */
+    private static final String XML_RECV_BUFFER = "recvbuffersize";
+    /**
+     * If True, the received file is preallocated to its announced size and truncated to the written size at the end
+     */
+    private static final String XML_RECV_PREALLOCATE = "recvpreallocate";
+    /**
+     * Fsync policy of the received file: -1 for none, 0 at the end of the transfer, N > 0 every N bytes written and at the end
+     */
+    private static final String XML_RECV_FSYNC = "recvfsync";
+    /**
+     * Adaptive blocksize negotiated with partners supporting it
+     */
+    private static final String XML_BLOCKADAPTIVE = "blockadaptive";
+    /**
+     * Lowest blocksize used in adaptive mode
+     */
+    private static final String XML_BLOCKMIN = "blockmin";
+    /**
+     * Highest blocksize used or accepted in adaptive mode
+     */
+    private static final String XML_BLOCKMAX = "blockmax";
+    /**
+     * Number of hashed subdirectories of the work directory holding the received files (0 for none)
+     */
+    private static final String XML_RECV_SHARDS = "recvshards";
 
     /**
      * SERVER REST interface SHA address usage (and not all available IPs)
@@ -611,7 +731,37 @@ public class FileBasedConfiguration {
             new XmlDecl(XmlType.INTEGER, XML_BLOCKSIZE),
             new XmlDecl(XmlType.INTEGER, XML_USETHRIFT),
             new XmlDecl(XmlType.BOOLEAN, XML_CHECKVERSION),
-            new XmlDecl(XmlType.BOOLEAN, XML_GLOBALDIGEST)
+            new XmlDecl(XmlType.BOOLEAN, XML_GLOBALDIGEST),
+            new XmlDecl(XmlType.BOOLEAN, XML_ZEROCOPY),
+            new XmlDecl(XmlType.INTEGER, XML_SENDWINDOW),
+            new XmlDecl(XmlType.LONG, XML_SENDWINDOWBYTES),
+            new XmlDecl(XmlType.LONG, XML_RUNNERWRITEDELAY),
+            new XmlDecl(XmlType.INTEGER, XML_RUNNERWRITEBATCH),
+            new XmlDecl(XmlType.LONG, XML_COMMANDERSWEEPDELAY),
+            new XmlDecl(XmlType.BOOLEAN, XML_SUBMITNOTIFY),
+            new XmlDecl(XmlType.INTEGER, XML_HOSTAUTH_CACHE_SIZE),
+            new XmlDecl(XmlType.LONG, XML_HOSTAUTH_CACHE_TTL),
+            new XmlDecl(XmlType.BOOLEAN, XML_DIRECT_DISPATCH),
+            new XmlDecl(XmlType.INTEGER, XML_DIGEST_THREADS),
+            new XmlDecl(XmlType.INTEGER, XML_DIGEST_WINDOW),
+            new XmlDecl(XmlType.BOOLEAN, XML_RESUME_GLOBAL_DIGEST),
+            new XmlDecl(XmlType.INTEGER, XML_JAVATASK_THREADS),
+            new XmlDecl(XmlType.INTEGER, XML_JAVATASK_CLASS_LIMIT),
+            new XmlDecl(XmlType.INTEGER, XML_EXEC_MAX_PROCESSES),
+            new XmlDecl(XmlType.INTEGER, XML_SEQUENCEBLOCK),
+            new XmlDecl(XmlType.INTEGER, XML_NETWORKSTRIPES),
+            new XmlDecl(XmlType.INTEGER, XML_NETWORKMINIDLE),
+            new XmlDecl(XmlType.INTEGER, XML_NETWORKMAXLOCAL),
+            new XmlDecl(XmlType.LONG, XML_MONITOR_RECONCILE),
+            new XmlDecl(XmlType.INTEGER, XML_DBPOOL_MAX),
+            new XmlDecl(XmlType.LONG, XML_DBPOOL_WAIT),
+            new XmlDecl(XmlType.INTEGER, XML_RECV_BUFFER),
+            new XmlDecl(XmlType.BOOLEAN, XML_RECV_PREALLOCATE),
+            new XmlDecl(XmlType.LONG, XML_RECV_FSYNC),
+            new XmlDecl(XmlType.BOOLEAN, XML_BLOCKADAPTIVE),
+            new XmlDecl(XmlType.INTEGER, XML_BLOCKMIN),
+            new XmlDecl(XmlType.INTEGER, XML_BLOCKMAX),
+            new XmlDecl(XmlType.INTEGER, XML_RECV_SHARDS)
     };
     /**
      * Structure of the Configuration file
@@ -1401,6 +1551,126 @@ public class FileBasedConfiguration {
             if (value != null && (!value.isEmpty())) {
                 config.setGlobalDigest(value.getBoolean());
             }
+            value = hashConfig.get(XML_ZEROCOPY);
+            if (value != null && (!value.isEmpty())) {
+                config.setZeroCopySend(value.getBoolean());
+            }
+            value = hashConfig.get(XML_SENDWINDOW);
+            if (value != null && (!value.isEmpty())) {
+                config.setSendWindow(value.getInteger());
+            }
+            value = hashConfig.get(XML_SENDWINDOWBYTES);
+            if (value != null && (!value.isEmpty())) {
+                config.setSendWindowBytes(value.getLong());
+            }
+            value = hashConfig.get(XML_RUNNERWRITEDELAY);
+            if (value != null && (!value.isEmpty())) {
+                config.setRunnerWriteDelay(value.getLong());
+            }
+            value = hashConfig.get(XML_RUNNERWRITEBATCH);
+            if (value != null && (!value.isEmpty())) {
+                config.setRunnerWriteBatch(value.getInteger());
+            }
+            value = hashConfig.get(XML_COMMANDERSWEEPDELAY);
+            if (value != null && (!value.isEmpty())) {
+                config.setCommanderSweepDelay(value.getLong());
+            }
+            value = hashConfig.get(XML_SUBMITNOTIFY);
+            if (value != null && (!value.isEmpty())) {
+                config.setSubmitNotify(value.getBoolean());
+            }
+            value = hashConfig.get(XML_HOSTAUTH_CACHE_SIZE);
+            if (value != null && (!value.isEmpty())) {
+                config.setHostAuthCacheSize(value.getInteger());
+            }
+            value = hashConfig.get(XML_HOSTAUTH_CACHE_TTL);
+            if (value != null && (!value.isEmpty())) {
+                config.setHostAuthCacheTtl(value.getLong());
+            }
+            value = hashConfig.get(XML_DIRECT_DISPATCH);
+            if (value != null && (!value.isEmpty())) {
+                config.setDirectDispatch(value.getBoolean());
+            }
+            value = hashConfig.get(XML_DIGEST_THREADS);
+            if (value != null && (!value.isEmpty())) {
+                config.setDigestThreads(value.getInteger());
+            }
+            value = hashConfig.get(XML_DIGEST_WINDOW);
+            if (value != null && (!value.isEmpty())) {
+                config.setDigestWindow(value.getInteger());
+            }
+            value = hashConfig.get(XML_RESUME_GLOBAL_DIGEST);
+            if (value != null && (!value.isEmpty())) {
+                config.setResumeGlobalDigest(value.getBoolean());
+            }
+            value = hashConfig.get(XML_JAVATASK_THREADS);
+            if (value != null && (!value.isEmpty())) {
+                config.setJavaTaskThreads(value.getInteger());
+            }
+            value = hashConfig.get(XML_JAVATASK_CLASS_LIMIT);
+            if (value != null && (!value.isEmpty())) {
+                config.setJavaTaskClassLimit(value.getInteger());
+            }
+            value = hashConfig.get(XML_EXEC_MAX_PROCESSES);
+            if (value != null && (!value.isEmpty())) {
+                config.setExecMaxProcesses(value.getInteger());
+            }
+            value = hashConfig.get(XML_SEQUENCEBLOCK);
+            if (value != null && (!value.isEmpty())) {
+                config.setSequenceBlock(value.getInteger());
+            }
+            value = hashConfig.get(XML_NETWORKSTRIPES);
+            if (value != null && (!value.isEmpty())) {
+                config.setNetworkStripes(value.getInteger());
+            }
+            value = hashConfig.get(XML_NETWORKMINIDLE);
+            if (value != null && (!value.isEmpty())) {
+                config.setNetworkMinIdle(value.getInteger());
+            }
+            value = hashConfig.get(XML_NETWORKMAXLOCAL);
+            if (value != null && (!value.isEmpty())) {
+                config.setNetworkMaxLocalChannels(value.getInteger());
+            }
+            value = hashConfig.get(XML_MONITOR_RECONCILE);
+            if (value != null && (!value.isEmpty())) {
+                config.setMonitorReconcileDelay(value.getLong());
+            }
+            value = hashConfig.get(XML_DBPOOL_MAX);
+            if (value != null && (!value.isEmpty())) {
+                config.setDbPoolMax(value.getInteger());
+            }
+            value = hashConfig.get(XML_DBPOOL_WAIT);
+            if (value != null && (!value.isEmpty())) {
+                config.setDbPoolWait(value.getLong());
+            }
+            value = hashConfig.get(XML_RECV_BUFFER);
+            if (value != null && (!value.isEmpty())) {
+                config.setRecvBufferSize(value.getInteger());
+            }
+            value = hashConfig.get(XML_RECV_PREALLOCATE);
+            if (value != null && (!value.isEmpty())) {
+                config.setRecvPreallocate(value.getBoolean());
+            }
+            value = hashConfig.get(XML_RECV_FSYNC);
+            if (value != null && (!value.isEmpty())) {
+                config.setRecvFsync(value.getLong());
+            }
+            value = hashConfig.get(XML_BLOCKADAPTIVE);
+            if (value != null && (!value.isEmpty())) {
+                config.setAdaptiveBlocksize(value.getBoolean());
+            }
+            value = hashConfig.get(XML_BLOCKMIN);
+            if (value != null && (!value.isEmpty())) {
+                config.setBlocksizeMin(value.getInteger());
+            }
+            value = hashConfig.get(XML_BLOCKMAX);
+            if (value != null && (!value.isEmpty())) {
+                config.setBlocksizeMax(value.getInteger());
+            }
+            value = hashConfig.get(XML_RECV_SHARDS);
+            if (value != null && (!value.isEmpty())) {
+                config.setRecvShards(value.getInteger());
+            }
             alreadySetLimit = true;
             return true;
         } finally {
@@ -747,6 +747,13 @@ public class R66Session implements SessionInterface {
                     try {
                         long oldPosition = restart.getPosition();
                         restart.setSet(true);
+                        int bufferSize = Configuration.configuration.getRecvBufferSize();
+                        if (bufferSize > 0 || Configuration.configuration.isRecvPreallocate()) {
+                            // coalesced blocks may have been lost after their rank was saved, and
+                            // a preallocated file length does not tell what was written
+                            long written = Math.min(length, oldPosition) - bufferSize;
+                            length = written > 0 ? written : 0;
+                        }
                         if (oldPosition > length) {
                             int newRank = ((int) (length / this.runner.getBlocksize()))
                                     - Configuration.getRANKRESTART();
@@ -222,7 +222,7 @@ public class R66Auth extends FilesystemBasedAuthImpl {
     public static DbHostAuth getServerAuth(DbSession dbSession, String server) {
         DbHostAuth auth = null;
         try {
-            auth = new DbHostAuth(dbSession, server);
+            auth = DbHostAuth.getFromCache(dbSession, server);
         } catch (WaarpDatabaseException e) {
             logger.warn("Cannot find the authentication {}", server);
             return null;
@@ -22,6 +22,7 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.command.exception.Reply550Exception;
@@ -32,6 +33,7 @@ import org.waarp.common.file.filesystembased.specific.FilesystemBasedCommonsIo;
 import org.waarp.common.file.filesystembased.specific.FilesystemBasedDirJdkAbstract;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.authentication.R66Auth;
+import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 
 /**
@@ -41,6 +43,10 @@ import org.waarp.openr66.protocol.configuration.Configuration;
  * 
  */
 public class R66Dir extends FilesystemBasedDirImpl {
+    /**
+     * Counter making the work files unique within this JVM
+     */
+    private static final AtomicLong uniqueCounter = new AtomicLong(System.currentTimeMillis());
 
     /**
      * @param session
@@ -55,34 +61,135 @@ public class R66Dir extends FilesystemBasedDirImpl {
     }
 
     /**
-     * Same as setUnique() except that File will be prefixed by id and postfixed by filename
+     * Same as setUnique() except that File will be prefixed by id and postfixed by filename.<br>
+     * <br>
+     * The name is built from the id, the requester and requested hosts and a counter, then
+     * created only if it does not exist yet, so without any lock. If recvShards is set, the file
+     * is placed in one of the hashed subdirectories of the current directory, removed once empty
+     * when the file is moved or deleted. The host ids are dropped if the name does not fit in
+     * maxfilenamelength.
      * 
      * @param prefix
      * @param filename
      * @return the R66File with a unique filename and a temporary extension
      * @throws CommandAbstractException
      */
-    public synchronized R66File setUniqueFile(long prefix, String filename)
+    public R66File setUniqueFile(long prefix, String filename)
             throws CommandAbstractException {
         checkIdentify();
-        File file = null;
+        String hosts = "";
+        DbTaskRunner runner = ((R66Session) getSession()).getRunner();
+        if (runner != null) {
+            hosts = getSafeName(runner.getRequester()) + "_" +
+                    getSafeName(runner.getRequested()) + "_";
+        }
+        File file = createUniqueFile(getFileFromPath(currentDir), prefix, hosts,
+                R66File.getBasename(filename));
+        String currentFile = getRelativePath(file);
+        return newFile(normalizePath(currentFile), false);
+    }
+
+    /**
+     * 
+     * @param directory
+     *            the current directory
+     * @param prefix
+     * @param hosts
+     *            the requester and requested host ids part of the name (may be empty)
+     * @param basename
+     * @return the newly created unique file
+     * @throws Reply550Exception
+     */
+    static File createUniqueFile(File directory, long prefix, String hosts, String basename)
+            throws Reply550Exception {
         String prename = prefix + "_";
         if (prename.length() < 3) {
             prename = "xx_" + prename;
         }
-        String basename = R66File.getBasename(filename);
-        if (basename.length() > Configuration.configuration.getMaxfilenamelength() - 55) {
-            basename = basename.substring(basename.length() - Configuration.configuration.getMaxfilenamelength() + 55);
+        int shards = Configuration.configuration.getRecvShards();
+        if (shards > 0) {
+            int shard = (int) ((prefix ^ (prefix >>> 32)) & 0x7FFFFFFF) % shards;
+            directory = new File(directory, Integer.toHexString(shard));
         }
-        try {
-            file = File.createTempFile(prename, "_" + basename +
-                    Configuration.EXT_R66, getFileFromPath(currentDir));
-        } catch (IOException e) {
+        File file = null;
+        for (int i = 0; i < 10; i++) {
+            String unique = uniqueCounter.incrementAndGet() + "_";
+            int max = Configuration.configuration.getMaxfilenamelength() - prename.length()
+                    - unique.length() - Configuration.EXT_R66.length();
+            if (max > hosts.length()) {
+                unique = prename + hosts + unique;
+                max -= hosts.length();
+            } else {
+                unique = prename + unique;
+            }
+            String name = basename;
+            if (name.length() > max) {
+                name = max > 0 ? name.substring(name.length() - max) : "";
+            }
+            file = new File(directory, unique + name + Configuration.EXT_R66);
+            // the shard directory may be removed by the end of another transfer
+            if (shards > 0 && !directory.isDirectory() && !directory.mkdirs()
+                    && !directory.isDirectory()) {
+                throw new Reply550Exception("Cannot create work directory for " +
+                        basename);
+            }
+            try {
+                if (file.createNewFile()) {
+                    break;
+                }
+            } catch (IOException e) {
+                if (shards <= 0 || directory.isDirectory()) {
+                    throw new Reply550Exception("Cannot create unique file from " +
+                            basename);
+                }
+            }
+            file = null;
+        }
+        if (file == null) {
             throw new Reply550Exception("Cannot create unique file from " +
                     basename);
         }
-        String currentFile = getRelativePath(file);
-        return newFile(normalizePath(currentFile), false);
+        return file;
+    }
+
+    /**
+     * Remove the shard subdirectory of this former work file if it is now empty
+     * 
+     * @param file
+     *            the work file just moved or deleted
+     */
+    static void removeEmptyShard(File file) {
+        int shards = Configuration.configuration.getRecvShards();
+        if (shards <= 0 || file == null || !file.getName().endsWith(Configuration.EXT_R66)) {
+            return;
+        }
+        File directory = file.getParentFile();
+        if (directory == null) {
+            return;
+        }
+        String name = directory.getName();
+        int shard;
+        try {
+            shard = Integer.parseInt(name, 16);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (shard < shards && Integer.toHexString(shard).equals(name)) {
+            // only done if empty, a concurrent allocation creating it again
+            directory.delete();
+        }
+    }
+
+    /**
+     * 
+     * @param name
+     * @return the name with only the characters safe for a filename
+     */
+    private static String getSafeName(String name) {
+        if (name == null) {
+            return "";
+        }
+        return name.replaceAll("[^a-zA-Z0-9._-]", "_");
     }
 
     /**
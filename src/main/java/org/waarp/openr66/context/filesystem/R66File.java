@@ -23,13 +23,19 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 
 import org.waarp.common.command.exception.CommandAbstractException;
+import org.waarp.common.command.exception.Reply550Exception;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.exception.FileEndOfTransferException;
 import org.waarp.common.exception.FileTransferException;
@@ -48,7 +54,10 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.RetrieveRunner;
+import org.waarp.openr66.protocol.localhandler.packet.PacketBufferAllocator;
+import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.DigestPipeline;
 import org.waarp.openr66.protocol.utils.FileUtils;
 
 /**
@@ -69,6 +78,31 @@ public class R66File extends FilesystemBasedFileImpl {
      */
     private boolean isExternal = false;
 
+    /**
+     * Received blocks not yet written (null if none)
+     */
+    private ByteBuf writeBuffer = null;
+    /**
+     * Second access to the received file to preallocate and fsync it (null if not used)
+     */
+    private RandomAccessFile syncFile = null;
+    /**
+     * Position of the last fsync
+     */
+    private long syncPosition = 0;
+    /**
+     * True if something was written through writeDataBlock
+     */
+    private boolean written = false;
+    /**
+     * Position of the first write (not 0 on restart)
+     */
+    private long writeStart = 0;
+    /**
+     * True if the file is currently extended beyond the written data
+     */
+    private boolean preallocated = false;
+
     /**
      * @param session
      * @param dir
@@ -107,11 +141,31 @@ public class R66File extends FilesystemBasedFileImpl {
         LocalChannelReference localChannelReference = getSession()
                 .getLocalChannelReference();
         FilesystemBasedDigest digest = null;
+        DigestPipeline pipeline = null;
         logger.debug("File to retrieve: " + this.toString());
         try {
             if (!isReady) {
                 return;
             }
+            if (isZeroCopyPossible(localChannelReference)) {
+                retrieveDone = retrieveZeroCopy(running, localChannelReference);
+                return;
+            }
+            if (Configuration.configuration.isGlobalDigest()) {
+                try {
+                    digest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
+                } catch (NoSuchAlgorithmException e2) {
+                    // ignore
+                }
+                if (digest != null && DigestPipeline.isEnabled()) {
+                    pipeline = new DigestPipeline(digest, null);
+                }
+                digest = resumeGlobalDigest(localChannelReference, digest, pipeline);
+            }
+            if (Configuration.configuration.getSendWindow() > 1) {
+                retrieveDone = retrieveWindowed(running, localChannelReference, digest, pipeline);
+                return;
+            }
             DataBlock block = null;
             try {
                 block = readDataBlock();
@@ -125,21 +179,12 @@ public class R66File extends FilesystemBasedFileImpl {
                 retrieveDone = true;
                 return;
             }
-            if (Configuration.configuration.isGlobalDigest()) {
-                try {
-                    digest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
-                } catch (NoSuchAlgorithmException e2) {
-                    // ignore
-                }
-            }
             ChannelFuture future1 = null, future2 = null;
             if ((block != null && (running.get()))) {
                 block.getBlock().retain();
+                computeGlobalHash(digest, pipeline, block.getBlock());
                 future1 = RetrieveRunner.writeWhenPossible(
                         block, localChannelReference);
-                if (Configuration.configuration.isGlobalDigest()) {
-                    FileUtils.computeGlobalHash(digest, block.getBlock());
-                }
             }
             // While not last block
             while (block != null && (!block.isEOF()) && (running.get())) {
@@ -164,11 +209,9 @@ public class R66File extends FilesystemBasedFileImpl {
                     return;
                 }
                 block.getBlock().retain();
+                computeGlobalHash(digest, pipeline, block.getBlock());
                 future2 = RetrieveRunner.writeWhenPossible(
                         block, localChannelReference);
-                if (Configuration.configuration.isGlobalDigest()) {
-                    FileUtils.computeGlobalHash(digest, block.getBlock());
-                }
                 future1 = future2;
             }
             if (!running.get()) {
@@ -209,6 +252,11 @@ public class R66File extends FilesystemBasedFileImpl {
         } finally {
             if (retrieveDone) {
                 String hash = null;
+                if (pipeline != null && (!pipeline.awaitCompletion() || pipeline.getFailedRank() >= 0 ||
+                        pipeline.isIncomplete())) {
+                    // global digest not complete
+                    digest = null;
+                }
                 if (digest != null) {
                     hash = FilesystemBasedDigest.getHex(digest.Final());
                 }
@@ -236,6 +284,265 @@ public class R66File extends FilesystemBasedFileImpl {
         }
     }
 
+    /**
+     * 
+     * @param localChannelReference
+     * @return True if the current file could be sent using zero copy (no SSL, no MD5 per block, no
+     *         global digest)
+     */
+    private boolean isZeroCopyPossible(LocalChannelReference localChannelReference) {
+        if (!Configuration.configuration.isZeroCopySend() ||
+                Configuration.configuration.isGlobalDigest()) {
+            return false;
+        }
+        DbTaskRunner runner = getSession().getRunner();
+        if (runner == null || RequestPacket.isMD5Mode(runner.getMode())) {
+            return false;
+        }
+        return ChannelUtils.isZeroCopyCompatible(localChannelReference.getNetworkChannel());
+    }
+
+    /**
+     * Send the file directly from its FileChannel to the network, without copying any data in
+     * memory
+     * 
+     * @param running
+     *            When false, should stop the runner
+     * @param localChannelReference
+     * @return True if the whole file was sent
+     */
+    private boolean retrieveZeroCopy(AtomicBoolean running,
+            LocalChannelReference localChannelReference) {
+        FileChannel fileChannel = getFileChannel();
+        if (fileChannel == null) {
+            return false;
+        }
+        Channel networkChannel = localChannelReference.getNetworkChannel();
+        int window = Configuration.configuration.getSendWindow();
+        if (window < 1) {
+            window = 1;
+        }
+        ArrayDeque<ChannelFuture> futures = new ArrayDeque<ChannelFuture>(window);
+        try {
+            long position = getPosition();
+            long size = fileChannel.size();
+            int blocksize = getSession().getBlockSize();
+            while (position < size && running.get()) {
+                // Wait for the oldest regions while the window is full or the channel not writable
+                while (!futures.isEmpty() &&
+                        (futures.size() >= window || !networkChannel.isWritable())) {
+                    ChannelFuture future = futures.poll();
+                    future.awaitUninterruptibly();
+                    if (!future.isSuccess()) {
+                        return false;
+                    }
+                }
+                int length = (int) Math.min(blocksize, size - position);
+                futures.add(ChannelUtils.writeBackDataRegion(localChannelReference, fileChannel,
+                        position, length));
+                position += length;
+            }
+            if (!running.get()) {
+                // stopped
+                return false;
+            }
+            // Wait for last writes
+            while (!futures.isEmpty()) {
+                ChannelFuture future = futures.poll();
+                future.awaitUninterruptibly();
+                if (!future.isSuccess()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Error while sending file: " + this, e);
+            return false;
+        } finally {
+            // regions still in flight read from the FileChannel: wait for them before closing it
+            for (ChannelFuture future : futures) {
+                future.awaitUninterruptibly();
+            }
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Send the file keeping up to sendWindow DataPackets (and up to sendWindowBytes bytes) not yet
+     * written to the network, reading the next block from the file while the previous ones are
+     * being written
+     * 
+     * @param running
+     *            When false, should stop the runner
+     * @param localChannelReference
+     * @param digest
+     *            the global digest to update (might be null)
+     * @param pipeline
+     *            the hashing stage updating the global digest (might be null)
+     * @return True if the whole file was sent
+     * @throws OpenR66ProtocolPacketException
+     */
+    private boolean retrieveWindowed(AtomicBoolean running,
+            LocalChannelReference localChannelReference, FilesystemBasedDigest digest,
+            DigestPipeline pipeline)
+            throws OpenR66ProtocolPacketException {
+        FileChannel fileChannel = getFileChannel();
+        if (fileChannel == null) {
+            return false;
+        }
+        Channel networkChannel = localChannelReference.getNetworkChannel();
+        ByteBufAllocator alloc = PacketBufferAllocator.getAllocator(localChannelReference);
+        int window = Configuration.configuration.getSendWindow();
+        long windowBytes = Configuration.configuration.getSendWindowBytes();
+        ArrayDeque<ChannelFuture> futures = new ArrayDeque<ChannelFuture>(window);
+        ArrayDeque<Integer> lengths = new ArrayDeque<Integer>(window);
+        long pendingBytes = 0;
+        ByteBuf next = null;
+        try {
+            long position = getPosition();
+            long size = fileChannel.size();
+            int blocksize = getSession().getBlockSize();
+            if (position < size) {
+                next = readBlock(fileChannel, alloc, position, (int) Math.min(blocksize, size - position));
+            }
+            while (next != null && running.get()) {
+                int length = next.readableBytes();
+                // Wait for the oldest DataPackets until the window allows the next one
+                while (!futures.isEmpty() && (futures.size() >= window ||
+                        pendingBytes + length > windowBytes || !networkChannel.isWritable())) {
+                    ChannelFuture future = futures.poll();
+                    pendingBytes -= lengths.poll();
+                    future.awaitUninterruptibly();
+                    if (!future.isSuccess()) {
+                        return false;
+                    }
+                }
+                computeGlobalHash(digest, pipeline, next);
+                DataBlock block = new DataBlock();
+                block.setBlock(next);
+                next = null;
+                futures.add(RetrieveRunner.writeWhenPossible(block, localChannelReference));
+                lengths.add(length);
+                pendingBytes += length;
+                position += length;
+                // Read ahead the next block while the previous ones are written
+                if (position < size) {
+                    next = readBlock(fileChannel, alloc, position,
+                            (int) Math.min(blocksize, size - position));
+                }
+            }
+            if (!running.get()) {
+                // stopped
+                return false;
+            }
+            // Wait for last writes
+            for (ChannelFuture future : futures) {
+                future.awaitUninterruptibly();
+                if (!future.isSuccess()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Error while sending file: " + this, e);
+            return false;
+        } catch (OpenR66RunnerErrorException e) {
+            logger.error("Error while sending file: " + this, e);
+            return false;
+        } catch (OpenR66ProtocolSystemException e) {
+            logger.error("Error while sending file: " + this, e);
+            return false;
+        } finally {
+            if (next != null) {
+                next.release();
+            }
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * When the transfer restarts, add first the beginning of the file to the global digest such
+     * that it still covers the whole file (if the partner does the same)
+     * 
+     * @param localChannelReference
+     * @param digest
+     *            the global digest (might be null)
+     * @param pipeline
+     *            the hashing stage (might be null)
+     * @return the global digest, or null if it cannot be used
+     */
+    private FilesystemBasedDigest resumeGlobalDigest(LocalChannelReference localChannelReference,
+            FilesystemBasedDigest digest, DigestPipeline pipeline) {
+        long position = getPosition();
+        if (digest == null || position <= 0 || !FileUtils.isGlobalDigestResumable(localChannelReference)) {
+            return digest;
+        }
+        if (pipeline != null) {
+            pipeline.submit(getTrueFile(), position);
+            return digest;
+        }
+        if (FileUtils.computeGlobalHashFromFile(digest, null, getTrueFile(), position)) {
+            return digest;
+        }
+        logger.warn("Global digest not rebuilt on restart for: " + this);
+        return null;
+    }
+
+    /**
+     * Update the global digest with this block, through the hashing stage if any
+     * 
+     * @param digest
+     *            the global digest (might be null)
+     * @param pipeline
+     *            the hashing stage (might be null)
+     * @param buffer
+     */
+    private static void computeGlobalHash(FilesystemBasedDigest digest, DigestPipeline pipeline,
+            ByteBuf buffer) {
+        if (pipeline != null) {
+            // the sent buffers may be reused before hashed
+            pipeline.submit(buffer, null, null, 0, true);
+        } else {
+            FileUtils.computeGlobalHash(digest, buffer);
+        }
+    }
+
+    /**
+     * 
+     * @param fileChannel
+     * @param alloc
+     * @param position
+     * @param length
+     * @return a new buffer containing the block of the file at the given position
+     * @throws IOException
+     *             if the block cannot be fully read (file truncated during the transfer)
+     */
+    private static ByteBuf readBlock(FileChannel fileChannel, ByteBufAllocator alloc,
+            long position, int length) throws IOException {
+        ByteBuf buf = alloc.buffer(length);
+        try {
+            ByteBuffer nioBuffer = buf.nioBuffer(0, length);
+            while (nioBuffer.hasRemaining()) {
+                if (fileChannel.read(nioBuffer, position + nioBuffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file at " +
+                            (position + nioBuffer.position()) + " while reading " + length +
+                            " bytes from " + position);
+                }
+            }
+            buf.writerIndex(nioBuffer.position());
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+        return buf;
+    }
+
     /**
      * This method is a good to have in a true FileInterface implementation.
      * 
@@ -307,6 +614,15 @@ public class R66File extends FilesystemBasedFileImpl {
 
     @Override
     public boolean delete() throws CommandAbstractException {
+        File previous = getTrueFile();
+        if (deleteFile()) {
+            R66Dir.removeEmptyShard(previous);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean deleteFile() throws CommandAbstractException {
         if (isExternal) {
             File file = new File(currentFile);
             checkIdentify();
@@ -440,6 +756,12 @@ public class R66File extends FilesystemBasedFileImpl {
 
     @Override
     public long length() throws CommandAbstractException {
+        try {
+            flushWrite();
+        } catch (FileTransferException e) {
+            throw new Reply550Exception("Cannot write the last received blocks of " +
+                    currentFile + ": " + e.getMessage());
+        }
         if (isExternal) {
             File file = new File(currentFile);
             if (file.canRead()) {
@@ -466,6 +788,15 @@ public class R66File extends FilesystemBasedFileImpl {
 
     @Override
     public boolean renameTo(String path) throws CommandAbstractException {
+        File previous = getTrueFile();
+        if (renameFile(path)) {
+            R66Dir.removeEmptyShard(previous);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean renameFile(String path) throws CommandAbstractException {
         if (!isExternal) {
             return super.renameTo(path);
         }
@@ -551,6 +882,15 @@ public class R66File extends FilesystemBasedFileImpl {
         if (!external) {
             return renameTo(path);
         }
+        File previous = getTrueFile();
+        if (renameExternal(path)) {
+            R66Dir.removeEmptyShard(previous);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean renameExternal(String path) throws CommandAbstractException {
         checkIdentify();
         if (!isReady) {
             return false;
@@ -634,11 +974,215 @@ public class R66File extends FilesystemBasedFileImpl {
         isReady = true;
     }
 
+    /**
+     * Write the received block. If recvbuffersize is set, blocks are first coalesced in a buffer
+     * of this size, written once full or when the file is closed or its length is asked.
+     */
+    @Override
+    public synchronized void writeDataBlock(DataBlock dataBlock) throws FileTransferException {
+        int bufferSize = Configuration.configuration.getRecvBufferSize();
+        ByteBuf block = dataBlock.getBlock();
+        if (isExternal || !isReady || bufferSize <= 0 || dataBlock.isEOF() || block == null
+                || block.readableBytes() >= bufferSize) {
+            flushWriteBuffer();
+            beforeWrite();
+            super.writeDataBlock(dataBlock);
+            afterWrite();
+            return;
+        }
+        if (writeBuffer != null && writeBuffer.writableBytes() < block.readableBytes()) {
+            flushWriteBuffer();
+        }
+        if (writeBuffer == null) {
+            LocalChannelReference localChannelReference = getSession() != null ? getSession()
+                    .getLocalChannelReference() : null;
+            writeBuffer = PacketBufferAllocator.getAllocator(localChannelReference)
+                    .directBuffer(bufferSize, bufferSize);
+        }
+        writeBuffer.writeBytes(block, block.readerIndex(), block.readableBytes());
+    }
+
+    /**
+     * Write the coalesced blocks if any
+     * 
+     * @throws FileTransferException
+     */
+    private void flushWriteBuffer() throws FileTransferException {
+        ByteBuf buffer = writeBuffer;
+        if (buffer == null) {
+            return;
+        }
+        writeBuffer = null;
+        try {
+            if (buffer.isReadable()) {
+                DataBlock dataBlock = new DataBlock();
+                dataBlock.setBlock(buffer);
+                beforeWrite();
+                super.writeDataBlock(dataBlock);
+                afterWrite();
+            }
+        } finally {
+            if (buffer.refCnt() > 0) {
+                buffer.release();
+            }
+        }
+    }
+
+    /**
+     * Keep the position of the first write
+     */
+    private void beforeWrite() {
+        if (!written) {
+            writeStart = getPosition();
+        }
+    }
+
+    /**
+     * Preallocate the file after the first write (once the file is opened for writing) and apply
+     * the fsync policy
+     * 
+     * @throws FileTransferException
+     */
+    private void afterWrite() throws FileTransferException {
+        if (!written) {
+            written = true;
+            if (Configuration.configuration.isRecvPreallocate()) {
+                preallocate();
+            }
+        }
+        long fsync = Configuration.configuration.getRecvFsync();
+        if (fsync > 0 && getPosition() - syncPosition >= fsync) {
+            sync();
+        }
+    }
+
+    private RandomAccessFile getSyncFile() throws FileNotFoundException {
+        if (syncFile == null) {
+            syncFile = new RandomAccessFile(getTrueFile(), "rw");
+        }
+        return syncFile;
+    }
+
+    /**
+     * Extend the file to the size announced by the sender
+     */
+    private void preallocate() {
+        DbTaskRunner runner = getSession() != null ? getSession().getRunner() : null;
+        if (runner == null || runner.getOriginalSize() <= 0) {
+            return;
+        }
+        try {
+            preallocated = preallocate(getSyncFile(), writeStart, runner.getOriginalSize());
+        } catch (IOException e) {
+            logger.warn("Cannot preallocate " + currentFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Extend the file to the given size, unless the writes started at a non zero position: on
+     * restart, the file is written in append mode, so that the blocks would be written after the
+     * preallocated part
+     * 
+     * @param file
+     * @param writeStart
+     *            position of the first write
+     * @param size
+     *            size announced by the sender
+     * @return True if the file was extended
+     * @throws IOException
+     */
+    static boolean preallocate(RandomAccessFile file, long writeStart, long size)
+            throws IOException {
+        if (writeStart > 0 || size <= file.length()) {
+            return false;
+        }
+        file.setLength(size);
+        return true;
+    }
+
+    /**
+     * Force the written data to the storage
+     * 
+     * @throws FileTransferException
+     */
+    private void sync() throws FileTransferException {
+        try {
+            getSyncFile().getChannel().force(false);
+            syncPosition = getPosition();
+        } catch (IOException e) {
+            throw new FileTransferException("Cannot sync the file", e);
+        }
+    }
+
+    /**
+     * Write the coalesced blocks and cut the preallocated part not written, such that the file
+     * length is the written length
+     * 
+     * @throws FileTransferException
+     *             if the last received blocks cannot be written
+     */
+    private synchronized void flushWrite() throws FileTransferException {
+        try {
+            flushWriteBuffer();
+        } catch (FileTransferException e) {
+            logger.error("Cannot write the last received blocks of " + currentFile, e);
+            throw e;
+        }
+        if (preallocated) {
+            preallocated = false;
+            try {
+                getSyncFile().setLength(getPosition());
+            } catch (IOException e) {
+                logger.warn("Cannot truncate " + currentFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Flush the written data, apply the fsync at end policy and release the second access
+     * 
+     * @throws FileTransferException
+     *             if the last received blocks cannot be written
+     */
+    private synchronized void endWrite() throws FileTransferException {
+        try {
+            flushWrite();
+            if (written && Configuration.configuration.getRecvFsync() >= 0
+                    && getPosition() > syncPosition) {
+                try {
+                    sync();
+                } catch (FileTransferException e) {
+                    logger.error("Cannot sync " + currentFile, e);
+                }
+            }
+        } finally {
+            written = false;
+            if (syncFile != null) {
+                try {
+                    syncFile.close();
+                } catch (IOException e) {
+                }
+                syncFile = null;
+            }
+        }
+    }
+
     @Override
     public boolean closeFile() throws CommandAbstractException {
+        FileTransferException error = null;
+        try {
+            endWrite();
+        } catch (FileTransferException e) {
+            error = e;
+        }
         boolean status = super.closeFile();
         // FORCE re-open file
         isReady = true;
+        if (error != null) {
+            // the file is incomplete: the transfer shall fail
+            throw new Reply550Exception("Cannot write the last received blocks of " +
+                    currentFile + ": " + error.getMessage());
+        }
         return status;
     }
 
@@ -17,19 +17,21 @@
  */
 package org.waarp.openr66.context.task;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
-import org.waarp.common.utility.WaarpThreadFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.JavaTaskExecutor.JavaTaskClass;
+import org.waarp.openr66.context.task.JavaTaskExecutor.JavaTaskFuture;
 
 /**
- * Execute a Java command through Class.forName call
+ * Execute a Java command through Class.forName call (the class being kept once found), within
+ * the shared JavaTaskExecutor
  * 
  * 
  * @author Frederic Bregier
@@ -87,9 +89,11 @@ public class ExecJavaTask extends AbstractTask {
             logger.debug("Exec with " + argRule + ":" + argTransfer + " and {}",
                     session);
         }
+        JavaTaskClass taskClass = null;
         R66Runnable runnable = null;
         try {
-            runnable = (R66Runnable) Class.forName(className).newInstance();
+            taskClass = JavaTaskExecutor.getTaskClass(className);
+            runnable = taskClass.newInstance();
         } catch (Exception e) {
             logger.error("ExecJava command is not available: " + className, e);
             R66Result result = new R66Result(session, false,
@@ -118,30 +122,26 @@ public class ExecJavaTask extends AbstractTask {
             runnable.run();
             status = runnable.getFinalStatus();
         } else {
-            ExecutorService executorService = Executors.newFixedThreadPool(1, new WaarpThreadFactory("JavaExecutor"));
-            executorService.execute(runnable);
+            JavaTaskFuture future = JavaTaskExecutor.submit(taskClass, runnable);
             try {
-                Thread.yield();
-                executorService.shutdown();
-                if (waitForValidation) {
-                    if (delay > 100) {
-                        if (!executorService.awaitTermination(delay, TimeUnit.MILLISECONDS)) {
-                            executorService.shutdownNow();
-                            logger.error("Exec is in Time Out");
-                            status = -1;
-                        } else {
-                            status = runnable.getFinalStatus();
-                        }
-                    } else {
-                        while (!executorService.awaitTermination(30, TimeUnit.SECONDS))
-                            ;
+                if (waitForValidation && delay > 100) {
+                    try {
+                        future.getOnceDispatched(delay, TimeUnit.MILLISECONDS);
                         status = runnable.getFinalStatus();
+                    } catch (TimeoutException e) {
+                        future.cancel(true);
+                        taskClass.timeout();
+                        logger.error("Exec is in Time Out");
+                        status = -1;
                     }
                 } else {
-                    while (!executorService.awaitTermination(30, TimeUnit.SECONDS))
-                        ;
+                    future.get();
                     status = runnable.getFinalStatus();
                 }
+            } catch (ExecutionException e) {
+                logger.error("Status: " + e.getMessage() + " \t Exec in error with " +
+                        runnable, e.getCause());
+                status = -1;
             } catch (InterruptedException e) {
                 logger.error("Status: " + e.getMessage() + " \t Exec in error with " +
                         runnable);
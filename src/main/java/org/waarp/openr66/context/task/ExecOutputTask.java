@@ -19,14 +19,7 @@ package org.waarp.openr66.context.task;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 
-import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteException;
-import org.apache.commons.exec.ExecuteWatchdog;
-import org.apache.commons.exec.PumpStreamHandler;
 import org.waarp.commandexec.utils.LocalExecResult;
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.logging.WaarpLogger;
@@ -34,6 +27,8 @@ import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.ExecProcessEngine.Capture;
+import org.waarp.openr66.context.task.ExecProcessEngine.ProcessListener;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.protocol.configuration.Configuration;
@@ -95,7 +90,7 @@ public class ExecOutputTask extends AbstractTask {
                 localExecClient
                         .runOneCommand(finalname, delay, waitForValidation, futureCompletion);
                 LocalExecResult result = localExecClient.getLocalExecResult();
-                finalize(result.getStatus(), result.getResult(), finalname);
+                finishExecution(result.getStatus(), result.getResult(), finalname);
                 localExecClient.disconnect();
                 return;
             } // else continue
@@ -112,151 +107,25 @@ public class ExecOutputTask extends AbstractTask {
                 return;
             }
         }
-        CommandLine commandLine = new CommandLine(args[0]);
-        for (int i = 1; i < args.length; i++) {
-            commandLine.addArgument(args[i]);
-        }
-        DefaultExecutor defaultExecutor = new DefaultExecutor();
-        PipedInputStream inputStream = new PipedInputStream();
-        PipedOutputStream outputStream = null;
-        try {
-            outputStream = new PipedOutputStream(inputStream);
-        } catch (IOException e1) {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-            }
-            logger.error("Exception: " + e1.getMessage() +
-                    " Exec in error with " + commandLine.toString(), e1);
-            futureCompletion.setFailure(e1);
-            return;
-        }
-        PumpStreamHandler pumpStreamHandler = new PumpStreamHandler(
-                outputStream, null);
-        defaultExecutor.setStreamHandler(pumpStreamHandler);
-        int[] correctValues = {
-                0, 1 };
-        defaultExecutor.setExitValues(correctValues);
-        ExecuteWatchdog watchdog = null;
-        if (delay > 0) {
-            watchdog = new ExecuteWatchdog(delay);
-            defaultExecutor.setWatchdog(watchdog);
-        }
-        AllLineReader allLineReader = new AllLineReader(inputStream);
-        Thread thread = new Thread(allLineReader, "ExecRename" + session.getRunner().getSpecialId());
-        thread.setDaemon(true);
-        Configuration.configuration.getExecutorService().execute(thread);
-        int status = -1;
-        try {
-            status = defaultExecutor.execute(commandLine);
-        } catch (ExecuteException e) {
-            if (e.getExitValue() == -559038737) {
-                // Cannot run immediately so retry once
-                try {
-                    Thread.sleep(Configuration.RETRYINMS);
-                } catch (InterruptedException e1) {
-                }
-                try {
-                    status = defaultExecutor.execute(commandLine);
-                } catch (ExecuteException e1) {
-                    finalizeFromError(outputStream,
-                            pumpStreamHandler,
-                            inputStream,
-                            allLineReader,
-                            thread,
-                            status,
-                            commandLine);
-                    return;
-                } catch (IOException e1) {
-                    try {
-                        outputStream.flush();
-                    } catch (IOException e2) {
-                    }
-                    try {
-                        outputStream.close();
-                    } catch (IOException e2) {
-                    }
-                    thread.interrupt();
-                    try {
-                        inputStream.close();
-                    } catch (IOException e2) {
-                    }
-                    try {
-                        pumpStreamHandler.stop();
-                    } catch (IOException e2) {
-                    }
-                    logger.error("IOException: " + e.getMessage() +
-                            " . Exec in error with " + commandLine.toString());
-                    futureCompletion.setFailure(e);
-                    return;
-                }
-            } else {
-                finalizeFromError(outputStream,
-                        pumpStreamHandler,
-                        inputStream,
-                        allLineReader,
-                        thread,
-                        status,
-                        commandLine);
-                return;
-            }
-        } catch (IOException e) {
-            try {
-                outputStream.close();
-            } catch (IOException e1) {
+        final String commandLine = finalname;
+        ExecProcessEngine.execute(args, delay, Capture.ALL_LINES, new ProcessListener() {
+            public void processExited(int status, String output) {
+                finishExecution(status, output, commandLine);
             }
-            thread.interrupt();
-            try {
-                inputStream.close();
-            } catch (IOException e1) {
-            }
-            try {
-                pumpStreamHandler.stop();
-            } catch (IOException e2) {
+
+            public void processTimedOut() {
+                finishExecution(-1, "TimeOut", commandLine);
             }
-            logger.error("IOException: " + e.getMessage() +
-                    " . Exec in error with " + commandLine.toString());
-            futureCompletion.setFailure(e);
-            return;
-        }
-        try {
-            outputStream.flush();
-        } catch (IOException e) {
-        }
-        try {
-            outputStream.close();
-        } catch (IOException e) {
-        }
-        try {
-            pumpStreamHandler.stop();
-        } catch (IOException e2) {
-        }
-        try {
-            if (delay > 0) {
-                thread.join(delay);
-            } else {
-                thread.join();
+
+            public void processFailed(IOException e) {
+                logger.error("IOException: " + e.getMessage() +
+                        " . Exec in error with " + commandLine);
+                futureCompletion.setFailure(e);
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-        try {
-            inputStream.close();
-        } catch (IOException e1) {
-        }
-        String newname = null;
-        if (defaultExecutor.isFailure(status) && watchdog != null &&
-                watchdog.killedProcess()) {
-            // kill by the watchdoc (time out)
-            status = -1;
-            newname = "TimeOut";
-        } else {
-            newname = allLineReader.getLastLine().toString();
-        }
-        finalize(status, newname, commandLine.toString());
+        });
     }
 
-    private void finalize(int status, String newName, String commandLine) {
+    private void finishExecution(int status, String newName, String commandLine) {
         String newname = newName;
         if (status == 0) {
             R66Result result = new R66Result(session, true, ErrorCode.CompleteOk, this.session.getRunner());
@@ -307,50 +176,4 @@ public class ExecOutputTask extends AbstractTask {
             futureCompletion.setFailure(exc);
         }
     }
-
-    private void finalizeFromError(PipedOutputStream outputStream,
-            PumpStreamHandler pumpStreamHandler,
-            PipedInputStream inputStream, AllLineReader allLineReader, Thread thread,
-            int status, CommandLine commandLine) {
-        try {
-            Thread.sleep(Configuration.RETRYINMS);
-        } catch (InterruptedException e) {
-        }
-        try {
-            outputStream.flush();
-        } catch (IOException e2) {
-        }
-        try {
-            Thread.sleep(Configuration.RETRYINMS);
-        } catch (InterruptedException e) {
-        }
-        try {
-            outputStream.close();
-        } catch (IOException e1) {
-        }
-        thread.interrupt();
-        try {
-            inputStream.close();
-        } catch (IOException e1) {
-        }
-        try {
-            Thread.sleep(Configuration.RETRYINMS);
-        } catch (InterruptedException e) {
-        }
-        try {
-            pumpStreamHandler.stop();
-        } catch (IOException e2) {
-        }
-        try {
-            Thread.sleep(Configuration.RETRYINMS);
-        } catch (InterruptedException e) {
-        }
-        String result = allLineReader.getLastLine().toString();
-        logger.error("Status: " + status + " Exec in error with " +
-                commandLine + " returns " + result);
-        OpenR66RunnerErrorException exc =
-                new OpenR66RunnerErrorException("<STATUS>" + status + "</STATUS><ERROR>" + result
-                        + "</ERROR>");
-        futureCompletion.setFailure(exc);
-    }
 }
@@ -0,0 +1,449 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Asynchronous engine of the external processes of the Exec tasks.<br>
+ * <br>
+ * Processes are started up to a maximum number of concurrent processes (the others waiting for
+ * their turn), then only one thread polls all of them: their standard output is read as it comes
+ * and their error output is drained, without any reader thread per process, and the time out is
+ * checked. Once a process is over, its listener is called from a separate pool of threads, so
+ * that a long listener (such as a file move) does not delay the polling of the others.<br>
+ * <br>
+ * The engine only frees the thread that would otherwise read the process: the DbTaskRunner step
+ * machine still waits on the future of the task, which is completed by the listener.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class ExecProcessEngine {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(ExecProcessEngine.class);
+
+    /**
+     * Delay in ms between two polls of the running processes
+     */
+    private static final long POLL_DELAY = 50;
+
+    /**
+     * What to keep from the standard output of the process
+     */
+    public static enum Capture {
+        /**
+         * Output read but ignored
+         */
+        NONE,
+        /**
+         * Last non empty line only
+         */
+        LAST_LINE,
+        /**
+         * All non empty lines
+         */
+        ALL_LINES
+    }
+
+    /**
+     * Called once the process is over (from the listener threads of the engine)
+     */
+    public static interface ProcessListener {
+        /**
+         * The process exits by itself
+         * 
+         * @param status
+         *            the exit value of the process
+         * @param output
+         *            the captured output (empty if none)
+         */
+        public void processExited(int status, String output);
+
+        /**
+         * The process was killed since not finished in time
+         */
+        public void processTimedOut();
+
+        /**
+         * The process cannot be started
+         * 
+         * @param e
+         */
+        public void processFailed(IOException e);
+    }
+
+    /**
+     * One external process
+     */
+    private static class ExecProcess {
+        private final String[] args;
+        private final long delay;
+        private final Capture capture;
+        private final ProcessListener listener;
+        private Process process;
+        private InputStream stdout;
+        private InputStream stderr;
+        private long deadline;
+        private boolean retried = false;
+        private final byte[] buffer = new byte[4096];
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final StringBuilder output = new StringBuilder();
+
+        private ExecProcess(String[] args, long delay, Capture capture, ProcessListener listener) {
+            this.args = args;
+            this.delay = delay;
+            this.capture = capture;
+            this.listener = listener;
+        }
+
+        private void start() throws IOException {
+            process = new ProcessBuilder(args).start();
+            try {
+                process.getOutputStream().close();
+            } catch (IOException e) {
+            }
+            stdout = process.getInputStream();
+            stderr = process.getErrorStream();
+            deadline = delay > 0 ? System.currentTimeMillis() + delay : 0;
+        }
+
+        /**
+         * Read what is available from the standard output
+         */
+        private void read() {
+            try {
+                int available;
+                while ((available = stdout.available()) > 0) {
+                    int read = stdout.read(buffer, 0, Math.min(available, buffer.length));
+                    if (read <= 0) {
+                        return;
+                    }
+                    if (capture == Capture.NONE) {
+                        continue;
+                    }
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            endOfLine();
+                        } else {
+                            line.write(buffer[i]);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // stream closed
+            }
+            drain();
+        }
+
+        /**
+         * Ignore what is available from the error output, so that the process is never blocked
+         * on a full pipe
+         */
+        private void drain() {
+            try {
+                int available;
+                while ((available = stderr.available()) > 0) {
+                    if (stderr.read(buffer, 0, Math.min(available, buffer.length)) <= 0) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // stream closed
+            }
+        }
+
+        private void endOfLine() {
+            String value = line.toString().trim();
+            line.reset();
+            if (value.isEmpty()) {
+                return;
+            }
+            if (capture == Capture.LAST_LINE) {
+                output.setLength(0);
+                output.append(value);
+            } else {
+                output.append(value).append('\n');
+            }
+        }
+
+        private void close() {
+            try {
+                stdout.close();
+            } catch (IOException e) {
+            }
+            try {
+                stderr.close();
+            } catch (IOException e) {
+            }
+        }
+
+        /**
+         * 
+         * @return True if the process is over (the listener being called)
+         */
+        private boolean poll() {
+            read();
+            int status;
+            try {
+                status = process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                if (deadline > 0 && System.currentTimeMillis() > deadline) {
+                    process.destroy();
+                    close();
+                    logger.error("Exec is in Time Out");
+                    notifyListener(new Runnable() {
+                        public void run() {
+                            listener.processTimedOut();
+                        }
+                    });
+                    return true;
+                }
+                return false;
+            }
+            read();
+            endOfLine();
+            close();
+            final int exitValue = status;
+            final String result = output.toString();
+            notifyListener(new Runnable() {
+                public void run() {
+                    listener.processExited(exitValue, result);
+                }
+            });
+            return true;
+        }
+    }
+
+    private static final List<ExecProcess> running = new ArrayList<ExecProcess>();
+    private static final ArrayDeque<ExecProcess> waiting = new ArrayDeque<ExecProcess>();
+    private static ScheduledExecutorService scheduler = null;
+    private static ExecutorService listeners = null;
+
+    /**
+     * Run one external command, the listener being called when it is over
+     * 
+     * @param args
+     *            the command and its arguments
+     * @param delay
+     *            the time out in ms (0 for none)
+     * @param capture
+     *            what to keep from the standard output
+     * @param listener
+     */
+    public static void execute(String[] args, long delay, Capture capture, ProcessListener listener) {
+        ExecProcess execProcess = new ExecProcess(args, delay, capture, listener);
+        synchronized (running) {
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new WaarpThreadFactory(
+                        "ExecProcessEngine"));
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        pollAll();
+                    }
+                }, POLL_DELAY, POLL_DELAY, TimeUnit.MILLISECONDS);
+                listeners = Executors.newCachedThreadPool(new WaarpThreadFactory(
+                        "ExecProcessListener"));
+            }
+            waiting.add(execProcess);
+        }
+        startWaiting();
+    }
+
+    /**
+     * Call a listener out of the polling thread (or directly if the engine is stopped)
+     * 
+     * @param call
+     */
+    private static void notifyListener(Runnable call) {
+        ExecutorService executor;
+        synchronized (running) {
+            executor = listeners;
+        }
+        if (executor != null) {
+            try {
+                executor.execute(call);
+                return;
+            } catch (RejectedExecutionException e) {
+                // engine stopped in between
+            }
+        }
+        call.run();
+    }
+
+    /**
+     * 
+     * @param e
+     * @return True if the start failed only since the system is temporarily out of resources
+     *         (EAGAIN), the only case where the start is retried
+     */
+    private static boolean isTemporaryFailure(IOException e) {
+        String message = e.getMessage();
+        return message != null && message.contains("error=11,");
+    }
+
+    /**
+     * Start the waiting processes as long as the limit allows it
+     */
+    private static void startWaiting() {
+        List<ExecProcess> failed = null;
+        List<IOException> errors = null;
+        synchronized (running) {
+            int limit = Configuration.configuration.getExecMaxProcesses();
+            while (!waiting.isEmpty() && (limit <= 0 || running.size() < limit)) {
+                ExecProcess execProcess = waiting.poll();
+                try {
+                    execProcess.start();
+                    running.add(execProcess);
+                } catch (IOException e) {
+                    if (!execProcess.retried && scheduler != null && isTemporaryFailure(e)) {
+                        // Cannot run immediately so retry once
+                        execProcess.retried = true;
+                        final ExecProcess retry = execProcess;
+                        scheduler.schedule(new Runnable() {
+                            public void run() {
+                                synchronized (running) {
+                                    waiting.addFirst(retry);
+                                }
+                                startWaiting();
+                            }
+                        }, Configuration.RETRYINMS, TimeUnit.MILLISECONDS);
+                        continue;
+                    }
+                    logger.error("Exception: " + e.getMessage() + " Exec in error with " +
+                            execProcess.args[0]);
+                    if (failed == null) {
+                        failed = new ArrayList<ExecProcess>();
+                        errors = new ArrayList<IOException>();
+                    }
+                    failed.add(execProcess);
+                    errors.add(e);
+                }
+            }
+        }
+        if (failed != null) {
+            for (int i = 0; i < failed.size(); i++) {
+                final ProcessListener listener = failed.get(i).listener;
+                final IOException error = errors.get(i);
+                notifyListener(new Runnable() {
+                    public void run() {
+                        listener.processFailed(error);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Poll all running processes
+     */
+    private static void pollAll() {
+        List<ExecProcess> current;
+        synchronized (running) {
+            if (running.isEmpty()) {
+                return;
+            }
+            current = new ArrayList<ExecProcess>(running);
+        }
+        boolean ended = false;
+        for (ExecProcess execProcess : current) {
+            boolean over;
+            try {
+                over = execProcess.poll();
+            } catch (Throwable e) {
+                logger.error("Error while checking process: " + execProcess.args[0], e);
+                over = true;
+            }
+            if (over) {
+                ended = true;
+                synchronized (running) {
+                    running.remove(execProcess);
+                }
+            }
+        }
+        if (ended) {
+            startWaiting();
+        }
+    }
+
+    /**
+     * 
+     * @return the number of external processes running
+     */
+    public static int getNbRunning() {
+        synchronized (running) {
+            return running.size();
+        }
+    }
+
+    /**
+     * 
+     * @return the number of external processes waiting for the limit
+     */
+    public static int getNbWaiting() {
+        synchronized (running) {
+            return waiting.size();
+        }
+    }
+
+    /**
+     * Stop the engine, killing the running processes
+     */
+    public static void shutdown() {
+        List<ExecProcess> stopped = new ArrayList<ExecProcess>();
+        synchronized (running) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+            if (listeners != null) {
+                listeners.shutdown();
+                listeners = null;
+            }
+            for (ExecProcess execProcess : running) {
+                execProcess.process.destroy();
+                execProcess.close();
+            }
+            stopped.addAll(running);
+            stopped.addAll(waiting);
+            running.clear();
+            waiting.clear();
+        }
+        for (ExecProcess execProcess : stopped) {
+            execProcess.listener.processFailed(new IOException("Exec engine stopped"));
+        }
+    }
+}
@@ -20,21 +20,18 @@ package org.waarp.openr66.context.task;
 import java.io.File;
 import java.io.IOException;
 
-import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteException;
-import org.apache.commons.exec.ExecuteWatchdog;
-import org.apache.commons.exec.PumpStreamHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.context.ErrorCode;
 import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.ExecProcessEngine.Capture;
+import org.waarp.openr66.context.task.ExecProcessEngine.ProcessListener;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.protocol.configuration.Configuration;
 
 /**
- * Execute an external command
+ * Execute an external command (through the ExecProcessEngine, no thread reading the process)
  * 
  * 
  * @author Frederic Bregier
@@ -94,108 +91,46 @@ public class ExecTask extends AbstractTask {
                 return;
             }
         }
-        CommandLine commandLine = new CommandLine(args[0]);
-        for (int i = 1; i < args.length; i++) {
-            commandLine.addArgument(args[i]);
-        }
-        DefaultExecutor defaultExecutor = new DefaultExecutor();
-        PumpStreamHandler pumpStreamHandler = new PumpStreamHandler(null, null);
-        defaultExecutor.setStreamHandler(pumpStreamHandler);
-        int[] correctValues = {
-                0, 1 };
-        defaultExecutor.setExitValues(correctValues);
-        ExecuteWatchdog watchdog = null;
-        if (delay > 0 && waitForValidation) {
-            watchdog = new ExecuteWatchdog(delay);
-            defaultExecutor.setWatchdog(watchdog);
-        }
+        final String commandLine = finalname;
         if (!waitForValidation) {
             // Do not wait for validation
             futureCompletion.setSuccess();
             logger.info("Exec will start but no WAIT with {}", commandLine);
         }
-        int status = -1;
-        try {
-            status = defaultExecutor.execute(commandLine);
-        } catch (ExecuteException e) {
-            if (e.getExitValue() == -559038737) {
-                // Cannot run immediately so retry once
-                try {
-                    Thread.sleep(Configuration.RETRYINMS);
-                } catch (InterruptedException e1) {
-                }
-                try {
-                    status = defaultExecutor.execute(commandLine);
-                } catch (ExecuteException e1) {
-                    try {
-                        pumpStreamHandler.stop();
-                    } catch (IOException e2) {
+        ExecProcessEngine.execute(args, waitForValidation ? delay : 0, Capture.NONE,
+                new ProcessListener() {
+                    public void processExited(int status, String output) {
+                        finishExecution(status, commandLine);
                     }
-                    logger.error("Exception: " + e.getMessage() +
-                            " Exec in error with " + commandLine.toString());
-                    if (waitForValidation) {
-                        futureCompletion.setFailure(e);
-                    }
-                    return;
-                } catch (IOException e1) {
-                    try {
-                        pumpStreamHandler.stop();
-                    } catch (IOException e2) {
+
+                    public void processTimedOut() {
+                        finishExecution(-1, commandLine);
                     }
-                    logger.error("Exception: " + e.getMessage() +
-                            " Exec in error with " + commandLine.toString());
-                    if (waitForValidation) {
-                        futureCompletion.setFailure(e);
+
+                    public void processFailed(IOException e) {
+                        logger.error("Exception: " + e.getMessage() +
+                                " Exec in error with " + commandLine);
+                        if (waitForValidation) {
+                            futureCompletion.setFailure(e);
+                        }
                     }
-                    return;
-                }
-            } else {
-                try {
-                    pumpStreamHandler.stop();
-                } catch (IOException e2) {
-                }
-                logger.error("Exception: " + e.getMessage() +
-                        " Exec in error with " + commandLine.toString());
-                if (waitForValidation) {
-                    futureCompletion.setFailure(e);
-                }
-                return;
-            }
-        } catch (IOException e) {
-            try {
-                pumpStreamHandler.stop();
-            } catch (IOException e2) {
-            }
-            logger.error("Exception: " + e.getMessage() +
-                    " Exec in error with " + commandLine.toString());
-            if (waitForValidation) {
-                futureCompletion.setFailure(e);
-            }
-            return;
-        }
-        try {
-            pumpStreamHandler.stop();
-        } catch (IOException e2) {
-        }
-        if (defaultExecutor.isFailure(status) && watchdog != null &&
-                watchdog.killedProcess()) {
-            // kill by the watchdoc (time out)
-            logger.error("Exec is in Time Out");
-            status = -1;
-        }
+                });
+    }
+
+    private void finishExecution(int status, String commandLine) {
         if (status == 0) {
             if (waitForValidation) {
                 futureCompletion.setSuccess();
             }
             logger.info("Exec OK with {}", commandLine);
         } else if (status == 1) {
-            logger.warn("Exec in warning with " + commandLine.toString());
+            logger.warn("Exec in warning with " + commandLine);
             if (waitForValidation) {
                 futureCompletion.setSuccess();
             }
         } else {
             logger.error("Status: " + status + " Exec in error with " +
-                    commandLine.toString());
+                    commandLine);
             if (waitForValidation) {
                 futureCompletion.cancel();
             }
@@ -0,0 +1,329 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * Shared executor of the R66Runnable used by ExecJavaTask: one bounded pool for all the Java
+ * tasks, the constructors of the task classes being kept once found, with an optional limit of
+ * concurrent executions and some statistics for each class.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class JavaTaskExecutor {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(JavaTaskExecutor.class);
+
+    /**
+     * Known task classes by name
+     */
+    private static final ConcurrentHashMap<String, JavaTaskClass> taskClasses = new ConcurrentHashMap<String, JavaTaskClass>();
+
+    /**
+     * Shared pool
+     */
+    private static ThreadPoolExecutor executor = null;
+
+    /**
+     * One R66Runnable class with its constructor and its statistics
+     */
+    public static class JavaTaskClass {
+        private final String className;
+        private final Constructor<? extends R66Runnable> constructor;
+        private final ArrayDeque<JavaTaskFuture> waiting = new ArrayDeque<JavaTaskFuture>();
+        private int running = 0;
+        private final AtomicLong nbExecuted = new AtomicLong();
+        private final AtomicLong nbTimeout = new AtomicLong();
+        private final AtomicLong totalQueueTime = new AtomicLong();
+        private final AtomicLong totalRunTime = new AtomicLong();
+        private final AtomicLong maxRunTime = new AtomicLong();
+
+        private JavaTaskClass(String className, Constructor<? extends R66Runnable> constructor) {
+            this.className = className;
+            this.constructor = constructor;
+        }
+
+        /**
+         * 
+         * @return a new instance of this task class
+         * @throws Exception
+         */
+        public R66Runnable newInstance() throws Exception {
+            return constructor.newInstance();
+        }
+
+        private synchronized void schedule(JavaTaskFuture future) {
+            waiting.add(future);
+            dispatch();
+        }
+
+        private synchronized void finished() {
+            running--;
+            dispatch();
+        }
+
+        private synchronized void cancelled(JavaTaskFuture future) {
+            waiting.remove(future);
+        }
+
+        private void dispatch() {
+            int limit = Configuration.configuration.getJavaTaskClassLimit();
+            while (!waiting.isEmpty() && (limit <= 0 || running < limit)) {
+                JavaTaskFuture future = waiting.poll();
+                if (future.isCancelled()) {
+                    continue;
+                }
+                running++;
+                future.dispatched();
+                getExecutor().execute(future);
+            }
+        }
+
+        /**
+         * Account one task not finished in time
+         */
+        public void timeout() {
+            nbTimeout.incrementAndGet();
+        }
+
+        /**
+         * @return the className
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the number of tasks of this class currently running
+         */
+        public synchronized int getRunning() {
+            return running;
+        }
+
+        /**
+         * @return the number of tasks of this class waiting for the class limit
+         */
+        public synchronized int getWaiting() {
+            return waiting.size();
+        }
+
+        /**
+         * @return the number of tasks of this class executed
+         */
+        public long getNbExecuted() {
+            return nbExecuted.get();
+        }
+
+        /**
+         * @return the number of tasks of this class not finished in time
+         */
+        public long getNbTimeout() {
+            return nbTimeout.get();
+        }
+
+        /**
+         * @return the total time in ms the tasks of this class waited before running
+         */
+        public long getTotalQueueTime() {
+            return totalQueueTime.get();
+        }
+
+        /**
+         * @return the total time in ms the tasks of this class were running
+         */
+        public long getTotalRunTime() {
+            return totalRunTime.get();
+        }
+
+        /**
+         * @return the longest time in ms of one task of this class
+         */
+        public long getMaxRunTime() {
+            return maxRunTime.get();
+        }
+    }
+
+    /**
+     * Future of one R66Runnable, accounting its queue and run times
+     */
+    public static class JavaTaskFuture extends FutureTask<Object> {
+        private final JavaTaskClass taskClass;
+        private final long submitTime = System.currentTimeMillis();
+        private final CountDownLatch dispatched = new CountDownLatch(1);
+        private volatile long dispatchTime = 0;
+
+        private JavaTaskFuture(JavaTaskClass taskClass, R66Runnable runnable) {
+            super(runnable, null);
+            this.taskClass = taskClass;
+        }
+
+        private void dispatched() {
+            dispatchTime = System.currentTimeMillis();
+            dispatched.countDown();
+        }
+
+        /**
+         * Wait for the task, the timeout starting only once the class limit let it go to the
+         * shared pool
+         * 
+         * @param timeout
+         * @param unit
+         * @return the result of the task
+         * @throws InterruptedException
+         * @throws ExecutionException
+         * @throws TimeoutException
+         */
+        public Object getOnceDispatched(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            dispatched.await();
+            long remaining = unit.toMillis(timeout)
+                    - (System.currentTimeMillis() - dispatchTime);
+            return get(remaining > 0 ? remaining : 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                taskClass.cancelled(this);
+            }
+            // also releases a waiter on a task cancelled before being dispatched
+            dispatched.countDown();
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled()) {
+                // cancelled once dispatched but before running
+                taskClass.finished();
+                return;
+            }
+            long start = System.currentTimeMillis();
+            taskClass.totalQueueTime.addAndGet(start - submitTime);
+            try {
+                super.run();
+            } finally {
+                long duration = System.currentTimeMillis() - start;
+                taskClass.nbExecuted.incrementAndGet();
+                taskClass.totalRunTime.addAndGet(duration);
+                long max = taskClass.maxRunTime.get();
+                while (duration > max && !taskClass.maxRunTime.compareAndSet(max, duration)) {
+                    max = taskClass.maxRunTime.get();
+                }
+                taskClass.finished();
+            }
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = Configuration.configuration.getJavaTaskThreads();
+            if (threads <= 0) {
+                threads = Configuration.configuration.getRUNNER_THREAD();
+            }
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new WaarpThreadFactory("JavaExecutor"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * 
+     * @param className
+     * @return the task class, its constructor being looked for only once
+     * @throws Exception
+     *             if the class is not a valid R66Runnable
+     */
+    public static JavaTaskClass getTaskClass(String className) throws Exception {
+        JavaTaskClass taskClass = taskClasses.get(className);
+        if (taskClass == null) {
+            Constructor<? extends R66Runnable> constructor =
+                    Class.forName(className).asSubclass(R66Runnable.class).getConstructor();
+            taskClass = new JavaTaskClass(className, constructor);
+            JavaTaskClass previous = taskClasses.putIfAbsent(className, taskClass);
+            if (previous != null) {
+                taskClass = previous;
+            }
+            logger.debug("New ExecJava class: {}", className);
+        }
+        return taskClass;
+    }
+
+    /**
+     * Run the task within the shared pool, when its class limit allows it
+     * 
+     * @param taskClass
+     * @param runnable
+     * @return the future of this task, to wait for or to cancel
+     */
+    public static JavaTaskFuture submit(JavaTaskClass taskClass, R66Runnable runnable) {
+        JavaTaskFuture future = new JavaTaskFuture(taskClass, runnable);
+        taskClass.schedule(future);
+        return future;
+    }
+
+    /**
+     * 
+     * @return the known task classes with their statistics
+     */
+    public static Collection<JavaTaskClass> getTaskClasses() {
+        return taskClasses.values();
+    }
+
+    /**
+     * 
+     * @return the number of tasks waiting for a thread of the shared pool
+     */
+    public static synchronized int getQueueSize() {
+        if (executor == null) {
+            return 0;
+        }
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop the shared pool
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
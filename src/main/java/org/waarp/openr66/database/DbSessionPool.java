@@ -0,0 +1,224 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.database.DbAdmin;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+
+/**
+ * Bounded pool of database sessions, for database models that do not support concurrent access
+ * through one shared connection.
+ * 
+ * 
+ * 
+ * At most dbpoolmax sessions are opened at once. A borrower waits at most dbpoolwait ms for a
+ * session to be released before giving up. Released sessions are kept open and reused (the most
+ * recently released first), so that each transfer does not pay a new database connection.
+ * 
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbSessionPool {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbSessionPool.class);
+
+    private final DbAdmin admin;
+    private final int maxSessions;
+    private final long maxWait;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<DbSession> idleSessions = new LinkedBlockingDeque<DbSession>();
+    private final AtomicInteger nbActive = new AtomicInteger();
+    private final AtomicLong nbBorrowed = new AtomicLong();
+    private final AtomicLong nbCreated = new AtomicLong();
+    private final AtomicLong nbWaited = new AtomicLong();
+    private final AtomicLong nbTimeout = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * 
+     * @param admin
+     * @param maxSessions
+     *            maximum number of sessions opened at once
+     * @param maxWait
+     *            maximum time in ms to wait for a free session
+     */
+    public DbSessionPool(DbAdmin admin, int maxSessions, long maxWait) {
+        this.admin = admin;
+        this.maxSessions = maxSessions;
+        this.maxWait = maxWait;
+        this.permits = new Semaphore(maxSessions, true);
+    }
+
+    /**
+     * 
+     * @return a valid session, to be given back through release
+     * @throws WaarpDatabaseNoConnectionException
+     *             if no session is available within the delay or cannot be opened
+     */
+    public DbSession borrow() throws WaarpDatabaseNoConnectionException {
+        if (closed) {
+            throw new WaarpDatabaseNoConnectionException("Database session pool closed");
+        }
+        if (!permits.tryAcquire()) {
+            nbWaited.incrementAndGet();
+            long start = System.currentTimeMillis();
+            boolean acquired = false;
+            try {
+                acquired = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            waitTime.addAndGet(System.currentTimeMillis() - start);
+            if (!acquired) {
+                nbTimeout.incrementAndGet();
+                throw new WaarpDatabaseNoConnectionException(
+                        "No database session available within " + maxWait + " ms");
+            }
+        }
+        DbSession session = idleSessions.pollFirst();
+        while (session != null) {
+            if (session.isDisActive()) {
+                session.checkConnectionNoException();
+            }
+            if (!session.isDisActive()) {
+                break;
+            }
+            logger.debug("Drop invalid pooled database session");
+            session.forceDisconnect();
+            session = idleSessions.pollFirst();
+        }
+        if (session == null) {
+            try {
+                session = new DbSession(admin, false);
+            } catch (WaarpDatabaseNoConnectionException e) {
+                permits.release();
+                throw e;
+            }
+            nbCreated.incrementAndGet();
+        }
+        nbActive.incrementAndGet();
+        nbBorrowed.incrementAndGet();
+        return session;
+    }
+
+    /**
+     * Give back a session obtained through borrow
+     * 
+     * @param session
+     */
+    public void release(DbSession session) {
+        nbActive.decrementAndGet();
+        if (closed || session.isDisActive()) {
+            session.forceDisconnect();
+        } else {
+            idleSessions.offerFirst(session);
+        }
+        permits.release();
+    }
+
+    /**
+     * Close all idle sessions and refuse new borrowers. Sessions still borrowed are closed when
+     * released.
+     */
+    public void close() {
+        closed = true;
+        DbSession session = idleSessions.pollFirst();
+        while (session != null) {
+            session.forceDisconnect();
+            session = idleSessions.pollFirst();
+        }
+    }
+
+    /**
+     * @return the maximum number of sessions
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @return the number of sessions currently borrowed
+     */
+    public int getNbActive() {
+        return nbActive.get();
+    }
+
+    /**
+     * @return the number of sessions opened and not borrowed
+     */
+    public int getNbIdle() {
+        return idleSessions.size();
+    }
+
+    /**
+     * @return the number of borrow since startup
+     */
+    public long getNbBorrowed() {
+        return nbBorrowed.get();
+    }
+
+    /**
+     * @return the number of sessions opened since startup
+     */
+    public long getNbCreated() {
+        return nbCreated.get();
+    }
+
+    /**
+     * @return the number of borrow that had to wait for a free session
+     */
+    public long getNbWaited() {
+        return nbWaited.get();
+    }
+
+    /**
+     * @return the number of borrow that failed after waiting
+     */
+    public long getNbTimeout() {
+        return nbTimeout.get();
+    }
+
+    /**
+     * @return the total time in ms spent waiting for a free session
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DbSessionPool: " + nbActive.get() + " active " + idleSessions.size() + " idle on "
+                + maxSessions + " created: " + nbCreated.get() + " borrowed: " + nbBorrowed.get()
+                + " waited: " + nbWaited.get() + " (" + waitTime.get() + " ms) timeout: "
+                + nbTimeout.get();
+    }
+}
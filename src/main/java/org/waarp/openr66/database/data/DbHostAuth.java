@@ -19,6 +19,7 @@ package org.waarp.openr66.database.data;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.security.MessageDigest;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
@@ -32,10 +33,10 @@ import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
-import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.lru.SynchronizedLruCache;
 import org.waarp.common.role.RoleDefault;
 import org.waarp.common.utility.WaarpStringUtils;
 import org.waarp.openr66.context.R66Session;
@@ -77,6 +78,11 @@ public class DbHostAuth extends AbstractDbData {
     private static final ConcurrentHashMap<String, DbHostAuth> dbR66HostAuthHashMap =
             new ConcurrentHashMap<String, DbHostAuth>();
 
+    /**
+     * LRU cache of DbHostAuth by hostid used on the authentication path (null if disabled)
+     */
+    private static volatile SynchronizedLruCache<String, DbHostAuth> dbR66HostAuthCache = null;
+
     private String hostid;
 
     private String address;
@@ -98,6 +104,16 @@ public class DbHostAuth extends AbstractDbData {
     private int updatedInfo = UpdatedInfo.UNKNOWN
             .ordinal();
 
+    /**
+     * Decrypted version of hostkey, computed once
+     */
+    private transient byte[] decryptedKey = null;
+
+    /**
+     * Encrypted hostkey from which decryptedKey was computed
+     */
+    private transient byte[] decryptedFrom = null;
+
     // ALL TABLE SHOULD IMPLEMENT THIS
     public static final int NBPRKEY = 1;
 
@@ -337,6 +353,74 @@ public class DbHostAuth extends AbstractDbData {
         select();
     }
 
+    /**
+     * Create the LRU cache used on the authentication path
+     * 
+     * @param limit
+     *            limit of number of entries in the cache
+     * @param ttl
+     *            time to leave used (0 disables the cache)
+     */
+    public static void createLruCache(int limit, long ttl) {
+        if (limit <= 0 || ttl <= 0) {
+            dbR66HostAuthCache = null;
+            return;
+        }
+        dbR66HostAuthCache = new SynchronizedLruCache<String, DbHostAuth>(limit, ttl);
+    }
+
+    /**
+     * Get the DbHostAuth from the cache if possible, else load it from the database and keep it
+     * in the cache. The returned object is shared and must be considered as read only.
+     * 
+     * @param dbSession
+     * @param hostid
+     * @return the DbHostAuth
+     * @throws WaarpDatabaseException
+     */
+    public static DbHostAuth getFromCache(DbSession dbSession, String hostid)
+            throws WaarpDatabaseException {
+        SynchronizedLruCache<String, DbHostAuth> cache = dbR66HostAuthCache;
+        if (dbSession == null || cache == null || hostid == null) {
+            return new DbHostAuth(dbSession, hostid);
+        }
+        String key = hostid;
+        if (Configuration.configuration.getAliases().containsKey(hostid)) {
+            key = Configuration.configuration.getAliases().get(hostid);
+        }
+        DbHostAuth auth = cache.get(key);
+        if (auth != null) {
+            return auth;
+        }
+        auth = new DbHostAuth(dbSession, key);
+        // shared entry: keep no reference to a session borrowed by the caller
+        auth.dbSession = null;
+        cache.put(key, auth);
+        return auth;
+    }
+
+    /**
+     * Remove the given host from the authentication cache
+     * 
+     * @param hostid
+     */
+    public static void invalidateCache(String hostid) {
+        SynchronizedLruCache<String, DbHostAuth> cache = dbR66HostAuthCache;
+        if (cache != null && hostid != null) {
+            cache.remove(hostid);
+        }
+    }
+
+    /**
+     * Clear the authentication cache
+     */
+    public static void clearCache() {
+        SynchronizedLruCache<String, DbHostAuth> cache = dbR66HostAuthCache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
     /**
      * Delete all entries (used when purge and reload)
      * 
@@ -355,6 +439,7 @@ public class DbHostAuth extends AbstractDbData {
         try {
             preparedStatement.createPrepareStatement("DELETE FROM " + table);
             preparedStatement.executeUpdate();
+            clearCache();
             return result;
         } finally {
             preparedStatement.realClose();
@@ -376,6 +461,7 @@ public class DbHostAuth extends AbstractDbData {
             setPrimaryKey();
             setValues(preparedStatement, primaryKey);
             int count = preparedStatement.executeUpdate();
+            invalidateCache(this.hostid);
             if (count <= 0) {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
@@ -402,6 +488,7 @@ public class DbHostAuth extends AbstractDbData {
                     " (" + selectAllFields + ") VALUES " + insertAllValues);
             setValues(preparedStatement, allFields);
             int count = preparedStatement.executeUpdate();
+            invalidateCache(this.hostid);
             if (count <= 0) {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
@@ -486,6 +573,7 @@ public class DbHostAuth extends AbstractDbData {
                     getWherePrimaryKey());
             setValues(preparedStatement, allFields);
             int count = preparedStatement.executeUpdate();
+            invalidateCache(this.hostid);
             if (count <= 0) {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
@@ -711,14 +799,34 @@ public class DbHostAuth extends AbstractDbData {
         if (newkey == null || !isActive) {
             return false;
         }
+        byte[] key = getDecryptedKey();
+        if (key == null) {
+            return false;
+        }
+        // constant time comparison
+        return MessageDigest.isEqual(key, newkey);
+    }
+
+    /**
+     * 
+     * @return the decrypted hostkey, computed once while hostkey is unchanged, or null if an
+     *         error occurs
+     */
+    private byte[] getDecryptedKey() {
+        byte[] from = this.hostkey;
+        byte[] key = decryptedKey;
+        if (key != null && decryptedFrom == from) {
+            return key;
+        }
         try {
-            return FilesystemBasedDigest.equalPasswd(
-                    Configuration.configuration.getCryptoKey().decryptHexInBytes(this.hostkey),
-                    newkey);
+            key = Configuration.configuration.getCryptoKey().decryptHexInBytes(from);
         } catch (Exception e) {
             logger.debug("Error while checking key", e);
-            return false;
+            return null;
         }
+        decryptedKey = key;
+        decryptedFrom = from;
+        return key;
     }
 
     /**
@@ -846,6 +846,33 @@ public class DbRule extends AbstractDbData {
         return dbArrayList.toArray(result);
     }
 
+    /**
+     * Load all DbRule from database into the internal hashMap, whatever its current content, such
+     * that they are then found without any database access
+     * 
+     * @param dbSession
+     * @return the number of DbRule loaded
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static int loadAllRules(DbSession dbSession)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        String request = "SELECT " + selectAllFields;
+        request += " FROM " + table;
+        int nb = 0;
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession, request);
+        try {
+            preparedStatement.executeQuery();
+            while (preparedStatement.getNext()) {
+                getFromStatement(preparedStatement);
+                nb++;
+            }
+        } finally {
+            preparedStatement.realClose();
+        }
+        return nb;
+    }
+
     /**
      * For instance from Commander when getting updated information
      * 
@@ -17,17 +17,22 @@
  */
 package org.waarp.openr66.database.data;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -46,6 +51,7 @@ import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
 import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
 import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.common.database.model.DbType;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
@@ -187,9 +193,33 @@ public class DbTaskRunner extends AbstractDbData {
             Columns.GLOBALSTEP, Columns.INFOSTATUS, Columns.SPECIALID
     };
 
+    /**
+     * Names of the specific indexes on RUNNER (see {@link #indexesByAccess})
+     */
+    public static final String[] indexNames = {
+            "IDX_RUNNER_OWNID", "IDX_RUNNER_OWNSTART"
+    };
+
+    /**
+     * Columns of the specific indexes on RUNNER, limited to the listings by id (keyset pagination)
+     * and by date, since each index is maintained on every update of a transfer.
+     */
+    public static final Columns[][] indexesByAccess = {
+            { Columns.OWNERREQ, Columns.SPECIALID },
+            { Columns.OWNERREQ, Columns.STARTTRANS, Columns.SPECIALID }
+    };
+
     public static final String XMLRUNNERS = "taskrunners";
     public static final String XMLRUNNER = "runner";
     public static final String XMLEXTENSION = "_singlerunner.xml";
+    /**
+     * Extension of gzipped exports
+     */
+    public static final String GZEXTENSION = ".gz";
+    /**
+     * Number of rows fetched at once from the database cursor when exporting
+     */
+    private static final int EXPORT_FETCHSIZE = 1000;
 
     /**
      * GlobalStep Value
@@ -273,6 +303,11 @@ public class DbTaskRunner extends AbstractDbData {
     private boolean isRecvThrough = false;
     private boolean isSendThrough = false;
     private long originalSize = -1;
+    /**
+     * State of this runner as last read or written in the database by this instance, for the
+     * Monitoring counters
+     */
+    private DbTaskRunnerCounters.State countedState = null;
 
     /**
      * Special For DbTaskRunner
@@ -469,6 +504,34 @@ public class DbTaskRunner extends AbstractDbData {
         originalSize = getOriginalSizeTransferMap();
     }
 
+    /**
+     * 
+     * @return the current state of this runner for the Monitoring counters (null if not owned)
+     */
+    private DbTaskRunnerCounters.State newCountedState() {
+        if (ownerRequest == null || !ownerRequest.equals(Configuration.configuration.getHOST_ID())) {
+            return null;
+        }
+        return new DbTaskRunnerCounters.State(start != null ? start.getTime() : 0, updatedInfo,
+                globalstep, status, infostatus, requesterHostId, requestedHostId);
+    }
+
+    /**
+     * Account the change of this runner, just written in the database, in the Monitoring counters
+     * 
+     * @param deleted
+     *            True if this runner is deleted from the database
+     */
+    private void countTransition(boolean deleted) {
+        DbTaskRunnerCounters.State current = deleted ? null : newCountedState();
+        DbTaskRunnerCounters counters = Configuration.configuration.getTaskRunnerCounters();
+        if (counters != null) {
+            counters.transition(specialId + " " + requesterHostId + " " + requestedHostId,
+                    countedState, current);
+        }
+        countedState = current;
+    }
+
     /**
      * 
      * @return The Where condition on Primary Key
@@ -569,6 +632,26 @@ public class DbTaskRunner extends AbstractDbData {
     public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender,
             RequestPacket requestPacket, String requested, Timestamp startTime)
             throws WaarpDatabaseException {
+        this(dbSession, rule, isSender, requestPacket, requested, startTime, true);
+    }
+
+    /**
+     * Constructor for submission (no transfer session), from database.
+     * 
+     * @param dbSession
+     * @param rule
+     * @param isSender
+     * @param requestPacket
+     * @param requested
+     * @param startTime
+     * @param create
+     *            if True, it is created, so with a new specialId if necessary, else it shall be
+     *            inserted later on (see insertAll)
+     * @throws WaarpDatabaseException
+     */
+    public DbTaskRunner(DbSession dbSession, DbRule rule, boolean isSender,
+            RequestPacket requestPacket, String requested, Timestamp startTime, boolean create)
+            throws WaarpDatabaseException {
         super(dbSession);
         this.session = null;
         this.rule = rule;
@@ -613,8 +696,10 @@ public class DbTaskRunner extends AbstractDbData {
             }
         }
         checkThroughMode();
-        create();
-        requestPacket.setSpecialId(specialId);
+        if (create) {
+            create();
+            requestPacket.setSpecialId(specialId);
+        }
     }
 
     /**
@@ -1006,6 +1091,7 @@ public class DbTaskRunner extends AbstractDbData {
             return;
         }
         super.delete();
+        countTransition(true);
     }
 
     private void addNoDb() {
@@ -1062,6 +1148,7 @@ public class DbTaskRunner extends AbstractDbData {
             setPrimaryKey();
         }
         super.insert();
+        countTransition(false);
     }
 
     /**
@@ -1155,11 +1242,92 @@ public class DbTaskRunner extends AbstractDbData {
                 }
             }
             isSaved = true;
+            countTransition(false);
         } finally {
             preparedStatement.realClose();
         }
     }
 
+    /**
+     * Insert all those new runners using one JDBC batch, each one getting a new specialId if
+     * necessary. Runners already saved are ignored. If the batch fails, runners are checked and
+     * inserted one by one.
+     * 
+     * @param dbSession
+     * @param runners
+     * @return the number of runners inserted
+     * @throws WaarpDatabaseException
+     */
+    public static int insertAll(DbSession dbSession, List<DbTaskRunner> runners)
+            throws WaarpDatabaseException {
+        List<DbTaskRunner> batch = new ArrayList<DbTaskRunner>(runners.size());
+        int inserted = 0;
+        DbPreparedStatement preparedStatement = new DbPreparedStatement(dbSession);
+        try {
+            preparedStatement.createPrepareStatement("INSERT INTO " + table +
+                    " (" + selectAllFields + ") VALUES " + insertAllValues);
+            for (DbTaskRunner runner : runners) {
+                if (runner.isSaved) {
+                    continue;
+                }
+                if (runner.dbSession == null || runner.shallIgnoreSave()) {
+                    runner.insert();
+                    inserted++;
+                    continue;
+                }
+                if (runner.specialId == DbConstant.ILLEGALVALUE) {
+                    runner.specialId = dbSession.getAdmin().getDbModel().nextSequence(dbSession);
+                    runner.setPrimaryKey();
+                }
+                runner.setToArray();
+                runner.setValues(preparedStatement, runner.allFields);
+                preparedStatement.getPreparedStatement().addBatch();
+                batch.add(runner);
+            }
+            if (!batch.isEmpty()) {
+                preparedStatement.getPreparedStatement().executeBatch();
+            }
+        } catch (SQLException e) {
+            logger.warn("Batch insert failed, insert one by one: {}", e.getMessage());
+            return inserted + insertOneByOne(runners);
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Batch insert failed, insert one by one: {}", e.getMessage());
+            return inserted + insertOneByOne(runners);
+        } finally {
+            preparedStatement.realClose();
+        }
+        for (DbTaskRunner runner : batch) {
+            runner.isSaved = true;
+            runner.countTransition(false);
+        }
+        return inserted + batch.size();
+    }
+
+    /**
+     * Insert those runners one by one after a failed batch, the ones already inserted by the batch
+     * being only marked as saved
+     * 
+     * @param runners
+     * @return the number of runners inserted
+     * @throws WaarpDatabaseException
+     */
+    private static int insertOneByOne(List<DbTaskRunner> runners) throws WaarpDatabaseException {
+        int inserted = 0;
+        for (DbTaskRunner runner : runners) {
+            if (runner.isSaved) {
+                continue;
+            }
+            inserted++;
+            if (runner.exist()) {
+                runner.isSaved = true;
+                runner.countTransition(false);
+            } else {
+                runner.create();
+            }
+        }
+        return inserted;
+    }
+
     @Override
     public boolean exist() throws WaarpDatabaseException {
         boolean shallIgnore = shallIgnoreSave();
@@ -1277,6 +1445,7 @@ public class DbTaskRunner extends AbstractDbData {
             this.isSendThrough = previous.isSendThrough;
             this.rule = previous.rule;
             this.isSaved = true;
+            this.countedState = previous.countedState;
             if (rule == null) {
                 rule = new DbRule(this.dbSession, ruleId);
             }
@@ -1284,6 +1453,7 @@ public class DbTaskRunner extends AbstractDbData {
             return;
         }
         super.select();
+        countedState = newCountedState();
         if (rule == null) {
             try {
                 rule = new DbRule(this.dbSession, ruleId);
@@ -1358,6 +1528,11 @@ public class DbTaskRunner extends AbstractDbData {
      * @throws WaarpDatabaseException
      */
     protected void optimizedUpdate() throws WaarpDatabaseException {
+        DbTaskRunnerWriter writer = Configuration.configuration.getTaskRunnerWriter();
+        if (writer != null) {
+            // Any pending rank is superseded by this update
+            writer.cancel(this);
+        }
         setToArray();
         // getting the preparedStatement
         if (preparedStatementUpdate == null) {
@@ -1374,6 +1549,7 @@ public class DbTaskRunner extends AbstractDbData {
                 throw new WaarpDatabaseNoDataException("No row found");
             }
             isSaved = true;
+            countTransition(false);
         } finally {
             // preparedStatement.realClose();
         }
@@ -1387,6 +1563,19 @@ public class DbTaskRunner extends AbstractDbData {
         }
     }
 
+    /**
+     * Stop using the given database session, when given back to its pool at the end of the
+     * request. This runner is then only kept in memory.
+     * 
+     * @param session
+     */
+    public void releaseDbSession(DbSession session) {
+        if (session != null && dbSession == session) {
+            clean();
+            dbSession = null;
+        }
+    }
+
     /**
      * Special method used to force insert in case of SelfSubmit
      * 
@@ -1480,6 +1669,7 @@ public class DbTaskRunner extends AbstractDbData {
                 .getDbSession());
         dbTaskRunner.getValues(preparedStatement, dbTaskRunner.allFields);
         dbTaskRunner.setFromArray();
+        dbTaskRunner.countedState = dbTaskRunner.newCountedState();
         if (dbTaskRunner.rule == null) {
             try {
                 dbTaskRunner.rule = new DbRule(dbTaskRunner.dbSession, dbTaskRunner.ruleId);
@@ -1508,6 +1698,7 @@ public class DbTaskRunner extends AbstractDbData {
                 .getDbSession());
         dbTaskRunner.getValues(preparedStatement, dbTaskRunner.allFields);
         dbTaskRunner.setFromArray();
+        dbTaskRunner.countedState = dbTaskRunner.newCountedState();
         if (dbTaskRunner.rule == null) {
             try {
                 dbTaskRunner.rule = new DbRule(dbTaskRunner.dbSession, dbTaskRunner.ruleId);
@@ -1823,11 +2014,49 @@ public class DbTaskRunner extends AbstractDbData {
             String req, boolean pending, boolean transfer, boolean error,
             boolean done, boolean all, String owner) throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException {
+        return getFilterPrepareStatement(session, limit, orderBySpecialId, startid, stopid, start, stop, rule, req,
+                pending, transfer, error, done, all,
+                owner, null);
+    }
+
+    /**
+     * 
+     * @param session
+     * @param limit
+     * @param orderBySpecialId
+     * @param startid
+     * @param stopid
+     * @param start
+     * @param stop
+     * @param rule
+     * @param req
+     * @param pending
+     * @param transfer
+     * @param error
+     * @param done
+     * @param all
+     * @param owner
+     * @param after
+     *            if not null, the full key of the last row of the previous page (see
+     *            {@link #getJson(DbPreparedStatement, int, NbAndSpecialId)}): only the rows strictly
+     *            below this key are selected, ordered by decreasing key (SpecialId, OwnerReq,
+     *            Requester, Requested)
+     * @return the DbPreparedStatement according to the filter
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public static DbPreparedStatement getFilterPrepareStatement(
+            DbSession session, int limit, boolean orderBySpecialId, String startid, String stopid,
+            Timestamp start, Timestamp stop, String rule,
+            String req, boolean pending, boolean transfer, boolean error,
+            boolean done, boolean all, String owner, NbAndSpecialId after)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
         DbPreparedStatement preparedStatement = new DbPreparedStatement(session);
         String request = "SELECT " + selectAllFields + " FROM " + table;
         String orderby = "";
-        if (startid == null && stopid == null &&
-                start == null && stop == null && rule == null && req == null && all) {
+        boolean noFilter = startid == null && stopid == null &&
+                start == null && stop == null && rule == null && req == null && all;
+        if (noFilter) {
             if (owner == null || owner.isEmpty()) {
                 orderby = " WHERE " + getLimitWhereCondition();
             } else if (!owner.equals("*")) {
@@ -1840,14 +2069,55 @@ public class DbTaskRunner extends AbstractDbData {
                 orderby = " AND " + Columns.OWNERREQ + " = '" + owner + "' ";
             }
         }
-        if (orderBySpecialId) {
+        if (after != null) {
+            // SpecialId alone is not unique: compare on the full key, written out since the row
+            // value comparison (a, b) < (?, ?) is not supported by all databases
+            orderby += (noFilter && orderby.isEmpty() ? " WHERE " : " AND ") + "(" +
+                    Columns.SPECIALID.name() + " < ? OR (" + Columns.SPECIALID.name() + " = ? AND (" +
+                    Columns.OWNERREQ.name() + " < ? OR (" + Columns.OWNERREQ.name() + " = ? AND (" +
+                    Columns.REQUESTER.name() + " < ? OR (" + Columns.REQUESTER.name() + " = ? AND " +
+                    Columns.REQUESTED.name() + " < ? )))))) ";
+            orderby += " ORDER BY " + Columns.SPECIALID.name() + " DESC, " +
+                    Columns.OWNERREQ.name() + " DESC, " + Columns.REQUESTER.name() + " DESC, " +
+                    Columns.REQUESTED.name() + " DESC ";
+        } else if (orderBySpecialId) {
             orderby += " ORDER BY " + Columns.SPECIALID.name() + " DESC ";
         } else {
             orderby += " ORDER BY " + Columns.STARTTRANS.name() + " DESC ";
         }
-        return getFilterCondition(preparedStatement, request, limit, orderby,
+        preparedStatement = getFilterCondition(preparedStatement, request, limit, orderby,
                 startid, stopid, start, stop, rule,
                 req, pending, transfer, error, done, all);
+        if (after != null) {
+            // the key condition comes after the ones of the filter
+            int rank = 1;
+            if (start != null) {
+                rank++;
+            }
+            if (stop != null) {
+                rank++;
+            }
+            if (startid != null) {
+                rank++;
+            }
+            if (stopid != null) {
+                rank++;
+            }
+            try {
+                PreparedStatement pstt = preparedStatement.getPreparedStatement();
+                pstt.setLong(rank++, after.lowerSpecialId);
+                pstt.setLong(rank++, after.lowerSpecialId);
+                pstt.setString(rank++, after.lowerOwnerReq);
+                pstt.setString(rank++, after.lowerOwnerReq);
+                pstt.setString(rank++, after.lowerRequester);
+                pstt.setString(rank++, after.lowerRequester);
+                pstt.setString(rank, after.lowerRequested);
+            } catch (SQLException e) {
+                preparedStatement.realClose();
+                throw new WaarpDatabaseSqlException(e);
+            }
+        }
+        return preparedStatement;
     }
 
     /**
@@ -2684,6 +2954,21 @@ public class DbTaskRunner extends AbstractDbData {
         return blocksize;
     }
 
+    /**
+     * Change the blocksize, only before the first block is transferred since the restart position
+     * is computed as rank * blocksize
+     * 
+     * @param blocksize
+     *            the blocksize to set
+     */
+    public void setBlocksize(int blocksize) {
+        if (this.rank == 0 && blocksize > 0 && this.blocksize != blocksize) {
+            this.blocksize = blocksize;
+            allFields[Columns.BLOCKSZ.ordinal()].setValue(this.blocksize);
+            isSaved = false;
+        }
+    }
+
     /**
      * @return the filename
      */
@@ -3518,6 +3803,16 @@ public class DbTaskRunner extends AbstractDbData {
             modulo = 100; // Bug in JDBC MariaDB/MySQL which tends to consume more memory
         }
         if (rank % modulo == 0) {
+            DbTaskRunnerWriter writer = Configuration.configuration.getTaskRunnerWriter();
+            if (writer != null && dbSession != null && !isSelfRequest()) {
+                // Write behind of the rank
+                writer.schedule(this);
+                if (rank % 100 == 0 && Configuration.configuration.getR66Mib() != null) {
+                    Configuration.configuration.getR66Mib().notifyTask(
+                            "Task is currently " + UpdatedInfo.values()[updatedInfo].name(), this);
+                }
+                return;
+            }
             // Save each 10 blocks
             try {
                 update();
@@ -3920,6 +4215,14 @@ public class DbTaskRunner extends AbstractDbData {
         return this.requesterHostId;
     }
 
+    /**
+     * 
+     * @return the owner HostId of this request
+     */
+    public String getOwnerRequest() {
+        return this.ownerRequest;
+    }
+
     /**
      * @return the start
      */
@@ -4055,7 +4358,6 @@ public class DbTaskRunner extends AbstractDbData {
                 }
                 node = DbTaskRunner.getElementFromRunner(runner);
                 xmlWriter.write(node);
-                xmlWriter.flush();
                 nbAndSpecialId.nb++;
             }
             xmlWriter.writeClose(root);
@@ -4078,6 +4380,26 @@ public class DbTaskRunner extends AbstractDbData {
     public static String getJson(DbPreparedStatement preparedStatement, int limit)
             throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException,
             OpenR66ProtocolBusinessException {
+        return getJson(preparedStatement, limit, null);
+    }
+
+    /**
+     * Write selected TaskRunners to a Json String
+     * 
+     * @param preparedStatement
+     * @param limit
+     * @param page
+     *            if not null, filled with the number of runners, the higher id and the full key of
+     *            the lower id, such that the next page can start below this key
+     * @return the associated Json String
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     * @throws OpenR66ProtocolBusinessException
+     */
+    public static String getJson(DbPreparedStatement preparedStatement, int limit,
+            NbAndSpecialId page)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException,
+            OpenR66ProtocolBusinessException {
         ArrayNode arrayNode = JsonHandler.createArrayNode();
         try {
             preparedStatement.executeQuery();
@@ -4095,6 +4417,21 @@ public class DbTaskRunner extends AbstractDbData {
                 }
                 arrayNode.add(node);
                 nb++;
+                if (page != null) {
+                    page.nb = nb;
+                    if (page.higherSpecialId == DbConstant.ILLEGALVALUE
+                            || runner.specialId > page.higherSpecialId) {
+                        page.higherSpecialId = runner.specialId;
+                    }
+                    // on equal ids, the last row read is the lower one when ordered by key
+                    if (page.lowerSpecialId == DbConstant.ILLEGALVALUE
+                            || runner.specialId <= page.lowerSpecialId) {
+                        page.lowerSpecialId = runner.specialId;
+                        page.lowerOwnerReq = runner.ownerRequest;
+                        page.lowerRequester = runner.requesterHostId;
+                        page.lowerRequested = runner.requestedHostId;
+                    }
+                }
                 if (nb >= limit) {
                     break;
                 }
@@ -4107,7 +4444,73 @@ public class DbTaskRunner extends AbstractDbData {
     }
 
     /**
-     * Write selected TaskRunners to an XML file using an XMLWriter
+     * Set the statement, before its execution, such that its rows are read from the database
+     * cursor by small batches instead of being all loaded in memory. PostgreSQL only uses a cursor
+     * out of autocommit, which is therefore only changed on a private session.<br>
+     * MySQL and MariaDB drivers ignore a positive fetch size (unless useCursorFetch=true is set in
+     * the JDBC URL): the rows are then streamed one by one with a fetch size of Integer.MIN_VALUE on
+     * a forward only and read only statement. Since the connection cannot run any other statement
+     * until all the rows are read, this is only done on a private session, the shared one loading
+     * all the rows as before, and all the rules are loaded in the DbRule cache before, such that
+     * reading a runner does not select its rule while streaming.
+     * 
+     * @param preparedStatement
+     * @return True if the autocommit was disabled and shall be restored once the rows are read
+     */
+    private static boolean startStreaming(DbPreparedStatement preparedStatement) {
+        DbSession session = preparedStatement.getDbSession();
+        boolean autocommit = false;
+        boolean shared = session == DbConstant.admin.getSession();
+        try {
+            DbType type = session.getAdmin().getTypeDriver();
+            PreparedStatement statement = preparedStatement.getPreparedStatement();
+            if (type == DbType.MySQL || type == DbType.MariaDB) {
+                if (!shared && statement.getResultSetType() == ResultSet.TYPE_FORWARD_ONLY &&
+                        statement.getResultSetConcurrency() == ResultSet.CONCUR_READ_ONLY) {
+                    try {
+                        DbRule.loadAllRules(session);
+                        statement.setFetchSize(Integer.MIN_VALUE);
+                    } catch (WaarpDatabaseException e) {
+                        logger.debug("Rows not streamed since rules cannot be loaded", e);
+                    }
+                } else {
+                    logger.debug("Rows not streamed from the shared MySQL session");
+                }
+                return false;
+            }
+            if (type == DbType.PostGreSQL && !shared && session.getConn().getAutoCommit()) {
+                session.getConn().setAutoCommit(false);
+                autocommit = true;
+            }
+            statement.setFetchSize(EXPORT_FETCHSIZE);
+        } catch (SQLException e) {
+            logger.debug("Cannot stream the rows from the database", e);
+        }
+        return autocommit;
+    }
+
+    /**
+     * Restore the session once the rows of a streamed statement are read
+     * 
+     * @param preparedStatement
+     * @param autocommit
+     *            as returned by startStreaming
+     */
+    private static void endStreaming(DbPreparedStatement preparedStatement, boolean autocommit) {
+        if (autocommit) {
+            try {
+                preparedStatement.getDbSession().getConn().commit();
+                preparedStatement.getDbSession().getConn().setAutoCommit(true);
+            } catch (SQLException e) {
+                logger.warn("Cannot restore autocommit: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write selected TaskRunners to an XML file using an XMLWriter. The rows are streamed from the
+     * database to the file, gzipped if the filename ends with {@link #GZEXTENSION}, such that the
+     * memory used does not depend on the number of rows.
      * 
      * @param preparedStatement
      * @param filename
@@ -4124,11 +4527,18 @@ public class DbTaskRunner extends AbstractDbData {
         OutputStream outputStream = null;
         XMLWriter xmlWriter = null;
         boolean isOk = false;
+        boolean autocommit = false;
         try {
             outputStream = new FileOutputStream(filename);
+            if (filename.endsWith(GZEXTENSION)) {
+                outputStream = new GZIPOutputStream(outputStream, 65536);
+            } else {
+                outputStream = new BufferedOutputStream(outputStream, 65536);
+            }
             OutputFormat format = OutputFormat.createPrettyPrint();
             format.setEncoding(WaarpStringUtils.UTF_8);
             xmlWriter = new XMLWriter(outputStream, format);
+            autocommit = startStreaming(preparedStatement);
             preparedStatement.executeQuery();
             nbAndSpecialId = writeXML(preparedStatement, xmlWriter);
             isOk = true;
@@ -4138,7 +4548,11 @@ public class DbTaskRunner extends AbstractDbData {
         } catch (UnsupportedEncodingException e) {
             logger.error("Cannot write XML file", e);
             throw new OpenR66ProtocolBusinessException("Unsupported Encoding");
+        } catch (IOException e) {
+            logger.error("Cannot write XML file", e);
+            throw new OpenR66ProtocolBusinessException("Cannot write file: " + e.getMessage());
         } finally {
+            endStreaming(preparedStatement, autocommit);
             if (xmlWriter != null) {
                 try {
                     xmlWriter.endDocument();
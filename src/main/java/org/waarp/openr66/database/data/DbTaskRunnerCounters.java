@@ -0,0 +1,341 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+/**
+ * In memory counters of the transfers of this host, as given by the COUNT requests of the
+ * Monitoring.<br>
+ * <br>
+ * Each time a DbTaskRunner is written in the database, its previous state is removed from the
+ * counters and its new state is added, such that reading the counters never needs the database.
+ * The previous state is the last one written for this runner by any instance (the REST or
+ * administrator updates using their own instances), else the one read from the database by the
+ * writing instance. Only transfers started after the limit are counted, this limit and the
+ * counters being reconciled with the database by the Monitoring: the difference between the
+ * COUNT results and the counters as they were when the reconciliation started is added, such
+ * that the transitions written meanwhile are kept.
+ * 
+ * @author Frederic Bregier
+ */
+public class DbTaskRunnerCounters {
+    /**
+     * State of one DbTaskRunner as counted
+     */
+    public static class State {
+        private final long start;
+        private final int updatedInfo;
+        private final int globalstep;
+        private final ErrorCode status;
+        private final ErrorCode infostatus;
+        private final boolean in;
+        private final boolean out;
+
+        State(long start, int updatedInfo, int globalstep, ErrorCode status, ErrorCode infostatus,
+                String requester, String requested) {
+            this.start = start;
+            this.updatedInfo = updatedInfo;
+            this.globalstep = globalstep;
+            this.status = status;
+            this.infostatus = infostatus;
+            String from = Configuration.configuration.getHOST_ID();
+            String sfrom = Configuration.configuration.getHOST_SSLID();
+            in = requested != null && (requested.equals(from) || requested.equals(sfrom));
+            out = requester != null && (requester.equals(from) || requester.equals(sfrom));
+        }
+    }
+
+    private final AtomicLong all = new AtomicLong();
+    private final AtomicLongArray infos = new AtomicLongArray(UpdatedInfo.values().length);
+    private final AtomicLongArray steps = new AtomicLongArray(TASKSTEP.values().length);
+    private final AtomicLong allRunning = new AtomicLong();
+    private final AtomicLongArray runningStatus = new AtomicLongArray(ErrorCode.values().length);
+    private final AtomicLongArray infoStatus = new AtomicLongArray(ErrorCode.values().length);
+    private final AtomicLong inActive = new AtomicLong();
+    private final AtomicLong outActive = new AtomicLong();
+    private final AtomicLong inTotal = new AtomicLong();
+    private final AtomicLong outTotal = new AtomicLong();
+    private final AtomicLong inError = new AtomicLong();
+    private final AtomicLong outError = new AtomicLong();
+    /**
+     * Last state written for each runner started after the limit
+     */
+    private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<String, State>();
+    /**
+     * Counters when the current reconciliation started (null if none running)
+     */
+    private volatile DbTaskRunnerCounters before = null;
+    /**
+     * Transfers started before this limit are not counted (none before the first reconciliation)
+     */
+    private volatile long limit = Long.MAX_VALUE;
+    private volatile long lastReconciliation = 0;
+
+    /**
+     * Account the change of one DbTaskRunner written in the database
+     * 
+     * @param key
+     *            unique key of the runner
+     * @param read
+     *            state as read from the database by the writing instance (null if new), only used
+     *            if no state was written since for this runner
+     * @param current
+     *            new state (null if deleted)
+     */
+    public void transition(String key, State read, State current) {
+        long limit = this.limit;
+        State written = current != null && current.start >= limit ? states.put(key, current)
+                : states.remove(key);
+        State previous = written != null ? written : read;
+        if (previous != null && previous.start >= limit) {
+            add(previous, -1);
+        }
+        if (current != null && current.start >= limit) {
+            add(current, 1);
+        }
+    }
+
+    private void add(State state, int delta) {
+        all.addAndGet(delta);
+        infos.addAndGet(state.updatedInfo, delta);
+        if (state.globalstep < steps.length()) {
+            steps.addAndGet(state.globalstep, delta);
+        }
+        infoStatus.addAndGet(state.infostatus.ordinal(), delta);
+        boolean running = state.updatedInfo == UpdatedInfo.RUNNING.ordinal();
+        boolean error = state.updatedInfo == UpdatedInfo.INERROR.ordinal();
+        if (running) {
+            allRunning.addAndGet(delta);
+            runningStatus.addAndGet(state.status.ordinal(), delta);
+        }
+        if (state.in) {
+            inTotal.addAndGet(delta);
+            if (running) {
+                inActive.addAndGet(delta);
+            } else if (error) {
+                inError.addAndGet(delta);
+            }
+        }
+        if (state.out) {
+            outTotal.addAndGet(delta);
+            if (running) {
+                outActive.addAndGet(delta);
+            } else if (error) {
+                outError.addAndGet(delta);
+            }
+        }
+    }
+
+    /**
+     * Start a reconciliation: from now on, only the transfers started after this limit are counted,
+     * and the values given to the setters until {@link #reconciled()} are applied as the difference
+     * with the counters as they are now
+     * 
+     * @param limit
+     */
+    public void startReconciliation(long limit) {
+        this.limit = limit;
+        DbTaskRunnerCounters copy = new DbTaskRunnerCounters();
+        copy.all.set(all.get());
+        copy(infos, copy.infos);
+        copy(steps, copy.steps);
+        copy.allRunning.set(allRunning.get());
+        copy(runningStatus, copy.runningStatus);
+        copy(infoStatus, copy.infoStatus);
+        copy.inActive.set(inActive.get());
+        copy.outActive.set(outActive.get());
+        copy.inTotal.set(inTotal.get());
+        copy.outTotal.set(outTotal.get());
+        copy.inError.set(inError.get());
+        copy.outError.set(outError.get());
+        before = copy;
+    }
+
+    private static void copy(AtomicLongArray from, AtomicLongArray to) {
+        for (int i = 0; i < from.length(); i++) {
+            to.set(i, from.get(i));
+        }
+    }
+
+    private static void reconcile(AtomicLong counter, AtomicLong before, long value) {
+        if (before == null) {
+            counter.set(value);
+        } else {
+            counter.addAndGet(value - before.get());
+        }
+    }
+
+    private static void reconcile(AtomicLongArray counter, AtomicLongArray before, int rank,
+            long value) {
+        if (before == null) {
+            counter.set(rank, value);
+        } else {
+            counter.addAndGet(rank, value - before.get(rank));
+        }
+    }
+
+    /**
+     * @return the limit of the last reconciliation
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the time of the last reconciliation (0 if none yet)
+     */
+    public long getLastReconciliation() {
+        return lastReconciliation;
+    }
+
+    /**
+     * End a reconciliation
+     */
+    public void reconciled() {
+        before = null;
+        Iterator<State> iterator = states.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().start < limit) {
+                iterator.remove();
+            }
+        }
+        lastReconciliation = System.currentTimeMillis();
+    }
+
+    public long getAll() {
+        return all.get();
+    }
+
+    public void setAll(long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(all, before != null ? before.all : null, value);
+    }
+
+    public long getInfo(UpdatedInfo info) {
+        return infos.get(info.ordinal());
+    }
+
+    public void setInfo(UpdatedInfo info, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(infos, before != null ? before.infos : null, info.ordinal(), value);
+    }
+
+    public long getStep(TASKSTEP step) {
+        return steps.get(step.ordinal());
+    }
+
+    public void setStep(TASKSTEP step, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(steps, before != null ? before.steps : null, step.ordinal(), value);
+    }
+
+    public long getAllRunning() {
+        return allRunning.get();
+    }
+
+    public void setAllRunning(long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(allRunning, before != null ? before.allRunning : null, value);
+    }
+
+    /**
+     * 
+     * @param status
+     * @return the number of running transfers with this step status
+     */
+    public long getRunningStatus(ErrorCode status) {
+        return runningStatus.get(status.ordinal());
+    }
+
+    public void setRunningStatus(ErrorCode status, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(runningStatus, before != null ? before.runningStatus : null, status.ordinal(),
+                value);
+    }
+
+    /**
+     * 
+     * @param status
+     * @return the number of transfers with this information status
+     */
+    public long getStatus(ErrorCode status) {
+        return infoStatus.get(status.ordinal());
+    }
+
+    public void setStatus(ErrorCode status, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(infoStatus, before != null ? before.infoStatus : null, status.ordinal(), value);
+    }
+
+    /**
+     * 
+     * @param in
+     *            True for Incoming, False for Outgoing
+     * @return the number of running transfers
+     */
+    public long getActive(boolean in) {
+        return in ? inActive.get() : outActive.get();
+    }
+
+    public void setActive(boolean in, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(in ? inActive : outActive, before == null ? null : in ? before.inActive
+                : before.outActive, value);
+    }
+
+    /**
+     * 
+     * @param in
+     *            True for Incoming, False for Outgoing
+     * @return the number of transfers
+     */
+    public long getTotal(boolean in) {
+        return in ? inTotal.get() : outTotal.get();
+    }
+
+    public void setTotal(boolean in, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(in ? inTotal : outTotal, before == null ? null : in ? before.inTotal
+                : before.outTotal, value);
+    }
+
+    /**
+     * 
+     * @param in
+     *            True for Incoming, False for Outgoing
+     * @return the number of transfers in error
+     */
+    public long getError(boolean in) {
+        return in ? inError.get() : outError.get();
+    }
+
+    public void setError(boolean in, long value) {
+        DbTaskRunnerCounters before = this.before;
+        reconcile(in ? inError : outError, before == null ? null : in ? before.inError
+                : before.outError, value);
+    }
+}
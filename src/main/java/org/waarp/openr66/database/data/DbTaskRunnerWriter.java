@@ -0,0 +1,362 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.waarp.common.database.DbPreparedStatement;
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseException;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.data.DbTaskRunner.Columns;
+
+/**
+ * Write behind of the progress (rank) of the running transfers.<br>
+ * <br>
+ * The rank updates are coalesced by request and written by a background thread using JDBC batch
+ * UPDATE every writeDelay ms or as soon as batchSize requests are pending. Any other update of a
+ * DbTaskRunner (step or status change) is still written immediately and supersedes the pending
+ * rank update, waiting if needed for a batch holding an older rank of this request. The rank is
+ * never moved backward by this writer, and the updates of a failed batch stay pending for the
+ * next one.
+ * 
+ * @author Frederic Bregier
+ */
+public class DbTaskRunnerWriter implements Runnable {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DbTaskRunnerWriter.class);
+
+    private static final String UPDATE_RANK = "UPDATE " + DbTaskRunner.table + " SET " +
+            Columns.RANK.name() + " = ?, " + Columns.STOPTRANS.name() + " = ? WHERE " +
+            Columns.OWNERREQ.name() + " = ? AND " + Columns.REQUESTER.name() + " = ? AND " +
+            Columns.REQUESTED.name() + " = ? AND " + Columns.SPECIALID.name() + " = ? AND " +
+            Columns.RANK.name() + " < ?";
+
+    /**
+     * Pending rank update of one request
+     */
+    private static class RankUpdate {
+        private final String ownerRequest;
+        private final String requester;
+        private final String requested;
+        private final long specialId;
+        private final int rank;
+        private final Timestamp stop;
+
+        private RankUpdate(DbTaskRunner runner) {
+            ownerRequest = runner.getOwnerRequest();
+            requester = runner.getRequester();
+            requested = runner.getRequested();
+            specialId = runner.getSpecialId();
+            rank = runner.getRank();
+            stop = new Timestamp(System.currentTimeMillis());
+        }
+    }
+
+    private final ConcurrentHashMap<String, RankUpdate> pending = new ConcurrentHashMap<String, RankUpdate>();
+
+    /**
+     * Requests of the batch being written (guarded by itself)
+     */
+    private final Set<String> inFlight = new HashSet<String>();
+
+    private final long writeDelay;
+
+    private final int batchSize;
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+    private DbSession dbSession;
+
+    private DbPreparedStatement preparedStatement;
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong flushedRows = new AtomicLong();
+
+    private final AtomicLong lastFlushLatency = new AtomicLong();
+
+    private final AtomicLong maxFlushLatency = new AtomicLong();
+
+    /**
+     * 
+     * @param writeDelay
+     *            maximum delay in ms before a rank update is written
+     * @param batchSize
+     *            number of pending requests that triggers a write before the delay
+     */
+    public DbTaskRunnerWriter(long writeDelay, int batchSize) {
+        this.writeDelay = writeDelay;
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+    }
+
+    /**
+     * Start the background writer
+     */
+    public void start() {
+        thread = new Thread(this, "RunnerWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the background writer, writing all pending updates first
+     */
+    public void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join(writeDelay + 1000);
+            } catch (InterruptedException e) {
+            }
+            thread = null;
+        }
+    }
+
+    private static String getKey(String ownerRequest, String requester, String requested,
+            long specialId) {
+        return ownerRequest + ' ' + requester + ' ' + requested + ' ' + specialId;
+    }
+
+    /**
+     * Register the current rank of this runner, replacing any previous pending rank
+     * 
+     * @param runner
+     */
+    public void schedule(DbTaskRunner runner) {
+        RankUpdate update = new RankUpdate(runner);
+        pending.put(getKey(update.ownerRequest, update.requester, update.requested,
+                update.specialId), update);
+        if (pending.size() >= batchSize) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Remove the pending rank of this runner since it is being written directly, waiting for a
+     * batch in progress holding an older rank of this runner such that the direct write comes last
+     * 
+     * @param runner
+     */
+    public void cancel(DbTaskRunner runner) {
+        String key = getKey(runner.getOwnerRequest(), runner.getRequester(),
+                runner.getRequested(), runner.getSpecialId());
+        pending.remove(key);
+        synchronized (inFlight) {
+            while (inFlight.contains(key)) {
+                try {
+                    inFlight.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                synchronized (this) {
+                    if (running && pending.size() < batchSize) {
+                        try {
+                            wait(writeDelay);
+                        } catch (InterruptedException e) {
+                            running = false;
+                        }
+                    }
+                }
+                flush();
+            }
+            flush();
+            if (!pending.isEmpty()) {
+                logger.warn("Rank of " + pending.size() + " Runners not written at stop");
+            }
+        } finally {
+            if (preparedStatement != null) {
+                preparedStatement.realClose();
+                preparedStatement = null;
+            }
+            if (dbSession != null) {
+                dbSession.forceDisconnect();
+                dbSession = null;
+            }
+        }
+    }
+
+    /**
+     * Write all pending rank updates
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int rows = 0;
+        try {
+            if (dbSession == null) {
+                dbSession = new DbSession(DbConstant.admin, false);
+            }
+            if (preparedStatement == null) {
+                preparedStatement = new DbPreparedStatement(dbSession);
+                preparedStatement.createPrepareStatement(UPDATE_RANK);
+            }
+            PreparedStatement statement = preparedStatement.getPreparedStatement();
+            List<Entry<String, RankUpdate>> batch = new ArrayList<Entry<String, RankUpdate>>(batchSize);
+            for (Entry<String, RankUpdate> entry : pending.entrySet()) {
+                batch.add(entry);
+                if (batch.size() >= batchSize) {
+                    rows += writeBatch(statement, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                rows += writeBatch(statement, batch);
+            }
+        } catch (WaarpDatabaseException e) {
+            logger.warn("Cannot update Runners, will retry: {}", e.getMessage());
+            resetStatement();
+        } catch (SQLException e) {
+            logger.warn("Cannot update Runners, will retry: {}", e.getMessage());
+            resetStatement();
+        }
+        long latency = System.currentTimeMillis() - start;
+        flushCount.incrementAndGet();
+        flushedRows.addAndGet(rows);
+        lastFlushLatency.set(latency);
+        if (latency > maxFlushLatency.get()) {
+            maxFlushLatency.set(latency);
+        }
+    }
+
+    /**
+     * Write one batch of rank updates. They are removed from the pending ones only once written,
+     * and only if not replaced meanwhile by a newer rank or cancelled by a direct write.
+     * 
+     * @param statement
+     * @param batch
+     * @return the number of updates written
+     * @throws SQLException
+     */
+    private int writeBatch(PreparedStatement statement, List<Entry<String, RankUpdate>> batch)
+            throws SQLException {
+        List<Entry<String, RankUpdate>> written = new ArrayList<Entry<String, RankUpdate>>(batch.size());
+        synchronized (inFlight) {
+            for (Entry<String, RankUpdate> entry : batch) {
+                // skip the ones cancelled since the batch was built
+                if (pending.get(entry.getKey()) == entry.getValue()) {
+                    inFlight.add(entry.getKey());
+                    written.add(entry);
+                }
+            }
+        }
+        try {
+            statement.clearBatch();
+            for (Entry<String, RankUpdate> entry : written) {
+                RankUpdate update = entry.getValue();
+                statement.setInt(1, update.rank);
+                statement.setTimestamp(2, update.stop);
+                statement.setString(3, update.ownerRequest);
+                statement.setString(4, update.requester);
+                statement.setString(5, update.requested);
+                statement.setLong(6, update.specialId);
+                statement.setInt(7, update.rank);
+                statement.addBatch();
+            }
+            if (!written.isEmpty()) {
+                statement.executeBatch();
+            }
+            for (Entry<String, RankUpdate> entry : written) {
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+            return written.size();
+        } finally {
+            synchronized (inFlight) {
+                inFlight.clear();
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+    private void resetStatement() {
+        if (preparedStatement != null) {
+            preparedStatement.realClose();
+            preparedStatement = null;
+        }
+        if (dbSession != null) {
+            dbSession.checkConnectionNoException();
+        }
+    }
+
+    /**
+     * @return the number of requests with a pending rank update
+     */
+    public int getQueueSize() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of flushes done
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the number of rows written
+     */
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    /**
+     * @return the duration in ms of the last flush
+     */
+    public long getLastFlushLatency() {
+        return lastFlushLatency.get();
+    }
+
+    /**
+     * @return the maximum duration in ms of one flush
+     */
+    public long getMaxFlushLatency() {
+        return maxFlushLatency.get();
+    }
+}
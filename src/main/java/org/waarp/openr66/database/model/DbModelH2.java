@@ -43,7 +43,13 @@ import org.waarp.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
+public class DbModelH2 extends org.waarp.common.database.model.DbModelH2
+        implements DbSequenceAllocator.SequenceSource {
+    /**
+     * Allocator of the Transfer ids by blocks
+     */
+    private final DbSequenceAllocator sequenceAllocator = new DbSequenceAllocator(this);
+
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -238,6 +244,7 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
         } finally {
             request.close();
         }
+        createRunnerIndexes(session);
 
         // cptrunner
         action = "CREATE SEQUENCE IF NOT EXISTS " + DbTaskRunner.fieldseq +
@@ -271,7 +278,7 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_9.getVersion());
     }
 
     @Override
@@ -290,6 +297,7 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             return;
         } finally {
             request.close();
+            sequenceAllocator.reset();
         }
         System.out.println(action);
     }
@@ -298,25 +306,40 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
     public long nextSequence(DbSession dbSession)
             throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
-        long result = DbConstant.ILLEGALVALUE;
-        String action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq + "')";
+        return sequenceAllocator.next(dbSession, Configuration.configuration.getSequenceBlock());
+    }
+
+    public long[] nextSequences(DbSession dbSession, int count)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
+        long[] result = new long[count];
+        String action;
+        if (count == 1) {
+            action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq + "')";
+        } else {
+            // one round trip for the whole block
+            action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq +
+                    "') FROM SYSTEM_RANGE(1, " + count + ")";
+        }
         DbPreparedStatement preparedStatement = new DbPreparedStatement(
                 dbSession);
         try {
             preparedStatement.createPrepareStatement(action);
             // Limit the search
             preparedStatement.executeQuery();
-            if (preparedStatement.getNext()) {
-                try {
-                    result = preparedStatement.getResultSet().getLong(1);
-                } catch (SQLException e) {
-                    throw new WaarpDatabaseSqlException(e);
+            for (int i = 0; i < count; i++) {
+                if (preparedStatement.getNext()) {
+                    try {
+                        result[i] = preparedStatement.getResultSet().getLong(1);
+                    } catch (SQLException e) {
+                        throw new WaarpDatabaseSqlException(e);
+                    }
+                } else {
+                    throw new WaarpDatabaseNoDataException(
+                            "No sequence found. Must be initialized first");
                 }
-                return result;
-            } else {
-                throw new WaarpDatabaseNoDataException(
-                        "No sequence found. Must be initialized first");
             }
+            return result;
         } finally {
             preparedStatement.realClose();
         }
@@ -434,8 +457,12 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_9.getVersion() + "? " + true);
+            createRunnerIndexes(session);
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_9.getVersion());
         return true;
     }
 
@@ -500,14 +527,49 @@ public class DbModelH2 extends org.waarp.common.database.model.DbModelH2 {
             try {
                 if (upgradeDb(session, version)) {
                     DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                            R66Versions.V2_4_25.getVersion());
+                            R66Versions.V3_0_9.getVersion());
                 } else {
                     return true;
                 }
             } finally {
             }
+        } else if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            if (upgradeDb(session, version)) {
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_9.getVersion());
+            } else {
+                return true;
+            }
         }
         return false;
     }
 
+    /**
+     * Create the specific indexes on RUNNER, one per access pattern (already existing ones are
+     * ignored)
+     * 
+     * @param session
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    private void createRunnerIndexes(DbSession session) throws WaarpDatabaseNoConnectionException {
+        DbRequest request = new DbRequest(session);
+        for (int i = 0; i < DbTaskRunner.indexNames.length; i++) {
+            String action = "CREATE INDEX IF NOT EXISTS " + DbTaskRunner.indexNames[i] + " ON " +
+                    DbTaskRunner.table + "(";
+            DbTaskRunner.Columns[] icolumns = DbTaskRunner.indexesByAccess[i];
+            for (int j = 0; j < icolumns.length - 1; j++) {
+                action += icolumns[j].name() + ", ";
+            }
+            action += icolumns[icolumns.length - 1].name() + ")";
+            System.out.println(action);
+            try {
+                request.query(action);
+            } catch (WaarpDatabaseSqlException e) {
+                // XXX FIX index already existing
+            } finally {
+                request.close();
+            }
+        }
+    }
+
 }
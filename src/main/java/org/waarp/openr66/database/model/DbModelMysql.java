@@ -44,7 +44,8 @@ import org.waarp.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
+public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql
+        implements DbSequenceAllocator.SequenceSource {
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -60,6 +61,11 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    /**
+     * Allocator of the Transfer ids by blocks
+     */
+    private final DbSequenceAllocator sequenceAllocator = new DbSequenceAllocator(this);
+
     @Override
     public void createTables(DbSession session) throws WaarpDatabaseNoConnectionException {
         // Create tables: configuration, hosts, rules, runner, cptrunner
@@ -241,6 +247,7 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
         } finally {
             request.close();
         }
+        createRunnerIndexes(session);
 
         // cptrunner
         /*
@@ -280,7 +287,7 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_9.getVersion());
     }
 
     @Override
@@ -299,12 +306,19 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
             return;
         } finally {
             request.close();
+            sequenceAllocator.reset();
         }
         System.out.println(action);
     }
 
     @Override
-    public synchronized long nextSequence(DbSession dbSession)
+    public long nextSequence(DbSession dbSession)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
+        return sequenceAllocator.next(dbSession, Configuration.configuration.getSequenceBlock());
+    }
+
+    public synchronized long[] nextSequences(DbSession dbSession, int count)
             throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
         lock.lock();
@@ -335,7 +349,8 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
             } finally {
                 preparedStatement.realClose();
             }
-            action = "UPDATE Sequences SET seq = " + (result + 1) +
+            // the whole block [result, result + count[ is reserved at once
+            action = "UPDATE Sequences SET seq = " + (result + count) +
                     " WHERE name = '" + DbTaskRunner.fieldseq + "'";
             try {
                 preparedStatement.createPrepareStatement(action);
@@ -344,7 +359,11 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
             } finally {
                 preparedStatement.realClose();
             }
-            return result;
+            long[] results = new long[count];
+            for (int i = 0; i < count; i++) {
+                results[i] = result + i;
+            }
+            return results;
         } finally {
             try {
                 dbSession.getConn().setAutoCommit(true);
@@ -482,8 +501,12 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_9.getVersion() + "? " + true);
+            createRunnerIndexes(session);
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_9.getVersion());
         return true;
     }
 
@@ -548,14 +571,49 @@ public class DbModelMysql extends org.waarp.common.database.model.DbModelMysql {
             try {
                 if (upgradeDb(session, version)) {
                     DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                            R66Versions.V2_4_25.getVersion());
+                            R66Versions.V3_0_9.getVersion());
                 } else {
                     return true;
                 }
             } finally {
             }
+        } else if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            if (upgradeDb(session, version)) {
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_9.getVersion());
+            } else {
+                return true;
+            }
         }
         return false;
     }
 
+    /**
+     * Create the specific indexes on RUNNER, one per access pattern (already existing ones are
+     * ignored)
+     * 
+     * @param session
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    private void createRunnerIndexes(DbSession session) throws WaarpDatabaseNoConnectionException {
+        DbRequest request = new DbRequest(session);
+        for (int i = 0; i < DbTaskRunner.indexNames.length; i++) {
+            String action = "CREATE INDEX " + DbTaskRunner.indexNames[i] + " ON " +
+                    DbTaskRunner.table + "(";
+            DbTaskRunner.Columns[] icolumns = DbTaskRunner.indexesByAccess[i];
+            for (int j = 0; j < icolumns.length - 1; j++) {
+                action += icolumns[j].name() + ", ";
+            }
+            action += icolumns[icolumns.length - 1].name() + ")";
+            System.out.println(action);
+            try {
+                request.query(action);
+            } catch (WaarpDatabaseSqlException e) {
+                // XXX FIX index already existing
+            } finally {
+                request.close();
+            }
+        }
+    }
+
 }
@@ -43,7 +43,13 @@ import org.waarp.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle {
+public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
+        implements DbSequenceAllocator.SequenceSource {
+    /**
+     * Allocator of the Transfer ids by blocks
+     */
+    private final DbSequenceAllocator sequenceAllocator = new DbSequenceAllocator(this);
+
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -246,6 +252,7 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
         } finally {
             request.close();
         }
+        createRunnerIndexes(session);
 
         // cptrunner
         action = "CREATE SEQUENCE " + DbTaskRunner.fieldseq +
@@ -264,7 +271,7 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_9.getVersion());
     }
 
     @Override
@@ -286,6 +293,7 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
             return;
         } finally {
             request.close();
+            sequenceAllocator.reset();
         }
 
         System.out.println(action);
@@ -295,25 +303,40 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
     public long nextSequence(DbSession dbSession)
             throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
-        long result = DbConstant.ILLEGALVALUE;
-        String action = "SELECT " + DbTaskRunner.fieldseq + ".NEXTVAL FROM DUAL";
+        return sequenceAllocator.next(dbSession, Configuration.configuration.getSequenceBlock());
+    }
+
+    public long[] nextSequences(DbSession dbSession, int count)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
+        long[] result = new long[count];
+        String action;
+        if (count == 1) {
+            action = "SELECT " + DbTaskRunner.fieldseq + ".NEXTVAL FROM DUAL";
+        } else {
+            // one round trip for the whole block
+            action = "SELECT " + DbTaskRunner.fieldseq +
+                    ".NEXTVAL FROM DUAL CONNECT BY LEVEL <= " + count;
+        }
         DbPreparedStatement preparedStatement = new DbPreparedStatement(
                 dbSession);
         try {
             preparedStatement.createPrepareStatement(action);
             // Limit the search
             preparedStatement.executeQuery();
-            if (preparedStatement.getNext()) {
-                try {
-                    result = preparedStatement.getResultSet().getLong(1);
-                } catch (SQLException e) {
-                    throw new WaarpDatabaseSqlException(e);
+            for (int i = 0; i < count; i++) {
+                if (preparedStatement.getNext()) {
+                    try {
+                        result[i] = preparedStatement.getResultSet().getLong(1);
+                    } catch (SQLException e) {
+                        throw new WaarpDatabaseSqlException(e);
+                    }
+                } else {
+                    throw new WaarpDatabaseNoDataException(
+                            "No sequence found. Must be initialized first");
                 }
-                return result;
-            } else {
-                throw new WaarpDatabaseNoDataException(
-                        "No sequence found. Must be initialized first");
             }
+            return result;
         } finally {
             preparedStatement.realClose();
         }
@@ -417,8 +440,12 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_9.getVersion() + "? " + true);
+            createRunnerIndexes(session);
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_9.getVersion());
         return true;
     }
 
@@ -483,14 +510,49 @@ public class DbModelOracle extends org.waarp.common.database.model.DbModelOracle
             try {
                 if (upgradeDb(session, version)) {
                     DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                            R66Versions.V2_4_25.getVersion());
+                            R66Versions.V3_0_9.getVersion());
                 } else {
                     return true;
                 }
             } finally {
             }
+        } else if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            if (upgradeDb(session, version)) {
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_9.getVersion());
+            } else {
+                return true;
+            }
         }
         return false;
     }
 
+    /**
+     * Create the specific indexes on RUNNER, one per access pattern (already existing ones are
+     * ignored)
+     * 
+     * @param session
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    private void createRunnerIndexes(DbSession session) throws WaarpDatabaseNoConnectionException {
+        DbRequest request = new DbRequest(session);
+        for (int i = 0; i < DbTaskRunner.indexNames.length; i++) {
+            String action = "CREATE INDEX " + DbTaskRunner.indexNames[i] + " ON " +
+                    DbTaskRunner.table + "(";
+            DbTaskRunner.Columns[] icolumns = DbTaskRunner.indexesByAccess[i];
+            for (int j = 0; j < icolumns.length - 1; j++) {
+                action += icolumns[j].name() + ", ";
+            }
+            action += icolumns[icolumns.length - 1].name() + ")";
+            System.out.println(action);
+            try {
+                request.query(action);
+            } catch (WaarpDatabaseSqlException e) {
+                // XXX FIX index already existing
+            } finally {
+                request.close();
+            }
+        }
+    }
+
 }
@@ -19,6 +19,9 @@ package org.waarp.openr66.database.model;
 
 import java.sql.SQLException;
 
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
 import org.waarp.common.database.DbPreparedStatement;
 import org.waarp.common.database.DbRequest;
 import org.waarp.common.database.DbSession;
@@ -43,7 +46,13 @@ import org.waarp.openr66.protocol.utils.R66Versions;
  * @author Frederic Bregier
  * 
  */
-public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPostgresql {
+public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPostgresql
+        implements DbSequenceAllocator.SequenceSource {
+    /**
+     * Allocator of the Transfer ids by blocks
+     */
+    private final DbSequenceAllocator sequenceAllocator = new DbSequenceAllocator(this);
+
     /**
      * Create the object and initialize if necessary the driver
      * 
@@ -259,6 +268,7 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
         } finally {
             request.close();
         }
+        createRunnerIndexes(session);
 
         // cptrunner
         action = "CREATE SEQUENCE " + DbTaskRunner.fieldseq +
@@ -278,7 +288,7 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
         }
 
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-            R66Versions.V2_4_25.getVersion());
+            R66Versions.V3_0_9.getVersion());
     }
 
     @Override
@@ -298,6 +308,7 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
             return;
         } finally {
             request.close();
+            sequenceAllocator.reset();
         }
         System.out.println(action);
     }
@@ -306,25 +317,40 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
     public long nextSequence(DbSession dbSession)
             throws WaarpDatabaseNoConnectionException,
             WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
-        long result = DbConstant.ILLEGALVALUE;
-        String action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq + "')";
+        return sequenceAllocator.next(dbSession, Configuration.configuration.getSequenceBlock());
+    }
+
+    public long[] nextSequences(DbSession dbSession, int count)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
+        long[] result = new long[count];
+        String action;
+        if (count == 1) {
+            action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq + "')";
+        } else {
+            // one round trip for the whole block
+            action = "SELECT NEXTVAL('" + DbTaskRunner.fieldseq +
+                    "') FROM generate_series(1, " + count + ")";
+        }
         DbPreparedStatement preparedStatement = new DbPreparedStatement(
                 dbSession);
         try {
             preparedStatement.createPrepareStatement(action);
             // Limit the search
             preparedStatement.executeQuery();
-            if (preparedStatement.getNext()) {
-                try {
-                    result = preparedStatement.getResultSet().getLong(1);
-                } catch (SQLException e) {
-                    throw new WaarpDatabaseSqlException(e);
+            for (int i = 0; i < count; i++) {
+                if (preparedStatement.getNext()) {
+                    try {
+                        result[i] = preparedStatement.getResultSet().getLong(1);
+                    } catch (SQLException e) {
+                        throw new WaarpDatabaseSqlException(e);
+                    }
+                } else {
+                    throw new WaarpDatabaseNoDataException(
+                            "No sequence found. Must be initialized first");
                 }
-                return result;
-            } else {
-                throw new WaarpDatabaseNoDataException(
-                        "No sequence found. Must be initialized first");
             }
+            return result;
         } finally {
             preparedStatement.realClose();
         }
@@ -436,8 +462,12 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
                 request.close();
             }
         }
+        if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            System.out.println(version + " to " + R66Versions.V3_0_9.getVersion() + "? " + true);
+            createRunnerIndexes(session);
+        }
         DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                R66Versions.V2_4_25.getVersion());
+                R66Versions.V3_0_9.getVersion());
         return true;
     }
 
@@ -502,14 +532,115 @@ public class DbModelPostgresql extends org.waarp.common.database.model.DbModelPo
             try {
                 if (upgradeDb(session, version)) {
                     DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
-                            R66Versions.V2_4_25.getVersion());
+                            R66Versions.V3_0_9.getVersion());
                 } else {
                     return true;
                 }
             } finally {
             }
+        } else if (PartnerConfiguration.isVersion2GTVersion1(version, R66Versions.V3_0_9.getVersion())) {
+            if (upgradeDb(session, version)) {
+                DbHostConfiguration.updateVersionDb(session, Configuration.configuration.getHOST_ID(),
+                        R66Versions.V3_0_9.getVersion());
+            } else {
+                return true;
+            }
         }
         return false;
     }
 
+    /**
+     * Create the specific indexes on RUNNER, one per access pattern (already existing ones are
+     * ignored)
+     * 
+     * @param session
+     * @throws WaarpDatabaseNoConnectionException
+     */
+    private void createRunnerIndexes(DbSession session) throws WaarpDatabaseNoConnectionException {
+        DbRequest request = new DbRequest(session);
+        for (int i = 0; i < DbTaskRunner.indexNames.length; i++) {
+            String action = "CREATE INDEX " + DbTaskRunner.indexNames[i] + " ON " +
+                    DbTaskRunner.table + "(";
+            DbTaskRunner.Columns[] icolumns = DbTaskRunner.indexesByAccess[i];
+            for (int j = 0; j < icolumns.length - 1; j++) {
+                action += icolumns[j].name() + ", ";
+            }
+            action += icolumns[icolumns.length - 1].name() + ")";
+            System.out.println(action);
+            try {
+                request.query(action);
+            } catch (WaarpDatabaseSqlException e) {
+                // XXX FIX index already existing
+            } finally {
+                request.close();
+            }
+        }
+    }
+
+    /**
+     * Channel used to notify new submitted transfers (LISTEN/NOTIFY)
+     */
+    public static final String SUBMIT_CHANNEL = "r66submit";
+
+    /**
+     * Notify all listening servers that a new transfer was submitted
+     * 
+     * @param session
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public void notifySubmission(DbSession session)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbRequest request = new DbRequest(session);
+        try {
+            request.query("NOTIFY " + SUBMIT_CHANNEL);
+        } finally {
+            request.close();
+        }
+    }
+
+    /**
+     * Start to listen to new submitted transfers notifications on this session
+     * 
+     * @param session
+     *            a session dedicated to this listener
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public void listenSubmission(DbSession session)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        DbRequest request = new DbRequest(session);
+        try {
+            request.query("LISTEN " + SUBMIT_CHANNEL);
+        } finally {
+            request.close();
+        }
+    }
+
+    /**
+     * 
+     * @param session
+     *            the session given to listenSubmission
+     * @return True if at least one new submitted transfer was notified since the last call
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     */
+    public boolean hasSubmissionNotification(DbSession session)
+            throws WaarpDatabaseNoConnectionException, WaarpDatabaseSqlException {
+        // a round trip is needed to receive the pending notifications
+        DbRequest request = new DbRequest(session);
+        try {
+            request.select("SELECT 1");
+        } finally {
+            request.close();
+        }
+        try {
+            PGNotification[] notifications = session.getConn().unwrap(PGConnection.class)
+                    .getNotifications();
+            return notifications != null && notifications.length > 0;
+        } catch (SQLException e) {
+            throw new WaarpDatabaseSqlException("Cannot get notifications", e);
+        }
+    }
+
 }
@@ -0,0 +1,139 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.waarp.common.database.DbSession;
+import org.waarp.common.database.exception.WaarpDatabaseNoConnectionException;
+import org.waarp.common.database.exception.WaarpDatabaseNoDataException;
+import org.waarp.common.database.exception.WaarpDatabaseSqlException;
+import org.waarp.openr66.database.DbConstant;
+
+/**
+ * Allocator of the unique ids of the DbTaskRunner by blocks: one database round trip reserves a
+ * block of ids, then each id of the block is given without any lock nor database access.<br>
+ * <br>
+ * Since each block is reserved from the database sequence itself, ids stay unique across several
+ * servers sharing the same database (Multiple Monitors), even if they use different block sizes.
+ * Ids left in a block at shutdown are simply lost.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DbSequenceAllocator {
+    /**
+     * Source of the blocks of ids, implemented by the Database Models
+     */
+    public static interface SequenceSource {
+        /**
+         * 
+         * @param dbSession
+         * @param count
+         *            number of ids to reserve (at least 1)
+         * @return count unique ids from the database sequence
+         * @throws WaarpDatabaseNoConnectionException
+         * @throws WaarpDatabaseSqlException
+         * @throws WaarpDatabaseNoDataException
+         */
+        public long[] nextSequences(DbSession dbSession, int count)
+                throws WaarpDatabaseNoConnectionException,
+                WaarpDatabaseSqlException, WaarpDatabaseNoDataException;
+    }
+
+    /**
+     * One reserved block of ids
+     */
+    private static class SequenceBlock {
+        private final long[] ids;
+        private final AtomicInteger index = new AtomicInteger(0);
+
+        private SequenceBlock(long[] ids) {
+            this.ids = ids;
+        }
+
+        /**
+         * 
+         * @return the next id of this block, or ILLEGALVALUE if exhausted
+         */
+        private long next() {
+            if (index.get() >= ids.length) {
+                return DbConstant.ILLEGALVALUE;
+            }
+            int rank = index.getAndIncrement();
+            if (rank < ids.length) {
+                return ids[rank];
+            }
+            return DbConstant.ILLEGALVALUE;
+        }
+    }
+
+    private static final SequenceBlock EMPTY = new SequenceBlock(new long[0]);
+
+    private final SequenceSource source;
+    private volatile SequenceBlock block = EMPTY;
+
+    /**
+     * 
+     * @param source
+     *            the database model giving the blocks of ids
+     */
+    public DbSequenceAllocator(SequenceSource source) {
+        this.source = source;
+    }
+
+    /**
+     * 
+     * @param dbSession
+     * @param blocksize
+     *            number of ids reserved in one database round trip (1 meaning no block)
+     * @return the next unique id
+     * @throws WaarpDatabaseNoConnectionException
+     * @throws WaarpDatabaseSqlException
+     * @throws WaarpDatabaseNoDataException
+     */
+    public long next(DbSession dbSession, int blocksize)
+            throws WaarpDatabaseNoConnectionException,
+            WaarpDatabaseSqlException, WaarpDatabaseNoDataException {
+        if (blocksize <= 1) {
+            return source.nextSequences(dbSession, 1)[0];
+        }
+        long id = block.next();
+        if (id != DbConstant.ILLEGALVALUE) {
+            return id;
+        }
+        synchronized (this) {
+            // another thread could have already reserved a new block
+            id = block.next();
+            if (id != DbConstant.ILLEGALVALUE) {
+                return id;
+            }
+            SequenceBlock newblock = new SequenceBlock(source.nextSequences(dbSession, blocksize));
+            id = newblock.next();
+            block = newblock;
+            return id;
+        }
+    }
+
+    /**
+     * Forget the ids left in the current block, for instance once the sequence was reset
+     */
+    public synchronized void reset() {
+        block = EMPTY;
+    }
+}
@@ -71,10 +71,15 @@ import org.waarp.openr66.configuration.FileBasedConfiguration;
 import org.waarp.openr66.context.R66BusinessFactoryInterface;
 import org.waarp.openr66.context.R66DefaultBusinessFactory;
 import org.waarp.openr66.context.R66FiniteDualStates;
+import org.waarp.openr66.context.task.ExecProcessEngine;
+import org.waarp.openr66.context.task.JavaTaskExecutor;
 import org.waarp.openr66.context.task.localexec.LocalExecClient;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunnerCounters;
+import org.waarp.openr66.database.data.DbTaskRunnerWriter;
 import org.waarp.openr66.exception.ServerException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoDataException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoSslException;
@@ -94,6 +99,7 @@ import org.waarp.openr66.protocol.networkhandler.ssl.NetworkSslServerInitializer
 import org.waarp.openr66.protocol.snmp.R66PrivateMib;
 import org.waarp.openr66.protocol.snmp.R66VariableFactory;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.DigestPipeline;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
 import org.waarp.openr66.protocol.utils.Version;
 import org.waarp.openr66.thrift.R66ThriftServerService;
@@ -178,6 +184,127 @@ public class Configuration {
      * Global digest
      */
     private boolean globalDigest = true;
+    /**
+     * Zero copy send (FileRegion) when possible (no SSL, no MD5 per block, no global digest)
+     */
+    private boolean zeroCopySend = false;
+    /**
+     * Number of DataPackets that could be sent without waiting for the previous ones (1 to wait for each one)
+     */
+    private int sendWindow = 1;
+    /**
+     * Maximum number of bytes of DataPackets sent and not yet written to the network
+     */
+    private long sendWindowBytes = 4194304;
+    /**
+     * Delay in ms between two writes of the rank of running transfers in the database (0, the
+     * default, to write it synchronously)
+     */
+    private long runnerWriteDelay = 0;
+    /**
+     * Number of pending rank updates of running transfers that triggers an immediate write in the database
+     */
+    private int runnerWriteBatch = 100;
+    /**
+     * Delay in ms between two checks of the database by the Commander, transfers submitted within the server being started immediately (0 to use the Commander delay)
+     */
+    private long commanderSweepDelay = 0;
+    /**
+     * Notify the servers of new submitted transfers through the database (PostgreSQL LISTEN/NOTIFY) to wake up their Commander
+     */
+    private boolean submitNotify = false;
+    /**
+     * Number of partner authentications kept in cache
+     */
+    private int hostAuthCacheSize = 1000;
+    /**
+     * Time to live in ms of cached partner authentications (0 to disable)
+     */
+    private long hostAuthCacheTtl = 60000;
+    /**
+     * Dispatch decoded packets directly to the local handler (no LocalChannel hop)
+     */
+    private boolean directDispatch = false;
+    /**
+     * Number of threads hashing data blocks out of the handler threads (0 means inline)
+     */
+    private int digestThreads = 0;
+    /**
+     * Maximum number of data blocks waiting to be hashed for one transfer
+     */
+    private int digestWindow = 32;
+    /**
+     * On restart, rebuild the global digest from the already transferred part of the file
+     */
+    private boolean resumeGlobalDigest = false;
+    /**
+     * Number of threads shared by the ExecJava tasks (0 means the number of runner threads)
+     */
+    private int javaTaskThreads = 0;
+    /**
+     * Maximum number of ExecJava tasks running at once for one class (0 means no limit)
+     */
+    private int javaTaskClassLimit = 0;
+    /**
+     * Maximum number of external processes running at once for Exec tasks (0 means no limit)
+     */
+    private int execMaxProcesses = 0;
+    /**
+     * Number of Transfer ids reserved in one database access (1 meaning no block)
+     */
+    private int sequenceBlock = 1;
+    /**
+     * Number of network connections a new transfer may be spread over for one partner
+     */
+    private int networkStripes = 1;
+    /**
+     * Minimal number of network connections kept open to one partner once used
+     */
+    private int networkMinIdle = 0;
+    /**
+     * Maximum number of transfers on one network connection (0 for no limit)
+     */
+    private int networkMaxLocalChannels = 0;
+    /**
+     * Monitoring: delay in ms between two reconciliations of the in memory counters with the database (0 for counting in the database at each request)
+     */
+    private long monitorReconcileDelay = 0L;
+    /**
+     * Maximum number of pooled database connections for databases not supporting concurrent access on one connection (0 for one connection per transfer)
+     */
+    private int dbPoolMax = 0;
+    /**
+     * Maximum time in ms to wait for a free pooled database connection
+     */
+    private long dbPoolWait = 1000;
+    /**
+     * Size in bytes of the buffer coalescing the received blocks before writing them (0 for one write per block)
+     */
+    private int recvBufferSize = 0;
+    /**
+     * If True, the received file is preallocated to its announced size and truncated to the written size at the end
+     */
+    private boolean recvPreallocate = false;
+    /**
+     * Fsync policy of the received file: -1 for none, 0 at the end of the transfer, N > 0 every N bytes written and at the end
+     */
+    private long recvFsync = -1;
+    /**
+     * Adaptive blocksize negotiated with partners supporting it
+     */
+    private boolean adaptiveBlocksize = false;
+    /**
+     * Lowest blocksize used in adaptive mode
+     */
+    private int blocksizeMin = 8192;
+    /**
+     * Highest blocksize used or accepted in adaptive mode
+     */
+    private int blocksizeMax = 1048576;
+    /**
+     * Number of hashed subdirectories of the work directory holding the received files (0 for none)
+     */
+    private int recvShards = 0;
     /**
      * White List of allowed Partners to use Business Requests
      */
@@ -526,6 +653,18 @@ public class Configuration {
      * Monitoring object
      */
     private Monitoring monitoring = null;
+    /**
+     * Write behind of the rank of running transfers (null if synchronous)
+     */
+    private DbTaskRunnerWriter taskRunnerWriter = null;
+    /**
+     * In memory counters of the transfers for the Monitoring (null if counted in the database)
+     */
+    private DbTaskRunnerCounters taskRunnerCounters = null;
+    /**
+     * Pool of database sessions (null if not used)
+     */
+    private volatile DbSessionPool dbSessionPool = null;
     /**
      * Monitoring: how long in ms to get back in monitoring
      */
@@ -708,11 +847,23 @@ public class Configuration {
         startHttpSupport();
         startMonitoring();
         launchStatistics();
+        DbHostAuth.createLruCache(getHostAuthCacheSize(), getHostAuthCacheTtl());
+        startTaskRunnerWriter();
         startRestSupport();
 
         logger.info("Current launched threads: " + ManagementFactory.getThreadMXBean().getThreadCount());
     }
 
+    /**
+     * Start the write behind of the rank of running transfers if enabled
+     */
+    public void startTaskRunnerWriter() {
+        if (getRunnerWriteDelay() > 0 && DbConstant.admin != null && DbConstant.admin.isActive()) {
+            taskRunnerWriter = new DbTaskRunnerWriter(getRunnerWriteDelay(), getRunnerWriteBatch());
+            taskRunnerWriter.start();
+        }
+    }
+
     /**
      * Used to log statistics information regularly
      */
@@ -828,6 +979,9 @@ public class Configuration {
     }
 
     public void startMonitoring() throws WaarpDatabaseSqlException {
+        if (getMonitorReconcileDelay() > 0 && DbConstant.admin != null && DbConstant.admin.isActive()) {
+            taskRunnerCounters = new DbTaskRunnerCounters();
+        }
         setMonitoring(new Monitoring(getPastLimit(), getMinimalDelay(), null));
         setNBDBSESSION(getNBDBSESSION() + 1);
         if (getSnmpConfig() != null) {
@@ -954,6 +1108,10 @@ public class Configuration {
         if (internalRunner != null) {
             internalRunner.stopInternalRunner();
         }
+        if (taskRunnerWriter != null) {
+            taskRunnerWriter.stop();
+            taskRunnerWriter = null;
+        }
         if (scheduledExecutorService != null) {
             scheduledExecutorService.shutdown();
         }
@@ -963,7 +1121,12 @@ public class Configuration {
             getMonitoring().releaseResources();
             setMonitoring(null);
         }
+        taskRunnerCounters = null;
+        closeDbSessionPool();
         shutdownGracefully();
+        DigestPipeline.shutdown();
+        JavaTaskExecutor.shutdown();
+        ExecProcessEngine.shutdown();
         if (execOtherWorker != null) {
             execOtherWorker.shutdownNow();
         }
@@ -994,11 +1157,15 @@ public class Configuration {
             localTransaction.closeAll();
             localTransaction = null;
         }
+        closeDbSessionPool();
         if (shutdownQuickly) {
             
         } else {
             shutdownGracefully();
         }
+        DigestPipeline.shutdown();
+        JavaTaskExecutor.shutdown();
+        ExecProcessEngine.shutdown();
         if (isUseLocalExec()) {
             LocalExecClient.releaseResources();
         }
@@ -1036,6 +1203,17 @@ public class Configuration {
         scheduledExecutorService.schedule(thread, delay, unit);
     }
 
+    /**
+     * submit a task in a fixed delay
+     * 
+     * @param task
+     * @param delay
+     * @param unit
+     */
+    public void launchInFixedDelay(Runnable task, long delay, TimeUnit unit) {
+        scheduledExecutorService.schedule(task, delay, unit);
+    }
+
     /**
      * Reset the global monitor for bandwidth limitation and change future channel monitors
      * 
@@ -1390,6 +1568,426 @@ public class Configuration {
         this.globalDigest = globalDigest;
     }
 
+    /**
+     * @return the zeroCopySend
+     */
+    public boolean isZeroCopySend() {
+        return zeroCopySend;
+    }
+
+    /**
+     * @param zeroCopySend the zeroCopySend to set
+     */
+    public void setZeroCopySend(boolean zeroCopySend) {
+        this.zeroCopySend = zeroCopySend;
+    }
+
+    /**
+     * @return the sendWindow
+     */
+    public int getSendWindow() {
+        return sendWindow;
+    }
+
+    /**
+     * @param sendWindow the sendWindow to set
+     */
+    public void setSendWindow(int sendWindow) {
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * @return the sendWindowBytes
+     */
+    public long getSendWindowBytes() {
+        return sendWindowBytes;
+    }
+
+    /**
+     * @param sendWindowBytes the sendWindowBytes to set
+     */
+    public void setSendWindowBytes(long sendWindowBytes) {
+        this.sendWindowBytes = sendWindowBytes;
+    }
+
+    /**
+     * @return the runnerWriteDelay
+     */
+    public long getRunnerWriteDelay() {
+        return runnerWriteDelay;
+    }
+
+    /**
+     * @param runnerWriteDelay the runnerWriteDelay to set
+     */
+    public void setRunnerWriteDelay(long runnerWriteDelay) {
+        this.runnerWriteDelay = runnerWriteDelay;
+    }
+
+    /**
+     * @return the runnerWriteBatch
+     */
+    public int getRunnerWriteBatch() {
+        return runnerWriteBatch;
+    }
+
+    /**
+     * @param runnerWriteBatch the runnerWriteBatch to set
+     */
+    public void setRunnerWriteBatch(int runnerWriteBatch) {
+        this.runnerWriteBatch = runnerWriteBatch;
+    }
+
+    /**
+     * @return the commanderSweepDelay
+     */
+    public long getCommanderSweepDelay() {
+        return commanderSweepDelay;
+    }
+
+    /**
+     * @param commanderSweepDelay the commanderSweepDelay to set
+     */
+    public void setCommanderSweepDelay(long commanderSweepDelay) {
+        this.commanderSweepDelay = commanderSweepDelay;
+    }
+
+    /**
+     * @return the submitNotify
+     */
+    public boolean isSubmitNotify() {
+        return submitNotify;
+    }
+
+    /**
+     * @param submitNotify the submitNotify to set
+     */
+    public void setSubmitNotify(boolean submitNotify) {
+        this.submitNotify = submitNotify;
+    }
+
+    /**
+     * @return the hostAuthCacheSize
+     */
+    public int getHostAuthCacheSize() {
+        return hostAuthCacheSize;
+    }
+
+    /**
+     * @param hostAuthCacheSize the hostAuthCacheSize to set
+     */
+    public void setHostAuthCacheSize(int hostAuthCacheSize) {
+        this.hostAuthCacheSize = hostAuthCacheSize;
+    }
+
+    /**
+     * @return the hostAuthCacheTtl
+     */
+    public long getHostAuthCacheTtl() {
+        return hostAuthCacheTtl;
+    }
+
+    /**
+     * @param hostAuthCacheTtl the hostAuthCacheTtl to set
+     */
+    public void setHostAuthCacheTtl(long hostAuthCacheTtl) {
+        this.hostAuthCacheTtl = hostAuthCacheTtl;
+    }
+
+    /**
+     * @return the directDispatch
+     */
+    public boolean isDirectDispatch() {
+        return directDispatch;
+    }
+
+    /**
+     * @param directDispatch the directDispatch to set
+     */
+    public void setDirectDispatch(boolean directDispatch) {
+        this.directDispatch = directDispatch;
+    }
+
+    /**
+     * @return the digestThreads
+     */
+    public int getDigestThreads() {
+        return digestThreads;
+    }
+
+    /**
+     * @param digestThreads the digestThreads to set
+     */
+    public void setDigestThreads(int digestThreads) {
+        this.digestThreads = digestThreads;
+    }
+
+    /**
+     * @return the digestWindow
+     */
+    public int getDigestWindow() {
+        return digestWindow;
+    }
+
+    /**
+     * @param digestWindow the digestWindow to set
+     */
+    public void setDigestWindow(int digestWindow) {
+        this.digestWindow = digestWindow;
+    }
+
+    /**
+     * @return the resumeGlobalDigest
+     */
+    public boolean isResumeGlobalDigest() {
+        return resumeGlobalDigest;
+    }
+
+    /**
+     * @param resumeGlobalDigest the resumeGlobalDigest to set
+     */
+    public void setResumeGlobalDigest(boolean resumeGlobalDigest) {
+        this.resumeGlobalDigest = resumeGlobalDigest;
+    }
+
+    /**
+     * @return the javaTaskThreads
+     */
+    public int getJavaTaskThreads() {
+        return javaTaskThreads;
+    }
+
+    /**
+     * @param javaTaskThreads the javaTaskThreads to set
+     */
+    public void setJavaTaskThreads(int javaTaskThreads) {
+        this.javaTaskThreads = javaTaskThreads;
+    }
+
+    /**
+     * @return the javaTaskClassLimit
+     */
+    public int getJavaTaskClassLimit() {
+        return javaTaskClassLimit;
+    }
+
+    /**
+     * @param javaTaskClassLimit the javaTaskClassLimit to set
+     */
+    public void setJavaTaskClassLimit(int javaTaskClassLimit) {
+        this.javaTaskClassLimit = javaTaskClassLimit;
+    }
+
+    /**
+     * @return the execMaxProcesses
+     */
+    public int getExecMaxProcesses() {
+        return execMaxProcesses;
+    }
+
+    /**
+     * @param execMaxProcesses the execMaxProcesses to set
+     */
+    public void setExecMaxProcesses(int execMaxProcesses) {
+        this.execMaxProcesses = execMaxProcesses;
+    }
+
+    /**
+     * @return the sequenceBlock
+     */
+    public int getSequenceBlock() {
+        return sequenceBlock;
+    }
+
+    /**
+     * @param sequenceBlock the sequenceBlock to set
+     */
+    public void setSequenceBlock(int sequenceBlock) {
+        this.sequenceBlock = sequenceBlock;
+    }
+
+    /**
+     * @return the networkStripes
+     */
+    public int getNetworkStripes() {
+        return networkStripes;
+    }
+
+    /**
+     * @param networkStripes the networkStripes to set
+     */
+    public void setNetworkStripes(int networkStripes) {
+        this.networkStripes = networkStripes;
+    }
+
+    /**
+     * @return the networkMinIdle
+     */
+    public int getNetworkMinIdle() {
+        return networkMinIdle;
+    }
+
+    /**
+     * @param networkMinIdle the networkMinIdle to set
+     */
+    public void setNetworkMinIdle(int networkMinIdle) {
+        this.networkMinIdle = networkMinIdle;
+    }
+
+    /**
+     * @return the networkMaxLocalChannels
+     */
+    public int getNetworkMaxLocalChannels() {
+        return networkMaxLocalChannels;
+    }
+
+    /**
+     * @param networkMaxLocalChannels the networkMaxLocalChannels to set
+     */
+    public void setNetworkMaxLocalChannels(int networkMaxLocalChannels) {
+        this.networkMaxLocalChannels = networkMaxLocalChannels;
+    }
+
+    /**
+     * @return the monitorReconcileDelay
+     */
+    public long getMonitorReconcileDelay() {
+        return monitorReconcileDelay;
+    }
+
+    /**
+     * @param monitorReconcileDelay the monitorReconcileDelay to set
+     */
+    public void setMonitorReconcileDelay(long monitorReconcileDelay) {
+        this.monitorReconcileDelay = monitorReconcileDelay;
+    }
+
+    /**
+     * @return the dbPoolMax
+     */
+    public int getDbPoolMax() {
+        return dbPoolMax;
+    }
+
+    /**
+     * @param dbPoolMax the dbPoolMax to set
+     */
+    public void setDbPoolMax(int dbPoolMax) {
+        this.dbPoolMax = dbPoolMax;
+    }
+
+    /**
+     * @return the dbPoolWait
+     */
+    public long getDbPoolWait() {
+        return dbPoolWait;
+    }
+
+    /**
+     * @param dbPoolWait the dbPoolWait to set
+     */
+    public void setDbPoolWait(long dbPoolWait) {
+        this.dbPoolWait = dbPoolWait;
+    }
+
+    /**
+     * @return the recvBufferSize
+     */
+    public int getRecvBufferSize() {
+        return recvBufferSize;
+    }
+
+    /**
+     * @param recvBufferSize the recvBufferSize to set
+     */
+    public void setRecvBufferSize(int recvBufferSize) {
+        this.recvBufferSize = recvBufferSize;
+    }
+
+    /**
+     * @return the recvPreallocate
+     */
+    public boolean isRecvPreallocate() {
+        return recvPreallocate;
+    }
+
+    /**
+     * @param recvPreallocate the recvPreallocate to set
+     */
+    public void setRecvPreallocate(boolean recvPreallocate) {
+        this.recvPreallocate = recvPreallocate;
+    }
+
+    /**
+     * @return the recvFsync
+     */
+    public long getRecvFsync() {
+        return recvFsync;
+    }
+
+    /**
+     * @param recvFsync the recvFsync to set
+     */
+    public void setRecvFsync(long recvFsync) {
+        this.recvFsync = recvFsync;
+    }
+
+    /**
+     * @return the adaptiveBlocksize
+     */
+    public boolean isAdaptiveBlocksize() {
+        return adaptiveBlocksize;
+    }
+
+    /**
+     * @param adaptiveBlocksize the adaptiveBlocksize to set
+     */
+    public void setAdaptiveBlocksize(boolean adaptiveBlocksize) {
+        this.adaptiveBlocksize = adaptiveBlocksize;
+    }
+
+    /**
+     * @return the blocksizeMin
+     */
+    public int getBlocksizeMin() {
+        return blocksizeMin;
+    }
+
+    /**
+     * @param blocksizeMin the blocksizeMin to set
+     */
+    public void setBlocksizeMin(int blocksizeMin) {
+        this.blocksizeMin = blocksizeMin;
+    }
+
+    /**
+     * @return the blocksizeMax
+     */
+    public int getBlocksizeMax() {
+        return blocksizeMax;
+    }
+
+    /**
+     * @param blocksizeMax the blocksizeMax to set
+     */
+    public void setBlocksizeMax(int blocksizeMax) {
+        this.blocksizeMax = blocksizeMax;
+    }
+
+    /**
+     * @return the recvShards
+     */
+    public int getRecvShards() {
+        return recvShards;
+    }
+
+    /**
+     * @param recvShards the recvShards to set
+     */
+    public void setRecvShards(int recvShards) {
+        this.recvShards = recvShards;
+    }
+
     /**
      * @return the businessWhiteSet
      */
@@ -2104,6 +2702,49 @@ public class Configuration {
         this.monitoring = monitoring;
     }
 
+    /**
+     * 
+     * @return the pool of database sessions, or null if dbpoolmax is not set or the database
+     *         supports concurrent access on one connection
+     */
+    public DbSessionPool getDbSessionPool() {
+        if (dbSessionPool == null && dbPoolMax > 0 && !isShutdown && DbConstant.admin != null
+                && DbConstant.admin.isActive()
+                && !DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
+            synchronized (this) {
+                if (dbSessionPool == null) {
+                    dbSessionPool = new DbSessionPool(DbConstant.admin, dbPoolMax, dbPoolWait);
+                }
+            }
+        }
+        return dbSessionPool;
+    }
+
+    /**
+     * Close the pool of database sessions if any
+     */
+    private void closeDbSessionPool() {
+        DbSessionPool pool = dbSessionPool;
+        if (pool != null) {
+            dbSessionPool = null;
+            pool.close();
+        }
+    }
+
+    /**
+     * @return the taskRunnerCounters (null if the Monitoring counts in the database)
+     */
+    public DbTaskRunnerCounters getTaskRunnerCounters() {
+        return taskRunnerCounters;
+    }
+
+    /**
+     * @return the taskRunnerWriter (null if the rank is written synchronously)
+     */
+    public DbTaskRunnerWriter getTaskRunnerWriter() {
+        return taskRunnerWriter;
+    }
+
     /**
      * @return the pastLimit
      */
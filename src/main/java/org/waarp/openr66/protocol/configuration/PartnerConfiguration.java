@@ -24,6 +24,7 @@ import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.utils.BlocksizeAdvisor;
 import org.waarp.openr66.protocol.utils.R66Versions;
 import org.waarp.openr66.protocol.utils.Version;
 
@@ -68,7 +69,8 @@ public class PartnerConfiguration {
     public static enum FIELDS {
         HOSTID("nohostid"), VERSION(R66Versions.V2_4_12.getVersion()),
         DIGESTALGO(DigestAlgo.MD5.name), FILESIZE(false), FINALHASH(false),
-        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD);
+        PROXIFIED(false), SEPARATOR(BLANK_SEPARATOR_FIELD), RESUMEHASH(false),
+        ADAPTIVEBLOCK(false), BLOCKMAX(0x10000);
 
         String name;
         Object defaultValue;
@@ -110,6 +112,9 @@ public class PartnerConfiguration {
         }
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.getDigest().name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, (Boolean) FIELDS.PROXIFIED.defaultValue);
+        JsonHandler.setValue(root, FIELDS.RESUMEHASH, (Boolean) FIELDS.RESUMEHASH.defaultValue);
+        JsonHandler.setValue(root, FIELDS.ADAPTIVEBLOCK, (Boolean) FIELDS.ADAPTIVEBLOCK.defaultValue);
+        JsonHandler.setValue(root, FIELDS.BLOCKMAX, (Integer) FIELDS.BLOCKMAX.defaultValue);
         String sep = getSEPARATOR_FIELD();
         if (!isVersion2GEQVersion1(R66Versions.V2_4_13.getVersion(), version)) {
             sep = BLANK_SEPARATOR_FIELD;
@@ -153,6 +158,10 @@ public class PartnerConfiguration {
         JsonHandler.setValue(root, FIELDS.DIGESTALGO, Configuration.configuration.getDigest().name);
         JsonHandler.setValue(root, FIELDS.PROXIFIED, Configuration.configuration.isHostProxyfied());
         JsonHandler.setValue(root, FIELDS.SEPARATOR, getSEPARATOR_FIELD());
+        JsonHandler.setValue(root, FIELDS.RESUMEHASH, Configuration.configuration.isGlobalDigest() &&
+                Configuration.configuration.isResumeGlobalDigest());
+        JsonHandler.setValue(root, FIELDS.ADAPTIVEBLOCK, Configuration.configuration.isAdaptiveBlocksize());
+        JsonHandler.setValue(root, FIELDS.BLOCKMAX, BlocksizeAdvisor.getLocalMaxBlocksize());
         useJson = true;
         logger.debug("Info HostId: " + root.toString());
     }
@@ -206,6 +215,30 @@ public class PartnerConfiguration {
         return root.path(FIELDS.PROXIFIED.name).asBoolean((Boolean) FIELDS.PROXIFIED.defaultValue);
     }
 
+    /**
+     * 
+     * @return True if this Host rebuilds the global hash of the whole file on restart
+     */
+    public boolean useResumeHash() {
+        return root.path(FIELDS.RESUMEHASH.name).asBoolean((Boolean) FIELDS.RESUMEHASH.defaultValue);
+    }
+
+    /**
+     * 
+     * @return True if this Host accepts an adaptive blocksize
+     */
+    public boolean useAdaptiveBlocksize() {
+        return root.path(FIELDS.ADAPTIVEBLOCK.name).asBoolean((Boolean) FIELDS.ADAPTIVEBLOCK.defaultValue);
+    }
+
+    /**
+     * 
+     * @return the highest blocksize accepted by this Host
+     */
+    public int getMaxBlocksize() {
+        return root.path(FIELDS.BLOCKMAX.name).asInt((Integer) FIELDS.BLOCKMAX.defaultValue);
+    }
+
     /**
      * 
      * @return the separator for this Host
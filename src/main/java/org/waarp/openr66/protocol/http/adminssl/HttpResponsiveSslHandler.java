@@ -199,6 +199,10 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
     public static final String sREFRESH = "REFRESH";
     private static final String XXXRESULTXXX = "XXXRESULTXXX";
     private static final String XXXDATAJSONXXX = "XXXDATAJSONXXX";
+    private static final String XXXNEXTIDXXX = "XXXNEXTIDXXX";
+    private static final String XXXNEXTOWNERXXX = "XXXNEXTOWNERXXX";
+    private static final String XXXNEXTREQUESTERXXX = "XXXNEXTREQUESTERXXX";
+    private static final String XXXNEXTREQUESTEDXXX = "XXXNEXTREQUESTEDXXX";
     private static final String XXXHOSTSIDSXXX = "XXXHOSTSIDSXXX";
 
     private int LIMITROW = 100;
@@ -356,14 +360,30 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
     private String setDbTaskRunnerJsonData(String head, String errorText,
             String startid, String stopid, Timestamp tstart, Timestamp tstop, String rule, String req,
             boolean pending, boolean transfer, boolean error, boolean done, boolean all) {
+        return setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req,
+                pending, transfer, error, done, all, null, null);
+    }
+
+    /**
+     * 
+     * @param after
+     *            if not null, the key below which the page starts, ordered by decreasing key, else
+     *            the page is ordered by decreasing start time
+     * @param page
+     *            if not null, filled with the key from which the next page shall start
+     */
+    private String setDbTaskRunnerJsonData(String head, String errorText,
+            String startid, String stopid, Timestamp tstart, Timestamp tstop, String rule, String req,
+            boolean pending, boolean transfer, boolean error, boolean done, boolean all,
+            NbAndSpecialId after, NbAndSpecialId page) {
         String seeAll = checkAuthorizedToSeeAll();
         DbPreparedStatement preparedStatement = null;
         try {
             preparedStatement =
                     DbTaskRunner.getFilterPrepareStatement(dbSession, getLIMITROW(), false,
                             startid, stopid, tstart, tstop, rule, req,
-                            pending, transfer, error, done, all, seeAll);
-            String json = DbTaskRunner.getJson(preparedStatement, getLIMITROW());
+                            pending, transfer, error, done, all, seeAll, after);
+            String json = DbTaskRunner.getJson(preparedStatement, getLIMITROW(), page);
             return head.replace(XXXDATAJSONXXX, json);
         } catch (WaarpDatabaseException e) {
             if (preparedStatement != null) {
@@ -382,19 +402,24 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
     }
     private String ListingReload() {
         String errorText = "";
+        // Listing is ordered by decreasing start time, the Next pages by decreasing key below the
+        // lower key already shown
+        NbAndSpecialId page = new NbAndSpecialId();
         if (params == null) {
             String head = REQUEST.Listing.read(this);
             head = resetOptionTransfer(head, "", "", "", "", "", "",
                     false, false, false, false, true);
-            head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true);
-            return head.replace(XXXRESULTXXX, "").replace(XXXDATAJSONXXX, "[]");
+            head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true,
+                    null, page);
+            return setNextId(head, page).replace(XXXRESULTXXX, "").replace(XXXDATAJSONXXX, "[]");
         }
         List<String> parms = params.get("ACTION");
         String head = REQUEST.Listing.read(this);
         if (parms != null) {
             String parm = parms.get(0);
             boolean isNotReload = ! "Reload".equalsIgnoreCase(parm);
-            if ("Filter".equalsIgnoreCase(parm) || ! isNotReload) {
+            boolean isNext = "Next".equalsIgnoreCase(parm);
+            if ("Filter".equalsIgnoreCase(parm) || ! isNotReload || isNext) {
                 String startid = getTrimValue("startid");
                 String stopid = getTrimValue("stopid");
                 if (isNotReload && startid != null && stopid == null) {
@@ -427,7 +452,12 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
                     stop = tstop.toString();
                 }
                 Long idstart = null;
-                head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req, pending, transfer, error, done, all);
+                NbAndSpecialId after = null;
+                if (isNext) {
+                    after = getNextKey();
+                }
+                head = setDbTaskRunnerJsonData(head, errorText, startid, stopid, tstart, tstop, rule, req, pending, transfer, error, done, all,
+                        after, page);
                 head = resetOptionTransfer(head, startid == null ? (idstart != null ? idstart.toString() : "")
                         : startid,
                         stopid == null ? "" : stopid, start, stop,
@@ -436,14 +466,61 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
             } else {
                 head = resetOptionTransfer(head, "", "", "", "", "", "",
                         false, false, false, false, true);
-                head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true);
+                head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true,
+                        null, page);
             }
         } else {
             head = resetOptionTransfer(head, "", "", "", "", "", "",
                     false, false, false, false, true);
-            head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true);
+            head = setDbTaskRunnerJsonData(head, errorText, "", "", null, null, "", "", false, false, false, false, true,
+                    null, page);
         }
-        return head.replace(XXXRESULTXXX, errorText).replace(XXXDATAJSONXXX, "[]");
+        return setNextId(head, page).replace(XXXRESULTXXX, errorText).replace(XXXDATAJSONXXX, "[]");
+    }
+
+    /**
+     * 
+     * @return the key from which the next page shall start, or null if not fully given
+     */
+    private NbAndSpecialId getNextKey() {
+        String nextid = getTrimValue("nextid");
+        String nextowner = getTrimValue("nextowner");
+        String nextrequester = getTrimValue("nextrequester");
+        String nextrequested = getTrimValue("nextrequested");
+        if (nextid == null || nextowner == null || nextrequester == null || nextrequested == null) {
+            return null;
+        }
+        NbAndSpecialId after = new NbAndSpecialId();
+        try {
+            after.lowerSpecialId = Long.parseLong(nextid);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        after.lowerOwnerReq = nextowner;
+        after.lowerRequester = nextrequester;
+        after.lowerRequested = nextrequested;
+        return after;
+    }
+
+    /**
+     * 
+     * @param head
+     * @param page
+     * @return the head with the key from which the next page shall start, if any
+     */
+    private String setNextId(String head, NbAndSpecialId page) {
+        String nextid = "";
+        String nextowner = "";
+        String nextrequester = "";
+        String nextrequested = "";
+        if (page.nb >= getLIMITROW() && page.lowerSpecialId != DbConstant.ILLEGALVALUE) {
+            nextid = Long.toString(page.lowerSpecialId);
+            nextowner = page.lowerOwnerReq;
+            nextrequester = page.lowerRequester;
+            nextrequested = page.lowerRequested;
+        }
+        return head.replace(XXXNEXTIDXXX, nextid).replace(XXXNEXTOWNERXXX, nextowner)
+                .replace(XXXNEXTREQUESTERXXX, nextrequester).replace(XXXNEXTREQUESTEDXXX, nextrequested);
     }
     private String Listing() {
         getParams();
@@ -751,6 +828,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
         done = params.containsKey("done");
         all = params.containsKey("all");
         boolean toPurge = params.containsKey("purge");
+        boolean gzip = params.containsKey("gzip");
         if (toPurge) {
             transfer = false;
         }
@@ -782,7 +860,7 @@ public class HttpResponsiveSslHandler extends SimpleChannelInboundHandler<FullHt
         NbAndSpecialId nbAndSpecialId = null;
         String basename = Configuration.configuration.getArchivePath() + R66Dir.SEPARATOR +
                 Configuration.configuration.getHOST_ID() + "_" + System.currentTimeMillis() +
-                "_runners.xml";
+                "_runners.xml" + (gzip ? DbTaskRunner.GZEXTENSION : "");
         String filename = Configuration.configuration.getBaseDirectory() +
                 basename;
         String errorMsg = "";
@@ -43,6 +43,7 @@ import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.database.data.DbTaskRunner.Columns;
 import org.waarp.openr66.protocol.http.rest.HttpRestR66Handler;
+import org.waarp.openr66.protocol.utils.NbAndSpecialId;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -62,6 +63,10 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         ORDERBYID("boolean"),
         STARTID("transfer id"),
         STOPID("transfer id"),
+        AFTERID("transfer id of the last row of the previous page, ordering by decreasing key"),
+        AFTEROWNER("owner of the last row of the previous page, required with AFTERID"),
+        AFTERREQUESTER("requester of the last row of the previous page, required with AFTERID"),
+        AFTERREQUESTED("requested of the last row of the previous page, required with AFTERID"),
         IDRULE("rule name"),
         PARTNER("partner (requester or requested) name"),
         PENDING("boolean"),
@@ -147,6 +152,25 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         if (stopid == null || stopid.isEmpty()) {
             stopid = null;
         }
+        NbAndSpecialId after = null;
+        node = arg.path(FILTER_ARGS.AFTERID.name());
+        if (!node.isMissingNode() && !node.asText().isEmpty()) {
+            // keyset pagination: next page starts strictly below the full key of the last row
+            // already received, since the id alone is not unique
+            after = new NbAndSpecialId();
+            try {
+                after.lowerSpecialId = Long.parseLong(node.asText());
+            } catch (NumberFormatException e) {
+                throw new HttpIncorrectRequestException("Incorrect " + FILTER_ARGS.AFTERID.name(), e);
+            }
+            after.lowerOwnerReq = arg.path(FILTER_ARGS.AFTEROWNER.name()).asText();
+            after.lowerRequester = arg.path(FILTER_ARGS.AFTERREQUESTER.name()).asText();
+            after.lowerRequested = arg.path(FILTER_ARGS.AFTERREQUESTED.name()).asText();
+            if (after.lowerOwnerReq.isEmpty() || after.lowerRequester.isEmpty()
+                    || after.lowerRequested.isEmpty()) {
+                throw new HttpIncorrectRequestException("Incomplete " + FILTER_ARGS.AFTERID.name() + " key");
+            }
+        }
         String rule = arg.path(FILTER_ARGS.IDRULE.name()).asText();
         if (rule == null || rule.isEmpty()) {
             rule = null;
@@ -187,7 +211,7 @@ public class DbTaskRunnerR66RestMethodHandler extends DataModelRestMethodHandler
         try {
             return DbTaskRunner.getFilterPrepareStatement(handler.getDbSession(),
                     limit, orderBySpecialId, startid, stopid, start, stop, rule, req, pending, transfer, error, done,
-                    all, owner);
+                    all, owner, after);
         } catch (WaarpDatabaseNoConnectionException e) {
             throw new HttpIncorrectRequestException("Issue while reading from database", e);
         } catch (WaarpDatabaseSqlException e) {
@@ -65,6 +65,7 @@ import org.waarp.openr66.protocol.localhandler.packet.StartupPacket;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.DigestPipeline;
 import org.waarp.openr66.protocol.utils.R66Future;
 
 /**
@@ -96,8 +97,18 @@ public abstract class ConnectionActions {
      * Global Digest in receive using local hash if necessary
      */
     protected FilesystemBasedDigest localDigest;
+    /**
+     * Hashing stage in receive when hashing is done out of the handler thread
+     */
+    protected DigestPipeline digestPipeline;
+    /**
+     * True if the global digest in receive could not be rebuilt on restart
+     */
+    protected boolean globalDigestIncomplete;
 
     protected void setFrom(ConnectionActions handler) {
+        this.digestPipeline = handler.digestPipeline;
+        this.globalDigestIncomplete = handler.globalDigestIncomplete;
         this.globalDigest = handler.globalDigest;
         this.localChannelReference = handler.localChannelReference;
         this.localDigest = handler.localDigest;
@@ -143,6 +154,10 @@ public abstract class ConnectionActions {
      * @param e
      */
     public void channelClosed(ChannelHandlerContext e) {
+        if (digestPipeline != null) {
+            digestPipeline.cancel();
+            digestPipeline = null;
+        }
         DbTaskRunner runner = session.getRunner();
         try {
             logger.debug("Local Server Channel Closed: {} {}",
@@ -297,6 +312,11 @@ public abstract class ConnectionActions {
         localChannelReference.validateStartup(true);
         session.setLocalChannelReference(localChannelReference);
         channel.writeAndFlush(packet);
+        if (Configuration.configuration.isDirectDispatch()) {
+            // Next packets will come directly from the network handler
+            Configuration.configuration.getLocalTransaction().startDirectDispatch(
+                    localChannelReference, channel);
+        }
         session.setStatus(41);
     }
 
@@ -33,16 +33,19 @@ import org.waarp.openr66.context.R66Result;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbTaskRunner;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
 import org.waarp.openr66.protocol.exception.OpenR66Exception;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolNoConnectionException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
+import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
 import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkServerInitializer;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.BlocksizeAdvisor;
 import org.waarp.openr66.protocol.utils.R66Future;
 import org.waarp.openr66.protocol.utils.R66Versions;
 
@@ -63,6 +66,11 @@ public class LocalChannelReference {
      */
     private final LocalChannel localChannel;
 
+    /**
+     * Local Channel on the handler side, set when packets are dispatched directly to it
+     */
+    private volatile Channel serverChannel;
+
     /**
      * Network Channel Ref
      */
@@ -159,6 +167,22 @@ public class LocalChannelReference {
      * DbSession for Database that do not support concurrency in access
      */
     private volatile DbSession noconcurrencyDbSession = null;
+    /**
+     * Pool the noconcurrencyDbSession was borrowed from (null if opened for this channel only)
+     */
+    private volatile DbSessionPool dbSessionPool = null;
+    /**
+     * Time the request was sent by the requester (0 if not measured)
+     */
+    private volatile long requestSentTime = 0;
+    /**
+     * Time the data transfer started for the requester (0 if not measured)
+     */
+    private volatile long dataStartTime = 0;
+    /**
+     * Rank at the start of the data transfer
+     */
+    private volatile int dataStartRank = 0;
 
     /**
      * 
@@ -167,9 +191,12 @@ public class LocalChannelReference {
      * @param remoteId
      * @param futureRequest
      * @throws OpenR66ProtocolRemoteShutdownException
+     * @throws OpenR66ProtocolSystemException
+     *             if no database session can be opened for this channel
      */
     public LocalChannelReference(LocalChannel localChannel, NetworkChannelReference networkChannelRef,
-            Integer remoteId, R66Future futureRequest) throws OpenR66ProtocolRemoteShutdownException {
+            Integer remoteId, R66Future futureRequest) throws OpenR66ProtocolRemoteShutdownException,
+            OpenR66ProtocolSystemException {
         this.localChannel = localChannel;
         this.networkChannelRef = networkChannelRef;
         networkServerHandler = (NetworkServerHandler) this.networkChannelRef.channel().pipeline().last();
@@ -186,12 +213,24 @@ public class LocalChannelReference {
         cts = (ChannelTrafficShapingHandler) networkChannelRef.channel().pipeline()
                 .get(NetworkServerInitializer.LIMITCHANNEL);
         if (DbConstant.admin.isActive() && !DbConstant.admin.isCompatibleWithThreadSharedConnexion()) {
-            try {
-                this.noconcurrencyDbSession = new DbSession(DbConstant.admin, false);
-            } catch (WaarpDatabaseNoConnectionException e) {
-                // Cannot connect so use default connection
-                logger.warn("Use default database connection");
-                this.noconcurrencyDbSession = null;
+            DbSessionPool pool = Configuration.configuration.getDbSessionPool();
+            if (pool != null) {
+                try {
+                    this.noconcurrencyDbSession = pool.borrow();
+                    this.dbSessionPool = pool;
+                } catch (WaarpDatabaseNoConnectionException e) {
+                    // the shared connection cannot be used concurrently: use a dedicated one
+                    logger.warn("Database session pool exhausted, use a dedicated connection: "
+                            + e.getMessage());
+                }
+            }
+            if (this.noconcurrencyDbSession == null) {
+                try {
+                    this.noconcurrencyDbSession = new DbSession(DbConstant.admin, false);
+                } catch (WaarpDatabaseNoConnectionException e) {
+                    throw new OpenR66ProtocolSystemException(
+                            "Cannot open a database connection for this request", e);
+                }
             }
         } else {
             this.noconcurrencyDbSession = null;
@@ -217,10 +256,23 @@ public class LocalChannelReference {
     public void close() {
         Configuration.configuration.getLocalTransaction().remove(this);
         // Now force the close of the database after a wait
-        if (noconcurrencyDbSession != null && DbConstant.admin != null && DbConstant.admin.getSession() != null
-                && !noconcurrencyDbSession.equals(DbConstant.admin.getSession())) {
-            noconcurrencyDbSession.forceDisconnect();
+        DbSession session = noconcurrencyDbSession;
+        if (session != null && DbConstant.admin != null && DbConstant.admin.getSession() != null
+                && !session.equals(DbConstant.admin.getSession())) {
             noconcurrencyDbSession = null;
+            DbSessionPool pool = dbSessionPool;
+            dbSessionPool = null;
+            R66Session r66Session = this.session;
+            if (r66Session != null && r66Session.getRunner() != null) {
+                // the runner shall not use this session once given back
+                r66Session.getRunner().releaseDbSession(session);
+            }
+            if (pool != null) {
+                // give back the session for the next transfer
+                pool.release(session);
+            } else {
+                session.forceDisconnect();
+            }
         }
     }
 
@@ -231,6 +283,21 @@ public class LocalChannelReference {
         return localChannel;
     }
 
+    /**
+     * @return the Local Channel on the handler side if direct dispatch is started, else null
+     */
+    public Channel getServerChannel() {
+        return serverChannel;
+    }
+
+    /**
+     * @param serverChannel
+     *            the Local Channel on the handler side to dispatch packets to directly
+     */
+    public void setServerChannel(Channel serverChannel) {
+        this.serverChannel = serverChannel;
+    }
+
     /**
      * @return the networkChannelRef
      */
@@ -726,6 +793,63 @@ public class LocalChannelReference {
         }
     }
 
+    /**
+     * Mark the request as sent by the requester, for the adaptive blocksize
+     */
+    public void setRequestSent() {
+        if (BlocksizeAdvisor.isAdaptive(partner)) {
+            requestSentTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Mark the answer to the request as received by the requester, so the start of the data
+     * transfer
+     * 
+     * @param rank
+     *            the rank of the first block
+     */
+    public void setRequestAnswered(int rank) {
+        if (requestSentTime == 0) {
+            return;
+        }
+        requestSentTime = 0;
+        dataStartTime = System.nanoTime();
+        dataStartRank = rank;
+        // latency measured on the data connection itself, not on the request (which includes the
+        // pre tasks and database work of the partner)
+        sendLatencyProbe();
+    }
+
+    private void sendLatencyProbe() {
+        NetworkServerHandler handler = networkServerHandler;
+        if (handler != null) {
+            handler.sendLatencyProbe(partner.getId());
+        }
+    }
+
+    /**
+     * Mark the end of the data transfer (all blocks sent or received), for the adaptive blocksize
+     */
+    public void setDataTransferred() {
+        if (dataStartTime == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - dataStartTime;
+        dataStartTime = 0;
+        // second probe, queued behind the last blocks
+        sendLatencyProbe();
+        if (session == null || session.getRunner() == null) {
+            return;
+        }
+        DbTaskRunner runner = session.getRunner();
+        long bytes = (long) (runner.getRank() - dataStartRank) * runner.getBlocksize();
+        if (runner.getOriginalSize() > 0) {
+            bytes = Math.min(bytes, runner.getOriginalSize() - (long) dataStartRank * runner.getBlocksize());
+        }
+        BlocksizeAdvisor.addThroughput(partner.getId(), bytes, nanos, runner.getBlocksize());
+    }
+
     /**
      * @return the requestId
      */
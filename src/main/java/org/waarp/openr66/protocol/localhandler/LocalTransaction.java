@@ -20,11 +20,12 @@ package org.waarp.openr66.protocol.localhandler;
 import java.net.SocketAddress;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
@@ -52,7 +53,9 @@ import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolRemoteShutdownException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolShutdownException;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ConnectionErrorPacket;
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketCodec;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.localhandler.packet.StartupPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
@@ -84,6 +87,19 @@ public class LocalTransaction {
      */
     private final ConcurrentHashMap<String, LocalChannelReference> localChannelHashMapIdBased = new ConcurrentHashMap<String, LocalChannelReference>();
 
+    /**
+     * Packets waiting for their LocalChannelReference, by localId
+     */
+    private final ConcurrentHashMap<Integer, PendingPackets> pendingPackets = new ConcurrentHashMap<Integer, PendingPackets>();
+
+    private final AtomicLong nbParkedPackets = new AtomicLong();
+
+    private final AtomicLong nbExpiredPackets = new AtomicLong();
+
+    private final AtomicLong totalParkTime = new AtomicLong();
+
+    private final AtomicLong maxParkTime = new AtomicLong();
+
     private final ServerBootstrap serverBootstrap = new ServerBootstrap();
 
     private final Channel serverChannel;
@@ -122,7 +138,8 @@ public class LocalTransaction {
 
     public String hashStatus() {
         return "LocalTransaction: [localChannelHashMap: " + localChannelHashMap.size()
-                + " localChannelHashMapIdBased: " + localChannelHashMapIdBased.size() + "] ";
+                + " localChannelHashMapIdBased: " + localChannelHashMapIdBased.size()
+                + " pendingPackets: " + pendingPackets.size() + "] ";
     }
 
     /**
@@ -146,90 +163,280 @@ public class LocalTransaction {
                 "Cannot find LocalChannelReference");
     }
 
-    private static class SendLater extends Thread {
-        private static Map<Integer, SendLater> sendLaters = new ConcurrentHashMap<Integer, SendLater>();
-        final LocalTransaction lt;
+    /**
+     * Get the corresponding LocalChannelReference without waiting for its registration, and set
+     * the remoteId if different
+     * 
+     * @param remoteId
+     * @param localId
+     * @return the LocalChannelReference or null if not yet registered or if previous packets
+     *         are still pending
+     */
+    public LocalChannelReference getClientIfRegistered(Integer remoteId, Integer localId) {
+        LocalChannelReference localChannelReference = localChannelHashMap.get(localId);
+        if (!isReady(localChannelReference) || pendingPackets.containsKey(localId)) {
+            // not ready or previous packets are still being delivered: keep the order
+            return null;
+        }
+        if (localChannelReference.getRemoteId().compareTo(remoteId) != 0) {
+            localChannelReference.setRemoteId(remoteId);
+        }
+        return localChannelReference;
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @return True if packets can be delivered to this LocalChannelReference (in direct dispatch
+     *         mode, once the handler side has processed the Startup)
+     */
+    private static boolean isReady(LocalChannelReference localChannelReference) {
+        if (localChannelReference == null) {
+            return false;
+        }
+        return !Configuration.configuration.isDirectDispatch()
+                || localChannelReference.getServerChannel() != null;
+    }
+
+    /**
+     * Start the direct dispatch of packets to the handler side of the LocalChannelReference, then
+     * deliver packets received before
+     * 
+     * @param localChannelReference
+     * @param serverChannel
+     *            the Local Channel on the handler side
+     */
+    public void startDirectDispatch(final LocalChannelReference localChannelReference, Channel serverChannel) {
+        localChannelReference.setServerChannel(serverChannel);
+        // after the current packet
+        serverChannel.eventLoop().execute(new Runnable() {
+            public void run() {
+                PendingPackets pending = pendingPackets.get(localChannelReference.getLocalId());
+                if (pending != null) {
+                    unpark(pending, localChannelReference);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deliver one packet received from the network to its LocalChannelReference. In direct
+     * dispatch mode, the packet is decoded here and given to the handler side pipeline, without
+     * crossing the LocalChannel pair nor decoding it again.
+     * 
+     * @param localChannelReference
+     * @param packet
+     *            owned by this method
+     * @return the ChannelFuture if the packet crossed the LocalChannel, else null
+     */
+    public ChannelFuture dispatchToLocal(LocalChannelReference localChannelReference, NetworkPacket packet) {
+        if (!Configuration.configuration.isDirectDispatch()) {
+            return localChannelReference.getLocalChannel().writeAndFlush(packet.getBuffer());
+        }
+        Channel serverChannel = localChannelReference.getServerChannel();
+        if (serverChannel == null) {
+            // Startup not yet processed on the handler side
+            sendLaterToClient(localChannelReference.getNetworkChannel(), packet.getRemoteId(),
+                    packet.getLocalId(), packet);
+            return null;
+        }
+        AbstractLocalPacket localPacket;
+        try {
+            localPacket = LocalPacketCodec.decodeNetworkPacket(packet.getBuffer());
+        } catch (OpenR66ProtocolPacketException e) {
+            serverChannel.pipeline().fireExceptionCaught(e);
+            return null;
+        } finally {
+            // decoded packets keep their own reference on the buffer
+            packet.clear();
+        }
+        if (localPacket == null) {
+            logger.warn("Incomplete packet for LocalId: " + localChannelReference.getLocalId());
+            return null;
+        }
+        // one hop into the handler side event loop
+        serverChannel.pipeline().fireChannelRead(localPacket);
+        return null;
+    }
+
+    /**
+     * Packets received from the network for one localId before the corresponding
+     * LocalChannelReference is registered
+     */
+    private final class PendingPackets implements Runnable {
         final Channel networkChannel;
         final SocketAddress remoteAddress;
-        Integer remoteId;
         final Integer localId;
+        volatile Integer remoteId;
+        final long parkedTime = System.currentTimeMillis();
         final Queue<NetworkPacket> packets = new ConcurrentLinkedQueue<NetworkPacket>();
-        int step = 0;
-        
-        private SendLater(LocalTransaction lt, Channel nc, Integer remoteId, Integer localId) {
-            this.lt = lt;
+        final AtomicBoolean draining = new AtomicBoolean(false);
+        volatile boolean expired = false;
+
+        private PendingPackets(Channel nc, Integer remoteId, Integer localId) {
             this.networkChannel = nc;
             this.remoteId = remoteId;
             this.localId = localId;
             remoteAddress = networkChannel.remoteAddress();
         }
-        
-        private void add(NetworkPacket packet) {
-            if (packets.isEmpty()) {
-                packets.add(packet);
-                Configuration.configuration.launchInFixedDelay(this, Configuration.WAITFORNETOP, TimeUnit.MILLISECONDS);
-            }
-            packets.add(packet);
-        }
 
-        public void run() {
-            synchronized (sendLaters) {
-                LocalChannelReference localChannelReference = lt.localChannelHashMap.get(localId);
-                if (localChannelReference != null) {
+        /**
+         * Write all pending packets to the local channel, only one thread at a time
+         * 
+         * @param localChannelReference
+         */
+        private void drain(LocalChannelReference localChannelReference) {
+            while (!packets.isEmpty() && draining.compareAndSet(false, true)) {
+                try {
                     if (localChannelReference.getRemoteId().compareTo(remoteId) != 0) {
                         localChannelReference.setRemoteId(remoteId);
                     }
                     NetworkPacket networkPacket = packets.poll();
-                    LocalChannel localChannel = localChannelReference.getLocalChannel();
                     while (networkPacket != null) {
-                        localChannel.write(networkPacket.getBuffer());
+                        dispatchToLocal(localChannelReference, networkPacket);
                         networkPacket = packets.poll();
                     }
-                    localChannel.flush();
-                    sendLaters.remove(localId);
-                } else {
-                    step ++;
-                    if (step > 10000) {
-                        if (NetworkTransaction.isShuttingdownNetworkChannel(remoteAddress)
-                                || R66ShutdownHook.isShutdownStarting()) {
-                            // ignore
-                            sendLaters.remove(localId);
-                            packets.clear();
-                            return;
-                        }
-                        logger.warn("Cannot get LocalChannel: due to LocalId not found: " + localId);
-                        final ConnectionErrorPacket error = new ConnectionErrorPacket(
-                                "Cannot get localChannel since localId is not found anymore", "" + localId);
-                        NetworkServerHandler.writeError(networkChannel, remoteId, localId, error);
-                        sendLaters.remove(localId);
-                        packets.clear();
-                    } else {
-                        Configuration.configuration.launchInFixedDelay(this, Configuration.WAITFORNETOP, TimeUnit.MILLISECONDS);
-                    }
+                } finally {
+                    draining.set(false);
                 }
             }
         }
+
+        /**
+         * Release all pending packets
+         */
+        private void clear() {
+            NetworkPacket networkPacket = packets.poll();
+            while (networkPacket != null) {
+                networkPacket.clear();
+                networkPacket = packets.poll();
+            }
+        }
+
+        /**
+         * Called once the parking delay is over
+         */
+        public void run() {
+            if (!pendingPackets.remove(localId, this)) {
+                // already drained
+                return;
+            }
+            LocalChannelReference localChannelReference = localChannelHashMap.get(localId);
+            if (isReady(localChannelReference)) {
+                // registered in between
+                unpark(this, localChannelReference);
+                return;
+            }
+            expired = true;
+            nbExpiredPackets.addAndGet(packets.size());
+            if (NetworkTransaction.isShuttingdownNetworkChannel(remoteAddress)
+                    || R66ShutdownHook.isShutdownStarting()) {
+                // ignore
+                clear();
+                return;
+            }
+            logger.warn("Cannot get LocalChannel: due to LocalId not found: " + localId);
+            clear();
+            final ConnectionErrorPacket error = new ConnectionErrorPacket(
+                    "Cannot get localChannel since localId is not found anymore", "" + localId);
+            NetworkServerHandler.writeError(networkChannel, remoteId, localId, error);
+        }
     }
+
     /**
-     * Get the corresponding LocalChannelReference and set the remoteId if different
+     * Drain the pending packets into the now registered LocalChannelReference
      * 
+     * @param pending
+     * @param localChannelReference
+     */
+    private void unpark(PendingPackets pending, LocalChannelReference localChannelReference) {
+        // Drain before removing so that packets arriving meanwhile keep their order
+        pending.drain(localChannelReference);
+        if (!pendingPackets.remove(pending.localId, pending)) {
+            pending.drain(localChannelReference);
+            return;
+        }
+        pending.drain(localChannelReference);
+        long duration = System.currentTimeMillis() - pending.parkedTime;
+        totalParkTime.addAndGet(duration);
+        long max = maxParkTime.get();
+        while (duration > max && !maxParkTime.compareAndSet(max, duration)) {
+            max = maxParkTime.get();
+        }
+    }
+
+    /**
+     * Park the packet until the corresponding LocalChannelReference is registered by
+     * createNewClient. The packet is then owned by the pending queue.
+     * 
+     * @param networkChannel
      * @param remoteId
      * @param localId
-     * @throws OpenR66ProtocolSystemException
+     * @param packet
      */
     public void sendLaterToClient(Channel networkChannel, Integer remoteId, Integer localId, NetworkPacket packet) {
-        synchronized (SendLater.sendLaters) {
-            SendLater sendLater = SendLater.sendLaters.get(localId);
-            if (sendLater == null) {
-                sendLater = new SendLater(this, networkChannel, remoteId, localId);
-                SendLater.sendLaters.put(localId, sendLater);
-                sendLater.setDaemon(true);
+        PendingPackets pending = pendingPackets.get(localId);
+        if (pending == null) {
+            PendingPackets newPending = new PendingPackets(networkChannel, remoteId, localId);
+            pending = pendingPackets.putIfAbsent(localId, newPending);
+            if (pending == null) {
+                pending = newPending;
+                Configuration.configuration.launchInFixedDelay(pending,
+                        Configuration.configuration.getTIMEOUTCON(), TimeUnit.MILLISECONDS);
             }
-            sendLater.remoteId = remoteId;
-            sendLater.add(packet);
+        }
+        pending.remoteId = remoteId;
+        pending.packets.add(packet);
+        nbParkedPackets.incrementAndGet();
+        // Registration might have happened in between
+        LocalChannelReference localChannelReference = localChannelHashMap.get(localId);
+        if (isReady(localChannelReference)) {
+            unpark(pending, localChannelReference);
+        } else if (pending.expired) {
+            pending.clear();
         }
     }
 
+    /**
+     * 
+     * @return the number of localIds having packets waiting for their registration
+     */
+    public int getNbPendingLocalIds() {
+        return pendingPackets.size();
+    }
+
+    /**
+     * 
+     * @return the total number of packets parked before their LocalChannel registration
+     */
+    public long getNbParkedPackets() {
+        return nbParkedPackets.get();
+    }
+
+    /**
+     * 
+     * @return the total number of parked packets dropped since never registered
+     */
+    public long getNbExpiredPackets() {
+        return nbExpiredPackets.get();
+    }
+
+    /**
+     * 
+     * @return the cumulated time in ms parked packets waited for their registration
+     */
+    public long getTotalParkTime() {
+        return totalParkTime.get();
+    }
+
+    /**
+     * 
+     * @return the maximum time in ms parked packets waited for their registration
+     */
+    public long getMaxParkTime() {
+        return maxParkTime.get();
+    }
+
     /**
      * Create a new Client
      * 
@@ -278,8 +485,14 @@ public class LocalTransaction {
                 final LocalChannel channel = (LocalChannel) channelFuture.channel();
                 localChannelGroup.add(channel);
                 logger.debug("Will start localChannelReference and eventually generate a new Db Connection if not-thread-safe");
-                final LocalChannelReference localChannelReference = new LocalChannelReference(
-                        channel, networkChannelReference, remoteId, futureRequest);
+                final LocalChannelReference localChannelReference;
+                try {
+                    localChannelReference = new LocalChannelReference(
+                            channel, networkChannelReference, remoteId, futureRequest);
+                } catch (OpenR66ProtocolSystemException e) {
+                    channel.close();
+                    throw e;
+                }
                 localChannelHashMap.put(channel.id().hashCode(), localChannelReference);
                 logger.debug("Db connection done and Create LocalChannel entry: " + i + " {}",
                         localChannelReference);
@@ -287,6 +500,11 @@ public class LocalTransaction {
                 // Now send first a Startup message
                 StartupPacket startup = new StartupPacket(localChannelReference.getLocalId());
                 channel.writeAndFlush(startup);
+                // Then packets received before this registration
+                PendingPackets pending = pendingPackets.get(localChannelReference.getLocalId());
+                if (pending != null && isReady(localChannelReference)) {
+                    unpark(pending, localChannelReference);
+                }
                 return localChannelReference;
             } else {
                 logger.error("Can't connect to local server " + i + " (Done: " + channelFuture.isDone() + ")");
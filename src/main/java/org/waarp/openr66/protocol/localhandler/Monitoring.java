@@ -17,6 +17,8 @@
  */
 package org.waarp.openr66.protocol.localhandler;
 
+import java.util.concurrent.TimeUnit;
+
 import io.netty.handler.traffic.TrafficCounter;
 import org.joda.time.DateTime;
 import org.waarp.common.database.DbAdmin;
@@ -30,10 +32,19 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.commander.CommanderNoDb;
 import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.context.task.JavaTaskExecutor;
+import org.waarp.openr66.context.task.JavaTaskExecutor.JavaTaskClass;
 import org.waarp.openr66.database.DbConstant;
+import org.waarp.openr66.database.DbSessionPool;
 import org.waarp.openr66.database.data.DbTaskRunner;
+import org.waarp.openr66.database.data.DbTaskRunnerCounters;
+import org.waarp.openr66.database.data.DbTaskRunnerWriter;
 import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
 import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+import org.waarp.openr66.protocol.localhandler.packet.PacketBufferAllocator;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelPool;
+import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
 import org.waarp.openr66.protocol.snmp.R66PrivateMib;
 import org.waarp.snmp.WaarpSnmpAgent;
 import org.waarp.snmp.interf.WaarpInterfaceMonitor;
@@ -73,6 +84,7 @@ public class Monitoring implements WaarpInterfaceMonitor {
     private long minimalDelay = 0;
     private long lastTry = 0;
     private DbSession dbSession = null;
+    private DbSessionPool dbSessionPool = null;
     private final TrafficCounter trafficCounter =
             Configuration.configuration
                     .getGlobalTrafficShapingHandler()
@@ -182,10 +194,22 @@ public class Monitoring implements WaarpInterfaceMonitor {
             dbSession = session;
         } else {
             if (DbConstant.admin.isActive()) {
-                try {
-                    dbSession = new DbSession(DbConstant.admin, false);
-                } catch (WaarpDatabaseNoConnectionException e) {
-                    dbSession = DbConstant.admin.getSession();
+                DbSessionPool pool = Configuration.configuration.getDbSessionPool();
+                if (pool != null) {
+                    try {
+                        dbSession = pool.borrow();
+                        dbSessionPool = pool;
+                    } catch (WaarpDatabaseNoConnectionException e) {
+                        logger.warn("Database session pool exhausted, use a dedicated connection: "
+                                + e.getMessage());
+                    }
+                }
+                if (dbSession == null) {
+                    try {
+                        dbSession = new DbSession(DbConstant.admin, false);
+                    } catch (WaarpDatabaseNoConnectionException e) {
+                        dbSession = DbConstant.admin.getSession();
+                    }
                 }
             } else {
                 dbSession = DbConstant.admin.getSession();
@@ -257,7 +281,13 @@ public class Monitoring implements WaarpInterfaceMonitor {
             // Error Status on all transfers
             countStatus = DbTaskRunner.getCountStatusPrepareStatement(dbSession);
         } catch (WaarpDatabaseNoConnectionException e) {
+            return;
         } catch (WaarpDatabaseSqlException e) {
+            return;
+        }
+        if (Configuration.configuration.getTaskRunnerCounters() != null) {
+            // first reconciliation now, then regularly
+            new Reconciliation().run();
         }
     }
 
@@ -303,7 +333,12 @@ public class Monitoring implements WaarpInterfaceMonitor {
         } catch (Exception e) {
         }
         if (!dbSession.equals(DbConstant.admin.getSession())) {
-            dbSession.forceDisconnect();
+            if (dbSessionPool != null) {
+                dbSessionPool.release(dbSession);
+                dbSessionPool = null;
+            } else {
+                dbSession.forceDisconnect();
+            }
             dbSession = null;
         }
     }
@@ -356,6 +391,184 @@ public class Monitoring implements WaarpInterfaceMonitor {
         return true;
     }
 
+    /**
+     * 
+     * @return the in memory counters if they are used and already reconciled, else null
+     */
+    private DbTaskRunnerCounters getCounters() {
+        DbTaskRunnerCounters counters = Configuration.configuration.getTaskRunnerCounters();
+        if (counters != null && counters.getLastReconciliation() > 0) {
+            return counters;
+        }
+        return null;
+    }
+
+    /**
+     * Set all the counts from the in memory counters
+     * 
+     * @param counters
+     */
+    private void getFromCounters(DbTaskRunnerCounters counters) {
+        // Overall status including past, future and current transfers
+        nbCountInfoUnknown = counters.getInfo(UpdatedInfo.UNKNOWN);
+        nbCountInfoNotUpdated = counters.getInfo(UpdatedInfo.NOTUPDATED);
+        nbCountInfoInterrupted = counters.getInfo(UpdatedInfo.INTERRUPTED);
+        nbCountInfoToSubmit = counters.getInfo(UpdatedInfo.TOSUBMIT);
+        nbCountInfoError = counters.getInfo(UpdatedInfo.INERROR);
+        nbCountInfoRunning = counters.getInfo(UpdatedInfo.RUNNING);
+        nbCountInfoDone = counters.getInfo(UpdatedInfo.DONE);
+
+        // Current situation of all transfers, running or not
+        nbInActiveTransfer = counters.getActive(true);
+        nbOutActiveTransfer = counters.getActive(false);
+        nbInTotalTransfer = counters.getTotal(true);
+        nbOutTotalTransfer = counters.getTotal(false);
+        nbInErrorTransfer = counters.getError(true);
+        nbOutErrorTransfer = counters.getError(false);
+        nbCountStepAllTransfer = counters.getAll();
+        nbCountStepNotask = counters.getStep(TASKSTEP.NOTASK);
+        nbCountStepPretask = counters.getStep(TASKSTEP.PRETASK);
+        nbCountStepTransfer = counters.getStep(TASKSTEP.TRANSFERTASK);
+        nbCountStepPosttask = counters.getStep(TASKSTEP.POSTTASK);
+        nbCountStepAllDone = counters.getStep(TASKSTEP.ALLDONETASK);
+        nbCountStepError = counters.getStep(TASKSTEP.ERRORTASK);
+
+        // First on Running Transfers only
+        nbCountAllRunningStep = counters.getAllRunning();
+        nbCountRunningStep = counters.getRunningStatus(ErrorCode.Running);
+        nbCountInitOkStep = counters.getRunningStatus(ErrorCode.InitOk);
+        nbCountPreProcessingOkStep = counters.getRunningStatus(ErrorCode.PreProcessingOk);
+        nbCountTransferOkStep = counters.getRunningStatus(ErrorCode.TransferOk);
+        nbCountPostProcessingOkStep = counters.getRunningStatus(ErrorCode.PostProcessingOk);
+        nbCountCompleteOkStep = counters.getRunningStatus(ErrorCode.CompleteOk);
+
+        // Error Status on all transfers
+        nbCountStatusConnectionImpossible = counters.getStatus(ErrorCode.ConnectionImpossible);
+        nbCountStatusServerOverloaded = counters.getStatus(ErrorCode.ServerOverloaded);
+        nbCountStatusBadAuthent = counters.getStatus(ErrorCode.BadAuthent);
+        nbCountStatusExternalOp = counters.getStatus(ErrorCode.ExternalOp);
+        nbCountStatusTransferError = counters.getStatus(ErrorCode.TransferError);
+        nbCountStatusMD5Error = counters.getStatus(ErrorCode.MD5Error);
+        nbCountStatusDisconnection = counters.getStatus(ErrorCode.Disconnection);
+        nbCountStatusFinalOp = counters.getStatus(ErrorCode.FinalOp);
+        nbCountStatusUnimplemented = counters.getStatus(ErrorCode.Unimplemented);
+        nbCountStatusInternal = counters.getStatus(ErrorCode.Internal);
+        nbCountStatusWarning = counters.getStatus(ErrorCode.Warning);
+        nbCountStatusQueryAlreadyFinished = counters.getStatus(ErrorCode.QueryAlreadyFinished);
+        nbCountStatusQueryStillRunning = counters.getStatus(ErrorCode.QueryStillRunning);
+        nbCountStatusNotKnownHost = counters.getStatus(ErrorCode.NotKnownHost);
+        nbCountStatusQueryRemotelyUnknown = counters.getStatus(ErrorCode.QueryRemotelyUnknown);
+        nbCountStatusCommandNotFound = counters.getStatus(ErrorCode.CommandNotFound);
+        nbCountStatusPassThroughMode = counters.getStatus(ErrorCode.PassThroughMode);
+        nbCountStatusRemoteShutdown = counters.getStatus(ErrorCode.RemoteShutdown);
+        nbCountStatusShutdown = counters.getStatus(ErrorCode.Shutdown);
+        nbCountStatusRemoteError = counters.getStatus(ErrorCode.RemoteError);
+        nbCountStatusStopped = counters.getStatus(ErrorCode.StoppedTransfer);
+        nbCountStatusCanceled = counters.getStatus(ErrorCode.CanceledTransfer);
+        nbCountStatusFileNotFound = counters.getStatus(ErrorCode.FileNotFound);
+        nbCountStatusUnknown = counters.getStatus(ErrorCode.Unknown);
+    }
+
+    /**
+     * Set again the in memory counters from the database, only the transfers started in the last
+     * pastLimit ms being counted
+     */
+    public void reconcile() {
+        DbTaskRunnerCounters counters = Configuration.configuration.getTaskRunnerCounters();
+        if (counters == null || dbSession == null || dbSession.isDisActive()) {
+            return;
+        }
+        synchronized (trafficCounter) {
+            long limitDate = System.currentTimeMillis() - pastLimit;
+            // transfers written from now are counted against this limit, the COUNT results
+            // being applied as differences to keep the transfers written meanwhile
+            counters.startReconciliation(limitDate);
+            countInDatabase(limitDate, true);
+            currentLimit = limitDate;
+            counters.setInfo(UpdatedInfo.UNKNOWN, nbCountInfoUnknown);
+            counters.setInfo(UpdatedInfo.NOTUPDATED, nbCountInfoNotUpdated);
+            counters.setInfo(UpdatedInfo.INTERRUPTED, nbCountInfoInterrupted);
+            counters.setInfo(UpdatedInfo.TOSUBMIT, nbCountInfoToSubmit);
+            counters.setInfo(UpdatedInfo.INERROR, nbCountInfoError);
+            counters.setInfo(UpdatedInfo.RUNNING, nbCountInfoRunning);
+            counters.setInfo(UpdatedInfo.DONE, nbCountInfoDone);
+            counters.setActive(true, nbInActiveTransfer);
+            counters.setActive(false, nbOutActiveTransfer);
+            counters.setTotal(true, nbInTotalTransfer);
+            counters.setTotal(false, nbOutTotalTransfer);
+            counters.setError(true, nbInErrorTransfer);
+            counters.setError(false, nbOutErrorTransfer);
+            counters.setAll(nbCountStepAllTransfer);
+            counters.setStep(TASKSTEP.NOTASK, nbCountStepNotask);
+            counters.setStep(TASKSTEP.PRETASK, nbCountStepPretask);
+            counters.setStep(TASKSTEP.TRANSFERTASK, nbCountStepTransfer);
+            counters.setStep(TASKSTEP.POSTTASK, nbCountStepPosttask);
+            counters.setStep(TASKSTEP.ALLDONETASK, nbCountStepAllDone);
+            counters.setStep(TASKSTEP.ERRORTASK, nbCountStepError);
+            counters.setAllRunning(nbCountAllRunningStep);
+            counters.setRunningStatus(ErrorCode.Running, nbCountRunningStep);
+            counters.setRunningStatus(ErrorCode.InitOk, nbCountInitOkStep);
+            counters.setRunningStatus(ErrorCode.PreProcessingOk, nbCountPreProcessingOkStep);
+            counters.setRunningStatus(ErrorCode.TransferOk, nbCountTransferOkStep);
+            counters.setRunningStatus(ErrorCode.PostProcessingOk, nbCountPostProcessingOkStep);
+            counters.setRunningStatus(ErrorCode.CompleteOk, nbCountCompleteOkStep);
+            counters.setStatus(ErrorCode.ConnectionImpossible, nbCountStatusConnectionImpossible);
+            counters.setStatus(ErrorCode.ServerOverloaded, nbCountStatusServerOverloaded);
+            counters.setStatus(ErrorCode.BadAuthent, nbCountStatusBadAuthent);
+            counters.setStatus(ErrorCode.ExternalOp, nbCountStatusExternalOp);
+            counters.setStatus(ErrorCode.TransferError, nbCountStatusTransferError);
+            counters.setStatus(ErrorCode.MD5Error, nbCountStatusMD5Error);
+            counters.setStatus(ErrorCode.Disconnection, nbCountStatusDisconnection);
+            counters.setStatus(ErrorCode.FinalOp, nbCountStatusFinalOp);
+            counters.setStatus(ErrorCode.Unimplemented, nbCountStatusUnimplemented);
+            counters.setStatus(ErrorCode.Internal, nbCountStatusInternal);
+            counters.setStatus(ErrorCode.Warning, nbCountStatusWarning);
+            counters.setStatus(ErrorCode.QueryAlreadyFinished, nbCountStatusQueryAlreadyFinished);
+            counters.setStatus(ErrorCode.QueryStillRunning, nbCountStatusQueryStillRunning);
+            counters.setStatus(ErrorCode.NotKnownHost, nbCountStatusNotKnownHost);
+            counters.setStatus(ErrorCode.QueryRemotelyUnknown, nbCountStatusQueryRemotelyUnknown);
+            counters.setStatus(ErrorCode.CommandNotFound, nbCountStatusCommandNotFound);
+            counters.setStatus(ErrorCode.PassThroughMode, nbCountStatusPassThroughMode);
+            counters.setStatus(ErrorCode.RemoteShutdown, nbCountStatusRemoteShutdown);
+            counters.setStatus(ErrorCode.Shutdown, nbCountStatusShutdown);
+            counters.setStatus(ErrorCode.RemoteError, nbCountStatusRemoteError);
+            counters.setStatus(ErrorCode.StoppedTransfer, nbCountStatusStopped);
+            counters.setStatus(ErrorCode.CanceledTransfer, nbCountStatusCanceled);
+            counters.setStatus(ErrorCode.FileNotFound, nbCountStatusFileNotFound);
+            counters.setStatus(ErrorCode.Unknown, nbCountStatusUnknown);
+            counters.reconciled();
+        }
+    }
+
+    /**
+     * Periodic reconciliation of the in memory counters with the database
+     */
+    private class Reconciliation implements Runnable {
+        public void run() {
+            if (Configuration.configuration.isShutdown() || dbSession == null
+                    || Configuration.configuration.getTaskRunnerCounters() == null) {
+                return;
+            }
+            reconcile();
+            Configuration.configuration.launchInFixedDelay(this,
+                    Configuration.configuration.getMonitorReconcileDelay(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 
+     * @param status
+     * @param limitDate
+     * @return the number of transfers with this status, from the in memory counters if used
+     */
+    private long countStatus(ErrorCode status, long limitDate) {
+        DbTaskRunnerCounters counters = getCounters();
+        if (counters != null) {
+            return counters.getStatus(status);
+        }
+        return DbTaskRunner.getResultCountPrepareStatement(countStatus, status, limitDate);
+    }
+
     /**
      * 
      * @param nbSecond
@@ -372,6 +585,19 @@ public class Monitoring implements WaarpInterfaceMonitor {
             } else {
                 nbMs = nbSecond * 1000;
             }
+            DbTaskRunnerCounters counters = getCounters();
+            if (nbSecond <= 0 && counters != null) {
+                // in memory counters, no database access
+                nbNetworkConnection = DbAdmin.getNbConnection();
+                bandwidthIn = trafficCounter.lastReadThroughput() >> 7;// B/s -> Kb/s
+                bandwidthOut = trafficCounter.lastWriteThroughput() >> 7;
+                nbThread = Thread.activeCount();
+                secondsRunning = (limitDate - startMonitor) / 1000;
+                lastTry = limitDate;
+                currentLimit = counters.getLimit();
+                getFromCounters(counters);
+                return;
+            }
             if (dbSession != null && dbSession.isDisActive()) {
                 dbSession.checkConnectionNoException();
             }
@@ -415,182 +641,193 @@ public class Monitoring implements WaarpInterfaceMonitor {
                 limitDate -= nbMs;
                 currentLimit = limitDate;
                 // Update value
-                try {
-                    // Overall status including past, future and current transfers
-                    nbCountInfoUnknown = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.UNKNOWN, limitDate);
-                    nbCountInfoNotUpdated = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.NOTUPDATED, limitDate);
-                    nbCountInfoInterrupted = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.INTERRUPTED, limitDate);
-                    nbCountInfoToSubmit = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.TOSUBMIT, limitDate);
-                    nbCountInfoError = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.INERROR, limitDate);
-                    nbCountInfoRunning = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.RUNNING, limitDate);
-                    nbCountInfoDone = DbTaskRunner.getResultCountPrepareStatement(countInfo,
-                            UpdatedInfo.DONE, limitDate);
-
-                    // Current situation of all transfers, running or not
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInActiveTransfer,
-                            limitDate);
-                    nbInActiveTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInActiveTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutActiveTransfer,
-                            limitDate);
-                    nbOutActiveTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutActiveTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInTotalTransfer,
-                            limitDate);
-                    nbInTotalTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInTotalTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutTotalTransfer,
-                            limitDate);
-                    nbOutTotalTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutTotalTransfer);
-
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countOutErrorTransfer,
-                            limitDate);
-                    nbOutErrorTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countOutErrorTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countInErrorTransfer,
-                            limitDate);
-                    nbInErrorTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countInErrorTransfer);
-
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllTransfer,
-                            limitDate);
-                    nbCountStepAllTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepAllTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepNotask, limitDate);
-                    nbCountStepNotask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepNotask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPretask, limitDate);
-                    nbCountStepPretask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepPretask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepTransfer, limitDate);
-                    nbCountStepTransfer = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepTransfer);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPosttask, limitDate);
-                    nbCountStepPosttask = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepPosttask);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllDone, limitDate);
-                    nbCountStepAllDone = DbTaskRunner
-                            .getResultCountPrepareStatement(countStepAllDone);
-                    DbTaskRunner.finishSelectOrCountPrepareStatement(countStepError, limitDate);
-                    nbCountStepError = DbTaskRunner.getResultCountPrepareStatement(countStepError);
-
-                    DbTaskRunner
-                            .finishSelectOrCountPrepareStatement(countAllRunningStep, limitDate);
-                    nbCountAllRunningStep = DbTaskRunner
-                            .getResultCountPrepareStatement(countAllRunningStep);
-
-                    if (detail) {
-                        // First on Running Transfers only
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countRunningStep,
-                                limitDate);
-                        nbCountRunningStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countRunningStep);
-                        DbTaskRunner
-                                .finishSelectOrCountPrepareStatement(countInitOkStep, limitDate);
-                        nbCountInitOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countInitOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countPreProcessingOkStep,
-                                limitDate);
-                        nbCountPreProcessingOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countPreProcessingOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countTransferOkStep,
-                                limitDate);
-                        nbCountTransferOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countTransferOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countPostProcessingOkStep,
-                                limitDate);
-                        nbCountPostProcessingOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countPostProcessingOkStep);
-                        DbTaskRunner.finishSelectOrCountPrepareStatement(countCompleteOkStep,
-                                limitDate);
-                        nbCountCompleteOkStep = DbTaskRunner
-                                .getResultCountPrepareStatement(countCompleteOkStep);
+                countInDatabase(limitDate, detail);
+            }
+        }
+    }
 
-                        // Error Status on all transfers
-                        nbCountStatusConnectionImpossible = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.ConnectionImpossible, limitDate);
-                        nbCountStatusServerOverloaded = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.ServerOverloaded, limitDate);
-                        nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.BadAuthent, limitDate);
-                        nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.ExternalOp, limitDate);
-                        nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.TransferError, limitDate);
-                        nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.MD5Error, limitDate);
-                        nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Disconnection, limitDate);
-                        nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.FinalOp, limitDate);
-                        nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Unimplemented, limitDate);
-                        nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Internal, limitDate);
-                        nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Warning, limitDate);
-                        nbCountStatusQueryAlreadyFinished = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryAlreadyFinished, limitDate);
-                        nbCountStatusQueryStillRunning = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryStillRunning, limitDate);
-                        nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.NotKnownHost, limitDate);
-                        nbCountStatusQueryRemotelyUnknown = DbTaskRunner
-                                .getResultCountPrepareStatement(countStatus,
-                                        ErrorCode.QueryRemotelyUnknown, limitDate);
-                        nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.CommandNotFound, limitDate);
-                        nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.PassThroughMode, limitDate);
-                        nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.RemoteShutdown, limitDate);
-                        nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Shutdown, limitDate);
-                        nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.RemoteError, limitDate);
-                        nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.StoppedTransfer, limitDate);
-                        nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.CanceledTransfer, limitDate);
-                        nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.FileNotFound, limitDate);
-                        nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(
-                                countStatus,
-                                ErrorCode.Unknown, limitDate);
-                    }
-                } catch (WaarpDatabaseNoConnectionException e) {
-                } catch (WaarpDatabaseSqlException e) {
-                }
+    /**
+     * Count the transfers in the database
+     * 
+     * @param limitDate
+     *            only transfers started after this date are counted
+     * @param detail
+     */
+    private void countInDatabase(long limitDate, boolean detail) {
+        try {
+            // Overall status including past, future and current transfers
+            nbCountInfoUnknown = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.UNKNOWN, limitDate);
+            nbCountInfoNotUpdated = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.NOTUPDATED, limitDate);
+            nbCountInfoInterrupted = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.INTERRUPTED, limitDate);
+            nbCountInfoToSubmit = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.TOSUBMIT, limitDate);
+            nbCountInfoError = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.INERROR, limitDate);
+            nbCountInfoRunning = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.RUNNING, limitDate);
+            nbCountInfoDone = DbTaskRunner.getResultCountPrepareStatement(countInfo,
+                    UpdatedInfo.DONE, limitDate);
+
+            // Current situation of all transfers, running or not
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countInActiveTransfer,
+                    limitDate);
+            nbInActiveTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countInActiveTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countOutActiveTransfer,
+                    limitDate);
+            nbOutActiveTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countOutActiveTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countInTotalTransfer,
+                    limitDate);
+            nbInTotalTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countInTotalTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countOutTotalTransfer,
+                    limitDate);
+            nbOutTotalTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countOutTotalTransfer);
+
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countOutErrorTransfer,
+                    limitDate);
+            nbOutErrorTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countOutErrorTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countInErrorTransfer,
+                    limitDate);
+            nbInErrorTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countInErrorTransfer);
+
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllTransfer,
+                    limitDate);
+            nbCountStepAllTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepAllTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepNotask, limitDate);
+            nbCountStepNotask = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepNotask);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPretask, limitDate);
+            nbCountStepPretask = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepPretask);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepTransfer, limitDate);
+            nbCountStepTransfer = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepTransfer);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepPosttask, limitDate);
+            nbCountStepPosttask = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepPosttask);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepAllDone, limitDate);
+            nbCountStepAllDone = DbTaskRunner
+                    .getResultCountPrepareStatement(countStepAllDone);
+            DbTaskRunner.finishSelectOrCountPrepareStatement(countStepError, limitDate);
+            nbCountStepError = DbTaskRunner.getResultCountPrepareStatement(countStepError);
+
+            DbTaskRunner
+                    .finishSelectOrCountPrepareStatement(countAllRunningStep, limitDate);
+            nbCountAllRunningStep = DbTaskRunner
+                    .getResultCountPrepareStatement(countAllRunningStep);
+
+            if (detail) {
+                // First on Running Transfers only
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countRunningStep,
+                        limitDate);
+                nbCountRunningStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countRunningStep);
+                DbTaskRunner
+                        .finishSelectOrCountPrepareStatement(countInitOkStep, limitDate);
+                nbCountInitOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countInitOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countPreProcessingOkStep,
+                        limitDate);
+                nbCountPreProcessingOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countPreProcessingOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countTransferOkStep,
+                        limitDate);
+                nbCountTransferOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countTransferOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countPostProcessingOkStep,
+                        limitDate);
+                nbCountPostProcessingOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countPostProcessingOkStep);
+                DbTaskRunner.finishSelectOrCountPrepareStatement(countCompleteOkStep,
+                        limitDate);
+                nbCountCompleteOkStep = DbTaskRunner
+                        .getResultCountPrepareStatement(countCompleteOkStep);
+
+                // Error Status on all transfers
+                nbCountStatusConnectionImpossible = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.ConnectionImpossible, limitDate);
+                nbCountStatusServerOverloaded = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.ServerOverloaded, limitDate);
+                nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.BadAuthent, limitDate);
+                nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.ExternalOp, limitDate);
+                nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.TransferError, limitDate);
+                nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.MD5Error, limitDate);
+                nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Disconnection, limitDate);
+                nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.FinalOp, limitDate);
+                nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Unimplemented, limitDate);
+                nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Internal, limitDate);
+                nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Warning, limitDate);
+                nbCountStatusQueryAlreadyFinished = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.QueryAlreadyFinished, limitDate);
+                nbCountStatusQueryStillRunning = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.QueryStillRunning, limitDate);
+                nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.NotKnownHost, limitDate);
+                nbCountStatusQueryRemotelyUnknown = DbTaskRunner
+                        .getResultCountPrepareStatement(countStatus,
+                                ErrorCode.QueryRemotelyUnknown, limitDate);
+                nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.CommandNotFound, limitDate);
+                nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.PassThroughMode, limitDate);
+                nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.RemoteShutdown, limitDate);
+                nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Shutdown, limitDate);
+                nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.RemoteError, limitDate);
+                nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.StoppedTransfer, limitDate);
+                nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.CanceledTransfer, limitDate);
+                nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.FileNotFound, limitDate);
+                nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(
+                        countStatus,
+                        ErrorCode.Unknown, limitDate);
             }
+        } catch (WaarpDatabaseNoConnectionException e) {
+        } catch (WaarpDatabaseSqlException e) {
         }
     }
 
@@ -806,6 +1043,103 @@ public class Monitoring implements WaarpInterfaceMonitor {
                     .append(nbCountStatusUnknown)
                     .append("</Unknown>")
                     .append("</ERRORTYPES>");
+            DbTaskRunnerWriter writer = Configuration.configuration.getTaskRunnerWriter();
+            if (writer != null) {
+                // Write behind of running transfers
+                builder.append("<RUNNERWRITER>")
+                        .append("<QueueSize>")
+                        .append(writer.getQueueSize())
+                        .append("</QueueSize>")
+                        .append("<FlushCount>")
+                        .append(writer.getFlushCount())
+                        .append("</FlushCount>")
+                        .append("<FlushedRows>")
+                        .append(writer.getFlushedRows())
+                        .append("</FlushedRows>")
+                        .append("<LastFlushLatency>")
+                        .append(writer.getLastFlushLatency())
+                        .append("</LastFlushLatency>")
+                        .append("<MaxFlushLatency>")
+                        .append(writer.getMaxFlushLatency())
+                        .append("</MaxFlushLatency>")
+                        .append("</RUNNERWRITER>");
+            }
+            LocalTransaction localTransaction = Configuration.configuration.getLocalTransaction();
+            if (localTransaction != null) {
+                // Packets received before their LocalChannel registration
+                builder.append("<PENDINGPACKETS>")
+                        .append("<PendingLocalIds>")
+                        .append(localTransaction.getNbPendingLocalIds())
+                        .append("</PendingLocalIds>")
+                        .append("<ParkedPackets>")
+                        .append(localTransaction.getNbParkedPackets())
+                        .append("</ParkedPackets>")
+                        .append("<ExpiredPackets>")
+                        .append(localTransaction.getNbExpiredPackets())
+                        .append("</ExpiredPackets>")
+                        .append("<TotalParkTime>")
+                        .append(localTransaction.getTotalParkTime())
+                        .append("</TotalParkTime>")
+                        .append("<MaxParkTime>")
+                        .append(localTransaction.getMaxParkTime())
+                        .append("</MaxParkTime>")
+                        .append("</PENDINGPACKETS>");
+            }
+            // Buffer allocations by Packet type
+            builder.append("<ALLOCATIONS>");
+            for (byte type = 1; type <= LocalPacketFactory.getMaxPacketType(); type++) {
+                long count = PacketBufferAllocator.getAllocations(type);
+                if (count > 0) {
+                    String name = LocalPacketFactory.getPacketName(type);
+                    builder.append('<').append(name).append(" count=\"").append(count)
+                            .append("\" bytes=\"").append(PacketBufferAllocator.getAllocatedBytes(type))
+                            .append("\"/>");
+                }
+            }
+            builder.append("</ALLOCATIONS>");
+            // ExecJava tasks by class
+            builder.append("<JAVATASKS>")
+                    .append("<QueueSize>")
+                    .append(JavaTaskExecutor.getQueueSize())
+                    .append("</QueueSize>");
+            for (JavaTaskClass taskClass : JavaTaskExecutor.getTaskClasses()) {
+                builder.append("<JAVATASK class=\"").append(taskClass.getClassName())
+                        .append("\" running=\"").append(taskClass.getRunning())
+                        .append("\" waiting=\"").append(taskClass.getWaiting())
+                        .append("\" executed=\"").append(taskClass.getNbExecuted())
+                        .append("\" timeout=\"").append(taskClass.getNbTimeout())
+                        .append("\" queueTime=\"").append(taskClass.getTotalQueueTime())
+                        .append("\" runTime=\"").append(taskClass.getTotalRunTime())
+                        .append("\" maxRunTime=\"").append(taskClass.getMaxRunTime())
+                        .append("\"/>");
+            }
+            builder.append("</JAVATASKS>");
+            // Network connections by partner address
+            builder.append("<CONNECTIONPOOLS>");
+            for (NetworkChannelPool pool : NetworkTransaction.getNetworkChannelPools()) {
+                builder.append("<CONNECTIONPOOL address=\"").append(pool.getAddress())
+                        .append("\" hostid=\"").append(pool.getHostId())
+                        .append("\" connections=\"").append(pool.nbActive())
+                        .append("\" transfers=\"").append(pool.nbLocalChannels())
+                        .append("\" created=\"").append(pool.getNbCreated())
+                        .append("\" reused=\"").append(pool.getNbReused())
+                        .append("\" saturated=\"").append(pool.getNbSaturated())
+                        .append("\"/>");
+            }
+            builder.append("</CONNECTIONPOOLS>");
+            // Database sessions pool
+            DbSessionPool dbpool = Configuration.configuration.getDbSessionPool();
+            if (dbpool != null) {
+                builder.append("<DBSESSIONPOOL max=\"").append(dbpool.getMaxSessions())
+                        .append("\" active=\"").append(dbpool.getNbActive())
+                        .append("\" idle=\"").append(dbpool.getNbIdle())
+                        .append("\" created=\"").append(dbpool.getNbCreated())
+                        .append("\" borrowed=\"").append(dbpool.getNbBorrowed())
+                        .append("\" waited=\"").append(dbpool.getNbWaited())
+                        .append("\" waittime=\"").append(dbpool.getWaitTime())
+                        .append("\" timeout=\"").append(dbpool.getNbTimeout())
+                        .append("\"/>");
+            }
         }
         builder.append("</STATUS>");
         return builder.toString();
@@ -905,6 +1239,73 @@ public class Monitoring implements WaarpInterfaceMonitor {
             node2.put("Canceled", nbCountStatusCanceled);
             node2.put("FileNotFound", nbCountStatusFileNotFound);
             node2.put("Unknown", nbCountStatusUnknown);
+            DbTaskRunnerWriter writer = Configuration.configuration.getTaskRunnerWriter();
+            if (writer != null) {
+                // Write behind of running transfers
+                node2 = node.putObject("RUNNERWRITER");
+                node2.put("QueueSize", writer.getQueueSize());
+                node2.put("FlushCount", writer.getFlushCount());
+                node2.put("FlushedRows", writer.getFlushedRows());
+                node2.put("LastFlushLatency", writer.getLastFlushLatency());
+                node2.put("MaxFlushLatency", writer.getMaxFlushLatency());
+            }
+            LocalTransaction localTransaction = Configuration.configuration.getLocalTransaction();
+            if (localTransaction != null) {
+                // Packets received before their LocalChannel registration
+                node2 = node.putObject("PENDINGPACKETS");
+                node2.put("PendingLocalIds", localTransaction.getNbPendingLocalIds());
+                node2.put("ParkedPackets", localTransaction.getNbParkedPackets());
+                node2.put("ExpiredPackets", localTransaction.getNbExpiredPackets());
+                node2.put("TotalParkTime", localTransaction.getTotalParkTime());
+                node2.put("MaxParkTime", localTransaction.getMaxParkTime());
+            }
+            // Buffer allocations by Packet type
+            node2 = node.putObject("ALLOCATIONS");
+            for (byte type = 1; type <= LocalPacketFactory.getMaxPacketType(); type++) {
+                long count = PacketBufferAllocator.getAllocations(type);
+                if (count > 0) {
+                    ObjectNode node3 = node2.putObject(LocalPacketFactory.getPacketName(type));
+                    node3.put("count", count);
+                    node3.put("bytes", PacketBufferAllocator.getAllocatedBytes(type));
+                }
+            }
+            // ExecJava tasks by class
+            node2 = node.putObject("JAVATASKS");
+            node2.put("QueueSize", JavaTaskExecutor.getQueueSize());
+            for (JavaTaskClass taskClass : JavaTaskExecutor.getTaskClasses()) {
+                ObjectNode node3 = node2.putObject(taskClass.getClassName());
+                node3.put("running", taskClass.getRunning());
+                node3.put("waiting", taskClass.getWaiting());
+                node3.put("executed", taskClass.getNbExecuted());
+                node3.put("timeout", taskClass.getNbTimeout());
+                node3.put("queueTime", taskClass.getTotalQueueTime());
+                node3.put("runTime", taskClass.getTotalRunTime());
+                node3.put("maxRunTime", taskClass.getMaxRunTime());
+            }
+            // Network connections by partner address
+            node2 = node.putObject("CONNECTIONPOOLS");
+            for (NetworkChannelPool pool : NetworkTransaction.getNetworkChannelPools()) {
+                ObjectNode node3 = node2.putObject(pool.getAddress().toString());
+                node3.put("hostid", pool.getHostId());
+                node3.put("connections", pool.nbActive());
+                node3.put("transfers", pool.nbLocalChannels());
+                node3.put("created", pool.getNbCreated());
+                node3.put("reused", pool.getNbReused());
+                node3.put("saturated", pool.getNbSaturated());
+            }
+            // Database sessions pool
+            DbSessionPool dbpool = Configuration.configuration.getDbSessionPool();
+            if (dbpool != null) {
+                node2 = node.putObject("DBSESSIONPOOL");
+                node2.put("max", dbpool.getMaxSessions());
+                node2.put("active", dbpool.getNbActive());
+                node2.put("idle", dbpool.getNbIdle());
+                node2.put("created", dbpool.getNbCreated());
+                node2.put("borrowed", dbpool.getNbBorrowed());
+                node2.put("waited", dbpool.getNbWaited());
+                node2.put("waittime", dbpool.getWaitTime());
+                node2.put("timeout", dbpool.getNbTimeout());
+            }
         }
         return node;
     }
@@ -986,7 +1387,12 @@ public class Monitoring implements WaarpInterfaceMonitor {
         synchronized (trafficCounter) {
             long val = 0;
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive()) {
+            DbTaskRunnerCounters counters = getCounters();
+            if (counters != null) {
+                // in memory counters, no database access
+                getFromCounters(counters);
+            }
+            if (counters != null || dbSession == null || dbSession.isDisActive()) {
                 switch (entry) {
                     case applUptime:
                         return;
@@ -1044,15 +1450,19 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), nbCountInfoInterrupted);
                         return;
                     case nbInfoToSubmit:
-                        nbCountInfoToSubmit = CommanderNoDb.todoList.size();
+                        if (counters == null) {
+                            nbCountInfoToSubmit = CommanderNoDb.todoList.size();
+                        }
                         updateGlobalValue(entry.ordinal(), nbCountInfoToSubmit);
                         return;
                     case nbInfoError:
                         updateGlobalValue(entry.ordinal(), nbCountInfoError);
                         return;
                     case nbInfoRunning:
-                        nbCountInfoRunning = Configuration.configuration.getInternalRunner()
-                                .nbInternalRunner();
+                        if (counters == null) {
+                            nbCountInfoRunning = Configuration.configuration.getInternalRunner()
+                                    .nbInternalRunner();
+                        }
                         updateGlobalValue(entry.ordinal(), nbCountInfoRunning);
                         return;
                     case nbInfoDone:
@@ -1072,9 +1482,13 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateGlobalValue(entry.ordinal(), nbThread);
                         return;
                     case nbNetworkConnection:
-                        nbNetworkConnection =
-                                Configuration.configuration.getHttpChannelGroup().size() +
-                                        Configuration.configuration.getServerChannelGroup().size();
+                        if (counters != null) {
+                            nbNetworkConnection = DbAdmin.getNbConnection();
+                        } else {
+                            nbNetworkConnection =
+                                    Configuration.configuration.getHttpChannelGroup().size() +
+                                            Configuration.configuration.getServerChannelGroup().size();
+                        }
                         updateGlobalValue(entry.ordinal(), nbNetworkConnection);
                         return;
                 }
@@ -1228,7 +1642,12 @@ public class Monitoring implements WaarpInterfaceMonitor {
     protected void run(long nbMs, WaarpDetailedValuesIndex entry) {
         synchronized (trafficCounter) {
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive()) {
+            DbTaskRunnerCounters counters = getCounters();
+            if (counters != null) {
+                // in memory counters, no database access
+                getFromCounters(counters);
+            }
+            if (counters != null || dbSession == null || dbSession.isDisActive()) {
                 switch (entry) {
                     case nbStepNotask:
                         updateDetailedValue(entry.ordinal(), nbCountStepNotask);
@@ -1249,8 +1668,10 @@ public class Monitoring implements WaarpInterfaceMonitor {
                         updateDetailedValue(entry.ordinal(), nbCountStepError);
                         return;
                     case nbAllRunningStep:
-                        nbCountAllRunningStep = Configuration.configuration.getInternalRunner()
-                                .nbInternalRunner();
+                        if (counters == null) {
+                            nbCountAllRunningStep = Configuration.configuration.getInternalRunner()
+                                    .nbInternalRunner();
+                        }
                         updateDetailedValue(entry.ordinal(), nbCountAllRunningStep);
                         return;
                     case nbRunningStep:
@@ -1393,149 +1814,112 @@ public class Monitoring implements WaarpInterfaceMonitor {
     protected void run(long nbMs, WaarpErrorValuesIndex entry) {
         synchronized (trafficCounter) {
             long limitDate = System.currentTimeMillis() - nbMs;
-            if (dbSession == null || dbSession.isDisActive()) {
+            if (getCounters() == null && (dbSession == null || dbSession.isDisActive())) {
                 return;
             }
             // Error
             switch (entry) {
                 case nbStatusConnectionImpossible:
-                    nbCountStatusConnectionImpossible = DbTaskRunner
-                            .getResultCountPrepareStatement(countStatus,
-                                    ErrorCode.ConnectionImpossible, limitDate);
+                    nbCountStatusConnectionImpossible = countStatus(
+                            ErrorCode.ConnectionImpossible, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusConnectionImpossible);
                     return;
                 case nbStatusServerOverloaded:
-                    nbCountStatusServerOverloaded = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusServerOverloaded = countStatus(
                             ErrorCode.ServerOverloaded, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusServerOverloaded);
                     return;
                 case nbStatusBadAuthent:
-                    nbCountStatusBadAuthent = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.BadAuthent, limitDate);
+                    nbCountStatusBadAuthent = countStatus(ErrorCode.BadAuthent, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusBadAuthent);
                     return;
                 case nbStatusExternalOp:
-                    nbCountStatusExternalOp = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.ExternalOp, limitDate);
+                    nbCountStatusExternalOp = countStatus(ErrorCode.ExternalOp, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusExternalOp);
                     return;
                 case nbStatusTransferError:
-                    nbCountStatusTransferError = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.TransferError, limitDate);
+                    nbCountStatusTransferError = countStatus(ErrorCode.TransferError, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusTransferError);
                     return;
                 case nbStatusMD5Error:
-                    nbCountStatusMD5Error = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.MD5Error, limitDate);
+                    nbCountStatusMD5Error = countStatus(ErrorCode.MD5Error, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusMD5Error);
                     return;
                 case nbStatusDisconnection:
-                    nbCountStatusDisconnection = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.Disconnection, limitDate);
+                    nbCountStatusDisconnection = countStatus(ErrorCode.Disconnection, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusDisconnection);
                     return;
                 case nbStatusFinalOp:
-                    nbCountStatusFinalOp = DbTaskRunner.getResultCountPrepareStatement(countStatus,
-                            ErrorCode.FinalOp, limitDate);
+                    nbCountStatusFinalOp = countStatus(ErrorCode.FinalOp, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusFinalOp);
                     return;
                 case nbStatusUnimplemented:
-                    nbCountStatusUnimplemented = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.Unimplemented, limitDate);
+                    nbCountStatusUnimplemented = countStatus(ErrorCode.Unimplemented, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusUnimplemented);
                     return;
                 case nbStatusInternal:
-                    nbCountStatusInternal = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.Internal, limitDate);
+                    nbCountStatusInternal = countStatus(ErrorCode.Internal, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusInternal);
                     return;
                 case nbStatusWarning:
-                    nbCountStatusWarning = DbTaskRunner.getResultCountPrepareStatement(countStatus,
-                            ErrorCode.Warning, limitDate);
+                    nbCountStatusWarning = countStatus(ErrorCode.Warning, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusWarning);
                     return;
                 case nbStatusQueryAlreadyFinished:
-                    nbCountStatusQueryAlreadyFinished = DbTaskRunner
-                            .getResultCountPrepareStatement(countStatus,
-                                    ErrorCode.QueryAlreadyFinished, limitDate);
+                    nbCountStatusQueryAlreadyFinished = countStatus(
+                            ErrorCode.QueryAlreadyFinished, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusQueryAlreadyFinished);
                     return;
                 case nbStatusQueryStillRunning:
-                    nbCountStatusQueryStillRunning = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusQueryStillRunning = countStatus(
                             ErrorCode.QueryStillRunning, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusQueryStillRunning);
                     return;
                 case nbStatusNotKnownHost:
-                    nbCountStatusNotKnownHost = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.NotKnownHost, limitDate);
+                    nbCountStatusNotKnownHost = countStatus(ErrorCode.NotKnownHost, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusNotKnownHost);
                     return;
                 case nbStatusQueryRemotelyUnknown:
-                    nbCountStatusQueryRemotelyUnknown = DbTaskRunner
-                            .getResultCountPrepareStatement(countStatus,
-                                    ErrorCode.QueryRemotelyUnknown, limitDate);
+                    nbCountStatusQueryRemotelyUnknown = countStatus(
+                            ErrorCode.QueryRemotelyUnknown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusQueryRemotelyUnknown);
                     return;
                 case nbStatusCommandNotFound:
-                    nbCountStatusCommandNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusCommandNotFound = countStatus(
                             ErrorCode.CommandNotFound, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusCommandNotFound);
                     return;
                 case nbStatusPassThroughMode:
-                    nbCountStatusPassThroughMode = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
+                    nbCountStatusPassThroughMode = countStatus(
                             ErrorCode.PassThroughMode, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusPassThroughMode);
                     return;
                 case nbStatusRemoteShutdown:
-                    nbCountStatusRemoteShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.RemoteShutdown, limitDate);
+                    nbCountStatusRemoteShutdown = countStatus(ErrorCode.RemoteShutdown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusRemoteShutdown);
                     return;
                 case nbStatusShutdown:
-                    nbCountStatusShutdown = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.Shutdown, limitDate);
+                    nbCountStatusShutdown = countStatus(ErrorCode.Shutdown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusShutdown);
                     return;
                 case nbStatusRemoteError:
-                    nbCountStatusRemoteError = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.RemoteError, limitDate);
+                    nbCountStatusRemoteError = countStatus(ErrorCode.RemoteError, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusRemoteError);
                     return;
                 case nbStatusStopped:
-                    nbCountStatusStopped = DbTaskRunner.getResultCountPrepareStatement(countStatus,
-                            ErrorCode.StoppedTransfer, limitDate);
+                    nbCountStatusStopped = countStatus(ErrorCode.StoppedTransfer, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusStopped);
                     return;
                 case nbStatusCanceled:
-                    nbCountStatusCanceled = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.CanceledTransfer, limitDate);
+                    nbCountStatusCanceled = countStatus(ErrorCode.CanceledTransfer, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusCanceled);
                     return;
                 case nbStatusFileNotFound:
-                    nbCountStatusFileNotFound = DbTaskRunner.getResultCountPrepareStatement(
-                            countStatus,
-                            ErrorCode.FileNotFound, limitDate);
+                    nbCountStatusFileNotFound = countStatus(ErrorCode.FileNotFound, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusFileNotFound);
                     return;
                 case nbStatusUnknown:
-                    nbCountStatusUnknown = DbTaskRunner.getResultCountPrepareStatement(countStatus,
-                            ErrorCode.Unknown, limitDate);
+                    nbCountStatusUnknown = countStatus(ErrorCode.Unknown, limitDate);
                     updateErrorValue(entry.ordinal(), nbCountStatusUnknown);
                     return;
             }
@@ -47,6 +47,7 @@ import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.common.role.RoleDefault.ROLE;
 import org.waarp.common.utility.WaarpStringUtils;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.configuration.AuthenticationFileBasedConfiguration;
 import org.waarp.openr66.configuration.RuleFileBasedConfiguration;
 import org.waarp.openr66.context.ErrorCode;
@@ -2359,6 +2360,7 @@ public class ServerActions extends ConnectionActions {
                 return new R66Result(session, false, ErrorCode.CommandNotFound,
                         runner);
             }
+            InternalRunner.submitted(runner);
             R66Result result = new R66Result(session, false, ErrorCode.InitOk,
                     runner);
             try {
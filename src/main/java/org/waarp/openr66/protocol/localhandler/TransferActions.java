@@ -66,9 +66,12 @@ import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.localhandler.packet.ValidPacket;
 import org.waarp.openr66.protocol.localhandler.packet.json.RequestJsonPacket;
+import org.waarp.openr66.protocol.networkhandler.NetworkChannelReference;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.utils.BlocksizeAdvisor;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
+import org.waarp.openr66.protocol.utils.DigestPipeline;
 import org.waarp.openr66.protocol.utils.FileUtils;
 import org.waarp.openr66.protocol.utils.R66Future;
 
@@ -227,8 +230,12 @@ public class TransferActions extends ServerActions {
                         Messages.getString("LocalServerHandler.10")); //$NON-NLS-1$
             }
             // Check if the blocksize is greater than local value
-            if (Configuration.configuration.getBLOCKSIZE() < blocksize) {
-                blocksize = Configuration.configuration.getBLOCKSIZE();
+            int maxBlocksize = Configuration.configuration.getBLOCKSIZE();
+            if (BlocksizeAdvisor.isAdaptive(localChannelReference.getPartner())) {
+                maxBlocksize = BlocksizeAdvisor.getLocalMaxBlocksize();
+            }
+            if (maxBlocksize < blocksize) {
+                blocksize = maxBlocksize;
                 String sep = localChannelReference.getPartner().getSeperator();
                 packet = new RequestPacket(packet.getRulename(), packet.getMode(),
                         packet.getFilename(), blocksize, packet.getRank(),
@@ -415,6 +422,11 @@ public class TransferActions extends ServerActions {
                 runner.setOriginalSize(packet.getOriginalSize());
             }
         }
+        // a reloaded request not yet started follows the blocksize of the session
+        runner.setBlocksize(blocksize);
+        if (!packet.isToValidate()) {
+            localChannelReference.setRequestAnswered(runner.getRank());
+        }
         logger.debug("Filesize: " + packet.getOriginalSize() + ":" + runner.isSender());
         boolean shouldInformBack = false;
         try {
@@ -696,51 +708,36 @@ public class TransferActions extends ServerActions {
                 return;
             }
         }
-        // if MD5 check MD5
-        if (RequestPacket.isMD5Mode(session.getRunner().getMode())) {
-            logger.debug("AlgoDigest: "
-                    + (localChannelReference.getPartner() != null ? localChannelReference.getPartner().getDigestAlgo()
-                            : "usual algo"));
-            if (!packet.isKeyValid(localChannelReference.getPartner().getDigestAlgo())) {
-                // Wrong packet
-                logger.error(
-                        Messages.getString("LocalServerHandler.17"), packet, localChannelReference.getPartner().getDigestAlgo().name); //$NON-NLS-1$
-                errorToSend("Transfer in error due to bad Hash on data packet ("
-                        + localChannelReference.getPartner().getDigestAlgo().name + ")",
-                        ErrorCode.MD5Error, channel, 21);
+        boolean checkKey = RequestPacket.isMD5Mode(session.getRunner().getMode());
+        if (digestPipeline == null && Configuration.configuration.isGlobalDigest() &&
+                globalDigest == null) {
+            long prefix = initGlobalDigest();
+            if (prefix > 0) {
+                // the already received data is hashed again, never within the handler thread
+                createDigestPipeline();
+                digestPipeline.submit(session.getFile().getTrueFile(), prefix);
+            }
+        }
+        if (digestPipeline != null || (DigestPipeline.isEnabled() &&
+                (checkKey || Configuration.configuration.isGlobalDigest()))) {
+            // hashing done out of the handler thread, the block being written meanwhile
+            if (digestPipeline != null && digestPipeline.getFailedRank() >= 0) {
+                digestError(channel, digestPipeline.getFailedRank());
                 packet.clear();
                 return;
             }
-        }
-        if (Configuration.configuration.isGlobalDigest()) {
-            if (globalDigest == null) {
-                try {
-                    // check if first block, since if not, digest will be only partial
-                    if (session.getRunner().getRank() > 0) {
-                        localChannelReference.setPartialHash();
-                    }
-                    if (localChannelReference.getPartner() != null) {
-                        if (localChannelReference.getPartner().useFinalHash()) {
-                            DigestAlgo algo = localChannelReference.getPartner().getDigestAlgo();
-                            if (algo != Configuration.configuration.getDigest()) {
-                                globalDigest = new FilesystemBasedDigest(algo);
-                                localDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
-                            }
-                        }
-                    }
-                    if (globalDigest == null) {
-                        globalDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
-                        localDigest = null;
-                    }
-                } catch (NoSuchAlgorithmException e) {
-                }
-                logger.debug("GlobalDigest: " + localChannelReference.getPartner().getDigestAlgo() + " different? "
-                        + (localDigest != null));
+            if (digestPipeline == null) {
+                createDigestPipeline();
             }
-            FileUtils.computeGlobalHash(globalDigest, packet.getData());
-            if (localDigest != null) {
-                FileUtils.computeGlobalHash(localDigest, packet.getData());
+            if (!digestPipeline.submit(packet.getData(), checkKey ? packet.getKey() : null,
+                    localChannelReference.getPartner().getDigestAlgo(), packet.getPacketRank())) {
+                errorToSend("Transfer in error due to hash computation not possible",
+                        ErrorCode.Internal, channel, 21);
+                packet.clear();
+                return;
             }
+        } else if (!checkDigest(channel, packet, checkKey)) {
+            return;
         }
         DataBlock dataBlock = new DataBlock();
         if (session.getRunner().isRecvThrough() && localChannelReference.isRecvThroughMode()) {
@@ -774,6 +771,115 @@ public class TransferActions extends ServerActions {
         }
     }
 
+    /**
+     * Check the hash of the data block and update the global digests within the handler thread
+     * 
+     * @param channel
+     * @param packet
+     * @param checkKey
+     *            True if the hash of the block shall be checked
+     * @return False if the hash of the block is wrong (the packet being cleared)
+     */
+    private boolean checkDigest(Channel channel, DataPacket packet, boolean checkKey) {
+        // if MD5 check MD5
+        if (checkKey) {
+            logger.debug("AlgoDigest: "
+                    + (localChannelReference.getPartner() != null ? localChannelReference.getPartner().getDigestAlgo()
+                            : "usual algo"));
+            if (!packet.isKeyValid(localChannelReference.getPartner().getDigestAlgo())) {
+                // Wrong packet
+                logger.error(
+                        Messages.getString("LocalServerHandler.17"), packet, localChannelReference.getPartner().getDigestAlgo().name); //$NON-NLS-1$
+                errorToSend("Transfer in error due to bad Hash on data packet ("
+                        + localChannelReference.getPartner().getDigestAlgo().name + ")",
+                        ErrorCode.MD5Error, channel, 21);
+                packet.clear();
+                return false;
+            }
+        }
+        if (globalDigest != null) {
+            FileUtils.computeGlobalHash(globalDigest, packet.getData());
+            if (localDigest != null) {
+                FileUtils.computeGlobalHash(localDigest, packet.getData());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the hashing stage of this transfer, keeping the network connection alive while it is
+     * waited for
+     */
+    private void createDigestPipeline() {
+        digestPipeline = new DigestPipeline(globalDigest, localDigest);
+        final NetworkChannelReference networkChannelReference = localChannelReference
+                .getNetworkChannelObject();
+        if (networkChannelReference != null) {
+            digestPipeline.setProgress(new Runnable() {
+                public void run() {
+                    networkChannelReference.use();
+                }
+            });
+        }
+    }
+
+    /**
+     * Create the global digests for this transfer
+     * 
+     * @return the length of the already received data to add first to the global digests (0 if
+     *         none)
+     */
+    private long initGlobalDigest() {
+        long prefix = 0;
+        try {
+            // check if first block, since if not, digest will be only partial unless rebuilt
+            if (session.getRunner().getRank() > 0) {
+                if (!session.getRunner().isRecvThrough() &&
+                        FileUtils.isGlobalDigestResumable(localChannelReference)) {
+                    prefix = (long) session.getRunner().getBlocksize() * session.getRunner().getRank();
+                } else {
+                    localChannelReference.setPartialHash();
+                }
+            }
+            if (localChannelReference.getPartner() != null) {
+                if (localChannelReference.getPartner().useFinalHash()) {
+                    DigestAlgo algo = localChannelReference.getPartner().getDigestAlgo();
+                    if (algo != Configuration.configuration.getDigest()) {
+                        globalDigest = new FilesystemBasedDigest(algo);
+                        localDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
+                    }
+                }
+            }
+            if (globalDigest == null) {
+                globalDigest = new FilesystemBasedDigest(Configuration.configuration.getDigest());
+                localDigest = null;
+            }
+        } catch (NoSuchAlgorithmException e) {
+        }
+        logger.debug("GlobalDigest: " + localChannelReference.getPartner().getDigestAlgo() + " different? "
+                + (localDigest != null) + " resumed from: " + prefix);
+        return prefix;
+    }
+
+    /**
+     * Send the error for a block found with a bad hash by the hashing stage, the rank being reset to
+     * this block
+     * 
+     * @param channel
+     * @param rank
+     *            the rank of the wrong block
+     */
+    private void digestError(Channel channel, int rank) {
+        logger.error(
+                Messages.getString("LocalServerHandler.17"), "rank " + rank, localChannelReference.getPartner().getDigestAlgo().name); //$NON-NLS-1$
+        digestPipeline.cancel();
+        digestPipeline = null;
+        session.getRunner().setRankAtStartup(rank);
+        errorToSend("Transfer in error due to bad Hash on data packet ("
+                + localChannelReference.getPartner().getDigestAlgo().name + ")",
+                ErrorCode.MD5Error, channel, 21);
+    }
+
     /**
      * Receive an End of Transfer
      * 
@@ -790,36 +896,69 @@ public class TransferActions extends ServerActions {
             throw new OpenR66ProtocolNotAuthenticatedException(
                     "Not authenticated while EndTransfer received");
         }
+        if (packet.isToValidate()) {
+            localChannelReference.setDataTransferred();
+        }
+        if (digestPipeline != null) {
+            // all blocks must be hashed before checking the global digest
+            if (!digestPipeline.awaitCompletion()) {
+                digestPipeline.cancel();
+                digestPipeline = null;
+                errorToSend("Transfer in error due to hash computation not finished in time",
+                        ErrorCode.Internal, channel, 23);
+                return;
+            }
+            if (digestPipeline.getFailedRank() >= 0) {
+                digestError(channel, digestPipeline.getFailedRank());
+                return;
+            }
+            if (digestPipeline.isIncomplete()) {
+                globalDigestIncomplete = true;
+            }
+            digestPipeline = null;
+        }
+        if (globalDigestIncomplete) {
+            // the beginning of the file is missing in the global digest: no global check
+            logger.warn("Global digest not rebuilt on restart, no global check for: " + session.getRunner().toShortString());
+            localChannelReference.setPartialHash();
+            globalDigest = null;
+            localDigest = null;
+            globalDigestIncomplete = false;
+        }
         // Check end of transfer
         long originalSize = session.getRunner().getOriginalSize();
         logger.debug("OSize: " + originalSize + " isSender: " + session.getRunner().isSender());
         if (packet.isToValidate()) {
             // check if possible originalSize
             if (originalSize > 0) {
+                boolean sizeError;
                 try {
-                    if (!session.getRunner().isRecvThrough() && session.getFile().length() != originalSize ||
-                            session.getFile().length() == 0) {
-                        R66Result result = new R66Result(new OpenR66RunnerErrorException(
-                                Messages.getString("LocalServerHandler.18")), //$NON-NLS-1$
-                                session, true, ErrorCode.TransferError, session.getRunner());
-                        try {
-                            session.setFinalizeTransfer(false, result);
-                        } catch (OpenR66RunnerErrorException e) {
-                        } catch (OpenR66ProtocolSystemException e) {
-                        }
-                        ErrorPacket error = new ErrorPacket(
-                                "Final size in error, transfer in error and rank should be reset to 0",
-                                ErrorCode.TransferError.getCode(), ErrorPacket.FORWARDCLOSECODE);
-                        try {
-                            ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
-                        } catch (OpenR66ProtocolPacketException e) {
-                        }
-                        session.setStatus(23);
-                        ChannelCloseTimer.closeFutureChannel(channel);
-                        return;
-                    }
+                    sizeError = !session.getRunner().isRecvThrough() && session.getFile().length() != originalSize ||
+                            session.getFile().length() == 0;
                 } catch (CommandAbstractException e) {
-                    // ignore
+                    // the last received blocks cannot be written
+                    logger.error("Cannot get final size: " + e.getMessage());
+                    sizeError = true;
+                }
+                if (sizeError) {
+                    R66Result result = new R66Result(new OpenR66RunnerErrorException(
+                            Messages.getString("LocalServerHandler.18")), //$NON-NLS-1$
+                            session, true, ErrorCode.TransferError, session.getRunner());
+                    try {
+                        session.setFinalizeTransfer(false, result);
+                    } catch (OpenR66RunnerErrorException e) {
+                    } catch (OpenR66ProtocolSystemException e) {
+                    }
+                    ErrorPacket error = new ErrorPacket(
+                            "Final size in error, transfer in error and rank should be reset to 0",
+                            ErrorCode.TransferError.getCode(), ErrorPacket.FORWARDCLOSECODE);
+                    try {
+                        ChannelUtils.writeAbstractLocalPacket(localChannelReference, error, true);
+                    } catch (OpenR66ProtocolPacketException e) {
+                    }
+                    session.setStatus(23);
+                    ChannelCloseTimer.closeFutureChannel(channel);
+                    return;
                 }
             }
             // check if possible Global Digest
@@ -18,6 +18,8 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
@@ -33,6 +35,11 @@ import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
  * @author frederic bregier
  */
 public abstract class AbstractLocalPacket {
+    /**
+     * Size of the local header: 3 lengths and the type
+     */
+    public static final int LOCAL_HEADER_SIZE = 4 * 3 + 1;
+
     protected ByteBuf header;
 
     protected ByteBuf middle;
@@ -83,39 +90,117 @@ public abstract class AbstractLocalPacket {
     public abstract String toString();
 
     /**
+     * Prepare the Header, Middle and End buffers if not already done
+     * 
      * @param lcr
      *            the LocalChannelReference in use
-     * @return the ByteBuf as LocalPacket
      * @throws OpenR66ProtocolPacketException
      */
-    public ByteBuf getLocalPacket(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        final ByteBuf buf = Unpooled.buffer(4 * 3 + 1);// 3 header
-        // lengths+type
+    public void createAllParts(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (header == null) {
             createHeader(lcr);
         }
-        final ByteBuf newHeader = header != null ? header
-                : Unpooled.EMPTY_BUFFER;
-        final int headerLength = 4 * 2 + 1 + newHeader.readableBytes();
         if (middle == null) {
             createMiddle(lcr);
         }
-        final ByteBuf newMiddle = middle != null ? middle
-                : Unpooled.EMPTY_BUFFER;
-        final int middleLength = newMiddle.readableBytes();
         if (end == null) {
             createEnd(lcr);
         }
-        final ByteBuf newEnd = end != null ? end
-                : Unpooled.EMPTY_BUFFER;
-        final int endLength = newEnd.readableBytes();
-        buf.writeInt(headerLength);
-        buf.writeInt(middleLength);
-        buf.writeInt(endLength);
+    }
+
+    private static final int partLength(ByteBuf part) {
+        return part != null ? part.readableBytes() : 0;
+    }
+
+    private static final ByteBuf nonNullPart(ByteBuf part) {
+        return part != null ? part : Unpooled.EMPTY_BUFFER;
+    }
+
+    /**
+     * 
+     * @return the full length of this LocalPacket, including the local header (all parts must be
+     *         created first)
+     */
+    public int getLocalPacketLength() {
+        return LOCAL_HEADER_SIZE + partLength(header) + partLength(middle) + partLength(end);
+    }
+
+    /**
+     * Write the local header (3 lengths + type) into the given buffer (all parts must be created
+     * first)
+     * 
+     * @param buf
+     */
+    public void writeLocalHeader(ByteBuf buf) {
+        buf.writeInt(4 * 2 + 1 + partLength(header));
+        buf.writeInt(partLength(middle));
+        buf.writeInt(partLength(end));
         buf.writeByte(getType());
-        final ByteBuf ByteBuf = Unpooled.wrappedBuffer(
-                buf, newHeader, newMiddle, newEnd);
-        return ByteBuf;
+    }
+
+    /**
+     * Add the Header, Middle and End buffers as components of the given CompositeByteBuf, which
+     * takes ownership of them (all parts must be created first)
+     * 
+     * @param composite
+     * @return the composite buffer
+     */
+    public CompositeByteBuf addParts(CompositeByteBuf composite) {
+        composite.addComponents(true, nonNullPart(header), nonNullPart(middle), nonNullPart(end));
+        return composite;
+    }
+
+    /**
+     * Write the local header and the Header, Middle and End buffers into the given buffer, then
+     * release those parts (all parts must be created first)
+     * 
+     * @param buf
+     */
+    public void writeLocalPacket(ByteBuf buf) {
+        buf.ensureWritable(getLocalPacketLength());
+        writeLocalHeader(buf);
+        buf.writeBytes(nonNullPart(header), partLength(header));
+        buf.writeBytes(nonNullPart(middle), partLength(middle));
+        buf.writeBytes(nonNullPart(end), partLength(end));
+        clear();
+    }
+
+    /**
+     * @param lcr
+     *            the LocalChannelReference in use
+     * @return the ByteBuf as LocalPacket
+     * @throws OpenR66ProtocolPacketException
+     */
+    public ByteBuf getLocalPacket(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
+        createAllParts(lcr);
+        final ByteBufAllocator alloc = PacketBufferAllocator.getAllocator(lcr);
+        final ByteBuf buf = alloc.buffer(LOCAL_HEADER_SIZE);// 3 header
+        // lengths+type
+        writeLocalHeader(buf);
+        return addParts(alloc.compositeBuffer(4).addComponent(true, buf));
+    }
+
+    /**
+     * 
+     * @param lcr
+     *            the LocalChannelReference in use (might be null)
+     * @param size
+     * @return a new buffer for this packet type from the allocator of the network channel
+     */
+    protected ByteBuf allocateBuffer(LocalChannelReference lcr, int size) {
+        return PacketBufferAllocator.buffer(lcr, getType(), size);
+    }
+
+    /**
+     * 
+     * @param lcr
+     *            the LocalChannelReference in use (might be null)
+     * @param arrays
+     * @return a new buffer for this packet type from the allocator of the network channel,
+     *         containing a copy of the given arrays
+     */
+    protected ByteBuf copiedBuffer(LocalChannelReference lcr, byte[]... arrays) {
+        return PacketBufferAllocator.copiedBuffer(lcr, getType(), arrays);
     }
 
     public void clear() {
@@ -18,7 +18,6 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.openr66.database.data.DbHostAuth;
 import org.waarp.openr66.protocol.configuration.Configuration;
@@ -125,7 +124,7 @@ public class AuthentPacket extends AbstractLocalPacket {
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         byte[] bversion = version != null ? version.getBytes() : null;
-        end = Unpooled.buffer(5 + (version != null ? bversion.length : 0));
+        end = allocateBuffer(lcr, 5 + (version != null ? bversion.length : 0));
         end.writeInt(localId);
         end.writeByte(way);
         if (version != null) {
@@ -138,7 +137,7 @@ public class AuthentPacket extends AbstractLocalPacket {
         if (hostId == null) {
             throw new OpenR66ProtocolPacketException("Not enough data");
         }
-        header = Unpooled.wrappedBuffer(hostId.getBytes());
+        header = copiedBuffer(lcr, hostId.getBytes());
     }
 
     @Override
@@ -146,7 +145,7 @@ public class AuthentPacket extends AbstractLocalPacket {
         if (key == null) {
             throw new OpenR66ProtocolPacketException("Not enough data");
         }
-        middle = Unpooled.wrappedBuffer(key);
+        middle = copiedBuffer(lcr, key);
     }
 
     @Override
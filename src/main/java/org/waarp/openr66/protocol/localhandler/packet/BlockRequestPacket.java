@@ -71,7 +71,7 @@ public class BlockRequestPacket extends AbstractLocalPacket {
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        header = Unpooled.buffer(1 + key.length);
+        header = allocateBuffer(lcr, 1 + key.length);
         header.writeByte(block ? 1 : 0);
         header.writeBytes(key);
     }
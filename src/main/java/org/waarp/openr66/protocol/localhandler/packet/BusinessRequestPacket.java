@@ -18,7 +18,6 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 
@@ -75,18 +74,18 @@ public class BusinessRequestPacket extends AbstractLocalPacket {
 
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        end = Unpooled.buffer(1);
+        end = allocateBuffer(lcr, 1);
         end.writeByte(way);
     }
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        header = Unpooled.wrappedBuffer(sheader.getBytes());
+        header = copiedBuffer(lcr, sheader.getBytes());
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        middle = Unpooled.buffer(4);
+        middle = allocateBuffer(lcr, 4);
         middle.writeInt(delay);
     }
 
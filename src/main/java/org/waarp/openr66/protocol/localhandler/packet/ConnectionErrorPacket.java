@@ -75,14 +75,14 @@ public class ConnectionErrorPacket extends AbstractLocalPacket {
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (sheader != null) {
-            header = Unpooled.wrappedBuffer(sheader.getBytes());
+            header = copiedBuffer(lcr, sheader.getBytes());
         }
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (smiddle != null) {
-            middle = Unpooled.wrappedBuffer(smiddle.getBytes());
+            middle = copiedBuffer(lcr, smiddle.getBytes());
         }
     }
 
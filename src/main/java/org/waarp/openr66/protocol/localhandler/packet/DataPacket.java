@@ -17,12 +17,14 @@
  */
 package org.waarp.openr66.protocol.localhandler.packet;
 
+import java.io.IOException;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import org.waarp.common.digest.FilesystemBasedDigest;
 import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
-import org.waarp.openr66.protocol.utils.FileUtils;
 
 /**
  * Data packet
@@ -89,7 +91,7 @@ public class DataPacket extends AbstractLocalPacket {
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        header = Unpooled.buffer(4);
+        header = allocateBuffer(lcr, 4);
         header.writeInt(packetRank);
     }
 
@@ -141,16 +143,48 @@ public class DataPacket extends AbstractLocalPacket {
      * @return True if the Hashed key is valid (or no key is set)
      */
     public boolean isKeyValid(DigestAlgo algo) {
+        return isKeyValid(data, key, algo);
+    }
+
+    /**
+     * 
+     * @param data
+     * @param key
+     * @param algo
+     * @return True if the Hashed key is valid for this data (or no key is set)
+     */
+    public static boolean isKeyValid(ByteBuf data, ByteBuf key, DigestAlgo algo) {
         if (key == null || key == Unpooled.EMPTY_BUFFER) {
             return true;
         }
-        ByteBuf newbufkey = FileUtils.getHash(data, algo);
-        boolean check = key.equals(newbufkey);
-        newbufkey.release();
-        return check;
+        byte[] newkey;
+        try {
+            newkey = FilesystemBasedDigest.getHash(data, algo);
+        } catch (IOException e) {
+            return false;
+        }
+        // compare in place, without wrapping the computed hash
+        int length = key.readableBytes();
+        if (length != newkey.length) {
+            return false;
+        }
+        int index = key.readerIndex();
+        for (int i = 0; i < length; i++) {
+            if (key.getByte(index + i) != newkey[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void clear() {
+        // middle and end share the data and key buffers once created
+        if (middle == data) {
+            middle = null;
+        }
+        if (end == key) {
+            end = null;
+        }
         super.clear();
         if (data != null) {
             if (data.release()) {
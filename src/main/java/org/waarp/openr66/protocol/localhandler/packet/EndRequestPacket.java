@@ -103,13 +103,13 @@ public class EndRequestPacket extends AbstractLocalPacket {
         if (optional == null) {
             end = Unpooled.EMPTY_BUFFER;
         } else {
-            end = Unpooled.copiedBuffer(optional, Charset.defaultCharset());
+            end = copiedBuffer(lcr, optional.getBytes(Charset.defaultCharset()));
         }
     }
 
     @Override
     public void createHeader(LocalChannelReference lcr) {
-        header = Unpooled.buffer(4);
+        header = allocateBuffer(lcr, 4);
         header.writeInt(code);
     }
 
@@ -117,7 +117,7 @@ public class EndRequestPacket extends AbstractLocalPacket {
     public void createMiddle(LocalChannelReference lcr) {
         byte[] newbytes = {
                 way };
-        middle = Unpooled.wrappedBuffer(newbytes);
+        middle = copiedBuffer(lcr, newbytes);
     }
 
     @Override
@@ -113,7 +113,7 @@ public class EndTransferPacket extends AbstractLocalPacket {
         if (hashOptional == null) {
             end = Unpooled.EMPTY_BUFFER;
         } else {
-            end = Unpooled.copiedBuffer(hashOptional, Charset.defaultCharset());
+            end = copiedBuffer(lcr, hashOptional.getBytes(Charset.defaultCharset()));
         }
     }
 
@@ -121,14 +121,14 @@ public class EndTransferPacket extends AbstractLocalPacket {
     public void createHeader(LocalChannelReference lcr) {
         byte[] newbytes = {
                 request };
-        header = Unpooled.wrappedBuffer(newbytes);
+        header = copiedBuffer(lcr, newbytes);
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) {
         byte[] newbytes = {
                 way };
-        middle = Unpooled.wrappedBuffer(newbytes);
+        middle = copiedBuffer(lcr, newbytes);
     }
 
     @Override
@@ -18,7 +18,6 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 
@@ -86,7 +85,7 @@ public class InformationPacket extends AbstractLocalPacket {
     @Override
     public void createEnd(LocalChannelReference lcr) {
         if (filename != null) {
-            end = Unpooled.wrappedBuffer(filename.getBytes());
+            end = copiedBuffer(lcr, filename.getBytes());
         }
     }
 
@@ -95,14 +94,14 @@ public class InformationPacket extends AbstractLocalPacket {
         if (rulename == null) {
             throw new OpenR66ProtocolPacketException("Not enough data");
         }
-        header = Unpooled.wrappedBuffer(rulename.getBytes());
+        header = copiedBuffer(lcr, rulename.getBytes());
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) {
         byte[] newbytes = {
                 requestedInfo };
-        middle = Unpooled.wrappedBuffer(newbytes);
+        middle = copiedBuffer(lcr, newbytes);
     }
 
     @Override
@@ -20,7 +20,6 @@ package org.waarp.openr66.protocol.localhandler.packet;
 import java.io.IOException;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.json.JsonPacket;
@@ -99,21 +98,21 @@ public class JsonCommandPacket extends AbstractLocalPacket {
 
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        end = Unpooled.buffer(1);
+        end = allocateBuffer(lcr, 1);
         end.writeByte(send);
     }
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (request != null) {
-            header = Unpooled.wrappedBuffer(request.getBytes());
+            header = copiedBuffer(lcr, request.getBytes());
         }
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (result != null) {
-            middle = Unpooled.wrappedBuffer(result.getBytes());
+            middle = copiedBuffer(lcr, result.getBytes());
         }
     }
 
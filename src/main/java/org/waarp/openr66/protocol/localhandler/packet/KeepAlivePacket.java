@@ -81,7 +81,7 @@ public class KeepAlivePacket extends AbstractLocalPacket {
     public void createMiddle(LocalChannelReference lcr) {
         byte[] newbytes = {
                 way };
-        middle = Unpooled.wrappedBuffer(newbytes);
+        middle = copiedBuffer(lcr, newbytes);
     }
 
     @Override
@@ -78,9 +78,8 @@ public class LocalPacketCodec extends ByteToMessageCodec<AbstractLocalPacket> {
             out.writeBytes((ByteBuf) msg);
             return;
         }*/
-        final ByteBuf buf = msg.getLocalPacket(null);
-        out.writeBytes(buf);
-        buf.release();
+        msg.createAllParts(null);
+        msg.writeLocalPacket(out);
     }
 
 }
@@ -77,6 +77,32 @@ public class LocalPacketFactory {
 
     public static final byte JSONREQUESTPACKET = 25;
 
+    private static final String[] PACKETNAMES = { "Unknown",
+            "Authent", "Startup", "Data", "Valid", "Error", "ConnectionError", "Request",
+            "Shutdown", "Stop", "Cancel", "ConfExport", "ConfImport", "Test", "EndTransfer",
+            "RequestUser", "Log", "LogPurge", "Information", "Bandwidth", "EndRequest",
+            "KeepAlive", "BusinessRequest", "NoOp", "BlockRequest", "JsonRequest" };
+
+    /**
+     * 
+     * @param type
+     * @return the name of the Packet type
+     */
+    public static String getPacketName(byte type) {
+        if (type > 0 && type < PACKETNAMES.length) {
+            return PACKETNAMES[type];
+        }
+        return PACKETNAMES[0];
+    }
+
+    /**
+     * 
+     * @return the greatest Packet type
+     */
+    public static byte getMaxPacketType() {
+        return JSONREQUESTPACKET;
+    }
+
     /**
      * This method create a Packet from the ByteBuf.
      * 
@@ -0,0 +1,162 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.util.ResourceLeakDetector;
+
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
+
+/**
+ * Buffer allocation for Local Packets.<br>
+ * <br>
+ * Buffers are allocated from the ByteBufAllocator of the network channel (pooled and direct by
+ * default), or from the default allocator if no network channel is available. Each allocation is
+ * counted by packet type.<br>
+ * <br>
+ * The leak detection mode (PARANOID level of Netty leak detector) could be set either using
+ * setLeakDetection or using the system property -Dorg.waarp.openr66.leakdetection=true.
+ * 
+ * @author Frederic Bregier
+ */
+public class PacketBufferAllocator {
+    /**
+     * System property to set leak detection test mode
+     */
+    public static final String LEAK_DETECTION_PROPERTY = "org.waarp.openr66.leakdetection";
+
+    /**
+     * Greater than the maximum packet type
+     */
+    private static final int MAXTYPE = 32;
+
+    private static final AtomicLongArray allocations = new AtomicLongArray(MAXTYPE);
+
+    private static final AtomicLongArray allocatedBytes = new AtomicLongArray(MAXTYPE);
+
+    static {
+        if (Boolean.getBoolean(LEAK_DETECTION_PROPERTY)) {
+            setLeakDetection(true);
+        }
+    }
+
+    private PacketBufferAllocator() {
+    }
+
+    /**
+     * 
+     * @param paranoid
+     *            True to track every buffer (test mode), False for the default sampling
+     */
+    public static void setLeakDetection(boolean paranoid) {
+        ResourceLeakDetector.setLevel(paranoid ? ResourceLeakDetector.Level.PARANOID
+                : ResourceLeakDetector.Level.SIMPLE);
+    }
+
+    /**
+     * 
+     * @param lcr
+     *            the LocalChannelReference in use (might be null)
+     * @return the ByteBufAllocator to use
+     */
+    public static ByteBufAllocator getAllocator(LocalChannelReference lcr) {
+        if (lcr != null && lcr.getNetworkChannelObject() != null) {
+            Channel channel = lcr.getNetworkChannel();
+            if (channel != null) {
+                return channel.alloc();
+            }
+        }
+        return ByteBufAllocator.DEFAULT;
+    }
+
+    /**
+     * Count one allocation for the given packet type
+     * 
+     * @param type
+     * @param size
+     */
+    public static void count(byte type, int size) {
+        if (type >= 0 && type < MAXTYPE) {
+            allocations.incrementAndGet(type);
+            allocatedBytes.addAndGet(type, size);
+        }
+    }
+
+    /**
+     * 
+     * @param lcr
+     *            the LocalChannelReference in use (might be null)
+     * @param type
+     *            the packet type
+     * @param size
+     * @return a new buffer of the given size
+     */
+    public static ByteBuf buffer(LocalChannelReference lcr, byte type, int size) {
+        count(type, size);
+        return getAllocator(lcr).buffer(size);
+    }
+
+    /**
+     * 
+     * @param lcr
+     *            the LocalChannelReference in use (might be null)
+     * @param type
+     *            the packet type
+     * @param arrays
+     * @return a new buffer containing a copy of the given arrays
+     */
+    public static ByteBuf copiedBuffer(LocalChannelReference lcr, byte type, byte[]... arrays) {
+        int size = 0;
+        for (byte[] array : arrays) {
+            size += array.length;
+        }
+        ByteBuf buf = buffer(lcr, type, size);
+        for (byte[] array : arrays) {
+            buf.writeBytes(array);
+        }
+        return buf;
+    }
+
+    /**
+     * 
+     * @param type
+     * @return the number of buffers allocated for this packet type
+     */
+    public static long getAllocations(byte type) {
+        if (type >= 0 && type < MAXTYPE) {
+            return allocations.get(type);
+        }
+        return 0;
+    }
+
+    /**
+     * 
+     * @param type
+     * @return the number of bytes allocated for this packet type
+     */
+    public static long getAllocatedBytes(byte type) {
+        if (type >= 0 && type < MAXTYPE) {
+            return allocatedBytes.get(type);
+        }
+        return 0;
+    }
+}
@@ -18,7 +18,6 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.common.json.JsonHandler;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
@@ -318,7 +317,7 @@ public class RequestPacket extends AbstractLocalPacket {
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (fileInformation != null) {
-            end = Unpooled.wrappedBuffer(fileInformation.getBytes());
+            end = copiedBuffer(lcr, fileInformation.getBytes());
         }
     }
 
@@ -332,9 +331,9 @@ public class RequestPacket extends AbstractLocalPacket {
             ObjectNode node = JsonHandler.createObjectNode();
             JsonHandler.setValue(node, FIELDS.rule, rulename);
             JsonHandler.setValue(node, FIELDS.mode, mode);
-            header = Unpooled.wrappedBuffer(JsonHandler.writeAsString(node).getBytes());
+            header = copiedBuffer(lcr, JsonHandler.writeAsString(node).getBytes());
         } else {
-            header = Unpooled.wrappedBuffer(rulename.getBytes(),
+            header = copiedBuffer(lcr, rulename.getBytes(),
                     PartnerConfiguration.BLANK_SEPARATOR_FIELD.getBytes(),
                     Integer.toString(mode).getBytes());
         }
@@ -356,9 +355,9 @@ public class RequestPacket extends AbstractLocalPacket {
             JsonHandler.setValue(node, FIELDS.id, specialId);
             JsonHandler.setValue(node, FIELDS.code, code);
             JsonHandler.setValue(node, FIELDS.length, originalSize);
-            middle = Unpooled.wrappedBuffer(away, JsonHandler.writeAsString(node).getBytes());
+            middle = copiedBuffer(lcr, away, JsonHandler.writeAsString(node).getBytes());
         } else {
-            middle = Unpooled.wrappedBuffer(away, filename.getBytes(),
+            middle = copiedBuffer(lcr, away, filename.getBytes(),
                     this.separator.getBytes(),
                     Integer.toString(blocksize).getBytes(),
                     this.separator.getBytes(),
@@ -83,7 +83,7 @@ public class ShutdownPacket extends AbstractLocalPacket {
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (key != null) {
-            header = Unpooled.wrappedBuffer(key);
+            header = copiedBuffer(lcr, key);
         }
     }
 
@@ -91,7 +91,7 @@ public class ShutdownPacket extends AbstractLocalPacket {
     public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (restart != 0) {
             byte[] array = { restart };
-            middle = Unpooled.wrappedBuffer(array);
+            middle = copiedBuffer(lcr, array);
         } else {
             middle = Unpooled.EMPTY_BUFFER;
         }
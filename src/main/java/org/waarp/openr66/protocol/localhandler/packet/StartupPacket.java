@@ -59,7 +59,7 @@ public class StartupPacket extends AbstractLocalPacket {
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        header = Unpooled.buffer(4);
+        header = allocateBuffer(lcr, 4);
         header.writeInt(localId);
     }
 
@@ -18,7 +18,6 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 
@@ -60,18 +59,18 @@ public class TestPacket extends AbstractLocalPacket {
 
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        end = Unpooled.buffer(4);
+        end = allocateBuffer(lcr, 4);
         end.writeInt(code);
     }
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        header = Unpooled.wrappedBuffer(sheader.getBytes());
+        header = copiedBuffer(lcr, sheader.getBytes());
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        middle = Unpooled.wrappedBuffer(smiddle.getBytes());
+        middle = copiedBuffer(lcr, smiddle.getBytes());
     }
 
     @Override
@@ -18,7 +18,6 @@
 package org.waarp.openr66.protocol.localhandler.packet;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 
@@ -72,21 +71,21 @@ public class ValidPacket extends AbstractLocalPacket {
 
     @Override
     public void createEnd(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
-        end = Unpooled.buffer(1);
+        end = allocateBuffer(lcr, 1);
         end.writeByte(send);
     }
 
     @Override
     public void createHeader(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (sheader != null) {
-            header = Unpooled.wrappedBuffer(sheader.getBytes());
+            header = copiedBuffer(lcr, sheader.getBytes());
         }
     }
 
     @Override
     public void createMiddle(LocalChannelReference lcr) throws OpenR66ProtocolPacketException {
         if (smiddle != null) {
-            middle = Unpooled.wrappedBuffer(smiddle.getBytes());
+            middle = copiedBuffer(lcr, smiddle.getBytes());
         }
     }
 
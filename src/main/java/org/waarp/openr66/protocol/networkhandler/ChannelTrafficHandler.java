@@ -19,6 +19,7 @@ package org.waarp.openr66.protocol.networkhandler;
 
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
 
+import org.waarp.openr66.protocol.networkhandler.packet.DataFileRegion;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
 
 /**
@@ -38,12 +39,15 @@ public class ChannelTrafficHandler extends ChannelTrafficShapingHandler {
 
     @Override
     protected long calculateSize(Object msg) {
+        if (msg instanceof DataFileRegion) {
+            return ((DataFileRegion) msg).count();
+        }
         if (!(msg instanceof NetworkPacket)) {
             // Type unimplemented
             return super.calculateSize(msg);
         }
         NetworkPacket packet = (NetworkPacket) msg;
-        int size = packet.getBuffer().readableBytes() + 13;
+        int size = packet.getLength() + NetworkPacket.NETWORK_HEADER_SIZE;
         return size;
     }
 
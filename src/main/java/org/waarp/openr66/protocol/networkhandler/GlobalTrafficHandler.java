@@ -20,6 +20,7 @@ package org.waarp.openr66.protocol.networkhandler;
 import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
 import io.netty.util.concurrent.EventExecutorGroup;
 
+import org.waarp.openr66.protocol.networkhandler.packet.DataFileRegion;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
 
 /**
@@ -45,12 +46,15 @@ public class GlobalTrafficHandler extends GlobalChannelTrafficShapingHandler {
 
     @Override
     protected long calculateSize(Object msg) {
+        if (msg instanceof DataFileRegion) {
+            return ((DataFileRegion) msg).count();
+        }
         if (!(msg instanceof NetworkPacket)) {
             // Type unimplemented
             return super.calculateSize(msg);
         }
         NetworkPacket packet = (NetworkPacket) msg;
-        int size = packet.getBuffer().readableBytes() + 13;
+        int size = packet.getLength() + NetworkPacket.NETWORK_HEADER_SIZE;
         return size;
     }
 
@@ -0,0 +1,283 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import java.net.SocketAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.channel.Channel;
+
+/**
+ * Network connections opened to one remote address (partner) by the current Host.
+ * 
+ * 
+ * 
+ * New transfers are spread over at most netstripes connections: a new connection is opened as long
+ * as all the current ones carry at least one transfer, else the least loaded one is used. A
+ * connection carries at most netmaxlocalchannels transfers (if set), a new transfer finding all
+ * of them full waiting for one transfer to end (up to the connection timeout), and netminidle
+ * connections are kept open even when idle.
+ * 
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class NetworkChannelPool {
+
+    private final SocketAddress address;
+    private final CopyOnWriteArrayList<NetworkChannelReference> networkChannelReferences = new CopyOnWriteArrayList<NetworkChannelReference>();
+    private final AtomicLong nbCreated = new AtomicLong();
+    private final AtomicLong nbReused = new AtomicLong();
+    private final AtomicLong nbSaturated = new AtomicLong();
+    private volatile boolean saturated = false;
+
+    public NetworkChannelPool(SocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * 
+     * @param maxLocalChannels
+     *            maximum number of local channels by network channel (0 for no limit)
+     * @return the least loaded usable network channel, or null if none can accept a new local
+     *         channel
+     */
+    public NetworkChannelReference select(int maxLocalChannels) {
+        NetworkChannelReference best = null;
+        for (NetworkChannelReference networkChannelReference : networkChannelReferences) {
+            if (networkChannelReference.isShuttingDown() || networkChannelReference.channel() == null
+                    || !networkChannelReference.channel().isActive()) {
+                continue;
+            }
+            int nb = networkChannelReference.nbLocalChannels();
+            if (maxLocalChannels > 0 && nb >= maxLocalChannels) {
+                continue;
+            }
+            if (best == null || nb < best.nbLocalChannels()) {
+                best = networkChannelReference;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 
+     * @param best
+     *            the network channel returned by select
+     * @param stripes
+     *            maximum number of network channels
+     * @param minIdle
+     *            number of network channels to open whatever their load
+     * @return True if a new network channel should be opened rather than using best
+     */
+    public boolean needNewChannel(NetworkChannelReference best, int stripes, int minIdle) {
+        int nb = nbActive();
+        if (nb < minIdle) {
+            return true;
+        }
+        if (nb >= Math.max(stripes, 1)) {
+            return false;
+        }
+        return best == null || best.nbLocalChannels() > 0;
+    }
+
+    /**
+     * 
+     * @return the number of network channels still usable
+     */
+    public int nbActive() {
+        int nb = 0;
+        for (NetworkChannelReference networkChannelReference : networkChannelReferences) {
+            if (!networkChannelReference.isShuttingDown() && networkChannelReference.channel() != null
+                    && networkChannelReference.channel().isActive()) {
+                nb++;
+            }
+        }
+        return nb;
+    }
+
+    /**
+     * Add a newly opened network channel
+     * 
+     * @param networkChannelReference
+     */
+    public void add(NetworkChannelReference networkChannelReference) {
+        networkChannelReferences.add(networkChannelReference);
+        nbCreated.incrementAndGet();
+        saturated = false;
+        released();
+    }
+
+    /**
+     * Wake up the new transfers waiting for a network channel, once a local or network channel is
+     * released
+     */
+    public synchronized void released() {
+        notifyAll();
+    }
+
+    /**
+     * Wait for a network channel able to accept a new local channel, or for a network channel to
+     * be closed
+     * 
+     * @param maxLocalChannels
+     *            maximum number of local channels by network channel (0 for no limit)
+     * @param stripes
+     *            maximum number of network channels
+     * @param timeout
+     *            maximum time to wait in ms
+     * @return True if a new local channel can be accepted
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitRoom(int maxLocalChannels, int stripes, long timeout)
+            throws InterruptedException {
+        long limit = System.currentTimeMillis() + timeout;
+        while (select(maxLocalChannels) == null && nbActive() >= Math.max(stripes, 1)) {
+            long remaining = limit - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Account the reuse of an already opened network channel
+     */
+    public void reused() {
+        nbReused.incrementAndGet();
+        saturated = false;
+    }
+
+    /**
+     * Account a new transfer finding all network channels full
+     * 
+     * @return True if this is the first one since the last successful selection
+     */
+    public boolean saturated() {
+        nbSaturated.incrementAndGet();
+        if (saturated) {
+            return false;
+        }
+        saturated = true;
+        return true;
+    }
+
+    /**
+     * 
+     * @param channel
+     * @return the network channel of this pool using this channel, or null
+     */
+    public NetworkChannelReference get(Channel channel) {
+        for (NetworkChannelReference networkChannelReference : networkChannelReferences) {
+            if (networkChannelReference.channel() == channel) {
+                return networkChannelReference;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 
+     * @param channel
+     * @return the network channel of this pool using this channel, removed from the pool, or null
+     */
+    public NetworkChannelReference remove(Channel channel) {
+        for (NetworkChannelReference networkChannelReference : networkChannelReferences) {
+            if (networkChannelReference.channel() == channel) {
+                networkChannelReferences.remove(networkChannelReference);
+                released();
+                return networkChannelReference;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 
+     * @param networkChannelReference
+     * @param minIdle
+     * @return True if this idle network channel can be closed without going below minIdle
+     */
+    public boolean canClose(NetworkChannelReference networkChannelReference, int minIdle) {
+        if (minIdle <= 0 || !networkChannelReferences.contains(networkChannelReference)) {
+            return true;
+        }
+        return nbActive() > minIdle;
+    }
+
+    public boolean isEmpty() {
+        return networkChannelReferences.isEmpty();
+    }
+
+    public int size() {
+        return networkChannelReferences.size();
+    }
+
+    /**
+     * 
+     * @return the number of local channels over all network channels of this pool
+     */
+    public int nbLocalChannels() {
+        int nb = 0;
+        for (NetworkChannelReference networkChannelReference : networkChannelReferences) {
+            nb += networkChannelReference.nbLocalChannels();
+        }
+        return nb;
+    }
+
+    /**
+     * 
+     * @return the Host Id of the partner if known
+     */
+    public String getHostId() {
+        for (NetworkChannelReference networkChannelReference : networkChannelReferences) {
+            if (networkChannelReference.getHostId() != null) {
+                return networkChannelReference.getHostId();
+            }
+        }
+        return null;
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the number of network channels opened since the start
+     */
+    public long getNbCreated() {
+        return nbCreated.get();
+    }
+
+    /**
+     * @return the number of new transfers using an already opened network channel
+     */
+    public long getNbReused() {
+        return nbReused.get();
+    }
+
+    /**
+     * @return the number of new transfers that found all network channels full
+     */
+    public long getNbSaturated() {
+        return nbSaturated.get();
+    }
+}
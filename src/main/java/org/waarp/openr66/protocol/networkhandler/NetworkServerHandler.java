@@ -20,7 +20,6 @@ package org.waarp.openr66.protocol.networkhandler;
 import java.net.BindException;
 import java.net.SocketAddress;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -48,6 +47,7 @@ import org.waarp.openr66.protocol.localhandler.packet.KeepAlivePacket;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketCodec;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+import org.waarp.openr66.protocol.utils.BlocksizeAdvisor;
 import org.waarp.openr66.protocol.utils.ChannelCloseTimer;
 import org.waarp.openr66.protocol.utils.ChannelUtils;
 import org.waarp.openr66.protocol.utils.R66ShutdownHook;
@@ -89,6 +89,14 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
      * To handle the keep alive
      */
     private volatile int keepAlivedSent = 0;
+    /**
+     * Time the pending latency probe was sent (0 if none)
+     */
+    private volatile long probeSentTime = 0;
+    /**
+     * Partner HostId of the pending latency probe
+     */
+    private volatile String probeHostId = null;
     /**
      * Is this network connection being refused (black listed)
      */
@@ -214,6 +222,40 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
         keepAlivedSent = 0;
     }
 
+    /**
+     * Send a KeepAlive on this connection to measure its round trip time behind the data already
+     * sent, the answer being given back by the network handler of the partner (adaptive blocksize)
+     * 
+     * @param hostId
+     *            the partner HostId the latency is measured for
+     */
+    public synchronized void sendLatencyProbe(String hostId) {
+        if (probeSentTime != 0 || networkChannelReference == null || hostId == null) {
+            return;
+        }
+        Channel channel = networkChannelReference.channel();
+        if (channel == null || !channel.isActive()) {
+            return;
+        }
+        probeHostId = hostId;
+        probeSentTime = System.nanoTime();
+        NetworkPacket probe = new NetworkPacket(ChannelUtils.NOCHANNEL,
+                ChannelUtils.NOCHANNEL, new KeepAlivePacket(), null);
+        channel.writeAndFlush(probe);
+    }
+
+    /**
+     * A KeepAlive answer is received: end the pending latency probe if any
+     */
+    private synchronized void endLatencyProbe() {
+        if (probeSentTime == 0) {
+            return;
+        }
+        BlocksizeAdvisor.addLatency(probeHostId, System.nanoTime() - probeSentTime);
+        probeSentTime = 0;
+        probeHostId = null;
+    }
+
     @Override
     public void channelRead0(ChannelHandlerContext ctx, NetworkPacket msg) throws Exception {
         if (isBlackListed) {
@@ -268,6 +310,7 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
                     ctx.channel().writeAndFlush(response);
                 } else {
                     logger.info("Get KAlive");
+                    endLatencyProbe();
                 }
             } catch (OpenR66ProtocolPacketException e1) {
             }
@@ -323,11 +366,10 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
                 }
                 // OK continue and send to the local channel
             } else {
-                try {
-                    localChannelReference = Configuration.configuration
-                            .getLocalTransaction().getClient(packet.getRemoteId(),
-                                    packet.getLocalId());
-                } catch (OpenR66ProtocolSystemException e1) {
+                localChannelReference = Configuration.configuration
+                        .getLocalTransaction().getClientIfRegistered(packet.getRemoteId(),
+                                packet.getLocalId());
+                if (localChannelReference == null) {
                     if (remoteAddress == null) {
                         remoteAddress = channel.remoteAddress();
                     }
@@ -337,15 +379,9 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
                         packet.clear();
                         return;
                     }
-                    // try to send later
+                    // send later, once the LocalChannel is registered (packet is now owned by the queue)
                     Configuration.configuration.getLocalTransaction()
                         .sendLaterToClient(channel, packet.getRemoteId(), packet.getLocalId(), packet);
-                    /*logger.debug("Cannot get LocalChannel: " + packet + " due to " +
-                            e1.getMessage());
-                    final ConnectionErrorPacket error = new ConnectionErrorPacket(
-                            "Cannot get localChannel since localId is not found anymore", "" + packet.getLocalId());
-                    writeError(channel, packet.getRemoteId(), packet.getLocalId(), error);*/
-                    packet.clear();
                     return;
                 }
             }
@@ -359,8 +395,7 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<NetworkPac
             packet.clear();
             return;
         }
-        ByteBuf buf = packet.getBuffer();
-        localChannelReference.getLocalChannel().writeAndFlush(buf);
+        Configuration.configuration.getLocalTransaction().dispatchToLocal(localChannelReference, packet);
     }
 
     @Override
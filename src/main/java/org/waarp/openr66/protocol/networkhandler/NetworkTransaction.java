@@ -23,6 +23,7 @@ import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,7 +31,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.netty.bootstrap.Bootstrap;
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelId;
@@ -121,6 +121,12 @@ public class NetworkTransaction {
      */
     private static final ConcurrentHashMap<String, ClientNetworkChannels> clientNetworkChannelsPerHostId =
             new ConcurrentHashMap<String, ClientNetworkChannels>();
+    /**
+     * Network connections opened by the current Host based on socketAddress.hashCode(), the first
+     * usable one being also in networkChannelOnSocketAddressConcurrentHashMap
+     */
+    private static final ConcurrentHashMap<Integer, NetworkChannelPool> networkChannelPoolOnSocketAddressConcurrentHashMap =
+            new ConcurrentHashMap<Integer, NetworkChannelPool>();
     /**
      * Hashmap for currently active Retrieve Runner (sender)
      */
@@ -175,6 +181,7 @@ public class NetworkTransaction {
         for (NetworkChannelReference ncr : networkChannelOnSocketAddressConcurrentHashMap.values()) {
             nb += ncr.nbLocalChannels();
         }
+        partial += "\n NetworkChannelPools: " + networkChannelPoolOnSocketAddressConcurrentHashMap.size();
         partial += "\n NetworkChannels: " + networkChannelOnSocketAddressConcurrentHashMap.size() +
                 " LockOnSocketAddress: " + reentrantLockOnSocketAddressConcurrentHashMap.size() +
                 " Sum of NetworkChannels LocalClients: " + nb + "] ";
@@ -193,14 +200,36 @@ public class NetworkTransaction {
         networkChannelOnSocketAddressConcurrentHashMap.put(ncr.getSocketHashCode(), ncr);
     }
 
-    private static final NetworkChannelReference removeNCR(NetworkChannelReference ncr) {
-        return networkChannelOnSocketAddressConcurrentHashMap.remove(ncr.getSocketHashCode());
+    private static final boolean removeNCR(NetworkChannelReference ncr) {
+        // only if this one is the registered one, not another connection to the same address
+        return networkChannelOnSocketAddressConcurrentHashMap.remove(ncr.getSocketHashCode(), ncr);
     }
 
     private static final NetworkChannelReference getNCR(SocketAddress sa) {
         return networkChannelOnSocketAddressConcurrentHashMap.get(sa.hashCode());
     }
 
+    private static final NetworkChannelPool getPool(SocketAddress sa) {
+        NetworkChannelPool pool = networkChannelPoolOnSocketAddressConcurrentHashMap.get(sa.hashCode());
+        if (pool == null) {
+            pool = new NetworkChannelPool(sa);
+            NetworkChannelPool previous =
+                    networkChannelPoolOnSocketAddressConcurrentHashMap.putIfAbsent(sa.hashCode(), pool);
+            if (previous != null) {
+                pool = previous;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * 
+     * @return the pools of network connections opened by the current Host
+     */
+    public static Collection<NetworkChannelPool> getNetworkChannelPools() {
+        return networkChannelPoolOnSocketAddressConcurrentHashMap.values();
+    }
+
     private static final boolean containsNCR(SocketAddress address) {
         return networkChannelOnSocketAddressConcurrentHashMap.containsKey(address.hashCode());
     }
@@ -427,10 +456,44 @@ public class NetworkTransaction {
             } catch (OpenR66ProtocolNoDataException e1) {
                 networkChannelReference = null;
             }
-            if (networkChannelReference != null) {
-                networkChannelReference.use();
-                logger.info("Already Connected: {}", networkChannelReference);
-                return networkChannelReference;
+            NetworkChannelPool pool = getPool(socketServerAddress);
+            if (networkChannelReference != null && pool.get(networkChannelReference.channel()) == null) {
+                // opened before by the remote partner or previous connection
+                pool.add(networkChannelReference);
+            }
+            boolean waited = false;
+            while (true) {
+                networkChannelReference = pool.select(Configuration.configuration.getNetworkMaxLocalChannels());
+                if (pool.needNewChannel(networkChannelReference, Configuration.configuration.getNetworkStripes(),
+                        Configuration.configuration.getNetworkMinIdle())) {
+                    break;
+                }
+                if (networkChannelReference != null) {
+                    networkChannelReference.use();
+                    pool.reused();
+                    logger.info("Already Connected: {}", networkChannelReference);
+                    return networkChannelReference;
+                }
+                if (waited) {
+                    // Can retry later
+                    throw new OpenR66ProtocolNetworkException(
+                            "All network connections to remote server are full");
+                }
+                if (pool.saturated() && Configuration.configuration.getR66Mib() != null) {
+                    Configuration.configuration.getR66Mib().notifyOverloaded(
+                            "All network connections are full", socketServerAddress.toString());
+                }
+                // wait for a local channel to be released, without the lock needed to release it
+                socketLock.unlock();
+                try {
+                    pool.awaitRoom(Configuration.configuration.getNetworkMaxLocalChannels(),
+                            Configuration.configuration.getNetworkStripes(),
+                            Configuration.configuration.getTIMEOUTCON());
+                } catch (InterruptedException e) {
+                } finally {
+                    socketLock.lock();
+                }
+                waited = true;
             }
             logger.debug("NEW PHYSICAL CONNECTION REQUIRED");
             ChannelFuture channelFuture = null;
@@ -468,7 +531,10 @@ public class NetworkTransaction {
                     }
                     networkChannelGroup.add(channel);
                     networkChannelReference = new NetworkChannelReference(channel, socketLock);
-                    addNCR(networkChannelReference);
+                    if (getNCR(socketServerAddress) == null) {
+                        addNCR(networkChannelReference);
+                    }
+                    pool.add(networkChannelReference);
                     return networkChannelReference;
                 } else {
                     try {
@@ -558,8 +624,7 @@ public class NetworkTransaction {
                 startupPacket.clear();
                 return;
             }
-            ByteBuf buf = startupPacket.getBuffer();
-            lcr.getLocalChannel().writeAndFlush(buf);
+            Configuration.configuration.getLocalTransaction().dispatchToLocal(lcr, startupPacket);
         }
     }
 
@@ -671,6 +736,12 @@ public class NetworkTransaction {
                 // not an issue: needs to be created
                 nc = new NetworkChannelReference(channel, socketLock);
                 addNCR(nc);
+            } else if (nc.channel() != channel) {
+                // another connection to the same address (striping)
+                NetworkChannelPool pool =
+                        networkChannelPoolOnSocketAddressConcurrentHashMap.get(socketAddress.hashCode());
+                NetworkChannelReference pooled = pool != null ? pool.get(channel) : null;
+                nc = pooled != null ? pooled : new NetworkChannelReference(channel, socketLock);
             }
             return nc;
         } finally {
@@ -886,7 +957,21 @@ public class NetworkTransaction {
                 networkChannelReference.shutdownAllLocalChannels();
             }
             logger.debug("NC left: {}", networkChannelReference);
-            removeNCR(networkChannelReference);
+            NetworkChannelPool pool = networkChannelPoolOnSocketAddressConcurrentHashMap
+                    .get(networkChannelReference.getSocketHashCode());
+            if (pool != null) {
+                NetworkChannelReference pooled = pool.remove(networkChannelReference.channel());
+                if (pooled != null && pooled != networkChannelReference && !pooled.isShuttingDown) {
+                    pooled.shutdownAllLocalChannels();
+                }
+            }
+            if (removeNCR(networkChannelReference) && pool != null) {
+                // another connection to the same address takes the place of the closed one
+                NetworkChannelReference next = pool.select(0);
+                if (next != null) {
+                    networkChannelOnSocketAddressConcurrentHashMap.putIfAbsent(next.getSocketHashCode(), next);
+                }
+            }
             if (networkChannelReference.clientNetworkChannels != null) {
                 String requester = networkChannelReference.clientNetworkChannels.getHostId();
                 removeClient(networkChannelReference, requester, networkChannelReference.clientNetworkChannels);
@@ -945,6 +1030,14 @@ public class NetworkTransaction {
             try {
                 logger.debug("NC count: {}", networkChannelReference);
                 if (networkChannelReference.nbLocalChannels() <= 0) {
+                    NetworkChannelPool pool = networkChannelPoolOnSocketAddressConcurrentHashMap
+                            .get(networkChannelReference.getSocketHashCode());
+                    if (pool != null && !pool.canClose(networkChannelReference,
+                            Configuration.configuration.getNetworkMinIdle())) {
+                        logger.debug("NC kept open as minimal idle connection: {}", networkChannelReference);
+                        inCloseRunning.remove(networkChannelReference.channel.id());
+                        return;
+                    }
                     long time = networkChannelReference.checkLastTime(Configuration.configuration.getTIMEOUTCON() * 2);
                     if (time > Configuration.RETRYINMS) {
                         logger.debug("NC reschedule at " + time + " : {}", networkChannelReference);
@@ -980,6 +1073,11 @@ public class NetworkTransaction {
             logger.debug("Close con: " + networkChannelReference);
             if (localChannelReference != null) {
                 networkChannelReference.remove(localChannelReference);
+                NetworkChannelPool pool = networkChannelPoolOnSocketAddressConcurrentHashMap
+                        .get(networkChannelReference.getSocketHashCode());
+                if (pool != null) {
+                    pool.released();
+                }
             }
             int count = networkChannelReference.nbLocalChannels();
             if (count <= 0) {
@@ -1094,7 +1192,16 @@ public class NetworkTransaction {
      */
     public static final NetworkChannelReference getImmediateNetworkChannel(Channel channel) {
         if (channel.remoteAddress() != null) {
-            return getNCR(channel.remoteAddress());
+            NetworkChannelReference nc = getNCR(channel.remoteAddress());
+            if (nc != null && nc.channel() != channel) {
+                NetworkChannelPool pool = networkChannelPoolOnSocketAddressConcurrentHashMap
+                        .get(channel.remoteAddress().hashCode());
+                NetworkChannelReference pooled = pool != null ? pool.get(channel) : null;
+                if (pooled != null) {
+                    return pooled;
+                }
+            }
+            return nc;
         }
         return null;
     }
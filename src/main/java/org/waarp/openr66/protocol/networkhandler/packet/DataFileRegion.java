@@ -0,0 +1,193 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+
+/**
+ * Data Packet sent directly from a FileChannel (zero copy).<br>
+ * <br>
+ * The Network header, the Local header and the DataPacket header (packet rank) are written first
+ * from a small buffer, then the file content is transferred directly from the FileChannel to the
+ * socket (sendfile when available). There is no End part (no per block hash) so that the result
+ * is the very same as a NetworkPacket wrapping a DataPacket without key.<br>
+ * <br>
+ * The FileChannel is shared and not owned: it is never closed by this region.
+ * 
+ * @author Frederic Bregier
+ */
+public class DataFileRegion extends AbstractReferenceCounted implements FileRegion {
+    /**
+     * Network header (13) + Local header (13) + DataPacket header (4)
+     */
+    public static final int HEADERSIZE = 13 + 13 + 4;
+
+    private final ByteBuf header;
+
+    private final FileChannel fileChannel;
+
+    private final long filePosition;
+
+    private final long length;
+
+    private final int packetRank;
+
+    private long transferred;
+
+    /**
+     * 
+     * @param localId
+     * @param remoteId
+     * @param packetRank
+     * @param fileChannel
+     *            the shared FileChannel (not closed by this region)
+     * @param filePosition
+     *            the position in the file of this block
+     * @param length
+     *            the length of this block
+     */
+    public DataFileRegion(int localId, int remoteId, int packetRank,
+            FileChannel fileChannel, long filePosition, int length) {
+        this.fileChannel = fileChannel;
+        this.filePosition = filePosition;
+        this.length = length;
+        this.packetRank = packetRank;
+        header = Unpooled.buffer(HEADERSIZE);
+        // Network header: length, remoteId, localId, code
+        header.writeInt(length + HEADERSIZE - 4);
+        header.writeInt(remoteId);
+        header.writeInt(localId);
+        header.writeByte(LocalPacketFactory.DATAPACKET);
+        // Local header: header length, middle length, end length, type
+        header.writeInt(4 * 2 + 1 + 4);
+        header.writeInt(length);
+        header.writeInt(0);
+        header.writeByte(LocalPacketFactory.DATAPACKET);
+        // DataPacket header
+        header.writeInt(packetRank);
+    }
+
+    /**
+     * @return the packetRank
+     */
+    public int getPacketRank() {
+        return packetRank;
+    }
+
+    /**
+     * @return the length of data (excluding headers)
+     */
+    public long getLengthPacket() {
+        return length;
+    }
+
+    @Override
+    public long position() {
+        return 0;
+    }
+
+    @Override
+    public long count() {
+        return HEADERSIZE + length;
+    }
+
+    @Deprecated
+    public long transfered() {
+        return transferred();
+    }
+
+    public long transferred() {
+        return transferred;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException {
+        long count = count() - position;
+        if (count < 0 || position < 0) {
+            throw new IllegalArgumentException("position out of range: " + position
+                    + " (expected: 0 - " + (count() - 1) + ')');
+        }
+        if (count == 0) {
+            return 0L;
+        }
+        if (refCnt() == 0) {
+            throw new IllegalStateException("DataFileRegion already released");
+        }
+        long written = 0;
+        if (position < HEADERSIZE) {
+            ByteBuffer nioHeader = header.nioBuffer(header.readerIndex() + (int) position,
+                    HEADERSIZE - (int) position);
+            written = target.write(nioHeader);
+            if (position + written < HEADERSIZE) {
+                // socket is full, wait for next call
+                transferred += written;
+                return written;
+            }
+            position += written;
+        }
+        long fileWritten = fileChannel.transferTo(filePosition + position - HEADERSIZE,
+                count() - position, target);
+        if (fileWritten > 0) {
+            written += fileWritten;
+        }
+        transferred += written;
+        return written;
+    }
+
+    @Override
+    protected void deallocate() {
+        header.release();
+    }
+
+    @Override
+    public DataFileRegion retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public DataFileRegion retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public DataFileRegion touch() {
+        return this;
+    }
+
+    @Override
+    public DataFileRegion touch(Object hint) {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "DataFileRegion: " + packetRank + ":" + length;
+    }
+}
@@ -18,7 +18,10 @@
 package org.waarp.openr66.protocol.networkhandler.packet;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolPacketException;
 import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
@@ -31,8 +34,18 @@ import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
  * @author Frederic Bregier
  */
 public class NetworkPacket {
+    /**
+     * Size of the network header: global length, two Ids and the code
+     */
+    public static final int NETWORK_HEADER_SIZE = 4 * 3 + 1;
+
     private ByteBuf buffer;
 
+    /**
+     * LocalPacket not yet serialized (outbound only)
+     */
+    private AbstractLocalPacket localPacket;
+
     private final int remoteId;
 
     private final int localId;
@@ -66,16 +79,33 @@ public class NetworkPacket {
         this.remoteId = remoteId;
         this.localId = localId;
         code = packet.getType();
-        buffer = packet.getLocalPacket(lcr);
+        packet.createAllParts(lcr);
+        localPacket = packet;
     }
 
     /**
      * @return the buffer
      */
     public ByteBuf getBuffer() {
+        if (buffer == null && localPacket != null) {
+            final ByteBuf buf = Unpooled.buffer(AbstractLocalPacket.LOCAL_HEADER_SIZE);
+            localPacket.writeLocalHeader(buf);
+            buffer = localPacket.addParts(Unpooled.compositeBuffer(4).addComponent(true, buf));
+            localPacket = null;
+        }
         return buffer;
     }
 
+    /**
+     * @return the length of the LocalPacket part (without the network header)
+     */
+    public int getLength() {
+        if (buffer == null && localPacket != null) {
+            return localPacket.getLocalPacketLength();
+        }
+        return buffer.readableBytes();
+    }
+
     /**
      * @return the remoteId
      */
@@ -98,21 +128,54 @@ public class NetworkPacket {
     }
 
     /**
-     * @return The corresponding ByteBuf
+     * Write the network header (13 bytes)
+     * 
+     * @param buf
+     * @param length
+     *            the length of the LocalPacket part
      */
-    public ByteBuf getNetworkPacket() {
-        final ByteBuf buf = Unpooled.buffer(13);
-        buf.writeInt(buffer.readableBytes() + 9);
+    private void writeNetworkHeader(ByteBuf buf, int length) {
+        buf.writeInt(length + 9);
         buf.writeInt(remoteId);
         buf.writeInt(localId);
         buf.writeByte(code);
-        return Unpooled.wrappedBuffer(buf, buffer);
+    }
+
+    /**
+     * @return The corresponding ByteBuf
+     */
+    public ByteBuf getNetworkPacket() {
+        return getNetworkPacket(UnpooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * The content is not copied: the returned composite buffer takes ownership of the LocalPacket
+     * buffers, and the network header and the local header (if not yet serialized) are written in
+     * one single buffer from the given allocator.
+     * 
+     * @param alloc
+     *            the allocator to use for the header
+     * @return The corresponding ByteBuf
+     */
+    public ByteBuf getNetworkPacket(ByteBufAllocator alloc) {
+        if (buffer == null && localPacket != null) {
+            final ByteBuf buf = alloc.buffer(NETWORK_HEADER_SIZE + AbstractLocalPacket.LOCAL_HEADER_SIZE);
+            writeNetworkHeader(buf, localPacket.getLocalPacketLength());
+            localPacket.writeLocalHeader(buf);
+            final CompositeByteBuf composite = localPacket.addParts(
+                    alloc.compositeBuffer(4).addComponent(true, buf));
+            localPacket = null;
+            return composite;
+        }
+        final ByteBuf buf = alloc.buffer(NETWORK_HEADER_SIZE);
+        writeNetworkHeader(buf, buffer.readableBytes());
+        return alloc.compositeBuffer(2).addComponents(true, buf, buffer);
     }
 
     @Override
     public String toString() {
         return "RId: " + remoteId + " LId: " + localId + " Code: " + code +
-                " Length: " + buffer.readableBytes();
+                " Length: " + getLength();
     }
 
     public void clear() {
@@ -120,6 +183,9 @@ public class NetworkPacket {
             if (buffer.release()) {
                 buffer = null;
             }
+        } else if (localPacket != null) {
+            localPacket.clear();
+            localPacket = null;
         }
     }
 }
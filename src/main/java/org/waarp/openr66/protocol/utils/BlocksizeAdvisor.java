@@ -0,0 +1,215 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+
+/**
+ * Adaptive blocksize: for each partner, the latency of the data connection (KeepAlive round trip,
+ * see {@link org.waarp.openr66.protocol.networkhandler.NetworkServerHandler#sendLatencyProbe(String)})
+ * and the data throughput measured by the requester are used to choose the blocksize of its next
+ * transfers.<br>
+ * <br>
+ * The blocksize is doubled while one block is sent in less than {@link #GROW_BLOCK_TIME} (too many
+ * packets per second), and halved when one block needs more than {@link #SHRINK_BLOCK_TIME} or when
+ * the latency is far above the best one seen (congested link, where smaller blocks give a better
+ * restart granularity). It stays within the local minimum and both local and partner maximum.<br>
+ * <br>
+ * The blocksize is only chosen before the first block of a transfer is sent and then kept for the
+ * whole transfer, since the restart position is computed as rank * blocksize: there is no change
+ * in the middle of a transfer. A blocksize explicitly requested (different from the default
+ * blocksize) is never changed.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class BlocksizeAdvisor {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(BlocksizeAdvisor.class);
+
+    /**
+     * Weight of a new sample in the smoothed latency
+     */
+    private static final double ALPHA = 0.25;
+    /**
+     * Below this time to send one block, the blocksize is increased
+     */
+    public static final long GROW_BLOCK_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * Above this time to send one block, the blocksize is decreased
+     */
+    public static final long SHRINK_BLOCK_TIME = TimeUnit.MILLISECONDS.toNanos(20);
+    /**
+     * Ratio between the smoothed and the best latency considered as a congestion
+     */
+    private static final int CONGESTION_RATIO = 4;
+    /**
+     * Minimal number of blocks for a transfer to be used as a throughput sample
+     */
+    private static final int MIN_SAMPLE_BLOCKS = 16;
+
+    /**
+     * Estimations of one partner
+     */
+    private static class Estimation {
+        private long bestLatency = Long.MAX_VALUE;
+        private double latency = 0;
+        private double throughput = 0;
+        private int blocksize = 0;
+    }
+
+    /**
+     * Estimations by partner HostId
+     */
+    private static final ConcurrentHashMap<String, Estimation> estimations =
+            new ConcurrentHashMap<String, Estimation>();
+
+    private BlocksizeAdvisor() {
+    }
+
+    /**
+     * 
+     * @param partner
+     * @return True if the adaptive blocksize is enabled both locally and by the partner
+     */
+    public static boolean isAdaptive(PartnerConfiguration partner) {
+        return Configuration.configuration.isAdaptiveBlocksize() && partner != null
+                && partner.useAdaptiveBlocksize();
+    }
+
+    /**
+     * 
+     * @return the highest blocksize accepted locally
+     */
+    public static int getLocalMaxBlocksize() {
+        if (Configuration.configuration.isAdaptiveBlocksize()) {
+            return Math.max(Configuration.configuration.getBLOCKSIZE(),
+                    Configuration.configuration.getBlocksizeMax());
+        }
+        return Configuration.configuration.getBLOCKSIZE();
+    }
+
+    private static Estimation getEstimation(String hostId) {
+        Estimation estimation = estimations.get(hostId);
+        if (estimation == null) {
+            estimation = new Estimation();
+            Estimation old = estimations.putIfAbsent(hostId, estimation);
+            if (old != null) {
+                estimation = old;
+            }
+        }
+        return estimation;
+    }
+
+    /**
+     * Add a latency sample (round trip time on the data connection)
+     * 
+     * @param hostId
+     * @param nanos
+     */
+    public static void addLatency(String hostId, long nanos) {
+        if (hostId == null || nanos <= 0) {
+            return;
+        }
+        Estimation estimation = getEstimation(hostId);
+        synchronized (estimation) {
+            if (nanos < estimation.bestLatency) {
+                estimation.bestLatency = nanos;
+            }
+            if (estimation.latency == 0) {
+                estimation.latency = nanos;
+            } else {
+                estimation.latency += ALPHA * (nanos - estimation.latency);
+            }
+        }
+    }
+
+    /**
+     * Add a throughput sample and adapt the blocksize for the next transfers with this partner
+     * 
+     * @param hostId
+     * @param bytes
+     *            data transferred
+     * @param nanos
+     *            time of the data transfer
+     * @param blocksize
+     *            blocksize used by this transfer
+     */
+    public static void addThroughput(String hostId, long bytes, long nanos, int blocksize) {
+        if (hostId == null || nanos <= 0 || blocksize <= 0
+                || bytes < (long) MIN_SAMPLE_BLOCKS * blocksize) {
+            return;
+        }
+        Estimation estimation = getEstimation(hostId);
+        synchronized (estimation) {
+            estimation.throughput = ((double) bytes) / nanos;
+            double blockTime = blocksize / estimation.throughput;
+            int newBlocksize = blocksize;
+            if (estimation.latency > (double) CONGESTION_RATIO * estimation.bestLatency
+                    || blockTime > SHRINK_BLOCK_TIME) {
+                newBlocksize = blocksize / 2;
+            } else if (blockTime < GROW_BLOCK_TIME) {
+                newBlocksize = blocksize * 2;
+            }
+            newBlocksize = Math.max(newBlocksize, Configuration.configuration.getBlocksizeMin());
+            newBlocksize = Math.min(newBlocksize, getLocalMaxBlocksize());
+            estimation.blocksize = newBlocksize;
+            logger.debug("Blocksize for " + hostId + ": " + blocksize + " -> " + newBlocksize
+                    + " (" + (long) (estimation.throughput * 1000000000L) + " B/s, latency "
+                    + (long) estimation.latency / 1000 + " us, best " + estimation.bestLatency / 1000
+                    + " us)");
+        }
+    }
+
+    /**
+     * 
+     * @param partner
+     * @param requested
+     *            blocksize requested for this transfer (only adapted if the default one)
+     * @return the blocksize to use with this partner for a new transfer
+     */
+    public static int getBlocksize(PartnerConfiguration partner, int requested) {
+        if (!isAdaptive(partner) || requested != Configuration.configuration.getBLOCKSIZE()) {
+            // not adaptive or explicit blocksize
+            return requested;
+        }
+        int blocksize = requested;
+        Estimation estimation = estimations.get(partner.getId());
+        if (estimation != null) {
+            synchronized (estimation) {
+                if (estimation.blocksize > 0) {
+                    blocksize = estimation.blocksize;
+                }
+            }
+        }
+        int max = Math.min(getLocalMaxBlocksize(), partner.getMaxBlocksize());
+        if (blocksize > max) {
+            blocksize = max;
+        }
+        return blocksize;
+    }
+}
@@ -20,6 +20,7 @@ package org.waarp.openr66.protocol.utils;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.buffer.ByteBuf;
@@ -30,6 +31,7 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroupFuture;
 import io.netty.channel.group.ChannelGroupFutureListener;
 import io.netty.channel.local.LocalChannel;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.traffic.ChannelTrafficShapingHandler;
 import io.netty.handler.traffic.TrafficCounter;
 
@@ -51,9 +53,11 @@ import org.waarp.openr66.protocol.localhandler.packet.AbstractLocalPacket;
 import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
 import org.waarp.openr66.protocol.localhandler.packet.EndTransferPacket;
 import org.waarp.openr66.protocol.localhandler.packet.LocalPacketFactory;
+import org.waarp.openr66.protocol.localhandler.packet.PacketBufferAllocator;
 import org.waarp.openr66.protocol.localhandler.packet.RequestPacket;
 import org.waarp.openr66.protocol.networkhandler.GlobalTrafficHandler;
 import org.waarp.openr66.protocol.networkhandler.NetworkTransaction;
+import org.waarp.openr66.protocol.networkhandler.packet.DataFileRegion;
 import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
 
 import ch.qos.logback.classic.LoggerContext;
@@ -212,7 +216,8 @@ public class ChannelUtils extends Thread {
         ByteBuf md5 = Unpooled.EMPTY_BUFFER;
         DbTaskRunner runner = localChannelReference.getSession().getRunner();
         if (RequestPacket.isMD5Mode(runner.getMode())) {
-            md5 = FileUtils.getHash(block.getBlock(), Configuration.configuration.getDigest());
+            md5 = FileUtils.getHash(block.getBlock(), Configuration.configuration.getDigest(),
+                    PacketBufferAllocator.getAllocator(localChannelReference));
         }
         if (runner.getRank() % 100 == 1 || localChannelReference.getSessionState() != R66FiniteDualStates.DATAS) {
             localChannelReference.sessionNewState(R66FiniteDualStates.DATAS);
@@ -223,6 +228,40 @@ public class ChannelUtils extends Thread {
         return future;
     }
 
+    /**
+     * 
+     * @param networkChannel
+     * @return True if the zero copy mode (FileRegion) could be used on this network channel (no SSL)
+     */
+    public static boolean isZeroCopyCompatible(Channel networkChannel) {
+        return networkChannel != null && networkChannel.pipeline().get(SslHandler.class) == null;
+    }
+
+    /**
+     * Write the next block directly from the FileChannel (zero copy, no MD5 per block)
+     * 
+     * @param localChannelReference
+     * @param fileChannel
+     * @param position
+     *            the position of the block in the file
+     * @param length
+     *            the length of the block
+     * @return the ChannelFuture of this write operation
+     */
+    public static ChannelFuture writeBackDataRegion(
+            LocalChannelReference localChannelReference, FileChannel fileChannel,
+            long position, int length) {
+        DbTaskRunner runner = localChannelReference.getSession().getRunner();
+        if (runner.getRank() % 100 == 1 || localChannelReference.getSessionState() != R66FiniteDualStates.DATAS) {
+            localChannelReference.sessionNewState(R66FiniteDualStates.DATAS);
+        }
+        DataFileRegion region = new DataFileRegion(localChannelReference.getLocalId(),
+                localChannelReference.getRemoteId(), runner.getRank(), fileChannel, position, length);
+        ChannelFuture future = localChannelReference.getNetworkChannel().writeAndFlush(region);
+        runner.incrementRank();
+        return future;
+    }
+
     /**
      * Write the EndTransfer
      * 
@@ -235,6 +274,7 @@ public class ChannelUtils extends Thread {
         EndTransferPacket packet = new EndTransferPacket(LocalPacketFactory.REQUESTPACKET);
         localChannelReference.sessionNewState(R66FiniteDualStates.ENDTRANSFERS);
         writeAbstractLocalPacket(localChannelReference, packet, true);
+        localChannelReference.setDataTransferred();
     }
 
     /**
@@ -251,6 +291,7 @@ public class ChannelUtils extends Thread {
                 LocalPacketFactory.REQUESTPACKET, hash);
         localChannelReference.sessionNewState(R66FiniteDualStates.ENDTRANSFERS);
         writeAbstractLocalPacket(localChannelReference, packet, true);
+        localChannelReference.setDataTransferred();
     }
 
     /**
@@ -0,0 +1,405 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.common.logging.WaarpLogger;
+import org.waarp.common.logging.WaarpLoggerFactory;
+import org.waarp.common.utility.WaarpThreadFactory;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.localhandler.packet.DataPacket;
+
+/**
+ * Hashing stage of one transfer: data blocks are checked against their key and added to the global
+ * digests by a shared bounded pool of threads, out of the handler threads, but always in the order
+ * of their submission.<br>
+ * <br>
+ * The first invalid block is kept (see {@link #getFailedRank()}) and all the following blocks are
+ * only released. The global digests shall not be used before {@link #awaitCompletion()} returns.<br>
+ * <br>
+ * When a transfer restarts, the beginning of the file can be hashed first (see
+ * {@link #submit(File, long)}) such that the global digests still cover the whole file. This is
+ * never done within the handler thread: if the shared pool is not enabled, a single thread is used
+ * for such transfers.
+ * 
+ * @author Frederic Bregier
+ * 
+ */
+public class DigestPipeline implements Runnable {
+    /**
+     * Internal Logger
+     */
+    private static final WaarpLogger logger = WaarpLoggerFactory
+            .getLogger(DigestPipeline.class);
+
+    /**
+     * Shared pool of hashing threads (null if not enabled)
+     */
+    private static ThreadPoolExecutor executor = null;
+    /**
+     * Single thread used for restarted transfers when the shared pool is not enabled
+     */
+    private static ThreadPoolExecutor restartExecutor = null;
+
+    /**
+     * One block to hash
+     */
+    private static class DigestStep {
+        private final ByteBuf data;
+        private final ByteBuf key;
+        private final DigestAlgo algo;
+        private final int rank;
+        private final File file;
+        private final long length;
+
+        private DigestStep(ByteBuf data, ByteBuf key, DigestAlgo algo, int rank) {
+            this.data = data;
+            this.key = key;
+            this.algo = algo;
+            this.rank = rank;
+            this.file = null;
+            this.length = 0;
+        }
+
+        private DigestStep(File file, long length) {
+            this.data = null;
+            this.key = null;
+            this.algo = null;
+            this.rank = -1;
+            this.file = file;
+            this.length = length;
+        }
+
+        private void release() {
+            if (data != null) {
+                data.release();
+            }
+            if (key != null) {
+                key.release();
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final FilesystemBasedDigest globalDigest;
+    private final FilesystemBasedDigest localDigest;
+    private volatile Runnable progress = null;
+    private final ConcurrentLinkedQueue<DigestStep> steps = new ConcurrentLinkedQueue<DigestStep>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final int window;
+    private final Semaphore available;
+    private volatile int failedRank = -1;
+    private volatile boolean cancelled = false;
+    private volatile boolean incomplete = false;
+    private volatile boolean hashingFile = false;
+    private final AtomicLong done = new AtomicLong();
+
+    /**
+     * 
+     * @return True if the hashing is done out of the handler threads
+     */
+    public static boolean isEnabled() {
+        return getExecutor() != null;
+    }
+
+    private static synchronized ThreadPoolExecutor getRestartExecutor() {
+        if (restartExecutor == null) {
+            restartExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new WaarpThreadFactory("DigestRestart"));
+            restartExecutor.allowCoreThreadTimeOut(true);
+        }
+        return restartExecutor;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = Configuration.configuration.getDigestThreads();
+            if (threads <= 0) {
+                return null;
+            }
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new WaarpThreadFactory("DigestPipeline"));
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the shared pool of hashing threads
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (restartExecutor != null) {
+            restartExecutor.shutdown();
+            restartExecutor = null;
+        }
+    }
+
+    /**
+     * 
+     * @param globalDigest
+     *            the global digest to update (might be null)
+     * @param localDigest
+     *            the second global digest to update (might be null)
+     */
+    public DigestPipeline(FilesystemBasedDigest globalDigest, FilesystemBasedDigest localDigest) {
+        ThreadPoolExecutor shared = getExecutor();
+        this.pool = shared != null ? shared : getRestartExecutor();
+        this.globalDigest = globalDigest;
+        this.localDigest = localDigest;
+        int size = Configuration.configuration.getDigestWindow();
+        this.window = size > 0 ? size : 1;
+        this.available = new Semaphore(window);
+    }
+
+    /**
+     * Add the next received block to hash, waiting if too many blocks are not yet hashed
+     * 
+     * @param data
+     *            the data of the block (retained, so still owned by the caller but its content
+     *            shall not be modified)
+     * @param key
+     *            the hash of the block to check (null if none)
+     * @param algo
+     *            the algorithm of the key
+     * @param rank
+     *            the rank of the block
+     * @return False if the block could not be submitted (then considered as failed)
+     */
+    public boolean submit(ByteBuf data, ByteBuf key, DigestAlgo algo, int rank) {
+        return submit(data, key, algo, rank, false);
+    }
+
+    /**
+     * Add the next block to hash, waiting if too many blocks are not yet hashed
+     * 
+     * @param data
+     *            the data of the block
+     * @param key
+     *            the hash of the block to check (null if none)
+     * @param algo
+     *            the algorithm of the key
+     * @param rank
+     *            the rank of the block
+     * @param copy
+     *            True if the caller may reuse the block before it is hashed (as the sender does),
+     *            such that it is copied, else it is only retained
+     * @return False if the block could not be submitted (then considered as failed)
+     */
+    public boolean submit(ByteBuf data, ByteBuf key, DigestAlgo algo, int rank, boolean copy) {
+        if (pool.isShutdown() || cancelled) {
+            setFailedRank(rank);
+            return false;
+        }
+        if (!acquire(1)) {
+            logger.warn("Digest pipeline too slow for block: " + rank);
+            setFailedRank(rank);
+            return false;
+        }
+        // own references, released once hashed: the caller may release the block meanwhile
+        ByteBuf keyRef = null;
+        if (key != null && key != Unpooled.EMPTY_BUFFER) {
+            keyRef = copy ? key.copy() : key.retainedDuplicate();
+        }
+        steps.add(new DigestStep(copy ? data.copy() : data.retainedDuplicate(), keyRef, algo, rank));
+        if (!schedule()) {
+            setFailedRank(rank);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add the beginning of a file to the global digests, such that they cover the whole file when
+     * a transfer restarts
+     * 
+     * @param file
+     * @param length
+     *            the number of bytes to hash from the beginning of the file
+     * @return False if the file could not be submitted (the global digests being then incomplete)
+     */
+    public boolean submit(File file, long length) {
+        if (pool.isShutdown() || cancelled || file == null) {
+            incomplete = true;
+            return false;
+        }
+        if (!acquire(1)) {
+            incomplete = true;
+            return false;
+        }
+        steps.add(new DigestStep(file, length));
+        if (!schedule()) {
+            incomplete = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for some blocks to be hashed, as long as the hashing goes on
+     * 
+     * @param permits
+     * @return True if the permits were acquired
+     */
+    private boolean acquire(int permits) {
+        try {
+            for (;;) {
+                long before = done.get();
+                if (available.tryAcquire(permits, Configuration.configuration.getTIMEOUTCON(),
+                        TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                if (!hashingFile && done.get() == before) {
+                    // no progress at all
+                    return false;
+                }
+                Runnable current = progress;
+                if (current != null) {
+                    current.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 
+     * @return False if the pool is stopped
+     */
+    private boolean schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                pool.execute(this);
+            } catch (RejectedExecutionException e) {
+                // pool stopped: release everything
+                cancel();
+                run();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void run() {
+        for (;;) {
+            DigestStep step = steps.poll();
+            if (step == null) {
+                scheduled.set(false);
+                // a block might have been added just before the flag was reset
+                if (steps.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                if (step.file != null) {
+                    hashingFile = true;
+                    if (cancelled || !FileUtils.computeGlobalHashFromFile(globalDigest, localDigest,
+                            step.file, step.length)) {
+                        incomplete = true;
+                    }
+                } else if (!cancelled && failedRank < 0) {
+                    if (step.key != null && !DataPacket.isKeyValid(step.data, step.key, step.algo)) {
+                        setFailedRank(step.rank);
+                    } else {
+                        FileUtils.computeGlobalHash(globalDigest, step.data);
+                        FileUtils.computeGlobalHash(localDigest, step.data);
+                    }
+                }
+            } catch (Throwable e) {
+                logger.error("Error while hashing block: " + step.rank, e);
+                setFailedRank(step.rank);
+            } finally {
+                hashingFile = false;
+                step.release();
+                done.incrementAndGet();
+                available.release();
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param progress
+     *            called while the caller waits for the hashing going on (such as the beginning of
+     *            a restarted file), such that the transfer is not considered as idle
+     */
+    public void setProgress(Runnable progress) {
+        this.progress = progress;
+    }
+
+    private void setFailedRank(int rank) {
+        if (failedRank < 0) {
+            failedRank = rank;
+        }
+    }
+
+    /**
+     * 
+     * @return the rank of the first block with an invalid hash or not hashed, or -1 if none yet
+     */
+    public int getFailedRank() {
+        return failedRank;
+    }
+
+    /**
+     * 
+     * @return True if the global digests do not cover all the data (restart not hashed)
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * Wait for all the submitted blocks to be hashed
+     * 
+     * @return True if all blocks were hashed in time
+     */
+    public boolean awaitCompletion() {
+        if (acquire(window)) {
+            available.release(window);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stop hashing, the pending blocks being only released
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+}
@@ -28,6 +28,7 @@ import java.net.URLDecoder;
 import java.nio.channels.FileChannel;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import org.waarp.common.command.exception.CommandAbstractException;
 import org.waarp.common.digest.FilesystemBasedDigest;
@@ -42,6 +43,7 @@ import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.context.task.exception.OpenR66RunnerErrorException;
 import org.waarp.openr66.protocol.configuration.Configuration;
 import org.waarp.openr66.protocol.exception.OpenR66ProtocolSystemException;
+import org.waarp.openr66.protocol.localhandler.LocalChannelReference;
 
 /**
  * File Utils
@@ -511,6 +513,24 @@ public class FileUtils {
         return Unpooled.wrappedBuffer(newkey);
     }
 
+    /**
+     * 
+     * @param buffer
+     * @param algo
+     * @param alloc
+     *            the allocator to use for the returned buffer
+     * @return the hash from the given Buffer
+     */
+    public final static ByteBuf getHash(ByteBuf buffer, DigestAlgo algo, ByteBufAllocator alloc) {
+        byte[] newkey;
+        try {
+            newkey = FilesystemBasedDigest.getHash(buffer, algo);
+        } catch (IOException e) {
+            return Unpooled.EMPTY_BUFFER;
+        }
+        return alloc.buffer(newkey.length).writeBytes(newkey);
+    }
+
     /**
      * Compute global hash (if possible)
      * 
@@ -563,6 +583,65 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Compute global hash from the beginning of a file up to length, used to rebuild the global
+     * digest of a restarted transfer
+     * 
+     * @param digest
+     * @param second
+     *            a second digest to update at the same time (might be null)
+     * @param file
+     * @param length
+     * @return True if the length first bytes of the file were added to the digests
+     */
+    public static boolean computeGlobalHashFromFile(FilesystemBasedDigest digest,
+            FilesystemBasedDigest second, File file, long length) {
+        if (digest == null || file == null) {
+            return false;
+        }
+        byte[] bytes = new byte[65536];
+        long still = length;
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            while (still > 0) {
+                int read = inputStream.read(bytes, 0, (int) Math.min(bytes.length, still));
+                if (read < 0) {
+                    return false;
+                }
+                digest.Update(bytes, 0, read);
+                if (second != null) {
+                    second.Update(bytes, 0, read);
+                }
+                still -= read;
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param localChannelReference
+     * @return True if the global digest of a restarted transfer with this partner shall cover the
+     *         whole file
+     */
+    public static boolean isGlobalDigestResumable(LocalChannelReference localChannelReference) {
+        return Configuration.configuration.isResumeGlobalDigest() &&
+                localChannelReference.getPartner() != null &&
+                localChannelReference.getPartner().useResumeHash();
+    }
+
     /**
      * Write one fileChannel to another one. Close the fileChannels
      * 
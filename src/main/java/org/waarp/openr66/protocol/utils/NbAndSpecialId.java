@@ -20,7 +20,7 @@ package org.waarp.openr66.protocol.utils;
 import org.waarp.openr66.database.DbConstant;
 
 /**
- * Class to retrieve the number of runner and the higher rank.
+ * Class to retrieve the number of runner and the higher (and lower) rank.
  * 
  * @author Frederic Bregier
  * 
@@ -28,5 +28,13 @@ import org.waarp.openr66.database.DbConstant;
 public class NbAndSpecialId {
     public int nb = 0;
     public long higherSpecialId = DbConstant.ILLEGALVALUE;
+    public long lowerSpecialId = DbConstant.ILLEGALVALUE;
+    /**
+     * Rest of the key (OwnerReq, Requester, Requested) of the runner with the lower rank, since
+     * the rank alone is not unique
+     */
+    public String lowerOwnerReq = null;
+    public String lowerRequester = null;
+    public String lowerRequested = null;
 
 }
@@ -34,6 +34,7 @@ import org.waarp.common.database.exception.WaarpDatabaseException;
 import org.waarp.common.logging.WaarpLogger;
 import org.waarp.common.logging.WaarpLoggerFactory;
 import org.waarp.openr66.commander.ClientRunner;
+import org.waarp.openr66.commander.InternalRunner;
 import org.waarp.openr66.context.R66Session;
 import org.waarp.openr66.context.filesystem.R66File;
 import org.waarp.openr66.database.DbConstant;
@@ -139,6 +140,7 @@ public class R66EmbeddedServiceImpl implements R66Service.Iface {
                 return new R66Result(request.getMode(), ErrorCode.CommandNotFound,
                         "ERROR: Cannot prepare transfer");
             }
+            InternalRunner.submitted(runner);
             R66Result result = new R66Result(request.getMode(), ErrorCode.InitOk,
                     "Transfer Scheduled");
             if (request.getMode() == RequestMode.SYNCTRANSFER) {
@@ -0,0 +1,159 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.filesystem;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+public class R66DirTest {
+    private static final String HOSTS = "hostrequester_hostrequested_";
+
+    private File directory;
+    private int shards;
+    private int maxfilenamelength;
+
+    @Before
+    public void setUp() throws IOException {
+        shards = Configuration.configuration.getRecvShards();
+        maxfilenamelength = Configuration.configuration.getMaxfilenamelength();
+        directory = File.createTempFile("R66DirTest", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.configuration.setRecvShards(shards);
+        Configuration.configuration.setMaxfilenamelength(maxfilenamelength);
+        delete(directory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testConcurrentUniqueFiles() throws Exception {
+        Configuration.configuration.setRecvShards(4);
+        final Set<String> names = Collections
+                .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final int threads = 8;
+        final int perThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int j = 0; j < perThread; j++) {
+                            // same transfer id and filename for all
+                            File file = R66Dir.createUniqueFile(directory, 1234, HOSTS,
+                                    "file.txt");
+                            assertTrue(file.isFile());
+                            assertTrue(names.add(file.getAbsolutePath()));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, names.size());
+    }
+
+    @Test
+    public void testShardRemovedOnceEmpty() throws Exception {
+        Configuration.configuration.setRecvShards(4);
+        File first = R66Dir.createUniqueFile(directory, 1, HOSTS, "file.txt");
+        File second = R66Dir.createUniqueFile(directory, 1, HOSTS, "file.txt");
+        File shard = first.getParentFile();
+        assertEquals(directory, shard.getParentFile());
+        assertEquals(shard, second.getParentFile());
+        assertTrue(first.delete());
+        R66Dir.removeEmptyShard(first);
+        assertTrue(shard.isDirectory());
+        assertTrue(second.delete());
+        R66Dir.removeEmptyShard(second);
+        assertFalse(shard.exists());
+        // created again by the next allocation
+        File third = R66Dir.createUniqueFile(directory, 1, HOSTS, "file.txt");
+        assertTrue(third.isFile());
+        assertEquals(shard, third.getParentFile());
+    }
+
+    @Test
+    public void testNotSharded() throws Exception {
+        Configuration.configuration.setRecvShards(0);
+        File file = R66Dir.createUniqueFile(directory, 1, HOSTS, "file.txt");
+        assertEquals(directory, file.getParentFile());
+        assertTrue(file.getName().startsWith("xx_1_" + HOSTS));
+        assertTrue(file.getName().endsWith("_file.txt" + Configuration.EXT_R66));
+        assertTrue(file.delete());
+        R66Dir.removeEmptyShard(file);
+        assertTrue(directory.isDirectory());
+    }
+
+    @Test
+    public void testHostsDroppedWhenTooLong() throws Exception {
+        Configuration.configuration.setRecvShards(0);
+        Configuration.configuration.setMaxfilenamelength(40);
+        File file = R66Dir.createUniqueFile(directory, 12345, HOSTS, "averylongfilename.txt");
+        String name = file.getName();
+        assertFalse(name.contains(HOSTS));
+        assertTrue(name.length() <= 40);
+        assertTrue(name.endsWith(".txt" + Configuration.EXT_R66));
+    }
+
+    @Test
+    public void testNameClampedWhenNoRoom() throws Exception {
+        Configuration.configuration.setRecvShards(0);
+        Configuration.configuration.setMaxfilenamelength(10);
+        File first = R66Dir.createUniqueFile(directory, 12345, HOSTS, "file.txt");
+        File second = R66Dir.createUniqueFile(directory, 12345, HOSTS, "file.txt");
+        assertTrue(first.getName().startsWith("12345_"));
+        assertFalse(first.getName().contains("file"));
+        assertTrue(first.getName().endsWith("_" + Configuration.EXT_R66));
+        assertFalse(first.equals(second));
+    }
+}
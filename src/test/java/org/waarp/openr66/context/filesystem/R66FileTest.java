@@ -0,0 +1,119 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.filesystem;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class R66FileTest {
+    private static final int SIZE = 1000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("R66FileTest", ".r66");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] block(int start, int length) {
+        byte[] block = new byte[length];
+        for (int i = 0; i < length; i++) {
+            block[i] = (byte) (start + i);
+        }
+        return block;
+    }
+
+    private void append(byte[] block) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(block);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void checkContent(int length) throws IOException {
+        assertEquals(length, file.length());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] content = new byte[length];
+            raf.readFully(content);
+            assertArrayEquals(block(0, length), content);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testPreallocate() throws IOException {
+        FileOutputStream out = new FileOutputStream(file, false);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            out.write(block(0, 100));
+            assertTrue(R66File.preallocate(raf, 0, SIZE));
+            assertEquals(SIZE, file.length());
+            out.write(block(100, SIZE - 100));
+        } finally {
+            out.close();
+            raf.close();
+        }
+        checkContent(SIZE);
+    }
+
+    @Test
+    public void testNoPreallocateOnRestart() throws IOException {
+        // first part received before the restart
+        append(block(0, 400));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // restarted at 400, the file being written in append mode
+            append(block(400, 100));
+            assertFalse(R66File.preallocate(raf, 400, SIZE));
+            assertEquals(500, file.length());
+            append(block(500, SIZE - 500));
+        } finally {
+            raf.close();
+        }
+        checkContent(SIZE);
+    }
+
+    @Test
+    public void testNoPreallocateWhenLarger() throws IOException {
+        append(block(0, SIZE));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            assertFalse(R66File.preallocate(raf, 0, SIZE / 2));
+        } finally {
+            raf.close();
+        }
+        checkContent(SIZE);
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.context.task;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.openr66.context.R66Session;
+import org.waarp.openr66.context.task.JavaTaskExecutor.JavaTaskClass;
+import org.waarp.openr66.context.task.JavaTaskExecutor.JavaTaskFuture;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+public class JavaTaskExecutorTest {
+    private static volatile CountDownLatch release;
+    private static final AtomicInteger executed = new AtomicInteger();
+
+    /**
+     * Task waiting for the release of the test
+     */
+    public static class BlockingTask implements R66Runnable {
+        public void run() {
+            executed.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+            }
+        }
+
+        public void setArgs(R66Session session, boolean waitForValidation, boolean useLocalExec,
+                int delay, String classname, String arg, boolean callFromBusiness,
+                boolean isToValidate) {
+        }
+
+        public int getFinalStatus() {
+            return 0;
+        }
+    }
+
+    public static class LimitTask extends BlockingTask {
+    }
+
+    public static class CancelTask extends BlockingTask {
+    }
+
+    public static class DispatchTask extends BlockingTask {
+    }
+
+    public static class QueueTask extends BlockingTask {
+    }
+
+    public static class TimeoutTask extends BlockingTask {
+    }
+
+    private int threads;
+    private int limit;
+
+    @Before
+    public void setUp() {
+        threads = Configuration.configuration.getJavaTaskThreads();
+        limit = Configuration.configuration.getJavaTaskClassLimit();
+        Configuration.configuration.setJavaTaskThreads(4);
+        Configuration.configuration.setJavaTaskClassLimit(1);
+        JavaTaskExecutor.shutdown();
+        release = new CountDownLatch(1);
+        executed.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        JavaTaskExecutor.shutdown();
+        Configuration.configuration.setJavaTaskThreads(threads);
+        Configuration.configuration.setJavaTaskClassLimit(limit);
+    }
+
+    private static JavaTaskFuture submit(JavaTaskClass taskClass) throws Exception {
+        return JavaTaskExecutor.submit(taskClass, taskClass.newInstance());
+    }
+
+    private static void waitExecuted(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && executed.get() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, executed.get());
+    }
+
+    private static void waitFinished(JavaTaskClass taskClass, long count)
+            throws InterruptedException {
+        for (int i = 0; i < 500
+                && (taskClass.getNbExecuted() < count || taskClass.getRunning() > 0); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, taskClass.getNbExecuted());
+        assertEquals(0, taskClass.getRunning());
+    }
+
+    @Test
+    public void testClassLimit() throws Exception {
+        JavaTaskClass taskClass = JavaTaskExecutor.getTaskClass(LimitTask.class.getName());
+        assertSame(taskClass, JavaTaskExecutor.getTaskClass(LimitTask.class.getName()));
+        JavaTaskFuture first = submit(taskClass);
+        JavaTaskFuture second = submit(taskClass);
+        waitExecuted(1);
+        assertEquals(1, taskClass.getRunning());
+        assertEquals(1, taskClass.getWaiting());
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        waitFinished(taskClass, 2);
+        assertEquals(2, executed.get());
+        assertEquals(0, taskClass.getWaiting());
+    }
+
+    @Test
+    public void testCancelledNotExecuted() throws Exception {
+        JavaTaskClass taskClass = JavaTaskExecutor.getTaskClass(CancelTask.class.getName());
+        JavaTaskFuture first = submit(taskClass);
+        JavaTaskFuture second = submit(taskClass);
+        waitExecuted(1);
+        // as done by ExecJavaTask on timeout
+        assertTrue(second.cancel(true));
+        taskClass.timeout();
+        assertEquals(0, taskClass.getWaiting());
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        JavaTaskFuture third = submit(taskClass);
+        third.get(5, TimeUnit.SECONDS);
+        waitFinished(taskClass, 2);
+        assertEquals(2, executed.get());
+        assertEquals(1, taskClass.getNbTimeout());
+    }
+
+    @Test
+    public void testTimeoutExcludesClassQueue() throws Exception {
+        JavaTaskClass taskClass = JavaTaskExecutor.getTaskClass(QueueTask.class.getName());
+        JavaTaskFuture first = submit(taskClass);
+        JavaTaskFuture second = submit(taskClass);
+        waitExecuted(1);
+        // the second task waits for the class limit longer than its timeout
+        Thread.sleep(300);
+        release.countDown();
+        second.getOnceDispatched(200, TimeUnit.MILLISECONDS);
+        first.get(5, TimeUnit.SECONDS);
+        waitFinished(taskClass, 2);
+    }
+
+    @Test
+    public void testTimeoutOnceDispatched() throws Exception {
+        JavaTaskClass taskClass = JavaTaskExecutor.getTaskClass(TimeoutTask.class.getName());
+        JavaTaskFuture future = submit(taskClass);
+        try {
+            future.getOnceDispatched(100, TimeUnit.MILLISECONDS);
+            fail("Should time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void testCancelledBeforeDispatchReleasesWaiter() throws Exception {
+        JavaTaskClass taskClass = JavaTaskExecutor.getTaskClass(DispatchTask.class.getName());
+        JavaTaskFuture first = submit(taskClass);
+        JavaTaskFuture second = submit(taskClass);
+        waitExecuted(1);
+        second.cancel(false);
+        try {
+            second.getOnceDispatched(100, TimeUnit.MILLISECONDS);
+            fail("Should be cancelled");
+        } catch (CancellationException e) {
+            // expected
+        }
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        waitFinished(taskClass, 1);
+        assertEquals(1, executed.get());
+    }
+}
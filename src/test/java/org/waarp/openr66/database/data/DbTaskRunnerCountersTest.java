@@ -0,0 +1,166 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.data;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.common.database.data.AbstractDbData.UpdatedInfo;
+import org.waarp.openr66.context.ErrorCode;
+import org.waarp.openr66.database.data.DbTaskRunner.TASKSTEP;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+public class DbTaskRunnerCountersTest {
+    private static final String HOST = "hostlocal";
+    private static final String PARTNER = "hostpartner";
+    private static final long LIMIT = 1000;
+
+    private String hostId;
+    private DbTaskRunnerCounters counters;
+
+    @Before
+    public void setUp() {
+        hostId = Configuration.configuration.getHOST_ID();
+        Configuration.configuration.setHOST_ID(HOST);
+        counters = new DbTaskRunnerCounters();
+        counters.startReconciliation(LIMIT);
+        counters.reconciled();
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.configuration.setHOST_ID(hostId);
+    }
+
+    private static DbTaskRunnerCounters.State state(long start, UpdatedInfo info, TASKSTEP step,
+            ErrorCode status) {
+        return new DbTaskRunnerCounters.State(start, info.ordinal(), step.ordinal(), status,
+                status, HOST, PARTNER);
+    }
+
+    private static DbTaskRunnerCounters.State running(long start) {
+        return state(start, UpdatedInfo.RUNNING, TASKSTEP.TRANSFERTASK, ErrorCode.Running);
+    }
+
+    private static DbTaskRunnerCounters.State done(long start) {
+        return state(start, UpdatedInfo.DONE, TASKSTEP.ALLDONETASK, ErrorCode.CompleteOk);
+    }
+
+    private static DbTaskRunnerCounters.State interrupted(long start) {
+        return state(start, UpdatedInfo.INTERRUPTED, TASKSTEP.TRANSFERTASK,
+                ErrorCode.StoppedTransfer);
+    }
+
+    @Test
+    public void testInsertUpdateDelete() {
+        DbTaskRunnerCounters.State first = running(LIMIT);
+        counters.transition("1", null, first);
+        assertEquals(1, counters.getAll());
+        assertEquals(1, counters.getAllRunning());
+        assertEquals(1, counters.getActive(false));
+        assertEquals(0, counters.getActive(true));
+        assertEquals(1, counters.getTotal(false));
+        assertEquals(1, counters.getStep(TASKSTEP.TRANSFERTASK));
+        assertEquals(1, counters.getRunningStatus(ErrorCode.Running));
+
+        DbTaskRunnerCounters.State second = done(LIMIT);
+        counters.transition("1", first, second);
+        assertEquals(1, counters.getAll());
+        assertEquals(0, counters.getAllRunning());
+        assertEquals(0, counters.getActive(false));
+        assertEquals(1, counters.getTotal(false));
+        assertEquals(0, counters.getInfo(UpdatedInfo.RUNNING));
+        assertEquals(1, counters.getInfo(UpdatedInfo.DONE));
+        assertEquals(0, counters.getStep(TASKSTEP.TRANSFERTASK));
+        assertEquals(1, counters.getStep(TASKSTEP.ALLDONETASK));
+        assertEquals(1, counters.getStatus(ErrorCode.CompleteOk));
+
+        counters.transition("1", second, null);
+        assertEquals(0, counters.getAll());
+        assertEquals(0, counters.getTotal(false));
+        assertEquals(0, counters.getInfo(UpdatedInfo.DONE));
+        assertEquals(0, counters.getStatus(ErrorCode.CompleteOk));
+    }
+
+    @Test
+    public void testTwoInstancesOfOneRunner() {
+        DbTaskRunnerCounters.State read = running(LIMIT);
+        counters.transition("1", null, read);
+        // the transfer and an administrator both read the running state
+        counters.transition("1", read, done(LIMIT));
+        counters.transition("1", read, interrupted(LIMIT));
+        assertEquals(1, counters.getAll());
+        assertEquals(0, counters.getAllRunning());
+        assertEquals(0, counters.getInfo(UpdatedInfo.RUNNING));
+        assertEquals(0, counters.getInfo(UpdatedInfo.DONE));
+        assertEquals(1, counters.getInfo(UpdatedInfo.INTERRUPTED));
+        assertEquals(1, counters.getTotal(false));
+        // a stale instance deleting it removes the last written state
+        counters.transition("1", read, null);
+        assertEquals(0, counters.getAll());
+        assertEquals(0, counters.getInfo(UpdatedInfo.INTERRUPTED));
+        assertEquals(0, counters.getInfo(UpdatedInfo.RUNNING));
+    }
+
+    @Test
+    public void testReadStateWhenNotWritten() {
+        // as counted by the reconciliation, not written since the start of the server
+        counters.startReconciliation(LIMIT);
+        counters.setAll(1);
+        counters.setInfo(UpdatedInfo.RUNNING, 1);
+        counters.reconciled();
+        counters.transition("1", running(LIMIT), done(LIMIT));
+        assertEquals(1, counters.getAll());
+        assertEquals(0, counters.getInfo(UpdatedInfo.RUNNING));
+        assertEquals(1, counters.getInfo(UpdatedInfo.DONE));
+    }
+
+    @Test
+    public void testBeforeLimit() {
+        counters.transition("1", null, running(LIMIT - 1));
+        assertEquals(0, counters.getAll());
+        counters.transition("2", null, running(LIMIT));
+        counters.startReconciliation(LIMIT + 1);
+        counters.reconciled();
+        // the state written before the new limit is neither kept nor subtracted
+        counters.transition("2", running(LIMIT), done(LIMIT));
+        assertEquals(1, counters.getAll());
+        assertEquals(1, counters.getInfo(UpdatedInfo.RUNNING));
+        assertEquals(0, counters.getInfo(UpdatedInfo.DONE));
+    }
+
+    @Test
+    public void testReconciliationKeepsTransitions() {
+        counters.transition("1", null, running(LIMIT));
+        counters.startReconciliation(LIMIT);
+        // written while the COUNT requests run
+        counters.transition("2", null, running(LIMIT));
+        counters.setAll(5);
+        counters.setAllRunning(3);
+        counters.setActive(false, 3);
+        counters.reconciled();
+        assertEquals(6, counters.getAll());
+        assertEquals(4, counters.getAllRunning());
+        assertEquals(4, counters.getActive(false));
+        // outside a reconciliation, the value is set
+        counters.setAll(5);
+        assertEquals(5, counters.getAll());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.database.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.waarp.common.database.DbSession;
+import org.waarp.openr66.database.model.DbSequenceAllocator.SequenceSource;
+
+public class DbSequenceAllocatorTest {
+    /**
+     * Sequence giving consecutive ids, counting the round trips
+     */
+    private static class FakeSequence implements SequenceSource {
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public long[] nextSequences(DbSession dbSession, int count) {
+            calls.incrementAndGet();
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = sequence.incrementAndGet();
+            }
+            return ids;
+        }
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        FakeSequence source = new FakeSequence();
+        DbSequenceAllocator allocator = new DbSequenceAllocator(source);
+        for (long i = 1; i <= 25; i++) {
+            assertEquals(i, allocator.next(null, 10));
+        }
+        assertEquals(3, source.calls.get());
+    }
+
+    @Test
+    public void testNoBlock() throws Exception {
+        FakeSequence source = new FakeSequence();
+        DbSequenceAllocator allocator = new DbSequenceAllocator(source);
+        for (long i = 1; i <= 5; i++) {
+            assertEquals(i, allocator.next(null, 1));
+        }
+        assertEquals(5, source.calls.get());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        FakeSequence source = new FakeSequence();
+        DbSequenceAllocator allocator = new DbSequenceAllocator(source);
+        assertEquals(1, allocator.next(null, 10));
+        assertEquals(2, allocator.next(null, 10));
+        allocator.reset();
+        // the ids left in the first block are lost
+        assertEquals(11, allocator.next(null, 10));
+        assertEquals(2, source.calls.get());
+    }
+
+    @Test
+    public void testConcurrentNext() throws Exception {
+        final FakeSequence source = new FakeSequence();
+        final DbSequenceAllocator allocator = new DbSequenceAllocator(source);
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final int threads = 8;
+        final int perThread = 1000;
+        final int blocksize = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int j = 0; j < perThread; j++) {
+                            assertTrue(ids.add(allocator.next(null, blocksize)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * perThread, ids.size());
+        // no id lost while refilling
+        assertEquals(threads * perThread / blocksize, source.calls.get());
+        for (long i = 1; i <= threads * perThread; i++) {
+            assertTrue(ids.contains(i));
+        }
+    }
+}
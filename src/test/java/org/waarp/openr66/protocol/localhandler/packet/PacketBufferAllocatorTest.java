@@ -0,0 +1,90 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.localhandler.packet;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacket;
+import org.waarp.openr66.protocol.networkhandler.packet.NetworkPacketEncoder;
+
+public class PacketBufferAllocatorTest {
+
+    @BeforeClass
+    public static void setLeakDetection() {
+        PacketBufferAllocator.setLeakDetection(true);
+    }
+
+    @AfterClass
+    public static void resetLeakDetection() {
+        PacketBufferAllocator.setLeakDetection(false);
+    }
+
+    @Test
+    public void testAllocationsAreCounted() {
+        long count = PacketBufferAllocator.getAllocations(LocalPacketFactory.TESTPACKET);
+        long bytes = PacketBufferAllocator.getAllocatedBytes(LocalPacketFactory.TESTPACKET);
+        TestPacket packet = new TestPacket("header", "middle", 1);
+        try {
+            packet.createAllParts(null);
+        } catch (Exception e) {
+            fail("Got unexpected exception" + e);
+        }
+        assertEquals(count + 3, PacketBufferAllocator.getAllocations(LocalPacketFactory.TESTPACKET));
+        assertEquals(bytes + 6 + 6 + 4,
+                PacketBufferAllocator.getAllocatedBytes(LocalPacketFactory.TESTPACKET));
+        packet.clear();
+    }
+
+    @Test
+    public void testNetworkEncodeReleasesParts() {
+        EmbeddedChannel channel = new EmbeddedChannel(new NetworkPacketEncoder());
+        EndRequestPacket packet = new EndRequestPacket(1);
+        NetworkPacket networkPacket = null;
+        try {
+            networkPacket = new NetworkPacket(1, 2, packet, null);
+        } catch (Exception e) {
+            fail("Got unexpected exception" + e);
+        }
+        int length = networkPacket.getLength() + NetworkPacket.NETWORK_HEADER_SIZE;
+        assertTrue(channel.writeOutbound(networkPacket));
+        ByteBuf buf = (ByteBuf) channel.readOutbound();
+        assertEquals(length, buf.readableBytes());
+        assertTrue(buf.release());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testLocalEncodeReleasesParts() {
+        EmbeddedChannel channel = new EmbeddedChannel(new LocalPacketCodec());
+        TestPacket packet = new TestPacket("header", "middle", 1);
+        assertTrue(channel.writeOutbound(packet));
+        ByteBuf buf = (ByteBuf) channel.readOutbound();
+        assertEquals(AbstractLocalPacket.LOCAL_HEADER_SIZE + 6 + 6 + 4, buf.readableBytes());
+        assertTrue(buf.release());
+        assertNull(packet.header);
+        assertNull(packet.middle);
+        assertNull(packet.end);
+        assertFalse(channel.finish());
+    }
+}
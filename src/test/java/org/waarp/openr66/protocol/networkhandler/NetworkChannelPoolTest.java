@@ -0,0 +1,159 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.networkhandler;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.Channel;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class NetworkChannelPoolTest {
+
+    private static NetworkChannelReference reference(final AtomicInteger nbLocal, boolean active) {
+        Channel channel = mock(Channel.class);
+        when(channel.isActive()).thenReturn(active);
+        NetworkChannelReference networkChannelReference = mock(NetworkChannelReference.class);
+        when(networkChannelReference.channel()).thenReturn(channel);
+        when(networkChannelReference.nbLocalChannels()).thenAnswer(new Answer<Integer>() {
+            public Integer answer(InvocationOnMock invocation) {
+                return nbLocal.get();
+            }
+        });
+        return networkChannelReference;
+    }
+
+    private static NetworkChannelPool pool() {
+        return new NetworkChannelPool(new InetSocketAddress("127.0.0.1", 6666));
+    }
+
+    @Test
+    public void testSelectLeastLoaded() {
+        NetworkChannelPool pool = pool();
+        assertNull(pool.select(0));
+        NetworkChannelReference loaded = reference(new AtomicInteger(3), true);
+        NetworkChannelReference light = reference(new AtomicInteger(1), true);
+        NetworkChannelReference inactive = reference(new AtomicInteger(0), false);
+        pool.add(loaded);
+        pool.add(light);
+        pool.add(inactive);
+        assertSame(light, pool.select(0));
+        assertEquals(2, pool.nbActive());
+        assertEquals(3, pool.size());
+        assertEquals(4, pool.nbLocalChannels());
+    }
+
+    @Test
+    public void testMaxLocalChannels() {
+        NetworkChannelPool pool = pool();
+        AtomicInteger nbLocal = new AtomicInteger(2);
+        NetworkChannelReference full = reference(nbLocal, true);
+        pool.add(full);
+        assertSame(full, pool.select(0));
+        assertSame(full, pool.select(3));
+        assertNull(pool.select(2));
+        nbLocal.set(1);
+        assertSame(full, pool.select(2));
+    }
+
+    @Test
+    public void testStripes() {
+        NetworkChannelPool pool = pool();
+        // nothing opened yet
+        assertTrue(pool.needNewChannel(null, 2, 0));
+        NetworkChannelReference first = reference(new AtomicInteger(0), true);
+        pool.add(first);
+        // an idle connection is reused
+        assertFalse(pool.needNewChannel(first, 2, 0));
+        first = reference(new AtomicInteger(1), true);
+        pool = pool();
+        pool.add(first);
+        // a busy connection gets a new stripe
+        assertTrue(pool.needNewChannel(first, 2, 0));
+        assertFalse(pool.needNewChannel(first, 1, 0));
+        NetworkChannelReference second = reference(new AtomicInteger(1), true);
+        pool.add(second);
+        assertFalse(pool.needNewChannel(pool.select(0), 2, 0));
+        // minimal idle connections opened whatever the load
+        assertTrue(pool.needNewChannel(pool.select(0), 1, 3));
+        assertEquals(2, pool.getNbCreated());
+    }
+
+    @Test
+    public void testCanClose() {
+        NetworkChannelPool pool = pool();
+        NetworkChannelReference first = reference(new AtomicInteger(0), true);
+        NetworkChannelReference second = reference(new AtomicInteger(0), true);
+        pool.add(first);
+        pool.add(second);
+        assertTrue(pool.canClose(first, 0));
+        assertTrue(pool.canClose(first, 1));
+        assertFalse(pool.canClose(first, 2));
+    }
+
+    @Test
+    public void testSaturated() {
+        NetworkChannelPool pool = pool();
+        assertTrue(pool.saturated());
+        assertFalse(pool.saturated());
+        pool.reused();
+        assertTrue(pool.saturated());
+        assertEquals(3, pool.getNbSaturated());
+        assertEquals(1, pool.getNbReused());
+    }
+
+    @Test
+    public void testAwaitRoomTimeout() throws InterruptedException {
+        NetworkChannelPool pool = pool();
+        pool.add(reference(new AtomicInteger(1), true));
+        long start = System.currentTimeMillis();
+        assertFalse(pool.awaitRoom(1, 1, 100));
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        // a new stripe can be opened
+        assertTrue(pool.awaitRoom(1, 2, 100));
+    }
+
+    @Test
+    public void testAwaitRoomReleased() throws InterruptedException {
+        final NetworkChannelPool pool = pool();
+        final AtomicInteger nbLocal = new AtomicInteger(1);
+        pool.add(reference(nbLocal, true));
+        Thread release = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                nbLocal.decrementAndGet();
+                pool.released();
+            }
+        };
+        release.start();
+        long start = System.currentTimeMillis();
+        assertTrue(pool.awaitRoom(1, 1, 10000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        release.join();
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.waarp.openr66.protocol.configuration.Configuration;
+import org.waarp.openr66.protocol.configuration.PartnerConfiguration;
+
+public class BlocksizeAdvisorTest {
+    private static final int BLOCKSIZE = 0x10000;
+    private static final int MIN = 0x2000;
+    private static final int MAX = 0x100000;
+    private static final AtomicInteger hosts = new AtomicInteger();
+
+    private boolean adaptive;
+    private int blocksize;
+    private int min;
+    private int max;
+
+    @Before
+    public void setUp() {
+        adaptive = Configuration.configuration.isAdaptiveBlocksize();
+        blocksize = Configuration.configuration.getBLOCKSIZE();
+        min = Configuration.configuration.getBlocksizeMin();
+        max = Configuration.configuration.getBlocksizeMax();
+        Configuration.configuration.setAdaptiveBlocksize(true);
+        Configuration.configuration.setBLOCKSIZE(BLOCKSIZE);
+        Configuration.configuration.setBlocksizeMin(MIN);
+        Configuration.configuration.setBlocksizeMax(MAX);
+    }
+
+    @After
+    public void tearDown() {
+        Configuration.configuration.setAdaptiveBlocksize(adaptive);
+        Configuration.configuration.setBLOCKSIZE(blocksize);
+        Configuration.configuration.setBlocksizeMin(min);
+        Configuration.configuration.setBlocksizeMax(max);
+    }
+
+    /**
+     * 
+     * @return a partner never seen before, with the same limits as the local host
+     */
+    private static PartnerConfiguration newPartner() {
+        return new PartnerConfiguration("advisor" + hosts.incrementAndGet());
+    }
+
+    /**
+     * Add a throughput sample of 32 blocks at the given rate
+     */
+    private static void addSample(PartnerConfiguration partner, int blocksize, long bytesPerSecond) {
+        long bytes = 32L * blocksize;
+        long nanos = bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        BlocksizeAdvisor.addThroughput(partner.getId(), bytes, nanos, blocksize);
+    }
+
+    @Test
+    public void testGrowOnFastLink() {
+        PartnerConfiguration partner = newPartner();
+        // 1 GB/s: one block in 65 us
+        addSample(partner, BLOCKSIZE, 1000000000L);
+        assertEquals(BLOCKSIZE * 2, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testShrinkOnSlowLink() {
+        PartnerConfiguration partner = newPartner();
+        // 1 MB/s: one block in 65 ms
+        addSample(partner, BLOCKSIZE, 1000000L);
+        assertEquals(BLOCKSIZE / 2, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testKeepInBetween() {
+        PartnerConfiguration partner = newPartner();
+        // 10 MB/s: one block in 6.5 ms
+        addSample(partner, BLOCKSIZE, 10000000L);
+        assertEquals(BLOCKSIZE, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testShrinkOnCongestion() {
+        PartnerConfiguration partner = newPartner();
+        BlocksizeAdvisor.addLatency(partner.getId(), TimeUnit.MILLISECONDS.toNanos(1));
+        BlocksizeAdvisor.addLatency(partner.getId(), TimeUnit.MILLISECONDS.toNanos(100));
+        // fast link but latency far above the best one
+        addSample(partner, BLOCKSIZE, 1000000000L);
+        assertEquals(BLOCKSIZE / 2, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testNoCongestionOnStableLatency() {
+        PartnerConfiguration partner = newPartner();
+        BlocksizeAdvisor.addLatency(partner.getId(), TimeUnit.MILLISECONDS.toNanos(1));
+        BlocksizeAdvisor.addLatency(partner.getId(), TimeUnit.MILLISECONDS.toNanos(2));
+        addSample(partner, BLOCKSIZE, 1000000000L);
+        assertEquals(BLOCKSIZE * 2, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testBounds() {
+        PartnerConfiguration partner = newPartner();
+        addSample(partner, MIN, 1000L);
+        assertEquals(MIN, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+        addSample(partner, MAX, 100000000000L);
+        assertEquals(MAX, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testSmallTransferIgnored() {
+        PartnerConfiguration partner = newPartner();
+        BlocksizeAdvisor.addThroughput(partner.getId(), BLOCKSIZE, 1000, BLOCKSIZE);
+        assertEquals(BLOCKSIZE, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+
+    @Test
+    public void testExplicitBlocksizeKept() {
+        PartnerConfiguration partner = newPartner();
+        addSample(partner, BLOCKSIZE, 1000000000L);
+        assertEquals(BLOCKSIZE / 4, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE / 4));
+    }
+
+    @Test
+    public void testNotAdaptive() {
+        PartnerConfiguration partner = newPartner();
+        addSample(partner, BLOCKSIZE, 1000000000L);
+        Configuration.configuration.setAdaptiveBlocksize(false);
+        assertEquals(BLOCKSIZE, BlocksizeAdvisor.getBlocksize(partner, BLOCKSIZE));
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of Waarp Project.
+ * 
+ * Copyright 2009, Frederic Bregier, and individual contributors by the @author tags. See the
+ * COPYRIGHT.txt in the distribution for a full listing of individual contributors.
+ * 
+ * All Waarp Project is free software: you can redistribute it and/or modify it under the terms of
+ * the GNU General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * Waarp is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Waarp . If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.waarp.openr66.protocol.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.waarp.common.digest.FilesystemBasedDigest;
+import org.waarp.common.digest.FilesystemBasedDigest.DigestAlgo;
+import org.waarp.openr66.protocol.configuration.Configuration;
+
+public class DigestPipelineTest {
+    private static final int BLOCKSIZE = 8192;
+    private static File file;
+
+    @BeforeClass
+    public static void createFile() throws IOException {
+        Configuration.configuration.setDigestThreads(2);
+        Configuration.configuration.setDigestWindow(4);
+        file = File.createTempFile("digestpipeline", ".bin");
+        byte[] bytes = new byte[BLOCKSIZE * 50 + 123];
+        new Random(1).nextBytes(bytes);
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @AfterClass
+    public static void deleteFile() {
+        DigestPipeline.shutdown();
+        file.delete();
+    }
+
+    private static String hashThroughPipeline(long prefix) throws Exception {
+        FilesystemBasedDigest digest = new FilesystemBasedDigest(DigestAlgo.MD5);
+        DigestPipeline pipeline = new DigestPipeline(digest, null);
+        if (prefix > 0) {
+            assertTrue(pipeline.submit(file, prefix));
+        }
+        // one block buffer reused as the sender does
+        ByteBuf block = Unpooled.buffer(BLOCKSIZE);
+        byte[] bytes = new byte[BLOCKSIZE];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            assertEquals(prefix, inputStream.skip(prefix));
+            int rank = 0;
+            int read;
+            while ((read = inputStream.read(bytes)) > 0) {
+                block.clear();
+                block.writeBytes(bytes, 0, read);
+                assertTrue(pipeline.submit(block, null, DigestAlgo.MD5, rank++, true));
+                // overwrite the block before it is hashed
+                block.setZero(0, block.capacity());
+            }
+        } finally {
+            inputStream.close();
+            block.release();
+        }
+        assertTrue(pipeline.awaitCompletion());
+        assertEquals(-1, pipeline.getFailedRank());
+        assertFalse(pipeline.isIncomplete());
+        return FilesystemBasedDigest.getHex(digest.Final());
+    }
+
+    @Test
+    public void testWholeFile() throws Exception {
+        String expected = FilesystemBasedDigest.getHex(
+                FilesystemBasedDigest.getHash(file, false, DigestAlgo.MD5));
+        assertEquals(expected, hashThroughPipeline(0));
+    }
+
+    @Test
+    public void testRestartedFile() throws Exception {
+        String expected = FilesystemBasedDigest.getHex(
+                FilesystemBasedDigest.getHash(file, false, DigestAlgo.MD5));
+        assertEquals(expected, hashThroughPipeline(BLOCKSIZE * 7L));
+    }
+
+    @Test
+    public void testReceivedBlocks() throws Exception {
+        String expected = FilesystemBasedDigest.getHex(
+                FilesystemBasedDigest.getHash(file, false, DigestAlgo.MD5));
+        FilesystemBasedDigest digest = new FilesystemBasedDigest(DigestAlgo.MD5);
+        DigestPipeline pipeline = new DigestPipeline(digest, null);
+        ByteBuf[] blocks = new ByteBuf[51];
+        byte[] bytes = new byte[BLOCKSIZE];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int rank = 0;
+            int read;
+            while ((read = inputStream.read(bytes)) > 0) {
+                // one new block per packet as received, released before it is hashed
+                ByteBuf block = Unpooled.copiedBuffer(bytes, 0, read);
+                blocks[rank] = block;
+                assertTrue(pipeline.submit(block, null, DigestAlgo.MD5, rank++));
+                block.release();
+            }
+        } finally {
+            inputStream.close();
+        }
+        assertTrue(pipeline.awaitCompletion());
+        assertEquals(-1, pipeline.getFailedRank());
+        assertEquals(expected, FilesystemBasedDigest.getHex(digest.Final()));
+        for (ByteBuf block : blocks) {
+            assertEquals(0, block.refCnt());
+        }
+    }
+}